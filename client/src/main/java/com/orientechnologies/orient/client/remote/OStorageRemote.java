@@ -59,8 +59,10 @@ import com.orientechnologies.orient.core.record.ORecord;
 import com.orientechnologies.orient.core.record.ORecordInternal;
 import com.orientechnologies.orient.core.record.impl.ODocument;
 import com.orientechnologies.orient.core.serialization.OSerializableStream;
+import com.orientechnologies.orient.core.serialization.compression.OCompressionFactory;
 import com.orientechnologies.orient.core.serialization.serializer.record.string.ORecordSerializerStringAbstract;
 import com.orientechnologies.orient.core.serialization.serializer.stream.OStreamSerializerAnyStreamable;
+import com.orientechnologies.orient.core.sql.query.OResultCursor;
 import com.orientechnologies.orient.core.storage.*;
 import com.orientechnologies.orient.core.tx.OTransaction;
 import com.orientechnologies.orient.core.tx.OTransactionAbstract;
@@ -106,6 +108,39 @@ public class OStorageRemote extends OStorageAbstract implements OStorageProxy, O
   private Map<String, Object>                    connectionOptions;
   private final String                           clientId;
   private final int                              maxReadQueue;
+  private volatile boolean                       nearCache;
+  private final Map<String, OServerLoad>         serverLoads          = new ConcurrentHashMap<String, OServerLoad>();
+  // READ SESSIONS OPENED BY ALL THE THREADS, CLOSED WITH THE STORAGE
+  private final Map<String, Set<Integer>>        openReadSessions     = new HashMap<String, Set<Integer>>();
+
+  /**
+   * Response time and availability of a server, used to balance the reads among the servers of the cluster.
+   */
+  private static class OServerLoad {
+    private static final double EWMA_WEIGHT = 0.2;
+    private static final double DECAY_TIME  = 1000d;
+    private volatile double     latency;
+    private volatile long       lastUpdate;
+    private volatile long       downUntil;
+
+    private void update(final long iLatency) {
+      // NOT SYNCHRONIZED: A LOST SAMPLE DOESN'T CHANGE THE AVERAGE
+      latency = latency == 0 ? iLatency : latency + (iLatency - latency) * EWMA_WEIGHT;
+      lastUpdate = System.currentTimeMillis();
+    }
+
+    /**
+     * Returns the average response time decayed by the time the server hasn't been used, so a server that was slow once is tried
+     * again.
+     */
+    private double getLatency(final long iNow) {
+      return latency * Math.exp(-(iNow - lastUpdate) / DECAY_TIME);
+    }
+
+    private boolean isDown(final long iNow) {
+      return downUntil > iNow;
+    }
+  }
 
   public OStorageRemote(final String iClientId, final String iURL, final String iMode) throws IOException {
     super(iURL, iURL, iMode, 0, new OCacheLevelTwoLocatorRemote()); // NO TIMEOUT @SINCE 1.5
@@ -131,12 +166,27 @@ public class OStorageRemote extends OStorageAbstract implements OStorageProxy, O
     return OStorageRemoteThreadLocal.INSTANCE.get().serverURL;
   }
 
+  /**
+   * Returns the id of the last request sent by the current thread.
+   */
+  public int getRequestId() {
+    return OStorageRemoteThreadLocal.INSTANCE.get().requestId;
+  }
+
   public void setSessionId(final String iServerURL, final int iSessionId) {
     final OStorageRemoteSession tl = OStorageRemoteThreadLocal.INSTANCE.get();
     tl.serverURL = iServerURL;
     tl.sessionId = iSessionId;
   }
 
+  /**
+   * Sets the session of the current thread together with the sessions opened on the other servers to balance its reads.
+   */
+  public void setSessionId(final String iServerURL, final int iSessionId, final Map<String, Integer> iReadSessions) {
+    setSessionId(iServerURL, iSessionId);
+    OStorageRemoteThreadLocal.INSTANCE.get().readSessions = iReadSessions;
+  }
+
   public ORemoteServerEventListener getAsynchEventListener() {
     return asynchEventListener;
   }
@@ -239,13 +289,15 @@ public class OStorageRemote extends OStorageAbstract implements OStorageProxy, O
           try {
             network = beginRequest(OChannelBinaryProtocol.REQUEST_DB_CLOSE);
           } finally {
-            endRequest(network);
+            // NO RESPONSE
+            endRequest(network, false);
           }
         }
       } finally {
         networkPoolLock.unlock();
       }
 
+      closeReadSessions();
       setSessionId(null, -1);
 
       if (!checkForClose(iForce))
@@ -261,6 +313,10 @@ public class OStorageRemote extends OStorageAbstract implements OStorageProxy, O
       }
 
       level2Cache.shutdown();
+      if (nearCache) {
+        nearCache = false;
+        OStorageRemoteNearCache.instance().clear(url);
+      }
       super.close(iForce);
       status = STATUS.CLOSED;
 
@@ -318,7 +374,7 @@ public class OStorageRemote extends OStorageAbstract implements OStorageProxy, O
           network.writeByte((byte) iMode);
 
         } finally {
-          endRequest(network);
+          endRequest(network, iMode < 2);
         }
 
         switch (iMode) {
@@ -341,12 +397,15 @@ public class OStorageRemote extends OStorageAbstract implements OStorageProxy, O
           // ASYNCHRONOUS
           if (iCallback != null) {
             final int sessionId = getSessionId();
+            final int requestId = getRequestId();
             Callable<Object> response = new Callable<Object>() {
               public Object call() throws Exception {
                 final OClusterPosition result;
 
                 try {
-                  OStorageRemoteThreadLocal.INSTANCE.get().sessionId = sessionId;
+                  final OStorageRemoteSession session = OStorageRemoteThreadLocal.INSTANCE.get();
+                  session.sessionId = sessionId;
+                  session.requestId = requestId;
                   beginResponse(network);
                   result = network.readClusterPosition();
                   if (network.getSrvProtocolVersion() >= 11)
@@ -421,12 +480,18 @@ public class OStorageRemote extends OStorageAbstract implements OStorageProxy, O
       // PENDING NETWORK OPERATION, CAN'T EXECUTE IT NOW
       return new OStorageOperationResult<ORawBuffer>(null);
 
+    if (isNearCacheUsable(iFetchPlan, iIgnoreCache, loadTombstones)) {
+      final ORawBuffer cached = OStorageRemoteNearCache.instance().get(url, iRid);
+      if (cached != null)
+        return new OStorageOperationResult<ORawBuffer>(cached);
+    }
+
     OChannelBinaryAsynchClient network = null;
     do {
       try {
 
         try {
-          network = beginRequest(OChannelBinaryProtocol.REQUEST_RECORD_LOAD);
+          network = beginReadRequest(OChannelBinaryProtocol.REQUEST_RECORD_LOAD);
           network.writeRID(iRid);
           network.writeString(iFetchPlan != null ? iFetchPlan : "");
           if (network.getSrvProtocolVersion() >= 9)
@@ -445,6 +510,8 @@ public class OStorageRemote extends OStorageAbstract implements OStorageProxy, O
             return new OStorageOperationResult<ORawBuffer>(null);
 
           final ORawBuffer buffer = new ORawBuffer(network.readBytes(), network.readVersion(), network.readByte());
+          if (nearCache && !buffer.version.isTombstone())
+            OStorageRemoteNearCache.instance().put(url, iRid, buffer);
 
           final ODatabaseRecord database = ODatabaseRecordThreadLocal.INSTANCE.getIfDefined();
           ORecordInternal<?> record;
@@ -468,6 +535,104 @@ public class OStorageRemote extends OStorageAbstract implements OStorageProxy, O
     } while (true);
   }
 
+  public ORawBuffer[] readRecords(final List<ORecordId> iRids, final String iFetchPlan, final boolean iIgnoreCache,
+      final boolean iLoadTombstones) {
+    checkConnection();
+
+    if (OStorageRemoteThreadLocal.INSTANCE.get().commandExecuting)
+      // PENDING NETWORK OPERATION, CAN'T EXECUTE IT NOW
+      return null;
+
+    if (!isNearCacheUsable(iFetchPlan, iIgnoreCache, iLoadTombstones))
+      return loadRecords(iRids, iFetchPlan, iIgnoreCache, iLoadTombstones);
+
+    // ASK TO THE SERVER ONLY THE RECORDS NOT IN THE NEAR CACHE
+    final ORawBuffer[] buffers = new ORawBuffer[iRids.size()];
+    final List<ORecordId> missing = new ArrayList<ORecordId>();
+    for (int i = 0; i < buffers.length; ++i) {
+      buffers[i] = OStorageRemoteNearCache.instance().get(url, iRids.get(i));
+      if (buffers[i] == null)
+        missing.add(iRids.get(i));
+    }
+
+    if (!missing.isEmpty()) {
+      final ORawBuffer[] loaded = loadRecords(missing, iFetchPlan, iIgnoreCache, iLoadTombstones);
+      if (loaded == null)
+        return null;
+
+      for (int i = 0, m = 0; i < buffers.length; ++i)
+        if (buffers[i] == null)
+          buffers[i] = loaded[m++];
+    }
+    return buffers;
+  }
+
+  private ORawBuffer[] loadRecords(final List<ORecordId> iRids, final String iFetchPlan, final boolean iIgnoreCache,
+      final boolean iLoadTombstones) {
+    OChannelBinaryAsynchClient network = null;
+    do {
+      try {
+
+        try {
+          network = getReadNetwork();
+          if (network.getSrvProtocolVersion() < 20) {
+            // OLD SERVER: LOAD THEM ONE BY ONE
+            network.releaseWriteLock();
+            network = null;
+            return readRecordsOneByOne(iRids, iFetchPlan, iIgnoreCache, iLoadTombstones);
+          }
+
+          writeRequestHeader(network, OChannelBinaryProtocol.REQUEST_RECORD_LOAD_MULTI, getReadSessionId(network));
+          network.writeInt(iRids.size());
+          for (ORecordId rid : iRids)
+            network.writeRID(rid);
+          network.writeString(iFetchPlan != null ? iFetchPlan : "");
+          network.writeByte((byte) (iIgnoreCache ? 1 : 0));
+          network.writeByte(iLoadTombstones ? (byte) 1 : (byte) 0);
+        } finally {
+          endRequest(network);
+        }
+
+        try {
+          beginResponse(network);
+
+          final ORawBuffer[] buffers = new ORawBuffer[iRids.size()];
+          for (int i = 0; i < buffers.length; ++i)
+            if (network.readByte() == 1) {
+              buffers[i] = new ORawBuffer(network.readBytes(), network.readVersion(), network.readByte());
+              if (nearCache && !buffers[i].version.isTombstone())
+                OStorageRemoteNearCache.instance().put(url, iRids.get(i), buffers[i]);
+            }
+
+          final ODatabaseRecord database = ODatabaseRecordThreadLocal.INSTANCE.getIfDefined();
+          while (network.readByte() == 2) {
+            final ORecordInternal<?> record = (ORecordInternal<?>) OChannelBinaryProtocol.readIdentifiable(network);
+
+            if (database != null)
+              // PUT IN THE CLIENT LOCAL CACHE
+              database.getLevel1Cache().updateRecord(record);
+          }
+          return buffers;
+
+        } finally {
+          endResponse(network);
+        }
+
+      } catch (Exception e) {
+        handleException(network, "Error on read records " + iRids, e);
+
+      }
+    } while (true);
+  }
+
+  private ORawBuffer[] readRecordsOneByOne(final List<ORecordId> iRids, final String iFetchPlan, final boolean iIgnoreCache,
+      final boolean iLoadTombstones) {
+    final ORawBuffer[] buffers = new ORawBuffer[iRids.size()];
+    for (int i = 0; i < buffers.length; ++i)
+      buffers[i] = readRecord(iRids.get(i), iFetchPlan, iIgnoreCache, null, iLoadTombstones).getResult();
+    return buffers;
+  }
+
   public OStorageOperationResult<ORecordVersion> updateRecord(final ORecordId iRid, final byte[] iContent,
       final ORecordVersion iVersion, final byte iRecordType, int iMode, final ORecordCallback<ORecordVersion> iCallback) {
     checkConnection();
@@ -476,6 +641,9 @@ public class OStorageRemote extends OStorageAbstract implements OStorageProxy, O
       // ASYNCHRONOUS MODE NO ANSWER
       iMode = 2;
 
+    if (nearCache)
+      OStorageRemoteNearCache.instance().remove(url, iRid);
+
     OChannelBinaryAsynchClient lastNetworkUsed = null;
     do {
       try {
@@ -490,7 +658,7 @@ public class OStorageRemote extends OStorageAbstract implements OStorageProxy, O
           network.writeByte((byte) iMode);
 
         } finally {
-          endRequest(network);
+          endRequest(network, iMode < 2);
         }
 
         switch (iMode) {
@@ -507,12 +675,15 @@ public class OStorageRemote extends OStorageAbstract implements OStorageProxy, O
           // ASYNCHRONOUS
           if (iCallback != null) {
             final int sessionId = getSessionId();
+            final int requestId = getRequestId();
             Callable<Object> response = new Callable<Object>() {
               public Object call() throws Exception {
                 ORecordVersion result;
 
                 try {
-                  OStorageRemoteThreadLocal.INSTANCE.get().sessionId = sessionId;
+                  final OStorageRemoteSession session = OStorageRemoteThreadLocal.INSTANCE.get();
+                  session.sessionId = sessionId;
+                  session.requestId = requestId;
                   beginResponse(network);
                   result = network.readVersion();
                 } finally {
@@ -547,6 +718,9 @@ public class OStorageRemote extends OStorageAbstract implements OStorageProxy, O
       // ASYNCHRONOUS MODE NO ANSWER
       iMode = 2;
 
+    if (nearCache)
+      OStorageRemoteNearCache.instance().remove(url, iRid);
+
     OChannelBinaryAsynchClient network = null;
     do {
       try {
@@ -569,6 +743,9 @@ public class OStorageRemote extends OStorageAbstract implements OStorageProxy, O
       // ASYNCHRONOUS MODE NO ANSWER
       iMode = 2;
 
+    if (nearCache)
+      OStorageRemoteNearCache.instance().remove(url, recordId);
+
     OChannelBinaryAsynchClient network = null;
     do {
       try {
@@ -893,6 +1070,115 @@ public class OStorageRemote extends OStorageAbstract implements OStorageProxy, O
     } while (true);
   }
 
+  /**
+   * Executes the command remotely behind a cursor and reads its first page. Returns null if the server doesn't support cursors.
+   */
+  public OResultCursor<Object> commandCursor(final OCommandRequestText iCommand, final int iPageSize) {
+    checkConnection();
+
+    OChannelBinaryAsynchClient network = null;
+    do {
+      try {
+
+        try {
+          network = getAvailableNetwork();
+          if (network.getSrvProtocolVersion() < 21) {
+            // OLD SERVER: NO CURSORS
+            network.releaseWriteLock();
+            network = null;
+            return null;
+          }
+
+          writeRequestHeader(network, OChannelBinaryProtocol.REQUEST_COMMAND);
+          network.writeByte((byte) 'c'); // CURSOR
+          network.writeInt(iPageSize);
+          network.writeBytes(OStreamSerializerAnyStreamable.INSTANCE.toStream(iCommand));
+        } finally {
+          endRequest(network);
+        }
+
+        try {
+          beginResponse(network);
+
+          final OStorageRemoteCursor cursor = new OStorageRemoteCursor(this, network.readInt(), iPageSize);
+          cursor.readPage(network);
+          return cursor;
+
+        } finally {
+          endResponse(network);
+        }
+
+      } catch (OModificationOperationProhibitedException mope) {
+        handleDBFreeze();
+      } catch (Exception e) {
+        handleException(network, "Error on executing command: " + iCommand, e);
+
+      }
+    } while (true);
+  }
+
+  /**
+   * Reads the next page of the cursor.
+   */
+  protected void fetchCursor(final OStorageRemoteCursor iCursor) {
+    checkConnection();
+
+    OChannelBinaryAsynchClient network = null;
+    do {
+      try {
+        try {
+          network = beginRequest(OChannelBinaryProtocol.REQUEST_CURSOR_FETCH);
+          network.writeInt(iCursor.getCursorId());
+          network.writeInt(iCursor.getPageSize());
+        } finally {
+          endRequest(network);
+        }
+
+        try {
+          beginResponse(network);
+          iCursor.readPage(network);
+          return;
+        } finally {
+          endResponse(network);
+        }
+
+      } catch (Exception e) {
+        handleException(network, "Error on fetching cursor " + iCursor.getCursorId(), e);
+
+      }
+    } while (true);
+  }
+
+  /**
+   * Closes the cursor on the server, stopping its query.
+   */
+  protected void closeCursor(final OStorageRemoteCursor iCursor) {
+    checkConnection();
+
+    OChannelBinaryAsynchClient network = null;
+    do {
+      try {
+        try {
+          network = beginRequest(OChannelBinaryProtocol.REQUEST_CURSOR_CLOSE);
+          network.writeInt(iCursor.getCursorId());
+        } finally {
+          endRequest(network);
+        }
+
+        try {
+          beginResponse(network);
+          return;
+        } finally {
+          endResponse(network);
+        }
+
+      } catch (Exception e) {
+        handleException(network, "Error on closing cursor " + iCursor.getCursorId(), e);
+
+      }
+    } while (true);
+  }
+
   /**
    * Execute the command remotely and get the results back.
    */
@@ -918,7 +1204,9 @@ public class OStorageRemote extends OStorageAbstract implements OStorageProxy, O
         final boolean asynch = iCommand instanceof OCommandRequestAsynch && ((OCommandRequestAsynch) iCommand).isAsynchronous();
 
         try {
-          network = beginRequest(OChannelBinaryProtocol.REQUEST_COMMAND);
+          // QUERIES CAN BE ANSWERED BY ANY SERVER
+          network = iCommand.isIdempotent() ? beginReadRequest(OChannelBinaryProtocol.REQUEST_COMMAND)
+              : beginRequest(OChannelBinaryProtocol.REQUEST_COMMAND);
 
           network.writeByte((byte) (asynch ? 'a' : 's')); // ASYNC / SYNC
           network.writeBytes(OStreamSerializerAnyStreamable.INSTANCE.toStream(command));
@@ -988,7 +1276,8 @@ public class OStorageRemote extends OStorageAbstract implements OStorageProxy, O
               break;
 
             case 'a':
-              final String value = new String(network.readBytes());
+              // SENT AS STRING: READING IT AS BYTES WOULD BREAK THE COMPRESSED CHANNELS
+              final String value = network.readString();
               result = ORecordSerializerStringAbstract.fieldTypeFromStream(null, ORecordSerializerStringAbstract.getType(value),
                   value);
               break;
@@ -1008,6 +1297,10 @@ public class OStorageRemote extends OStorageAbstract implements OStorageProxy, O
               }
             }
           }
+
+          if (nearCache && !iCommand.isIdempotent())
+            // THE COMMAND COULD HAVE CHANGED ANY RECORD: DON'T WAIT FOR THE INVALIDATIONS
+            OStorageRemoteNearCache.instance().clear(url);
           break;
         } finally {
           if (aquery.getResultListener() != null) {
@@ -1103,8 +1396,11 @@ public class OStorageRemote extends OStorageAbstract implements OStorageProxy, O
         }
 
         // SET ALL THE RECORDS AS UNDIRTY
-        for (ORecordOperation txEntry : iTx.getAllRecordEntries())
+        for (ORecordOperation txEntry : iTx.getAllRecordEntries()) {
+          if (nearCache)
+            OStorageRemoteNearCache.instance().remove(url, txEntry.getRecord().getIdentity());
           txEntry.getRecord().unload();
+        }
 
         // UPDATE THE CACHE ONLY IF THE ITERATOR ALLOWS IT. USE THE STRATEGY TO ALWAYS REMOVE ALL THE RECORDS SINCE THEY COULD BE
         // CHANGED AS CONTENT IN CASE OF TREE AND GRAPH DUE TO CROSS REFERENCES
@@ -1389,6 +1685,14 @@ public class OStorageRemote extends OStorageAbstract implements OStorageProxy, O
    * @param exception
    */
   protected void handleException(final OChannelBinaryAsynchClient iNetwork, final String message, final Exception exception) {
+    if (iNetwork != null && iNetwork.isPending(getSessionId(), getRequestId()))
+      // THE RESPONSE OF THE FAILED REQUEST WILL NEVER BE READ: IT WOULD BE MATCHED TO THE NEXT REQUEST, SO DISCARD THE CHANNEL
+      try {
+        iNetwork.close();
+      } catch (Exception e) {
+        // IGNORE ANY EXCEPTION
+      }
+
     if (exception instanceof OTimeoutException)
       // TIMEOUT, AVOID LOOP, RE-THROW IT
       throw (OTimeoutException) exception;
@@ -1402,6 +1706,23 @@ public class OStorageRemote extends OStorageAbstract implements OStorageProxy, O
       // STORAGE CLOSED: DON'T HANDLE RECONNECTION
       return;
 
+    if (iNetwork != null && getServerURL() != null && !iNetwork.getServerURL().equals(getServerURL())) {
+      // BALANCED READ FAILED: THE SESSION IS STILL VALID, RETRY IT WITHOUT THAT SERVER
+      OLogManager.instance().warn(this, "Caught I/O errors from %s on a balanced read, excluding it from the balancing (error: %s)",
+          iNetwork, exception);
+      setServerDown(iNetwork.getServerURL());
+      try {
+        iNetwork.close();
+      } catch (Exception e) {
+        // IGNORE ANY EXCEPTION
+      }
+      return;
+    }
+
+    if (nearCache)
+      // THE INVALIDATIONS PUSHED ON THE BROKEN CHANNEL ARE LOST
+      OStorageRemoteNearCache.instance().clear(url);
+
     OLogManager.instance().warn(this, "Caught I/O errors from %s (local socket=%s), trying to reconnect (error: %s)", iNetwork,
         iNetwork.socket.getLocalSocketAddress(), exception);
     try {
@@ -1488,8 +1809,7 @@ public class OStorageRemote extends OStorageAbstract implements OStorageProxy, O
       try {
         network = getAvailableNetwork();
         try {
-          network.writeByte(OChannelBinaryProtocol.REQUEST_DB_OPEN);
-          network.writeInt(getSessionId());
+          writeRequestHeader(network, OChannelBinaryProtocol.REQUEST_DB_OPEN);
 
           // @SINCE 1.0rc8
           sendClientInfo(network);
@@ -1512,6 +1832,7 @@ public class OStorageRemote extends OStorageAbstract implements OStorageProxy, O
           beginResponse(network);
           sessionId = network.readInt();
           setSessionId(network.getServerURL(), sessionId);
+          OStorageRemoteThreadLocal.INSTANCE.get().readSessions.clear();
 
           OLogManager.instance().debug(this, "Client connected to %s with session id=%d", network.getServerURL(), sessionId);
 
@@ -1526,11 +1847,12 @@ public class OStorageRemote extends OStorageAbstract implements OStorageProxy, O
 
           status = STATUS.OPEN;
 
-          return network;
-
         } finally {
           endResponse(network);
         }
+
+        subscribeInvalidations();
+        return network;
       } catch (Exception e) {
         handleException(network, "Cannot create a connection to remote server address(es): " + serverURLs, e);
       }
@@ -1547,6 +1869,54 @@ public class OStorageRemote extends OStorageAbstract implements OStorageProxy, O
     throw new OStorageException("Cannot create a connection to remote server address(es): " + serverURLs);
   }
 
+  /**
+   * Called by the asynchronous listener with the records changed on the server.
+   */
+  public void onRecordInvalidations(final Map<ORID, ORecordVersion> iInvalidations) {
+    if (!nearCache)
+      return;
+
+    final OStorageRemoteNearCache cache = OStorageRemoteNearCache.instance();
+    for (Map.Entry<ORID, ORecordVersion> entry : iInvalidations.entrySet())
+      cache.invalidate(url, entry.getKey(), entry.getValue());
+  }
+
+  /**
+   * Asks the server to push the records changed by the other clients, so the near cache can be used. Servers older than protocol 22
+   * can't push them, so the near cache stays disabled.
+   */
+  protected void subscribeInvalidations() throws IOException {
+    if (!OGlobalConfiguration.CLIENT_NEAR_CACHE_ENABLED.getValueAsBoolean())
+      return;
+
+    OChannelBinaryAsynchClient network = null;
+    try {
+      network = getAvailableNetwork();
+      if (network.getSrvProtocolVersion() < 22) {
+        network.releaseWriteLock();
+        network = null;
+        return;
+      }
+
+      writeRequestHeader(network, OChannelBinaryProtocol.REQUEST_RECORD_INVALIDATIONS);
+      network.writeByte((byte) 1);
+    } finally {
+      endRequest(network);
+    }
+
+    try {
+      beginResponse(network);
+    } finally {
+      endResponse(network);
+    }
+
+    nearCache = true;
+  }
+
+  private boolean isNearCacheUsable(final String iFetchPlan, final boolean iIgnoreCache, final boolean iLoadTombstones) {
+    return nearCache && !iIgnoreCache && !iLoadTombstones && (iFetchPlan == null || iFetchPlan.length() == 0);
+  }
+
   protected void sendClientInfo(OChannelBinaryAsynchClient network) throws IOException {
     if (network.getSrvProtocolVersion() >= 7) {
       // @COMPATIBILITY 1.0rc8
@@ -1681,6 +2051,13 @@ public class OStorageRemote extends OStorageAbstract implements OStorageProxy, O
     final OChannelBinaryAsynchClient ch = new OChannelBinaryAsynchClient(remoteHost, remotePort, clientConfiguration,
         OChannelBinaryProtocol.CURRENT_PROTOCOL_VERSION, asynchEventListener);
 
+    try {
+      negotiateCompression(ch);
+    } catch (IOException e) {
+      ch.close();
+      throw e;
+    }
+
     // REGISTER MYSELF AS LISTENER TO REMOVE THE CHANNEL FROM THE POOL IN CASE OF CLOSING
     ch.registerListener(this);
 
@@ -1689,6 +2066,40 @@ public class OStorageRemote extends OStorageAbstract implements OStorageProxy, O
     return ch;
   }
 
+  /**
+   * Asks the server to compress the contents sent on a new channel, in both directions. It's called before the channel is added to
+   * the pool, so no other request is pending while the two sides switch to the compressed format.
+   */
+  protected void negotiateCompression(final OChannelBinaryAsynchClient iNetwork) throws IOException {
+    final String name = clientConfiguration.getValueAsString(OGlobalConfiguration.NETWORK_BINARY_COMPRESSION);
+    if (name == null || name.length() == 0 || iNetwork.getSrvProtocolVersion() < 23)
+      return;
+
+    final int requestId;
+    iNetwork.beginRequest();
+    try {
+      requestId = iNetwork.registerRequest(-1);
+      iNetwork.writeByte(OChannelBinaryProtocol.REQUEST_CHANNEL_COMPRESSION);
+      iNetwork.writeInt(-1);
+      iNetwork.writeString(name);
+    } finally {
+      iNetwork.endRequest();
+    }
+
+    iNetwork.beginResponse(-1, requestId);
+    try {
+      final String accepted = iNetwork.readString();
+      if (accepted != null && accepted.length() > 0)
+        iNetwork.setCompression(OCompressionFactory.INSTANCE.getCompression(accepted),
+            clientConfiguration.getValueAsInteger(OGlobalConfiguration.NETWORK_BINARY_COMPRESSION_THRESHOLD));
+      else
+        OLogManager.instance().warn(this, "Server %s refused the compression '%s': contents will be sent uncompressed",
+            iNetwork.getServerURL(), name);
+    } finally {
+      iNetwork.endResponse();
+    }
+  }
+
   protected void checkConnection() {
     // lock.acquireSharedLock();
     //
@@ -1705,7 +2116,8 @@ public class OStorageRemote extends OStorageAbstract implements OStorageProxy, O
   }
 
   /**
-   * Acquire a network channel from the pool. Don't lock the write stream since the connection usage is exclusive.
+   * Acquire a network channel from the pool locking its write stream. The lock is released by {@link #endRequest}, so other threads
+   * can send their requests while the response is waited.
    * 
    * @param iCommand
    * @return
@@ -1713,17 +2125,246 @@ public class OStorageRemote extends OStorageAbstract implements OStorageProxy, O
    */
   protected OChannelBinaryAsynchClient beginRequest(final byte iCommand) throws IOException {
     final OChannelBinaryAsynchClient network = getAvailableNetwork();
+    writeRequestHeader(network, iCommand);
+    return network;
+  }
 
-    network.writeByte(iCommand);
-    network.writeInt(getSessionId());
+  /**
+   * Writes the command and the session id. The request is tagged before any byte is sent, so its response can't be read before.
+   */
+  protected void writeRequestHeader(final OChannelBinaryAsynchClient iNetwork, final byte iCommand) throws IOException {
+    writeRequestHeader(iNetwork, iCommand, getSessionId());
+  }
+
+  /**
+   * Writes the command with the session id to use on the server of the channel. The response is matched by the same session id.
+   */
+  protected void writeRequestHeader(final OChannelBinaryAsynchClient iNetwork, final byte iCommand, final int iSessionId)
+      throws IOException {
+    final OStorageRemoteSession tl = OStorageRemoteThreadLocal.INSTANCE.get();
+    tl.requestId = iNetwork.registerRequest(iSessionId);
+    tl.requestSessionId = iSessionId;
+    tl.requestStart = System.nanoTime();
+
+    iNetwork.writeByte(iCommand);
+    iNetwork.writeInt(iSessionId);
+  }
 
+  /**
+   * Acquires a channel for a read request and writes its header. With the read balancing enabled the request is sent to the server
+   * of the cluster that is expected to answer first, otherwise to the server of the session.
+   */
+  protected OChannelBinaryAsynchClient beginReadRequest(final byte iCommand) throws IOException {
+    final OChannelBinaryAsynchClient network = getReadNetwork();
+    writeRequestHeader(network, iCommand, getReadSessionId(network));
     return network;
   }
 
+  /**
+   * Acquires a channel to the server with the lowest response time weighted by the requests in flight. Falls back to the server of
+   * the session if the chosen server can't be reached or has no free channels.
+   */
+  protected OChannelBinaryAsynchClient getReadNetwork() throws IOException {
+    final String serverURL = getServerURL();
+    if (serverURL != null && serverURLs.size() > 1 && OGlobalConfiguration.CLIENT_READ_BALANCING_ENABLED.getValueAsBoolean()) {
+      final String server = selectReadServer(serverURL);
+      if (!server.equals(serverURL))
+        try {
+          if (hasReadSession(server) || openReadSession(server)) {
+            final OChannelBinaryAsynchClient network = getAvailableNetwork(server);
+            if (network != null)
+              return network;
+          }
+        } catch (Exception e) {
+          OLogManager.instance().debug(this, "Cannot balance the read on server %s, using %s", e, server, serverURL);
+          setServerDown(server);
+        }
+    }
+    return getAvailableNetwork();
+  }
+
+  /**
+   * Returns the session id to use on the server of the channel.
+   */
+  protected int getReadSessionId(final OChannelBinaryAsynchClient iNetwork) {
+    final OStorageRemoteSession tl = OStorageRemoteThreadLocal.INSTANCE.get();
+    if (tl.serverURL == null || iNetwork.getServerURL().equals(tl.serverURL))
+      return tl.sessionId;
+    return tl.readSessions.get(iNetwork.getServerURL());
+  }
+
+  private String selectReadServer(final String iServerURL) {
+    // COUNT THE REQUESTS WAITING FOR A RESPONSE ON EACH SERVER
+    final Map<String, Integer> inFlight = new HashMap<String, Integer>();
+    networkPoolLock.lock();
+    try {
+      for (OChannelBinaryAsynchClient n : networkPool) {
+        final Integer requests = inFlight.get(n.getServerURL());
+        inFlight.put(n.getServerURL(), (requests != null ? requests : 0) + n.getInFlightRequests());
+      }
+    } finally {
+      networkPoolLock.unlock();
+    }
+
+    final long now = System.currentTimeMillis();
+    String best = iServerURL;
+    double bestScore = getServerScore(iServerURL, inFlight, now);
+    for (String server : serverURLs.toArray(new String[serverURLs.size()])) {
+      final OServerLoad load = serverLoads.get(server);
+      if (load != null && load.isDown(now))
+        continue;
+
+      final double score = getServerScore(server, inFlight, now);
+      if (score < bestScore) {
+        best = server;
+        bestScore = score;
+      }
+    }
+    return best;
+  }
+
+  private double getServerScore(final String iServerURL, final Map<String, Integer> iInFlight, final long iNow) {
+    // A SERVER NEVER USED HAS NO LATENCY YET, SO IT'S TRIED FIRST
+    final OServerLoad load = serverLoads.get(iServerURL);
+    final Integer requests = iInFlight.get(iServerURL);
+    return (load != null ? load.getLatency(iNow) : 0) * (1 + (requests != null ? requests : 0));
+  }
+
+  private OServerLoad getServerLoad(final String iServerURL) {
+    OServerLoad load = serverLoads.get(iServerURL);
+    if (load == null) {
+      load = new OServerLoad();
+      serverLoads.put(iServerURL, load);
+    }
+    return load;
+  }
+
+  private void setServerDown(final String iServerURL) {
+    getServerLoad(iServerURL).downUntil = System.currentTimeMillis()
+        + OGlobalConfiguration.CLIENT_READ_BALANCING_SERVER_DOWN_DELAY.getValueAsInteger();
+    OStorageRemoteThreadLocal.INSTANCE.get().readSessions.remove(iServerURL);
+  }
+
+  /**
+   * Opens the database on another server of the cluster with the credentials of the current session. Returns false if there are
+   * no free channels to that server.
+   */
+  private boolean openReadSession(final String iServerURL) throws IOException {
+    final OChannelBinaryAsynchClient network = getAvailableNetwork(iServerURL);
+    if (network == null)
+      return false;
+
+    try {
+      writeRequestHeader(network, OChannelBinaryProtocol.REQUEST_DB_OPEN, -1);
+      sendClientInfo(network);
+      network.writeString(name);
+      if (network.getSrvProtocolVersion() >= 8)
+        network.writeString(connectionDbType);
+      network.writeString(connectionUserName);
+      network.writeString(connectionUserPassword);
+    } finally {
+      endRequest(network);
+    }
+
+    try {
+      beginResponse(network);
+      final int sessionId = network.readInt();
+
+      // SKIP THE DATABASE INFORMATION: THEY ARE THE SAME RECEIVED FROM THE SERVER OF THE SESSION
+      final int tot = network.getSrvProtocolVersion() >= 7 ? network.readShort() : network.readInt();
+      for (int i = 0; i < tot; ++i) {
+        network.readString();
+        network.readShort();
+        network.readString();
+        if (network.getSrvProtocolVersion() >= 12)
+          network.readShort();
+      }
+      network.readBytes();
+      if (network.getSrvProtocolVersion() >= 14)
+        network.readString();
+
+      OStorageRemoteThreadLocal.INSTANCE.get().readSessions.put(iServerURL, sessionId);
+      synchronized (openReadSessions) {
+        Set<Integer> sessions = openReadSessions.get(iServerURL);
+        if (sessions == null) {
+          sessions = new HashSet<Integer>();
+          openReadSessions.put(iServerURL, sessions);
+        }
+        sessions.add(sessionId);
+      }
+      OLogManager.instance().debug(this, "Opened session id=%d on %s to balance the reads", sessionId, iServerURL);
+      return true;
+
+    } finally {
+      endResponse(network);
+    }
+  }
+
+  /**
+   * Tells if the current thread has a read session open on the server. The sessions closed with the storage are forgotten.
+   */
+  private boolean hasReadSession(final String iServerURL) {
+    final Map<String, Integer> readSessions = OStorageRemoteThreadLocal.INSTANCE.get().readSessions;
+    final Integer sessionId = readSessions.get(iServerURL);
+    if (sessionId == null)
+      return false;
+
+    synchronized (openReadSessions) {
+      final Set<Integer> sessions = openReadSessions.get(iServerURL);
+      if (sessions != null && sessions.contains(sessionId))
+        return true;
+    }
+
+    readSessions.remove(iServerURL);
+    return false;
+  }
+
+  /**
+   * Closes the read sessions opened by all the threads.
+   */
+  private void closeReadSessions() {
+    final Map<String, Set<Integer>> sessions;
+    synchronized (openReadSessions) {
+      sessions = new HashMap<String, Set<Integer>>(openReadSessions);
+      openReadSessions.clear();
+    }
+
+    for (Map.Entry<String, Set<Integer>> entry : sessions.entrySet())
+      for (Integer sessionId : entry.getValue()) {
+        OChannelBinaryAsynchClient network = null;
+        try {
+          network = getAvailableNetwork(entry.getKey());
+          if (network == null)
+            // THE SESSION EXPIRES ON THE SERVER
+            continue;
+
+          try {
+            writeRequestHeader(network, OChannelBinaryProtocol.REQUEST_DB_CLOSE, sessionId);
+          } finally {
+            // NO RESPONSE
+            endRequest(network, false);
+          }
+        } catch (Exception e) {
+          OLogManager.instance().debug(this, "Error on closing the session %d on %s", e, sessionId, entry.getKey());
+        }
+      }
+
+    OStorageRemoteThreadLocal.INSTANCE.get().readSessions.clear();
+  }
+
   protected OChannelBinaryAsynchClient getAvailableNetwork() throws IOException, UnknownHostException {
+    return getAvailableNetwork(getServerURL());
+  }
+
+  /**
+   * Acquires a free channel to the server. If the server is not the one of the session and the pool is full, returns null instead
+   * of waiting.
+   */
+  protected OChannelBinaryAsynchClient getAvailableNetwork(final String serverURL) throws IOException, UnknownHostException {
     // FIND THE FIRST FREE CHANNEL AVAILABLE
 
     OChannelBinaryAsynchClient network = null;
+    OChannelBinaryAsynchClient shared = null;
 
     int beginCursor = networkPoolCursor;
     while (network == null) {
@@ -1746,8 +2387,6 @@ public class OStorageRemote extends OStorageAbstract implements OStorageProxy, O
         network = networkPool.get(networkPoolCursor);
         networkPoolCursor++;
 
-        final String serverURL = getServerURL();
-
         if (serverURL == null || network.getServerURL().equals(serverURL)) {
           if (network.getLockWrite().tryAcquireLock())
             // WAS UNLOCKED! USE THIS
@@ -1765,9 +2404,15 @@ public class OStorageRemote extends OStorageAbstract implements OStorageProxy, O
 
           if (networkPool.size() < maxPool) {
             // CREATE NEW CONNECTION
-            network = createNetworkConnection();
+            network = serverURL == null || serverURL.equals(getServerURL()) ? createNetworkConnection() : connect(serverURL);
             network.getLockWrite().lock();
 
+          } else if (OGlobalConfiguration.CLIENT_CHANNEL_PIPELINING.getValueAsBoolean()
+              && (shared = getLessLoadedNetwork(serverURL)) != null) {
+            // SHARE THE CHANNEL: ITS WRITE LOCK IS WAITED OUT OF THE POOL LOCK
+          } else if (serverURL != null && !serverURL.equals(getServerURL())) {
+            // BALANCED READ: DON'T WAIT FOR THE OTHER SERVERS
+            return null;
           } else {
             OLogManager.instance().info(this,
                 "Network connection pool is full (max=%d): increase max size to avoid such bottleneck on connections", maxPool);
@@ -1801,10 +2446,32 @@ public class OStorageRemote extends OStorageAbstract implements OStorageProxy, O
       } finally {
         networkPoolLock.unlock();
       }
+
+      if (shared != null) {
+        // THE WRITE LOCK IS HELD ONLY WHILE THE OTHER REQUESTS ARE SENT
+        shared.getLockWrite().lock();
+        if (shared.isConnected())
+          network = shared;
+        else
+          shared.getLockWrite().unlock();
+        shared = null;
+      }
     }
     return network;
   }
 
+  /**
+   * Returns the connected channel with less requests waiting for the response. Must be called under the pool lock.
+   */
+  private OChannelBinaryAsynchClient getLessLoadedNetwork(final String iServerURL) {
+    OChannelBinaryAsynchClient best = null;
+    for (OChannelBinaryAsynchClient n : networkPool)
+      if (n.isConnected() && (iServerURL == null || n.getServerURL().equals(iServerURL))
+          && (best == null || n.getInFlightRequests() < best.getInFlightRequests()))
+        best = n;
+    return best;
+  }
+
   private void removeDeadConnections() {
     // FREE DEAD CONNECTIONS
     int removedDeadConnections = 0;
@@ -1825,10 +2492,23 @@ public class OStorageRemote extends OStorageAbstract implements OStorageProxy, O
    * Ends the request and unlock the write lock
    */
   public void endRequest(final OChannelBinaryAsynchClient iNetwork) throws IOException {
+    endRequest(iNetwork, true);
+  }
+
+  /**
+   * Ends the request and unlock the write lock. The channel is available to other requests while the response is waited.
+   * 
+   * @param iResponseExpected
+   *          false if the server doesn't answer to the request, like asynchronous record operations
+   */
+  public void endRequest(final OChannelBinaryAsynchClient iNetwork, final boolean iResponseExpected) throws IOException {
     if (iNetwork == null)
       return;
 
     try {
+      if (!iResponseExpected)
+        iNetwork.unregisterRequest(OStorageRemoteThreadLocal.INSTANCE.get().requestSessionId, getRequestId());
+
       iNetwork.flush();
     } catch (IOException e) {
       try {
@@ -1862,7 +2542,11 @@ public class OStorageRemote extends OStorageAbstract implements OStorageProxy, O
    * Starts listening the response.
    */
   protected void beginResponse(final OChannelBinaryAsynchClient iNetwork) throws IOException {
-    iNetwork.beginResponse(getSessionId());
+    final OStorageRemoteSession tl = OStorageRemoteThreadLocal.INSTANCE.get();
+    iNetwork.beginResponse(tl.requestSessionId, tl.requestId);
+
+    if (serverURLs.size() > 1 && OGlobalConfiguration.CLIENT_READ_BALANCING_ENABLED.getValueAsBoolean())
+      getServerLoad(iNetwork.getServerURL()).update(System.nanoTime() - tl.requestStart);
   }
 
   /**
@@ -2071,7 +2755,7 @@ public class OStorageRemote extends OStorageAbstract implements OStorageProxy, O
       network.writeByte((byte) iMode);
 
     } finally {
-      endRequest(network);
+      endRequest(network, iMode < 2);
     }
 
     switch (iMode) {
@@ -2088,12 +2772,15 @@ public class OStorageRemote extends OStorageAbstract implements OStorageProxy, O
       // ASYNCHRONOUS
       if (iCallback != null) {
         final int sessionId = getSessionId();
+        final int requestId = getRequestId();
         Callable<Object> response = new Callable<Object>() {
           public Object call() throws Exception {
             Boolean result;
 
             try {
-              OStorageRemoteThreadLocal.INSTANCE.get().sessionId = sessionId;
+              final OStorageRemoteSession session = OStorageRemoteThreadLocal.INSTANCE.get();
+              session.sessionId = sessionId;
+              session.requestId = requestId;
               beginResponse(network);
               result = network.readByte() == 1;
             } finally {
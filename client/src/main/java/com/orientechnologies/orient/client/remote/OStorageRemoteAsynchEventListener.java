@@ -1,7 +1,11 @@
 package com.orientechnologies.orient.client.remote;
 
+import java.util.Map;
+
 import com.orientechnologies.common.log.OLogManager;
+import com.orientechnologies.orient.core.id.ORID;
 import com.orientechnologies.orient.core.record.ORecordInternal;
+import com.orientechnologies.orient.core.version.ORecordVersion;
 import com.orientechnologies.orient.enterprise.channel.binary.OChannelBinaryProtocol;
 import com.orientechnologies.orient.enterprise.channel.binary.ORemoteServerEventListener;
 
@@ -13,10 +17,13 @@ public class OStorageRemoteAsynchEventListener implements ORemoteServerEventList
     this.storage = storage;
   }
 
+  @SuppressWarnings("unchecked")
   public void onRequest(final byte iRequestCode, final Object obj) {
     if (iRequestCode == OChannelBinaryProtocol.REQUEST_PUSH_RECORD)
       // ASYNCHRONOUS PUSH INTO THE LEVEL2 CACHE
       storage.getLevel2Cache().updateRecord((ORecordInternal<?>) obj);
+    else if (iRequestCode == OChannelBinaryProtocol.REQUEST_PUSH_RECORD_INVALIDATE)
+      storage.onRecordInvalidations((Map<ORID, ORecordVersion>) obj);
     else if (iRequestCode == OChannelBinaryProtocol.REQUEST_PUSH_DISTRIB_CONFIG) {
       storage.updateClusterConfiguration((byte[]) obj);
 
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2010-2012 Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientechnologies.orient.client.remote;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import com.orientechnologies.orient.core.db.ODatabaseRecordThreadLocal;
+import com.orientechnologies.orient.core.db.record.ODatabaseRecord;
+import com.orientechnologies.orient.core.record.ORecordInternal;
+import com.orientechnologies.orient.core.sql.query.OResultCursor;
+import com.orientechnologies.orient.enterprise.channel.binary.OChannelBinaryAsynchClient;
+import com.orientechnologies.orient.enterprise.channel.binary.OChannelBinaryProtocol;
+
+/**
+ * Client side of a cursor opened on the server. Keeps one page of results and fetches the next one when the current is browsed,
+ * always with the session that opened the cursor.
+ * 
+ * @author Luca Garulli
+ * 
+ */
+public class OStorageRemoteCursor implements OResultCursor<Object>, Iterator<Object> {
+  private final OStorageRemote storage;
+  private final String         serverURL;
+  private final int            sessionId;
+  private final int            cursorId;
+  private final int            pageSize;
+  private final List<Object>   page = new ArrayList<Object>();
+  private int                  pagePosition;
+  private boolean              more;
+  private boolean              closed;
+
+  public OStorageRemoteCursor(final OStorageRemote iStorage, final int iCursorId, final int iPageSize) {
+    storage = iStorage;
+    serverURL = iStorage.getServerURL();
+    sessionId = iStorage.getSessionId();
+    cursorId = iCursorId;
+    pageSize = iPageSize;
+  }
+
+  public Iterator<Object> iterator() {
+    return this;
+  }
+
+  public boolean hasNext() {
+    while (pagePosition >= page.size()) {
+      if (!more || closed)
+        return false;
+
+      page.clear();
+      pagePosition = 0;
+
+      storage.setSessionId(serverURL, sessionId);
+      storage.fetchCursor(this);
+    }
+    return true;
+  }
+
+  public Object next() {
+    if (!hasNext())
+      throw new NoSuchElementException();
+    return page.get(pagePosition++);
+  }
+
+  public void remove() {
+    throw new UnsupportedOperationException("remove");
+  }
+
+  public void close() {
+    if (closed)
+      return;
+
+    closed = true;
+    page.clear();
+
+    if (more) {
+      // THE QUERY IS STILL RUNNING ON THE SERVER: STOP IT
+      more = false;
+      storage.setSessionId(serverURL, sessionId);
+      storage.closeCursor(this);
+    }
+  }
+
+  public boolean isClosed() {
+    return closed;
+  }
+
+  public int getCursorId() {
+    return cursorId;
+  }
+
+  public int getPageSize() {
+    return pageSize;
+  }
+
+  /**
+   * Reads a page of results sent by the server, putting the records in the local cache.
+   */
+  protected void readPage(final OChannelBinaryAsynchClient iNetwork) throws IOException {
+    final ODatabaseRecord database = ODatabaseRecordThreadLocal.INSTANCE.getIfDefined();
+
+    byte status;
+    while ((status = iNetwork.readByte()) > 0) {
+      final ORecordInternal<?> record = (ORecordInternal<?>) OChannelBinaryProtocol.readIdentifiable(iNetwork);
+      if (record == null)
+        continue;
+
+      if (status == 1)
+        // PART OF THE RESULT SET
+        page.add(record);
+
+      if (database != null)
+        // PUT IN THE CLIENT LOCAL CACHE
+        database.getLevel1Cache().updateRecord(record);
+    }
+
+    more = iNetwork.readByte() == 1;
+  }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2010-2012 Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientechnologies.orient.client.remote;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.orientechnologies.orient.core.config.OGlobalConfiguration;
+import com.orientechnologies.orient.core.id.ORID;
+import com.orientechnologies.orient.core.storage.ORawBuffer;
+import com.orientechnologies.orient.core.version.ORecordVersion;
+
+/**
+ * Cache of the records read from remote databases, shared by all the storages of the JVM and bounded by memory. The entries are
+ * kept coherent by the invalidations pushed by the server: an invalidation replaces the older copy with a marker of the new
+ * version, so a response read before the invalidation can't put the stale copy back.
+ * 
+ * @author Luca Garulli
+ * 
+ */
+public class OStorageRemoteNearCache {
+  private static final OStorageRemoteNearCache instance = new OStorageRemoteNearCache();
+  private static final int                     OVERHEAD = 96;
+
+  private final LinkedHashMap<OKey, OEntry>    entries  = new LinkedHashMap<OKey, OEntry>(1024, 0.75f, true);
+  private long                                 usedMemory;
+  private long                                 hits;
+  private long                                 misses;
+
+  private static class OKey {
+    private final String storage;
+    private final ORID   rid;
+
+    private OKey(final String iStorage, final ORID iRid) {
+      storage = iStorage;
+      rid = iRid;
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * storage.hashCode() + rid.hashCode();
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+      if (!(obj instanceof OKey))
+        return false;
+      final OKey other = (OKey) obj;
+      return rid.equals(other.rid) && storage.equals(other.storage);
+    }
+  }
+
+  private static class OEntry {
+    private final ORawBuffer     buffer;
+    private final ORecordVersion version;
+
+    private OEntry(final ORawBuffer iBuffer, final ORecordVersion iVersion) {
+      buffer = iBuffer;
+      version = iVersion;
+    }
+
+    private int getSize() {
+      return buffer != null && buffer.buffer != null ? buffer.buffer.length + OVERHEAD : OVERHEAD;
+    }
+  }
+
+  public static OStorageRemoteNearCache instance() {
+    return instance;
+  }
+
+  /**
+   * Returns a copy of the cached record, or null if it's not cached.
+   */
+  public synchronized ORawBuffer get(final String iStorage, final ORID iRid) {
+    final OEntry entry = entries.get(new OKey(iStorage, iRid));
+    if (entry == null || entry.buffer == null) {
+      misses++;
+      return null;
+    }
+
+    hits++;
+    final ORawBuffer buffer = entry.buffer;
+    return new ORawBuffer(buffer.buffer != null ? buffer.buffer.clone() : null, buffer.version, buffer.recordType);
+  }
+
+  /**
+   * Caches the record read from the server, unless a newer version has been already cached or invalidated.
+   */
+  public synchronized void put(final String iStorage, final ORID iRid, final ORawBuffer iBuffer) {
+    final OKey key = new OKey(iStorage, iRid.copy());
+    final OEntry current = entries.get(key);
+    if (current != null && current.version.compareTo(iBuffer.version) > 0)
+      // STALE
+      return;
+
+    final byte[] content = iBuffer.buffer != null ? iBuffer.buffer.clone() : null;
+    replace(key, current, new OEntry(new ORawBuffer(content, iBuffer.version, iBuffer.recordType), iBuffer.version.copy()));
+  }
+
+  /**
+   * Removes the copies older than the version received. The marker left refuses the older copies still in flight.
+   */
+  public synchronized void invalidate(final String iStorage, final ORID iRid, final ORecordVersion iVersion) {
+    final OKey key = new OKey(iStorage, iRid);
+    final OEntry current = entries.get(key);
+    if (current != null && current.version.compareTo(iVersion) >= 0)
+      // ALREADY UPDATED
+      return;
+
+    replace(key, current, new OEntry(null, iVersion.copy()));
+  }
+
+  public synchronized void remove(final String iStorage, final ORID iRid) {
+    final OEntry removed = entries.remove(new OKey(iStorage, iRid));
+    if (removed != null)
+      usedMemory -= removed.getSize();
+  }
+
+  /**
+   * Removes all the records of the storage. Called when the invalidations could have been lost.
+   */
+  public synchronized void clear(final String iStorage) {
+    for (Iterator<Map.Entry<OKey, OEntry>> it = entries.entrySet().iterator(); it.hasNext();) {
+      final Map.Entry<OKey, OEntry> e = it.next();
+      if (e.getKey().storage.equals(iStorage)) {
+        usedMemory -= e.getValue().getSize();
+        it.remove();
+      }
+    }
+  }
+
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  public synchronized long getUsedMemory() {
+    return usedMemory;
+  }
+
+  public synchronized long getHits() {
+    return hits;
+  }
+
+  public synchronized long getMisses() {
+    return misses;
+  }
+
+  private void replace(final OKey iKey, final OEntry iCurrent, final OEntry iNew) {
+    if (iCurrent != null)
+      usedMemory -= iCurrent.getSize();
+
+    entries.put(iKey, iNew);
+    usedMemory += iNew.getSize();
+
+    // EVICT THE LEAST RECENTLY USED RECORDS
+    final long maxMemory = OGlobalConfiguration.CLIENT_NEAR_CACHE_SIZE.getValueAsLong() * 1024 * 1024;
+    for (Iterator<OEntry> it = entries.values().iterator(); usedMemory > maxMemory && it.hasNext();) {
+      usedMemory -= it.next().getSize();
+      it.remove();
+    }
+  }
+}
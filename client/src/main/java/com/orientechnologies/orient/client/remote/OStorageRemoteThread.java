@@ -18,7 +18,9 @@ package com.orientechnologies.orient.client.remote;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.Collection;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Callable;
@@ -33,6 +35,7 @@ import com.orientechnologies.orient.core.id.OClusterPosition;
 import com.orientechnologies.orient.core.id.ORID;
 import com.orientechnologies.orient.core.id.ORecordId;
 import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.core.sql.query.OResultCursor;
 import com.orientechnologies.orient.core.storage.*;
 import com.orientechnologies.orient.core.tx.OTransaction;
 import com.orientechnologies.orient.core.version.ORecordVersion;
@@ -45,11 +48,12 @@ import com.orientechnologies.orient.enterprise.channel.binary.ORemoteServerEvent
  */
 @SuppressWarnings("unchecked")
 public class OStorageRemoteThread implements OStorageProxy {
-  private static AtomicInteger sessionSerialId = new AtomicInteger(-1);
+  private static AtomicInteger       sessionSerialId = new AtomicInteger(-1);
 
-  private final OStorageRemote delegate;
-  private String               serverURL;
-  private int                  sessionId;
+  private final OStorageRemote       delegate;
+  private String                     serverURL;
+  private int                        sessionId;
+  private final Map<String, Integer> readSessions    = new HashMap<String, Integer>();
 
   public OStorageRemoteThread(final OStorageRemote iSharedStorage) {
     delegate = iSharedStorage;
@@ -230,6 +234,16 @@ public class OStorageRemoteThread implements OStorageProxy {
     }
   }
 
+  public ORawBuffer[] readRecords(final List<ORecordId> iRids, final String iFetchPlan, final boolean iIgnoreCache,
+      final boolean iLoadTombstones) {
+    pushSession();
+    try {
+      return delegate.readRecords(iRids, iFetchPlan, iIgnoreCache, iLoadTombstones);
+    } finally {
+      popSession();
+    }
+  }
+
   public OStorageOperationResult<ORecordVersion> updateRecord(final ORecordId iRid, final byte[] iContent,
       final ORecordVersion iVersion, final byte iRecordType, final int iMode, ORecordCallback<ORecordVersion> iCallback) {
     pushSession();
@@ -405,6 +419,15 @@ public class OStorageRemoteThread implements OStorageProxy {
     }
   }
 
+  public OResultCursor<Object> commandCursor(final OCommandRequestText iCommand, final int iPageSize) {
+    pushSession();
+    try {
+      return delegate.commandCursor(iCommand, iPageSize);
+    } finally {
+      popSession();
+    }
+  }
+
   public Object command(final OCommandRequestText iCommand) {
     pushSession();
     try {
@@ -713,7 +736,7 @@ public class OStorageRemoteThread implements OStorageProxy {
   }
 
   protected void pushSession() {
-    delegate.setSessionId(serverURL, sessionId);
+    delegate.setSessionId(serverURL, sessionId, readSessions);
   }
 
   protected void popSession() {
@@ -15,15 +15,23 @@
  */
 package com.orientechnologies.orient.client.remote;
 
+import java.util.HashMap;
+import java.util.Map;
+
 import com.orientechnologies.orient.client.remote.OStorageRemoteThreadLocal.OStorageRemoteSession;
 
 public class OStorageRemoteThreadLocal extends ThreadLocal<OStorageRemoteSession> {
   public static OStorageRemoteThreadLocal INSTANCE = new OStorageRemoteThreadLocal();
 
   public class OStorageRemoteSession {
-    public boolean commandExecuting = false;
-    public Integer sessionId        = -1;
-    public String  serverURL        = null;
+    public boolean              commandExecuting = false;
+    public Integer              sessionId        = -1;
+    public int                  requestId        = -1;
+    public String               serverURL        = null;
+    public int                  requestSessionId = -1;
+    public long                 requestStart     = 0;
+    // SESSIONS OPENED ON THE OTHER SERVERS OF THE CLUSTER TO BALANCE THE READS, BY SERVER URL
+    public Map<String, Integer> readSessions     = new HashMap<String, Integer>();
   }
 
   @Override
@@ -35,6 +35,10 @@ public abstract class OSoftThread extends Thread implements OService {
     shutdownFlag = true;
   }
 
+  public boolean isShutdownFlag() {
+    return shutdownFlag;
+  }
+
   @Override
   public void run() {
     startup();
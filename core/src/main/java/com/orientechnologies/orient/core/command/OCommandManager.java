@@ -25,6 +25,7 @@ import com.orientechnologies.orient.core.sql.OCommandExecutorSQLResultsetDelegat
 import com.orientechnologies.orient.core.sql.OCommandSQL;
 import com.orientechnologies.orient.core.sql.OCommandSQLResultset;
 import com.orientechnologies.orient.core.sql.query.OSQLAsynchQuery;
+import com.orientechnologies.orient.core.sql.query.OSQLCursorQuery;
 import com.orientechnologies.orient.core.sql.query.OSQLSynchQuery;
 
 public class OCommandManager {
@@ -38,6 +39,7 @@ public class OCommandManager {
 
     registerExecutor(OSQLAsynchQuery.class, OCommandExecutorSQLDelegate.class);
     registerExecutor(OSQLSynchQuery.class, OCommandExecutorSQLDelegate.class);
+    registerExecutor(OSQLCursorQuery.class, OCommandExecutorSQLDelegate.class);
     registerExecutor(OCommandSQL.class, OCommandExecutorSQLDelegate.class);
     registerExecutor(OCommandSQLResultset.class, OCommandExecutorSQLResultsetDelegate.class);
   }
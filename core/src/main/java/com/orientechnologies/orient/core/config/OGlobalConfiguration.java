@@ -389,13 +389,49 @@ public enum OGlobalConfiguration {
   NETWORK_BINARY_READ_RESPONSE_MAX_TIMES("network.binary.readResponse.maxTimes",
       "Maximum times to wait until response will be read. Otherwise response will be dropped from chanel", Integer.class, 20),
 
+  NETWORK_BINARY_LOAD_MULTI_MAX("network.binary.loadMulti.maxRecords",
+      "Maximum number of records a client can load with one REQUEST_RECORD_LOAD_MULTI request. Bigger requests are refused",
+      Integer.class, 10000),
+
   NETWORK_BINARY_DEBUG("network.binary.debug", "Debug mode: print all data incoming on the binary channel", Boolean.class, false),
 
+  NETWORK_BINARY_NIO_ENABLED("network.binary.nio.enabled",
+      "Serves the binary connections with selector threads and a shared pool of workers instead of a thread per connection",
+      Boolean.class, false),
+
+  NETWORK_BINARY_NIO_SELECTORS("network.binary.nio.selectors",
+      "Number of threads waiting for requests on the idle binary connections when NIO is enabled", Integer.class, 2),
+
+  NETWORK_BINARY_NIO_WORKERS("network.binary.nio.workers",
+      "Maximum number of threads executing binary requests when NIO is enabled. 0 = 8 per CPU core", Integer.class, 0),
+
+  NETWORK_BINARY_COMPRESSION("network.binary.compression",
+      "Compression asked by the client for the contents sent on its binary connections: 'snappy', 'gzip' or empty for none",
+      String.class, ""),
+
+  NETWORK_BINARY_COMPRESSION_THRESHOLD("network.binary.compression.threshold",
+      "Minimum size in bytes of the contents compressed on the binary connections that negotiated a compression", Integer.class,
+      1024),
+
   NETWORK_HTTP_MAX_CONTENT_LENGTH("network.http.maxLength", "TCP/IP max content length in bytes for HTTP requests", Integer.class,
       1000000),
 
   NETWORK_HTTP_CONTENT_CHARSET("network.http.charset", "Http response charset", String.class, "utf-8"),
 
+  NETWORK_HTTP_COMPRESSION_THRESHOLD("network.http.compression.threshold",
+      "Minimum size in bytes of the HTTP responses compressed with gzip or deflate when accepted by the client. 0 = disabled",
+      Integer.class, 1024),
+
+  NETWORK_HTTP_NIO_ENABLED("network.http.nio.enabled",
+      "Serves the HTTP connections with selector threads and a shared pool of workers instead of a thread per connection. The idle keep-alive connections are closed after network.socketTimeout",
+      Boolean.class, false),
+
+  NETWORK_HTTP_NIO_SELECTORS("network.http.nio.selectors",
+      "Number of threads waiting for requests on the idle HTTP connections when NIO is enabled", Integer.class, 2),
+
+  NETWORK_HTTP_NIO_WORKERS("network.http.nio.workers",
+      "Maximum number of threads executing HTTP requests when NIO is enabled. 0 = 8 per CPU core", Integer.class, 0),
+
   NETWORK_HTTP_SESSION_EXPIRE_TIMEOUT("network.http.sessionExpireTimeout",
       "Timeout after which an http session is considered tp have expired (seconds)", Integer.class, 300),
 
@@ -441,11 +477,67 @@ public enum OGlobalConfiguration {
   // COMMAND
   COMMAND_TIMEOUT("command.timeout", "Default timeout for commands expressed in milliseconds", Long.class, 0),
 
+  // QUERY
+  QUERY_ORDER_BY_BUFFER_SIZE("query.orderBy.bufferSize",
+      "Maximum number of records an ORDER BY without LIMIT keeps in memory before spilling sorted runs to temporary files. 0 = never spill",
+      Integer.class, 100000),
+
+  QUERY_GROUP_BY_BUFFER_SIZE("query.groupBy.bufferSize",
+      "Maximum number of groups a GROUP BY keeps in memory before spilling partial aggregates to temporary files. 0 = never spill",
+      Integer.class, 100000),
+
+  QUERY_PARALLEL_MINIMUM_RECORDS("query.parallelMinimumRecords",
+      "Minimum number of records a SELECT must scan to be executed in parallel even without the PARALLEL keyword. Parallel scans return the records in no particular order. 0 = only with the PARALLEL keyword",
+      Long.class, 0),
+
+  QUERY_PARALLEL_MAX_THREADS("query.parallelMaxThreads",
+      "Maximum number of threads shared by all the parallel scans. When they are all busy the scan is executed by the calling thread",
+      Integer.class, Runtime.getRuntime().availableProcessors() * 2),
+
+  QUERY_VECTORIZED_BATCH_SIZE("query.vectorized.batchSize",
+      "Number of records a sequential SELECT filters together, comparing the fields as column vectors. 0 = one record at a time",
+      Integer.class, 1024),
+
+  QUERY_CURSOR_PAGE_SIZE("query.cursor.pageSize",
+      "Number of records a remote cursor fetches from the server with every request", Integer.class, 100),
+
+  QUERY_CURSOR_TIMEOUT("query.cursor.timeout",
+      "Maximum time in milliseconds the server keeps a cursor waiting for the next fetch before cancelling its query", Long.class,
+      300000),
+
+  QUERY_CURSOR_MAX_THREADS("query.cursor.maxThreads",
+      "Maximum number of cursors open at the same time on the server. Every open cursor keeps a thread of a shared pool", Integer.class,
+      256),
+
+  QUERY_CURSOR_MAX_PER_CONNECTION("query.cursor.maxPerConnection", "Maximum number of cursors a client connection can keep open",
+      Integer.class, 16),
+
   // CLIENT
   CLIENT_CHANNEL_MIN_POOL("client.channel.minPool", "Minimum pool size", Integer.class, 1),
 
   CLIENT_CHANNEL_MAX_POOL("client.channel.maxPool", "Maximum channel pool size", Integer.class, 20),
 
+  CLIENT_CHANNEL_PIPELINING("client.channel.pipelining",
+      "When the channel pool is full, sends the request on the channel with less requests in flight instead of waiting for a free one",
+      Boolean.class, false),
+
+  CLIENT_RECORD_LOAD_BATCH_SIZE("client.record.loadBatchSize",
+      "Maximum number of linked records loaded with one request against remote databases. 0 loads every record separately",
+      Integer.class, 100),
+
+  CLIENT_NEAR_CACHE_ENABLED("client.nearCache.enabled",
+      "Keeps the records read from remote databases in a cache shared by all the databases of the JVM. The server pushes the records changed to invalidate them",
+      Boolean.class, false),
+
+  CLIENT_NEAR_CACHE_SIZE("client.nearCache.size", "Maximum memory in megabytes used by the client near cache", Integer.class, 64),
+
+  CLIENT_READ_BALANCING_ENABLED("client.readBalancing.enabled",
+      "Spreads the record loads and the queries among the servers of the cluster, choosing the one with the lowest response time and requests in flight. Writes are always sent to the server of the session. The other servers could return data not replicated yet",
+      Boolean.class, false),
+
+  CLIENT_READ_BALANCING_SERVER_DOWN_DELAY("client.readBalancing.serverDownDelay",
+      "Time in ms. a server that failed a balanced read is excluded from the balancing", Integer.class, 30000),
+
   CLIENT_CONNECT_POOL_WAIT_TIMEOUT("client.connectionPool.waitTimeout",
       "Maximum time which client should wait connection from the pool", Integer.class, 5000),
 
@@ -484,6 +576,38 @@ public enum OGlobalConfiguration {
   DISTRIBUTED_QUEUE_TIMEOUT("distributed.queueTimeout", "Maximum timeout in milliseconds to wait for the response in replication",
       Integer.class, 5000l),
 
+  DISTRIBUTED_REPLICATION_BATCH_SIZE("distributed.replicationBatchSize",
+      "Maximum number of replication requests sent to a node in one message when more threads are replicating", Integer.class, 100),
+
+  DISTRIBUTED_JOURNAL_MAX_SIZE("distributed.journal.maxSize",
+      "Maximum size in megabytes of the changes kept by each node to align the nodes that restart without copying the database. 0 = disabled",
+      Integer.class, 64),
+
+  DISTRIBUTED_APPLY_LANES("distributed.applyLanes",
+      "Number of threads that apply in parallel the replicated changes of different clusters received in the same message. 1 = one thread",
+      Integer.class, Runtime.getRuntime().availableProcessors()),
+
+  DISTRIBUTED_QUERY_SPLIT("distributed.querySplit",
+      "Splits the queries against classes and clusters among the nodes that own the clusters, merging aggregates, groups and top-K on the node that received the query",
+      Boolean.class, true),
+
+  DISTRIBUTED_READ_CONSISTENCY("distributed.readConsistency",
+      "Default consistency of the reads: STRONG = read from a node that applied all the changes, BOUNDED_STALENESS = read from any node that owns the data within readMaxLag and readMaxStaleness, SESSION = read from any node that applied the last change of the session",
+      String.class, "BOUNDED_STALENESS"),
+
+  DISTRIBUTED_READ_MAX_LAG("distributed.readMaxLag",
+      "Maximum number of changes a node can miss to serve BOUNDED_STALENESS reads. -1 = unbounded", Long.class, -1),
+
+  DISTRIBUTED_READ_MAX_STALENESS("distributed.readMaxStaleness",
+      "Maximum age in milliseconds of the data a node can serve with BOUNDED_STALENESS reads. -1 = unbounded", Long.class, -1),
+
+  DISTRIBUTED_READ_WAIT_TIMEOUT("distributed.readWaitTimeout",
+      "Maximum time in milliseconds a query waits for the current node to reach the consistency requested", Long.class, 5000),
+
+  DISTRIBUTED_TX_LOCK_TIMEOUT("distributed.txLockTimeout",
+      "Time in milliseconds a node waits for the commit or the rollback of a distributed transaction it prepared before completing it with the outcome recorded in the cluster",
+      Long.class, 30000),
+
   DISTRIBUTED_ASYNCH_RESPONSES_TIMEOUT("distributed.asynchResponsesTimeout",
       "Maximum timeout in milliseconds to collect all the asynchronous responses from replication", Integer.class, 15000l),
 
@@ -273,7 +273,7 @@ public class ODatabaseDocumentTx extends ODatabaseRecordWrapperAbstract<ODatabas
 
         if (doc.getSchemaClass() != null && doc.getIdentity().getClusterId() < 0) {
           // CLASS FOUND: FORCE THE STORING IN THE CLUSTER CONFIGURED
-          String clusterName = getClusterNameById(doc.getSchemaClass().getDefaultClusterId());
+          String clusterName = getClusterNameForNewDocument(doc);
 
           return (RET) super.save(doc, clusterName, iMode, iForceCreate, iRecordCreatedCallback, iRecordUpdatedCallback);
         }
@@ -368,7 +368,7 @@ public class ODatabaseDocumentTx extends ODatabaseRecordWrapperAbstract<ODatabas
 
       if (iClusterName == null && doc.getSchemaClass() != null)
         // FIND THE RIGHT CLUSTER AS CONFIGURED IN CLASS
-        iClusterName = getClusterNameById(doc.getSchemaClass().getDefaultClusterId());
+        iClusterName = getClusterNameForNewDocument(doc);
 
       int id = getClusterIdByName(iClusterName);
       if (id == -1)
@@ -465,6 +465,44 @@ public class ODatabaseDocumentTx extends ODatabaseRecordWrapperAbstract<ODatabas
     }
   }
 
+  /**
+   * Returns the name of the cluster where to create the document. If the class defines the "shardKey" custom attribute, the
+   * cluster is selected among the clusters of the class by the hash of the shard key field, so the records of the class are spread
+   * on all its clusters and the same key always goes in the same cluster while the clusters of the class don't change. When a
+   * cluster is appended to the class only the keys that go to the new cluster change cluster, while removing a cluster or changing
+   * their order remaps the keys. Otherwise it's the default cluster of the class.
+   */
+  protected String getClusterNameForNewDocument(final ODocument iDocument) {
+    final OClass cls = iDocument.getSchemaClass();
+
+    final String shardKey = cls.getCustom(OClass.CUSTOM_SHARD_KEY);
+    if (shardKey != null) {
+      final Object key = iDocument.field(shardKey);
+      final int[] clusterIds = cls.getClusterIds();
+      if (key != null && clusterIds.length > 1)
+        // THE HASH OF THE STRING IS THE SAME ON ALL THE JVMS
+        return getClusterNameById(clusterIds[getShardIndex(key.toString().hashCode(), clusterIds.length)]);
+    }
+
+    return getClusterNameById(cls.getDefaultClusterId());
+  }
+
+  /**
+   * Jump consistent hash of Lamping and Veach: maps the key to one of the buckets so that adding a bucket moves only 1/n of the keys,
+   * all to the new bucket.
+   */
+  protected static int getShardIndex(final long iKey, final int iBuckets) {
+    long key = iKey;
+    long bucket = -1;
+    long next = 0;
+    while (next < iBuckets) {
+      bucket = next;
+      key = key * 2862933555777941757L + 1;
+      next = (long) ((bucket + 1) * ((double) (1L << 31) / (double) ((key >>> 33) + 1)));
+    }
+    return (int) bucket;
+  }
+
   public String getType() {
     return TYPE;
   }
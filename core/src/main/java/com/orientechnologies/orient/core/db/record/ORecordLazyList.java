@@ -15,6 +15,7 @@
  */
 package com.orientechnologies.orient.core.db.record;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
@@ -127,8 +128,15 @@ public class ORecordLazyList extends ORecordTrackedList implements ORecordLazyMu
   @Override
   public OLazyIterator<OIdentifiable> iterator() {
     lazyLoad(false);
-    return new OLazyRecordIterator(sourceRecord, new OLazyIteratorListWrapper<OIdentifiable>(super.listIterator()),
-        autoConvertToRecord);
+    final ListIterator<OIdentifiable> underlying = super.listIterator();
+    return new OLazyRecordIterator(sourceRecord, new OLazyIteratorListWrapper<OIdentifiable>(underlying) {
+      @Override
+      public OIdentifiable next() {
+        // LOAD THE NEXT RECORDS ALL TOGETHER
+        prefetch(underlying.nextIndex());
+        return super.next();
+      }
+    }, autoConvertToRecord);
   }
 
   @Override
@@ -301,6 +309,7 @@ public class ORecordLazyList extends ORecordTrackedList implements ORecordLazyMu
       return;
 
     for (int i = 0; i < size(); ++i) {
+      prefetch(i);
       try {
         convertLink2Record(i);
       } catch (ORecordNotFoundException e) {
@@ -332,6 +341,24 @@ public class ORecordLazyList extends ORecordTrackedList implements ORecordLazyMu
     return allConverted;
   }
 
+  /**
+   * Loads with one request the records linked from the position received, every batch of positions.
+   */
+  private void prefetch(final int iIndex) {
+    if (ridOnly || !autoConvertToRecord || contentType == MULTIVALUE_CONTENT_TYPE.ALL_RECORDS)
+      return;
+
+    final int batchSize = OGlobalConfiguration.CLIENT_RECORD_LOAD_BATCH_SIZE.getValueAsInteger();
+    if (batchSize < 2 || iIndex % batchSize != 0 || iIndex >= super.size() || !(super.get(iIndex) instanceof ORecordId))
+      return;
+
+    final int end = Math.min(iIndex + batchSize, super.size());
+    final List<OIdentifiable> links = new ArrayList<OIdentifiable>(end - iIndex);
+    for (int i = iIndex; i < end; ++i)
+      links.add(super.get(i));
+    ORecordMultiValueHelper.prefetchRecords(links);
+  }
+
   /**
    * Convert the item requested from link to record.
    * 
@@ -15,9 +15,20 @@
  */
 package com.orientechnologies.orient.core.db.record;
 
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
 import com.orientechnologies.common.collection.OMultiValue;
+import com.orientechnologies.orient.core.Orient;
+import com.orientechnologies.orient.core.db.ODatabaseRecordThreadLocal;
 import com.orientechnologies.orient.core.id.ORID;
+import com.orientechnologies.orient.core.id.ORecordId;
 import com.orientechnologies.orient.core.record.ORecord;
+import com.orientechnologies.orient.core.record.ORecordInternal;
+import com.orientechnologies.orient.core.storage.ORawBuffer;
+import com.orientechnologies.orient.core.storage.OStorageProxy;
 
 /**
  * Lazy implementation of ArrayList. It's bound to a source ORecord object to keep track of changes. This avoid to call the
@@ -63,4 +74,36 @@ public class ORecordMultiValueHelper {
 		iMultivalue.setAutoConvertToRecord(previousAutoConvertSetting);
 		return result;
 	}
+
+	/**
+	 * Loads with one request the linked records not yet in the level-1 cache, when the database is remote. The records are put in the
+	 * level-1 cache, so converting the links to records doesn't cost a round-trip per record.
+	 */
+	public static void prefetchRecords(final Iterable<? extends OIdentifiable> iLinks) {
+		final ODatabaseRecord db = ODatabaseRecordThreadLocal.INSTANCE.getIfDefined();
+		if (db == null || db.isClosed() || !(db.getStorage() instanceof OStorageProxy) || !db.getLevel1Cache().isEnabled())
+			return;
+
+		final Set<ORID> unique = new HashSet<ORID>();
+		final List<ORecordId> rids = new ArrayList<ORecordId>();
+		for (OIdentifiable link : iLinks)
+			if (link instanceof ORecordId && ((ORecordId) link).isPersistent() && unique.add((ORecordId) link)
+					&& db.getLevel1Cache().findRecord((ORecordId) link) == null)
+				rids.add((ORecordId) link);
+
+		if (rids.size() < 2)
+			// NOTHING TO GAIN
+			return;
+
+		final ORawBuffer[] buffers = ((OStorageProxy) db.getStorage()).readRecords(rids, "", false, false);
+		if (buffers == null)
+			return;
+
+		for (int i = 0; i < buffers.length; ++i)
+			if (buffers[i] != null) {
+				final ORecordInternal<?> record = Orient.instance().getRecordFactoryManager().newInstance(buffers[i].recordType);
+				record.fill(rids.get(i), buffers[i].version, buffers[i].buffer, false);
+				db.getLevel1Cache().updateRecord(record);
+			}
+	}
 }
@@ -16,6 +16,7 @@
 package com.orientechnologies.orient.core.iterator;
 
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.NoSuchElementException;
 
 import com.orientechnologies.orient.core.db.record.ODatabaseRecord;
@@ -375,6 +376,30 @@ public class ORecordIteratorClusters<REC extends ORecordInternal<?>> extends OId
     begin();
   }
 
+  public int[] getClusterIds() {
+    return clusterIds;
+  }
+
+  /**
+   * Browses only the configured clusters contained in iClusterIds, restarting from the begin.
+   * 
+   * @return The object itself
+   */
+  public ORecordIteratorClusters<REC> retainClusters(final Collection<Integer> iClusterIds) {
+    final int[] retained = new int[clusterIds.length];
+    int size = 0;
+    for (int clusterId : clusterIds)
+      if (iClusterIds.contains(clusterId))
+        retained[size++] = clusterId;
+
+    clusterIds = Arrays.copyOf(retained, size);
+    currentRecord = null;
+    browsedRecords = 0;
+    totalAvailableRecords = 0;
+    config();
+    return this;
+  }
+
   @Override
   public String toString() {
     return String.format("ORecordIteratorCluster.clusters(%s).currentRecord(%s).range(%s-%s)", Arrays.toString(clusterIds),
@@ -30,6 +30,11 @@ import com.orientechnologies.orient.core.index.OIndex;
  * 
  */
 public interface OClass extends Comparable<OClass> {
+  /**
+   * Custom attribute with the name of the field used to select the cluster of the new records among the clusters of the class.
+   */
+  public static final String CUSTOM_SHARD_KEY = "shardKey";
+
   public static enum ATTRIBUTES {
     NAME, SHORTNAME, SUPERCLASS, OVERSIZE, STRICTMODE, ADDCLUSTER, REMOVECLUSTER, CUSTOM, ABSTRACT
   }
@@ -49,9 +49,9 @@ public class ODocumentComparator implements Comparator<OIdentifiable> {
       final String fieldName = field.getKey();
       final String ordering = field.getValue();
 
-      fieldValue1 = ((ODocument) iDoc1.getRecord()).field(fieldName);
+      fieldValue1 = getFieldValue(iDoc1, fieldName);
 
-      fieldValue2 = ((ODocument) iDoc2.getRecord()).field(fieldName);
+      fieldValue2 = getFieldValue(iDoc2, fieldName);
 
       if (fieldValue1 == null && fieldValue2 == null) {
           continue;
@@ -79,6 +79,15 @@ public class ODocumentComparator implements Comparator<OIdentifiable> {
     return partialResult;
   }
 
+  /**
+   * Returns the value of the field, or null if the record is not a document, so records of other types are ordered as documents
+   * without the field.
+   */
+  private static Object getFieldValue(final OIdentifiable iRecord, final String iFieldName) {
+    final Object record = iRecord.getRecord();
+    return record instanceof ODocument ? ((ODocument) record).field(iFieldName) : null;
+  }
+
   private int factor(final int partialResult, final String iOrdering) {
     if (iOrdering.equals(OCommandExecutorSQLSelect.KEYWORD_DESC))
       // INVERT THE ORDERING
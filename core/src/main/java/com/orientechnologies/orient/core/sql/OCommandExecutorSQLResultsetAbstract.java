@@ -25,6 +25,7 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 
+import com.orientechnologies.orient.core.command.OCommandContext;
 import com.orientechnologies.orient.core.command.OCommandRequest;
 import com.orientechnologies.orient.core.command.OCommandRequestText;
 import com.orientechnologies.orient.core.db.ODatabaseRecordThreadLocal;
@@ -287,7 +288,14 @@ public abstract class OCommandExecutorSQLResultsetAbstract extends OCommandExecu
   }
 
   protected boolean filter(final ORecordInternal<?> iRecord) {
-    context.setVariable("current", iRecord);
+    return filterByTargetClass(iRecord, context) && evaluateRecord(iRecord);
+  }
+
+  /**
+   * Sets the record as current in the context and checks it belongs to the target classes.
+   */
+  protected boolean filterByTargetClass(final ORecordInternal<?> iRecord, final OCommandContext iContext) {
+    iContext.setVariable("current", iRecord);
 
     if (iRecord instanceof ORecordSchemaAware<?>) {
       // CHECK THE TARGET CLASS
@@ -299,11 +307,11 @@ public abstract class OCommandExecutorSQLResultsetAbstract extends OCommandExecu
           if (!targetClass.isSuperClassOf(recordSchemaAware.getSchemaClass()))
             return false;
         }
-        context.updateMetric("documentAnalyzedCompatibleClass", +1);
+        iContext.updateMetric("documentAnalyzedCompatibleClass", +1);
       }
     }
 
-    return evaluateRecord(iRecord);
+    return true;
   }
 
   protected boolean evaluateRecord(final ORecord<?> iRecord) {
@@ -23,14 +23,18 @@ import com.orientechnologies.common.log.OLogManager;
 import com.orientechnologies.common.util.OPair;
 import com.orientechnologies.orient.core.command.OBasicCommandContext;
 import com.orientechnologies.orient.core.command.OCommandRequest;
+import com.orientechnologies.orient.core.command.OCommandResultListener;
+import com.orientechnologies.orient.core.config.OGlobalConfiguration;
 import com.orientechnologies.orient.core.db.record.ODatabaseRecord;
 import com.orientechnologies.orient.core.db.record.OIdentifiable;
 import com.orientechnologies.orient.core.exception.OCommandExecutionException;
 import com.orientechnologies.orient.core.exception.OQueryParsingException;
+import com.orientechnologies.orient.core.id.ORID;
 import com.orientechnologies.orient.core.index.OCompositeIndexDefinition;
 import com.orientechnologies.orient.core.index.OIndex;
 import com.orientechnologies.orient.core.index.OIndexDefinition;
 import com.orientechnologies.orient.core.index.OIndexInternal;
+import com.orientechnologies.orient.core.iterator.ORecordIteratorClusters;
 import com.orientechnologies.orient.core.metadata.schema.OClass;
 import com.orientechnologies.orient.core.metadata.schema.OProperty;
 import com.orientechnologies.orient.core.metadata.schema.OType;
@@ -41,6 +45,8 @@ import com.orientechnologies.orient.core.record.ORecordInternal;
 import com.orientechnologies.orient.core.record.impl.ODocument;
 import com.orientechnologies.orient.core.record.impl.ODocumentHelper;
 import com.orientechnologies.orient.core.serialization.serializer.OStringSerializerHelper;
+import com.orientechnologies.orient.core.sql.filter.OSQLBatchFilter;
+import com.orientechnologies.orient.core.sql.filter.OSQLFilter;
 import com.orientechnologies.orient.core.sql.filter.OSQLFilterCondition;
 import com.orientechnologies.orient.core.sql.filter.OSQLFilterItem;
 import com.orientechnologies.orient.core.sql.filter.OSQLFilterItemField;
@@ -61,8 +67,10 @@ import com.orientechnologies.orient.core.sql.operator.OQueryOperatorMinorEquals;
 import com.orientechnologies.orient.core.sql.operator.OQueryOperatorOr;
 import com.orientechnologies.orient.core.sql.query.OSQLQuery;
 import com.orientechnologies.orient.core.storage.OStorage;
+import com.orientechnologies.orient.core.storage.OStorageEmbedded;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
@@ -74,6 +82,7 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Executes the SQL SELECT statement. the parse() method compiles the query and builds the meta information needed by the execute().
@@ -92,8 +101,18 @@ public class OCommandExecutorSQLSelect extends OCommandExecutorSQLResultsetAbstr
   public static final String KEYWORD_BY = "BY";
   public static final String KEYWORD_GROUP = "GROUP";
   public static final String KEYWORD_FETCHPLAN = "FETCHPLAN";
+  public static final String KEYWORD_PARALLEL = "PARALLEL";
   private static final int MIN_THRESHOLD_USE_INDEX_AS_TARGET = 100;
 
+  /**
+   * Context variable with the names of the clusters to browse when the query is the part executed by one node of a distributed
+   * query. The results are partial: aggregates are returned as states to merge, with the key of the group in
+   * {@link #PARTIAL_GROUP_KEY}, and ORDER BY, SKIP and LIMIT return the top records to merge.
+   */
+  public static final String VAR_PARTIAL_CLUSTERS = "partialClusters";
+  public static final String PARTIAL_GROUP_KEY = "partialGroupKey";
+  private static final ThreadLocal<Boolean> PARTIAL_RESULT = new ThreadLocal<Boolean>();
+
   private Map<String, String> projectionDefinition = null;
   private Map<String, Object> projections = null;       // THIS HAS BEEN KEPT FOR COMPATIBILITY; BUT
   // IT'S
@@ -107,6 +126,13 @@ public class OCommandExecutorSQLSelect extends OCommandExecutorSQLResultsetAbstr
   private OIdentifiable lastRecord;
   private Iterator<OIdentifiable> subIterator;
   private String fetchPlan;
+  private OOrderBySorter orderBySorter;
+  private OGroupByAggregator groupByAggregator;
+  private boolean groupByAggregatorChecked;
+  private String whereClause;
+  private boolean parallel;
+  private volatile boolean stoppedByListener;
+  private Set<Integer> partialClusterIds;
 
   /**
    * Compile the filter conditions only the first time.
@@ -139,13 +165,16 @@ public class OCommandExecutorSQLSelect extends OCommandExecutorSQLResultsetAbstr
       while (!parserIsEnded()) {
         parserNextWord(true);
 
-        if (!parserIsEnded()) {
+        final String w = parserGetLastWord();
 
-          final String w = parserGetLastWord();
+        if (w.equals(KEYWORD_PARALLEL))
+          // ACCEPTED ALSO AS LAST WORD
+          parallel = true;
+        else if (!parserIsEnded()) {
 
           if (w.equals(KEYWORD_WHERE)) {
-            compiledFilter = OSQLEngine.getInstance().parseCondition(parserText.substring(parserGetCurrentPosition(), endPosition),
-                getContext(), KEYWORD_WHERE);
+            whereClause = parserText.substring(parserGetCurrentPosition(), endPosition);
+            compiledFilter = OSQLEngine.getInstance().parseCondition(whereClause, getContext(), KEYWORD_WHERE);
             optimize();
             parserSetCurrentPosition(compiledFilter.parserIsEnded() ? endPosition : compiledFilter.parserGetCurrentPosition()
                 + parserGetCurrentPosition());
@@ -284,13 +313,17 @@ public class OCommandExecutorSQLSelect extends OCommandExecutorSQLResultsetAbstr
     if (subIterator == null) {
       if (target == null) {
         // GET THE RESULT
-        executeSearch(null);
-        applyExpand();
-        handleNoTarget();
-        handleGroupBy();
-        applyOrderBy();
-
-        subIterator = new ArrayList<OIdentifiable>((List<OIdentifiable>) getResult()).iterator();
+        try {
+          executeSearch(null);
+          applyExpand();
+          handleNoTarget();
+          handleGroupBy();
+          applyOrderBy();
+
+          subIterator = new ArrayList<OIdentifiable>((List<OIdentifiable>) getResult()).iterator();
+        } finally {
+          closeOrderBy();
+        }
         lastRecord = null;
         tempResult = null;
         groupedResult = null;
@@ -326,17 +359,24 @@ public class OCommandExecutorSQLSelect extends OCommandExecutorSQLResultsetAbstr
     if (timeoutMs > 0)
       getContext().beginExecution(timeoutMs, timeoutStrategy);
 
-    if (!optimizeExecution()) {
-      fetchLimit = getQueryFetchLimit();
+    preparePartialExecution();
+
+    try {
+      if (partialClusterIds != null || !optimizeExecution()) {
+        fetchLimit = getQueryFetchLimit();
 
-      executeSearch(iArgs);
-      applyExpand();
-      handleNoTarget();
-      handleGroupBy();
-      applyOrderBy();
-      applyLimitAndSkip();
+        executeSearch(iArgs);
+        applyExpand();
+        handleNoTarget();
+        handleGroupBy();
+        applyOrderBy();
+        applyLimitAndSkip();
+      }
+      return getResult();
+    } finally {
+      // ALSO ON ERRORS: THE RECORDS SPILLED TO DISK BY THE ORDER BY ARE NOT NEEDED ANYMORE
+      closeOrderBy();
     }
-    return getResult();
   }
 
   protected void executeSearch(final Map<Object, Object> iArgs) {
@@ -354,10 +394,17 @@ public class OCommandExecutorSQLSelect extends OCommandExecutorSQLResultsetAbstr
     final long startFetching = System.currentTimeMillis();
     try {
 
-      // BROWSE ALL THE RECORDS
-      while (target.hasNext())
-        if (!executeSearchRecord(target.next()))
-          break;
+      final int[] parallelClusterIds = getParallelClusterIds();
+      final OSQLBatchFilter batchFilter;
+      if (parallelClusterIds != null)
+        parallelSearch(parallelClusterIds);
+      else if ((batchFilter = getBatchFilter()) != null)
+        batchSearch(batchFilter);
+      else
+        // BROWSE ALL THE RECORDS
+        while (target.hasNext())
+          if (!executeSearchRecord(target.next()))
+            break;
 
     } finally {
       context.setVariable("fetchingFromTargetElapsed", (System.currentTimeMillis() - startFetching));
@@ -407,6 +454,11 @@ public class OCommandExecutorSQLSelect extends OCommandExecutorSQLResultsetAbstr
   protected boolean handleResult(final OIdentifiable iRecord, final boolean iCloneIt) {
     lastRecord = null;
 
+    if (partialClusterIds != null && iRecord.getIdentity().isPersistent()
+        && !partialClusterIds.contains(iRecord.getIdentity().getClusterId()))
+      // RECORD OF A CLUSTER ASSIGNED TO ANOTHER NODE (INDEX LOOKUP)
+      return true;
+
     if (orderedFields == null && skip > 0) {
       skip--;
       return true;
@@ -421,6 +473,10 @@ public class OCommandExecutorSQLSelect extends OCommandExecutorSQLResultsetAbstr
 
     addResult(lastRecord);
 
+    if (stoppedByListener)
+      // THE LISTENER DOESN'T WANT MORE RESULTS
+      return false;
+
     if (orderedFields == null && !isAnyFunctionAggregates() && fetchLimit > -1 && resultCount >= fetchLimit)
       // BREAK THE EXECUTION
       return false;
@@ -428,6 +484,157 @@ public class OCommandExecutorSQLSelect extends OCommandExecutorSQLResultsetAbstr
     return true;
   }
 
+  /**
+   * Returns the clusters to scan in parallel, or null if the query has to be executed by the current thread. Only full scans of
+   * local storages outside transactions without LET and RID ranges are executed in parallel, when the PARALLEL keyword is used or
+   * when the records to browse are more than the configured threshold.
+   */
+  private int[] getParallelClusterIds() {
+    if (!(target instanceof ORecordIteratorClusters<?>) || let != null)
+      return null;
+
+    final ODatabaseRecord database = getDatabase();
+    if (!(database.getStorage() instanceof OStorageEmbedded) || database.getTransaction().isActive())
+      // REMOTE STORAGES AND TRANSACTIONS NEED TO LOAD THE RECORDS THROUGH THE DATABASE
+      return null;
+
+    final ORID[] range = getRange();
+    if (range[0] != null || range[1] != null)
+      return null;
+
+    final int[] clusterIds = ((ORecordIteratorClusters<?>) target).getClusterIds();
+    if (!parallel) {
+      final long minimum = OGlobalConfiguration.QUERY_PARALLEL_MINIMUM_RECORDS.getValueAsLong();
+      if (minimum <= 0 || database.countClusterElements(clusterIds) < minimum)
+        return null;
+    }
+    return clusterIds;
+  }
+
+  /**
+   * Returns the filter to evaluate the WHERE condition against batches of records, or null if the records have to be filtered one
+   * at a time. Batches are used only browsing clusters without LET, because the records must be all loaded before filtering them.
+   */
+  private OSQLBatchFilter getBatchFilter() {
+    if (compiledFilter == null || !(target instanceof ORecordIteratorClusters<?>) || let != null
+        || ((ORecordIteratorClusters<?>) target).isReuseSameRecord())
+      return null;
+
+    return OSQLBatchFilter.create(compiledFilter, OGlobalConfiguration.QUERY_VECTORIZED_BATCH_SIZE.getValueAsInteger());
+  }
+
+  /**
+   * Browses the records filtering them in batches. The documents of a batch are loaded first, then the condition is evaluated on
+   * all of them together and the matching ones are handled in the original order.
+   */
+  private void batchSearch(final OSQLBatchFilter iFilter) {
+    final ODocument[] batch = new ODocument[iFilter.getBatchSize()];
+    final int[] selection = new int[batch.length];
+
+    while (target.hasNext()) {
+      if (Thread.interrupted())
+        throw new OCommandExecutionException("The select execution has been interrupted");
+
+      if (!context.checkTimeout())
+        return;
+
+      // LOAD THE NEXT BATCH
+      int size = 0;
+      while (size < batch.length && target.hasNext()) {
+        final ORecordInternal<?> record = target.next().getRecord();
+
+        context.updateMetric("recordReads", +1);
+
+        if (record == null || record.getRecordType() != ODocument.RECORD_TYPE)
+          // SKIP IT
+          continue;
+
+        context.updateMetric("documentReads", +1);
+
+        if (filterByTargetClass(record, context))
+          batch[size++] = (ODocument) record;
+      }
+
+      final int selected = size > 0 ? iFilter.filter(batch, size, selection, context) : 0;
+
+      try {
+        for (int i = 0; i < selected; ++i)
+          if (!handleResult(batch[selection[i]], true))
+            // END OF EXECUTION
+            return;
+      } finally {
+        Arrays.fill(batch, 0, size, null);
+      }
+    }
+  }
+
+  /**
+   * Scans the clusters with one worker per core. Workers filter and project the records on their own thread, while the results are
+   * collected by the current thread. GROUP BY and aggregates supported by {@link OGroupByAggregator} are computed per worker and
+   * merged at the end.
+   */
+  private void parallelSearch(final int[] iClusterIds) {
+    if (groupedResult != null && !groupByAggregatorChecked) {
+      groupByAggregator = OGroupByAggregator.create(projections, groupByFields,
+          OGlobalConfiguration.QUERY_GROUP_BY_BUFFER_SIZE.getValueAsInteger());
+      groupByAggregatorChecked = true;
+    }
+
+    final boolean projectInWorkers = projections != null && groupedResult == null;
+    final AtomicInteger projectionIds = new AtomicInteger(resultCount);
+
+    final List<ParallelWorker> workers = new ArrayList<ParallelWorker>();
+    for (int i = Runtime.getRuntime().availableProcessors(); i > 0; --i)
+      workers.add(new ParallelWorker(projectInWorkers, projectionIds));
+
+    final OParallelClusterScanner scanner = new OParallelClusterScanner(getDatabase(), iClusterIds, !request.isUseCache());
+
+    boolean completed = false;
+    try {
+      scanner.scan(workers, new OCommandResultListener() {
+        public boolean result(final Object iRecord) {
+          if (projectInWorkers)
+            return handleProjectedResult((ODocument) iRecord);
+          // RECORDS ARE LOADED BY THE WORKERS: NO NEED TO CLONE THEM
+          return handleResult((OIdentifiable) iRecord, false);
+        }
+
+        public void end() {
+        }
+      });
+      completed = true;
+
+    } finally {
+      context.updateMetric("recordReads", scanner.getBrowsedRecords());
+      for (ParallelWorker w : workers) {
+        context.updateMetric("documentReads", w.documentReads);
+        if (w.aggregator != null) {
+          if (completed)
+            groupByAggregator.merge(w.aggregator);
+          else
+            w.aggregator.close();
+        }
+      }
+    }
+  }
+
+  private boolean handleProjectedResult(final ODocument iProjection) {
+    lastRecord = null;
+
+    if (orderedFields == null && skip > 0) {
+      skip--;
+      return true;
+    }
+
+    lastRecord = iProjection;
+    resultCount++;
+
+    sendResult(iProjection);
+
+    // BREAK THE EXECUTION ONCE THE LIMIT IS REACHED OR THE LISTENER DOESN'T WANT MORE RESULTS
+    return !stoppedByListener && (orderedFields != null || fetchLimit < 0 || resultCount < fetchLimit);
+  }
+
   protected void addResult(OIdentifiable iRecord) {
     if (iRecord == null)
       return;
@@ -441,6 +648,19 @@ public class OCommandExecutorSQLSelect extends OCommandExecutorSQLResultsetAbstr
       } else {
         // AGGREGATION/GROUP BY
         final ODocument doc = (ODocument) iRecord.getRecord();
+
+        if (!groupByAggregatorChecked) {
+          groupByAggregator = OGroupByAggregator.create(projections, groupByFields,
+              OGlobalConfiguration.QUERY_GROUP_BY_BUFFER_SIZE.getValueAsInteger());
+          groupByAggregatorChecked = true;
+        }
+
+        if (groupByAggregator != null) {
+          // FAST PATH WITH PRIMITIVE ACCUMULATORS
+          groupByAggregator.aggregate(doc);
+          return;
+        }
+
         Object fieldValue = null;
         if (groupByFields != null && !groupByFields.isEmpty()) {
           if (groupByFields.size() > 1) {
@@ -470,10 +690,22 @@ public class OCommandExecutorSQLSelect extends OCommandExecutorSQLResultsetAbstr
       }
     }
 
+    sendResult(iRecord);
+  }
+
+  private void sendResult(final OIdentifiable iRecord) {
     if (orderedFields == null && expandTarget == null) {
       // SEND THE RESULT INLINE
-      if (request.getResultListener() != null)
-        request.getResultListener().result(iRecord);
+      if (request.getResultListener() != null && !request.getResultListener().result(iRecord))
+        stoppedByListener = true;
+
+    } else if (expandTarget == null) {
+
+      // KEEP ONLY THE RECORDS NEEDED BY THE ORDER BY (TOP-K OR SPILLING TO DISK), THEN ORDER THEM AT THE END
+      if (orderBySorter == null)
+        orderBySorter = new OOrderBySorter(orderedFields, skip, getQueryLimit(),
+            OGlobalConfiguration.QUERY_ORDER_BY_BUFFER_SIZE.getValueAsInteger());
+      orderBySorter.add(iRecord);
 
     } else {
 
@@ -532,6 +764,10 @@ public class OCommandExecutorSQLSelect extends OCommandExecutorSQLResultsetAbstr
       return -1;
     }
 
+    return getQueryLimit();
+  }
+
+  private int getQueryLimit() {
     final int sqlLimit;
     final int requestLimit;
 
@@ -562,6 +798,54 @@ public class OCommandExecutorSQLSelect extends OCommandExecutorSQLResultsetAbstr
     return orderedFields;
   }
 
+  public List<String> getGroupByFields() {
+    return groupByFields;
+  }
+
+  public Object getExpandTarget() {
+    return expandTarget;
+  }
+
+  public int getSkip() {
+    return skip;
+  }
+
+  /**
+   * Returns the clusters browsed when the target is a class or a list of clusters by name, otherwise null.
+   */
+  public int[] getTargetClusterIds() {
+    if (parsedTarget == null)
+      return null;
+
+    if (parsedTarget.getTargetClasses() != null)
+      return parsedTarget.getTargetClasses().keySet().iterator().next().getPolymorphicClusterIds();
+
+    if (parsedTarget.getTargetClusters() != null) {
+      final ODatabaseRecord database = getDatabase();
+      final int[] clusterIds = new int[parsedTarget.getTargetClusters().size()];
+      int i = 0;
+      for (String clusterName : parsedTarget.getTargetClusters().keySet()) {
+        if (clusterName == null || clusterName.length() == 0 || Character.isDigit(clusterName.charAt(0)))
+          return null;
+
+        clusterIds[i] = database.getClusterIdByName(clusterName.toLowerCase());
+        if (clusterIds[i++] == -1)
+          return null;
+      }
+      return clusterIds;
+    }
+
+    return null;
+  }
+
+  /**
+   * Returns true if the aggregate functions have to return their partial state because the query is the part executed by one node
+   * of a distributed query.
+   */
+  public static boolean isPartialResult() {
+    return PARTIAL_RESULT.get() != null;
+  }
+
   protected void parseGroupBy(final String w) {
     parserRequiredKeyword(KEYWORD_BY);
 
@@ -621,8 +905,47 @@ public class OCommandExecutorSQLSelect extends OCommandExecutorSQLResultsetAbstr
     final OClass cls = parsedTarget.getTargetClasses().keySet().iterator().next();
 
     if (searchForIndexes(cls)) {
-    } else
+    } else {
       super.searchInClasses();
+      retainPartialClusters();
+    }
+  }
+
+  @Override
+  protected void searchInClusters() {
+    super.searchInClusters();
+    retainPartialClusters();
+  }
+
+  /**
+   * Reads the clusters assigned to the current node when the query is the part of a distributed query. The fast paths that compute
+   * the final result (count of the class, GROUP BY accumulators) are disabled, the groups are returned all and SKIP is added to the
+   * LIMIT to return the local top-K.
+   */
+  private void preparePartialExecution() {
+    final Object clusters = context.getVariable(VAR_PARTIAL_CLUSTERS);
+    if (partialClusterIds != null || !(clusters instanceof Collection<?>))
+      return;
+
+    final ODatabaseRecord database = getDatabase();
+    partialClusterIds = new HashSet<Integer>();
+    for (Object clusterName : (Collection<?>) clusters) {
+      final int clusterId = database.getClusterIdByName(clusterName.toString());
+      if (clusterId > -1)
+        partialClusterIds.add(clusterId);
+    }
+
+    groupByAggregatorChecked = true;
+    if (groupedResult != null)
+      limit = -1;
+    else if (limit > -1)
+      limit += skip;
+    skip = 0;
+  }
+
+  private void retainPartialClusters() {
+    if (partialClusterIds != null && target instanceof ORecordIteratorClusters<?>)
+      ((ORecordIteratorClusters<?>) target).retainClusters(partialClusterIds);
   }
 
   @SuppressWarnings("rawtypes")
@@ -647,6 +970,11 @@ public class OCommandExecutorSQLSelect extends OCommandExecutorSQLResultsetAbstr
       }
     });
 
+    if (indexSearchResults.isEmpty() || indexSearchResults.get(0).getFieldCount() == 1)
+      // NO COMPOSITE INDEX MATCHES MULTIPLE CONDITIONS: TRY TO COMBINE THE INDEXES OF THE SINGLE CONDITIONS
+      if (searchForMultipleIndexes(iSchemaClass))
+        return true;
+
     // go through all variants to choose which one can be used for index search.
     for (final OIndexSearchResult searchResult : indexSearchResults) {
       final List<OIndex<?>> involvedIndexes = getInvolvedIndexes(iSchemaClass, searchResult);
@@ -751,6 +1079,102 @@ public class OCommandExecutorSQLSelect extends OCommandExecutorSQLResultsetAbstr
     return false;
   }
 
+  /**
+   * Searches by intersecting the RIDs of the indexed conditions in AND and by uniting the RIDs of the indexed conditions in OR. Used
+   * only when at least two index lookups can be combined, otherwise a single index is used as usual.
+   */
+  private boolean searchForMultipleIndexes(final OClass iSchemaClass) {
+    final OMultiIndexSearch search = createMultiIndexSearch(iSchemaClass, compiledFilter.getRootCondition());
+    if (search == null || search.getIndexCount() < 2)
+      return false;
+
+    final ORID[] rids;
+    try {
+      rids = search.execute(context);
+    } catch (Exception e) {
+      OLogManager.instance().error(this,
+          "Error on using indexes in query '%s'. Probably you need to rebuild indexes. Now executing query using cluster scan", e,
+          request != null && request.getText() != null ? request.getText() : "");
+      return false;
+    }
+
+    if (rids == null)
+      return false;
+
+    if (context.isRecordingMetrics()) {
+      Set<String> idxNames = (Set<String>) context.getVariable("involvedIndexes");
+      if (idxNames == null) {
+        idxNames = new HashSet<String>();
+        context.setVariable("involvedIndexes", idxNames);
+      }
+      search.getIndexNames(idxNames);
+    }
+
+    // THE RIDS ARE SORTED: RECORDS ARE LOADED IN PHYSICAL ORDER
+    for (ORID rid : rids) {
+      final ORecord<?> record = rid.getRecord();
+      // Don't throw exceptions is record is null, as indexed queries may fail when using record level security
+      if (record != null && filter((ORecordInternal<?>) record))
+        if (!handleResult(record, false))
+          break;
+    }
+    return true;
+  }
+
+  private static OMultiIndexSearch createMultiIndexSearch(final OClass iSchemaClass, OSQLFilterCondition iCondition) {
+    if (iCondition == null)
+      return null;
+
+    OQueryOperator operator = iCondition.getOperator();
+    while (operator == null) {
+      if (iCondition.getRight() == null && iCondition.getLeft() instanceof OSQLFilterCondition) {
+        iCondition = (OSQLFilterCondition) iCondition.getLeft();
+        operator = iCondition.getOperator();
+      } else
+        return null;
+    }
+
+    final OIndexReuseType indexReuseType = operator.getIndexReuseType(iCondition.getLeft(), iCondition.getRight());
+    if (indexReuseType.equals(OIndexReuseType.INDEX_INTERSECTION) || indexReuseType.equals(OIndexReuseType.INDEX_UNION)) {
+      if (!(iCondition.getLeft() instanceof OSQLFilterCondition) || !(iCondition.getRight() instanceof OSQLFilterCondition))
+        return null;
+
+      final OMultiIndexSearch left = createMultiIndexSearch(iSchemaClass, (OSQLFilterCondition) iCondition.getLeft());
+      final OMultiIndexSearch right = createMultiIndexSearch(iSchemaClass, (OSQLFilterCondition) iCondition.getRight());
+
+      if (indexReuseType.equals(OIndexReuseType.INDEX_INTERSECTION))
+        return OMultiIndexSearch.and(left, right);
+      return OMultiIndexSearch.or(left, right);
+
+    } else if (indexReuseType.equals(OIndexReuseType.INDEX_METHOD)) {
+      OIndexSearchResult result = createIndexedProperty(iCondition, iCondition.getLeft());
+      if (result == null)
+        result = createIndexedProperty(iCondition, iCondition.getRight());
+
+      if (result == null || result.lastValue instanceof OSQLQuery<?> || !checkIndexExistence(iSchemaClass, result))
+        return null;
+
+      final List<OIndex<?>> involvedIndexes = getInvolvedIndexes(iSchemaClass, result);
+      Collections.sort(involvedIndexes, IndexComparator.INSTANCE);
+
+      for (final OIndex<?> index : involvedIndexes) {
+        if (index.isRebuiding())
+          continue;
+
+        if (!OIndexSearchResult.isIndexEqualityOperator(operator)) {
+          // RANGES CAN BE SEARCHED ONLY ON THE FIRST FIELD OF THE INDEX
+          final String lastField = result.lastField.getItemName(result.lastField.getItemCount() - 1);
+          if (!lastField.equals(index.getDefinition().getFields().get(0)))
+            continue;
+        }
+
+        return OMultiIndexSearch.lookup(index, operator, Collections.singletonList(result.lastValue));
+      }
+    }
+
+    return null;
+  }
+
   private static List<OIndex<?>> getInvolvedIndexes(OClass iSchemaClass, OIndexSearchResult searchResultFields) {
     final Set<OIndex<?>> involvedIndexes = iSchemaClass.getInvolvedIndexes(searchResultFields.fields());
 
@@ -1022,11 +1446,24 @@ public class OCommandExecutorSQLSelect extends OCommandExecutorSQLResultsetAbstr
     final long startOrderBy = System.currentTimeMillis();
     try {
 
-      if (tempResult instanceof OMultiCollectionIterator) {
-        final List<OIdentifiable> list = new ArrayList<OIdentifiable>();
+      if (orderBySorter != null) {
+        // SKIP AND LIMIT HAVE BEEN ALREADY APPLIED BY THE SORTER, THAT IS CLOSED ONCE THE RESULT HAS BEEN BROWSED
+        tempResult = orderBySorter.sort();
+        skip = 0;
+        orderedFields.clear();
+        return;
+      }
+
+      if (tempResult != null && !(tempResult instanceof List<?>)) {
+        // BROWSE THE RESULT ONLY ONCE KEEPING IN MEMORY WHAT IS NEEDED BY THE ORDER BY
+        orderBySorter = new OOrderBySorter(orderedFields, skip, getQueryLimit(),
+            OGlobalConfiguration.QUERY_ORDER_BY_BUFFER_SIZE.getValueAsInteger());
         for (OIdentifiable o : tempResult)
-          list.add(o);
-        tempResult = list;
+          orderBySorter.add(o);
+        tempResult = orderBySorter.sort();
+        skip = 0;
+        orderedFields.clear();
+        return;
       }
 
       ODocumentHelper.sort((List<? extends OIdentifiable>) tempResult, orderedFields);
@@ -1037,6 +1474,13 @@ public class OCommandExecutorSQLSelect extends OCommandExecutorSQLResultsetAbstr
     }
   }
 
+  private void closeOrderBy() {
+    if (orderBySorter != null) {
+      orderBySorter.close();
+      orderBySorter = null;
+    }
+  }
+
   /**
    * Extract the content of collections and/or links and put it as result
    */
@@ -1312,22 +1756,46 @@ public class OCommandExecutorSQLSelect extends OCommandExecutorSQLResultsetAbstr
   }
 
   private void handleGroupBy() {
-    if (groupedResult != null && tempResult == null) {
+    if (groupByAggregator != null && tempResult == null) {
+
+      final long startGroupBy = System.currentTimeMillis();
+      try {
+
+        if (orderedFields == null) {
+          // SKIP AND LIMIT ARE APPLIED BY THE AGGREGATOR, ALSO WHEN THE GROUPS ARE MERGED FROM DISK
+          tempResult = groupByAggregator.getResult(skip, getQueryLimit());
+          skip = 0;
+        } else
+          tempResult = groupByAggregator.getResult(0, -1);
+        groupByAggregator = null;
+
+      } finally {
+        context.setVariable("groupByElapsed", (System.currentTimeMillis() - startGroupBy));
+      }
+
+    } else if (groupedResult != null && tempResult == null) {
 
       final long startGroupBy = System.currentTimeMillis();
       try {
 
         tempResult = new ArrayList<OIdentifiable>();
 
+        if (partialClusterIds != null)
+          PARTIAL_RESULT.set(Boolean.TRUE);
+
         for (Entry<Object, ORuntimeResult> g : groupedResult.entrySet()) {
           if (g.getKey() != null || (groupedResult.size() == 1 && groupByFields == null)) {
-            final ODocument doc = g.getValue().getResult();
-            if (doc != null && !doc.isEmpty())
+            final ODocument doc = partialClusterIds != null ? g.getValue().getPartialResult() : g.getValue().getResult();
+            if (doc != null && !doc.isEmpty()) {
+              if (partialClusterIds != null)
+                doc.field(PARTIAL_GROUP_KEY, g.getKey());
               ((List<OIdentifiable>) tempResult).add(doc);
+            }
           }
         }
 
       } finally {
+        PARTIAL_RESULT.remove();
         context.setVariable("groupByElapsed", (System.currentTimeMillis() - startGroupBy));
       }
     }
@@ -1441,7 +1909,7 @@ public class OCommandExecutorSQLSelect extends OCommandExecutorSQLResultsetAbstr
       }
     }
 
-    if (orderedFields != null && !orderedFields.isEmpty()) {
+    if (orderedFields != null && orderedFields.size() == 1) {
       if (parsedTarget.getTargetClasses() != null) {
         final OClass cls = parsedTarget.getTargetClasses().keySet().iterator().next();
         final OPair<String, String> orderByFirstField = orderedFields.iterator().next();
@@ -1452,7 +1920,7 @@ public class OCommandExecutorSQLSelect extends OCommandExecutorSQLResultsetAbstr
             for (OIndex<?> idx : involvedIndexes) {
               if (idx.getKeyTypes().length == 1 && idx.supportsOrderedIterations()) {
                 if (idx.getType().startsWith("UNIQUE") && idx.getKeySize() < MIN_THRESHOLD_USE_INDEX_AS_TARGET
-                    || compiledFilter == null) {
+                    || compiledFilter == null || isLimitedScanOnOrderedIndex(cls)) {
                   if (orderByFirstField.getValue().equalsIgnoreCase("asc"))
                     target = (Iterator<? extends OIdentifiable>) idx.valuesIterator();
                   else
@@ -1482,6 +1950,19 @@ public class OCommandExecutorSQLSelect extends OCommandExecutorSQLResultsetAbstr
     return false;
   }
 
+  /**
+   * Tells if browsing the index that matches the ORDER BY field and stopping at the LIMIT is cheaper than scanning the whole class.
+   * This is true when there is a LIMIT, no aggregation and the WHERE condition cannot be resolved against another index.
+   */
+  private boolean isLimitedScanOnOrderedIndex(final OClass iSchemaClass) {
+    if (getQueryLimit() < 0 || groupByFields != null || isAnyFunctionAggregates() || expandTarget != null)
+      return false;
+
+    final List<OIndexSearchResult> indexSearchResults = new ArrayList<OIndexSearchResult>();
+    analyzeQueryBranch(iSchemaClass, compiledFilter.getRootCondition(), indexSearchResults);
+    return indexSearchResults.isEmpty();
+  }
+
   private static class IndexComparator implements Comparator<OIndex<?>> {
     private static final IndexComparator INSTANCE = new IndexComparator();
 
@@ -1506,4 +1987,63 @@ public class OCommandExecutorSQLSelect extends OCommandExecutorSQLResultsetAbstr
       return fetchLimit < 0 || fetchLimit >= result.size();
     }
   }
+
+  /**
+   * Worker of a parallel scan. Every worker has its own copy of the WHERE condition, of the projections and of the context, because
+   * they keep state during the evaluation.
+   */
+  private final class ParallelWorker implements OParallelClusterScanner.OWorker {
+    private final OBasicCommandContext workerContext = new OBasicCommandContext();
+    private final OSQLFilter           filter;
+    private final Map<String, Object>  workerProjections;
+    private final OGroupByAggregator   aggregator;
+    private final AtomicInteger        projectionIds;
+    private long                       documentReads;
+
+    private ParallelWorker(final boolean iProject, final AtomicInteger iProjectionIds) {
+      for (Entry<String, Object> v : context.getVariables().entrySet())
+        workerContext.setVariable(v.getKey(), v.getValue());
+
+      if (whereClause != null) {
+        filter = OSQLEngine.getInstance().parseCondition(whereClause, workerContext, KEYWORD_WHERE);
+        if (parameters != null && parameters.size() > 0)
+          filter.bindParameters(parameters);
+      } else
+        filter = null;
+
+      workerProjections = iProject ? createProjectionFromDefinition() : null;
+      aggregator = groupByAggregator != null ? groupByAggregator.createPartial() : null;
+      projectionIds = iProjectionIds;
+    }
+
+    public boolean process(final ORecordInternal<?> iRecord, final OParallelClusterScanner iScanner) {
+      if (!context.checkTimeout())
+        return false;
+
+      if (iRecord.getRecordType() != ODocument.RECORD_TYPE)
+        // SKIP IT
+        return true;
+
+      documentReads++;
+
+      if (!filterByTargetClass(iRecord, workerContext)
+          || (filter != null && !(Boolean) filter.evaluate(iRecord, null, workerContext)))
+        return true;
+
+      if (aggregator != null)
+        aggregator.aggregate((ODocument) iRecord);
+      else if (workerProjections != null) {
+        final ODocument projection = ORuntimeResult.getProjectionResult(projectionIds.incrementAndGet(), workerProjections,
+            workerContext, iRecord);
+        if (projection != null)
+          iScanner.send(projection);
+      } else
+        iScanner.send(iRecord);
+
+      return true;
+    }
+
+    public void end() {
+    }
+  }
 }
@@ -0,0 +1,828 @@
+/*
+ * Copyright 2010-2012 Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientechnologies.orient.core.sql;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+
+import com.orientechnologies.common.log.OLogManager;
+import com.orientechnologies.orient.core.db.record.OIdentifiable;
+import com.orientechnologies.orient.core.exception.OCommandExecutionException;
+import com.orientechnologies.orient.core.metadata.schema.OType;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.core.record.impl.ODocumentHelper;
+import com.orientechnologies.orient.core.sql.filter.OSQLFilterItemField;
+import com.orientechnologies.orient.core.sql.functions.OSQLFunction;
+import com.orientechnologies.orient.core.sql.functions.OSQLFunctionRuntime;
+import com.orientechnologies.orient.core.sql.functions.math.OSQLFunctionAverage;
+import com.orientechnologies.orient.core.sql.functions.math.OSQLFunctionMax;
+import com.orientechnologies.orient.core.sql.functions.math.OSQLFunctionMin;
+import com.orientechnologies.orient.core.sql.functions.math.OSQLFunctionSum;
+import com.orientechnologies.orient.core.sql.functions.misc.OSQLFunctionCount;
+
+/**
+ * Hash based GROUP BY operator for the common case of projections made only by the grouped fields and by count(), sum(), min(),
+ * max() and avg() against a field. Without GROUP BY all the records are aggregated in a single group. Groups are kept in an open addressing table and the aggregated values in primitive arrays indexed
+ * by group, so no object is created per browsed record. When the groups exceed the configured threshold the partial aggregates are
+ * spilled to temporary files partitioned by hash; at the end each partition is merged back on its own. Partial aggregators created by
+ * different threads against the same query can be merged together by calling {@link #merge(OGroupByAggregator)}.
+ *
+ * @author Luca Garulli
+ */
+public class OGroupByAggregator {
+  public enum AGGREGATE {
+    COUNT_ALL, COUNT, SUM, MIN, MAX, AVG
+  }
+
+  private static final int     PARTITION_BITS = 4;
+  private static final int     PARTITIONS     = 1 << PARTITION_BITS;
+
+  // SUM TYPES, IN ORDER OF PRECISION
+  private static final byte    SUM_NONE       = 0;
+  private static final byte    SUM_INTEGER    = 1;
+  private static final byte    SUM_LONG       = 2;
+  private static final byte    SUM_FLOAT      = 3;
+  private static final byte    SUM_DOUBLE     = 4;
+  private static final byte    SUM_OBJECT     = 5;
+
+  private final String[]       groupFields;
+  private final String[]       projectionNames;
+  private final int[]          projectionKeys;
+  private final int[]          projectionAggregates;
+  private final AGGREGATE[]    aggregates;
+  private final String[]       aggregateFields;
+  private final int            maxGroupsInMemory;
+
+  // OPEN ADDRESSING TABLE: SLOT -> GROUP INDEX + 1 (0 = FREE)
+  private int[]                table;
+  private int                  mask;
+  private Object[]             groupKeys;
+  private int                  groups;
+
+  // ACCUMULATORS AS [AGGREGATE][GROUP]
+  private long[][]             counts;
+  private long[][]             longSums;
+  private double[][]           doubleSums;
+  private byte[][]             sumTypes;
+  private Object[][]           values;
+
+  private List<File>[]         partitions;
+
+  private OGroupByAggregator(final String[] iGroupFields, final String[] iProjectionNames, final int[] iProjectionKeys,
+      final int[] iProjectionAggregates, final AGGREGATE[] iAggregates, final String[] iAggregateFields, final int iMaxGroupsInMemory) {
+    groupFields = iGroupFields;
+    projectionNames = iProjectionNames;
+    projectionKeys = iProjectionKeys;
+    projectionAggregates = iProjectionAggregates;
+    aggregates = iAggregates;
+    aggregateFields = iAggregateFields;
+    maxGroupsInMemory = iMaxGroupsInMemory;
+    reset();
+  }
+
+  /**
+   * Creates an aggregator for the projections and GROUP BY fields of a query.
+   *
+   * @return The new aggregator, or null if the query contains projections this operator can't handle
+   */
+  public static OGroupByAggregator create(final Map<String, Object> iProjections, final List<String> iGroupByFields,
+      final int iMaxGroupsInMemory) {
+    if (iProjections == null || iProjections.isEmpty())
+      return null;
+
+    final List<String> groupByFields = iGroupByFields != null ? iGroupByFields : Collections.<String> emptyList();
+    for (String f : groupByFields)
+      if (f.startsWith("$"))
+        return null;
+
+    final String[] names = new String[iProjections.size()];
+    final int[] keys = new int[names.length];
+    final int[] aggregateIndexes = new int[names.length];
+    final List<AGGREGATE> aggregates = new ArrayList<AGGREGATE>();
+    final List<String> aggregateFields = new ArrayList<String>();
+
+    int i = 0;
+    for (Entry<String, Object> p : iProjections.entrySet()) {
+      names[i] = p.getKey();
+      keys[i] = -1;
+      aggregateIndexes[i] = -1;
+
+      final Object v = p.getValue();
+      if (v instanceof OSQLFilterItemField) {
+        final OSQLFilterItemField field = (OSQLFilterItemField) v;
+        if (field.hasChainOperators())
+          return null;
+
+        keys[i] = groupByFields.indexOf(field.getRoot());
+        if (keys[i] == -1)
+          // NOT GROUPED FIELD: LEAVE IT TO THE GENERIC IMPLEMENTATION
+          return null;
+
+      } else if (v instanceof OSQLFunctionRuntime) {
+        final OSQLFunctionRuntime f = (OSQLFunctionRuntime) v;
+        if (f.configuredParameters == null || f.configuredParameters.length != 1 || f.hasChainOperators())
+          return null;
+
+        final Object param = f.configuredParameters[0];
+        final String paramField;
+        if (param instanceof OSQLFilterItemField && !((OSQLFilterItemField) param).hasChainOperators())
+          paramField = ((OSQLFilterItemField) param).getRoot();
+        else if ("*".equals(param))
+          paramField = null;
+        else
+          return null;
+
+        final OSQLFunction function = f.getFunction();
+        final AGGREGATE aggregate;
+        if (function instanceof OSQLFunctionCount)
+          aggregate = paramField == null ? AGGREGATE.COUNT_ALL : AGGREGATE.COUNT;
+        else if (paramField == null)
+          return null;
+        else if (function instanceof OSQLFunctionSum)
+          aggregate = AGGREGATE.SUM;
+        else if (function instanceof OSQLFunctionMin)
+          aggregate = AGGREGATE.MIN;
+        else if (function instanceof OSQLFunctionMax)
+          aggregate = AGGREGATE.MAX;
+        else if (function instanceof OSQLFunctionAverage)
+          aggregate = AGGREGATE.AVG;
+        else
+          return null;
+
+        aggregateIndexes[i] = aggregates.size();
+        aggregates.add(aggregate);
+        aggregateFields.add(paramField);
+      } else
+        return null;
+
+      i++;
+    }
+
+    return new OGroupByAggregator(groupByFields.toArray(new String[groupByFields.size()]), names, keys, aggregateIndexes,
+        aggregates.toArray(new AGGREGATE[aggregates.size()]), aggregateFields.toArray(new String[aggregateFields.size()]),
+        iMaxGroupsInMemory);
+  }
+
+  /**
+   * Creates an empty aggregator with the same configuration. Used to aggregate in parallel and merge the partial results at the end.
+   */
+  public OGroupByAggregator createPartial() {
+    return newInstance(maxGroupsInMemory);
+  }
+
+  /**
+   * Aggregates a record into its group.
+   */
+  public void aggregate(final ODocument iRecord) {
+    final Object key;
+    if (groupFields.length == 1) {
+      final Object value = iRecord.field(groupFields[0]);
+      if (value == null)
+        // RECORDS WITHOUT THE GROUPED FIELD ARE NOT PART OF ANY GROUP, AS THE NULL GROUP OF THE GENERIC GROUP BY IS NOT RETURNED
+        return;
+      key = toKey(value);
+    } else {
+      final Object[] fields = new Object[groupFields.length];
+      for (int i = 0; i < groupFields.length; ++i)
+        fields[i] = iRecord.field(groupFields[i]);
+      key = new CompositeKey(fields);
+    }
+
+    final int group = getGroup(key);
+
+    for (int a = 0; a < aggregates.length; ++a) {
+      if (aggregates[a] == AGGREGATE.COUNT_ALL) {
+        counts[a][group]++;
+        continue;
+      }
+
+      final Object value = ODocumentHelper.getFieldValue(iRecord, aggregateFields[a]);
+      if (value == null)
+        continue;
+
+      switch (aggregates[a]) {
+      case COUNT:
+        counts[a][group]++;
+        break;
+      case SUM:
+      case AVG:
+        if (value instanceof Number) {
+          counts[a][group]++;
+          sum(a, group, (Number) value);
+        }
+        break;
+      case MIN:
+        if (values[a][group] == null || compare(values[a][group], value) > 0)
+          values[a][group] = value;
+        break;
+      case MAX:
+        if (values[a][group] == null || compare(values[a][group], value) < 0)
+          values[a][group] = value;
+        break;
+      default:
+        break;
+      }
+    }
+  }
+
+  /**
+   * Merges the partial aggregates of another aggregator created with {@link #createPartial()}. The other aggregator can't be used
+   * anymore after this call.
+   */
+  public void merge(final OGroupByAggregator iOther) {
+    for (int g = 0; g < iOther.groups; ++g)
+      mergeGroup(getGroup(iOther.groupKeys[g]), iOther, g);
+
+    if (iOther.partitions != null) {
+      if (partitions == null)
+        partitions = createPartitions();
+      for (int p = 0; p < PARTITIONS; ++p)
+        partitions[p].addAll(iOther.partitions[p]);
+      iOther.partitions = null;
+    }
+    iOther.reset();
+  }
+
+  /**
+   * Returns the aggregated groups as projection documents. If partial aggregates were spilled to disk the result is computed lazily
+   * one partition at a time while it's browsed.
+   *
+   * @param iSkip
+   *          Number of groups to skip
+   * @param iLimit
+   *          Maximum number of groups to return, -1 means no limit
+   */
+  public Iterable<OIdentifiable> getResult(final int iSkip, final int iLimit) {
+    if (partitions == null) {
+      if (groupFields.length == 0 && groups == 0)
+        // NO GROUP BY: RETURN THE AGGREGATES ALSO WHEN NO RECORD HAS BEEN BROWSED, LIKE count(*) = 0
+        getGroup(new CompositeKey(new Object[0]));
+
+      final List<OIdentifiable> result = new ArrayList<OIdentifiable>();
+      final int end = iLimit > -1 ? Math.min(groups, iSkip + iLimit) : groups;
+      for (int g = iSkip; g < end; ++g) {
+        final ODocument doc = createResult(g);
+        if (doc != null)
+          result.add(doc);
+      }
+      reset();
+      return result;
+    }
+
+    // SPILL ALSO THE LAST GROUPS: EVERY PARTITION WILL BE AGGREGATED ON ITS OWN
+    spill();
+
+    final List<File>[] toMerge = partitions;
+    partitions = null;
+
+    return new Iterable<OIdentifiable>() {
+      public Iterator<OIdentifiable> iterator() {
+        return new PartitionIterator(toMerge, iSkip, iLimit);
+      }
+    };
+  }
+
+  /**
+   * Removes all the temporary files not yet merged.
+   */
+  public void close() {
+    if (partitions != null) {
+      for (List<File> files : partitions)
+        for (File f : files)
+          deleteFile(f);
+      partitions = null;
+    }
+    reset();
+  }
+
+  private int getGroup(final Object iKey) {
+    final int hash = hash(iKey);
+    int slot = hash & mask;
+    while (table[slot] != 0) {
+      final int g = table[slot] - 1;
+      if (groupKeys[g].equals(iKey))
+        return g;
+      slot = (slot + 1) & mask;
+    }
+
+    if (maxGroupsInMemory > 0 && groups >= maxGroupsInMemory) {
+      spill();
+      return getGroup(iKey);
+    }
+
+    if (groups == groupKeys.length)
+      growGroups();
+
+    final int g = groups++;
+    groupKeys[g] = iKey;
+    table[slot] = g + 1;
+
+    if (groups * 2 > table.length)
+      rehash();
+
+    return g;
+  }
+
+  private OGroupByAggregator newInstance(final int iMaxGroupsInMemory) {
+    return new OGroupByAggregator(groupFields, projectionNames, projectionKeys, projectionAggregates, aggregates, aggregateFields,
+        iMaxGroupsInMemory);
+  }
+
+  /**
+   * Uses the highest bits of the hash, so the groups of a partition are still well distributed in the table that merges them.
+   */
+  private static int partition(final Object iKey) {
+    return (hash(iKey) * 0x9E3779B9) >>> (32 - PARTITION_BITS);
+  }
+
+  private static int hash(final Object iKey) {
+    final int h = iKey.hashCode();
+    return h ^ (h >>> 16);
+  }
+
+  private void rehash() {
+    table = new int[table.length * 2];
+    mask = table.length - 1;
+    for (int g = 0; g < groups; ++g) {
+      int slot = hash(groupKeys[g]) & mask;
+      while (table[slot] != 0)
+        slot = (slot + 1) & mask;
+      table[slot] = g + 1;
+    }
+  }
+
+  private void growGroups() {
+    final int size = groupKeys.length * 2;
+    groupKeys = Arrays.copyOf(groupKeys, size);
+    for (int a = 0; a < aggregates.length; ++a) {
+      counts[a] = Arrays.copyOf(counts[a], size);
+      longSums[a] = Arrays.copyOf(longSums[a], size);
+      doubleSums[a] = Arrays.copyOf(doubleSums[a], size);
+      sumTypes[a] = Arrays.copyOf(sumTypes[a], size);
+      values[a] = Arrays.copyOf(values[a], size);
+    }
+  }
+
+  private void reset() {
+    final int size = 64;
+    table = new int[size * 2];
+    mask = table.length - 1;
+    groupKeys = new Object[size];
+    groups = 0;
+    counts = new long[aggregates.length][size];
+    longSums = new long[aggregates.length][size];
+    doubleSums = new double[aggregates.length][size];
+    sumTypes = new byte[aggregates.length][size];
+    values = new Object[aggregates.length][size];
+  }
+
+  private void sum(final int a, final int g, final Number iValue) {
+    final byte type;
+    if (iValue instanceof Integer || iValue instanceof Short || iValue instanceof Byte)
+      type = SUM_INTEGER;
+    else if (iValue instanceof Long)
+      type = SUM_LONG;
+    else if (iValue instanceof Float)
+      type = SUM_FLOAT;
+    else if (iValue instanceof Double)
+      type = SUM_DOUBLE;
+    else
+      type = SUM_OBJECT;
+
+    if (type == SUM_OBJECT || sumTypes[a][g] == SUM_OBJECT) {
+      // NOT PRIMITIVE (BigDecimal?): USE THE GENERIC INCREMENT
+      values[a][g] = OType.increment(sumTypes[a][g] == SUM_OBJECT ? (Number) values[a][g] : getSum(a, g), iValue);
+      sumTypes[a][g] = SUM_OBJECT;
+      return;
+    }
+
+    if (type > sumTypes[a][g])
+      sumTypes[a][g] = type;
+
+    if (type <= SUM_LONG)
+      longSums[a][g] += iValue.longValue();
+    else
+      doubleSums[a][g] += iValue.doubleValue();
+  }
+
+  private Number getSum(final int a, final int g) {
+    switch (sumTypes[a][g]) {
+    case SUM_INTEGER:
+      final long l = longSums[a][g];
+      if (l >= Integer.MIN_VALUE && l <= Integer.MAX_VALUE)
+        return (int) l;
+      return l;
+    case SUM_LONG:
+      return longSums[a][g];
+    case SUM_FLOAT:
+      return (float) (longSums[a][g] + doubleSums[a][g]);
+    case SUM_DOUBLE:
+      return longSums[a][g] + doubleSums[a][g];
+    case SUM_OBJECT:
+      return (Number) values[a][g];
+    default:
+      return null;
+    }
+  }
+
+  private Object getAverage(final int a, final int g) {
+    final Number sum = getSum(a, g);
+    final long total = counts[a][g];
+    if (sum == null || total == 0)
+      return null;
+
+    if (sum instanceof Integer)
+      return sum.intValue() / (int) total;
+    else if (sum instanceof Long)
+      return sum.longValue() / total;
+    else if (sum instanceof Float)
+      return sum.floatValue() / total;
+    else if (sum instanceof Double)
+      return sum.doubleValue() / total;
+    else if (sum instanceof BigDecimal)
+      return ((BigDecimal) sum).divide(new BigDecimal(total));
+    return null;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static int compare(Object iValue1, Object iValue2) {
+    if (iValue1 instanceof Number && iValue2 instanceof Number) {
+      final Number[] casted = OType.castComparableNumber((Number) iValue1, (Number) iValue2);
+      iValue1 = casted[0];
+      iValue2 = casted[1];
+    }
+    return ((Comparable<Object>) iValue1).compareTo(iValue2);
+  }
+
+  private void mergeGroup(final int g, final OGroupByAggregator iSource, final int iSourceGroup) {
+    for (int a = 0; a < aggregates.length; ++a) {
+      counts[a][g] += iSource.counts[a][iSourceGroup];
+
+      final Object value = iSource.values[a][iSourceGroup];
+      switch (aggregates[a]) {
+      case SUM:
+      case AVG:
+        final byte type = iSource.sumTypes[a][iSourceGroup];
+        if (type == SUM_NONE)
+          break;
+        if (type == SUM_OBJECT || sumTypes[a][g] == SUM_OBJECT) {
+          final Number other = iSource.getSum(a, iSourceGroup);
+          values[a][g] = sumTypes[a][g] == SUM_NONE ? other : OType.increment(
+              sumTypes[a][g] == SUM_OBJECT ? (Number) values[a][g] : getSum(a, g), other);
+          sumTypes[a][g] = SUM_OBJECT;
+        } else {
+          longSums[a][g] += iSource.longSums[a][iSourceGroup];
+          doubleSums[a][g] += iSource.doubleSums[a][iSourceGroup];
+          if (type > sumTypes[a][g])
+            sumTypes[a][g] = type;
+        }
+        break;
+      case MIN:
+        if (value != null && (values[a][g] == null || compare(values[a][g], value) > 0))
+          values[a][g] = value;
+        break;
+      case MAX:
+        if (value != null && (values[a][g] == null || compare(values[a][g], value) < 0))
+          values[a][g] = value;
+        break;
+      default:
+        break;
+      }
+    }
+  }
+
+  private ODocument createResult(final int g) {
+    final ODocument doc = ORuntimeResult.createProjectionDocument(g);
+
+    for (int i = 0; i < projectionNames.length; ++i) {
+      final Object value;
+      if (projectionKeys[i] > -1)
+        value = groupFields.length == 1 ? fromKey(groupKeys[g]) : ((CompositeKey) groupKeys[g]).keys[projectionKeys[i]];
+      else {
+        final int a = projectionAggregates[i];
+        switch (aggregates[a]) {
+        case COUNT_ALL:
+        case COUNT:
+          value = counts[a][g];
+          break;
+        case SUM:
+          value = getSum(a, g);
+          break;
+        case AVG:
+          value = getAverage(a, g);
+          break;
+        default:
+          value = values[a][g];
+        }
+      }
+
+      if (value != null)
+        doc.field(projectionNames[i], value);
+    }
+
+    if (doc.isEmpty())
+      return null;
+
+    // AVOID SAVING OF TEMP RECORD
+    doc.unsetDirty();
+    return doc;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static List<File>[] createPartitions() {
+    final List<File>[] result = new List[PARTITIONS];
+    for (int p = 0; p < PARTITIONS; ++p)
+      result[p] = new ArrayList<File>();
+    return result;
+  }
+
+  /**
+   * Writes the partial aggregates of all the groups in memory to one file per partition, then empties the table.
+   */
+  private void spill() {
+    if (groups == 0)
+      return;
+
+    if (partitions == null)
+      partitions = createPartitions();
+
+    final DataOutputStream[] outputs = new DataOutputStream[PARTITIONS];
+    try {
+      try {
+        for (int g = 0; g < groups; ++g) {
+          final int p = partition(groupKeys[g]);
+          if (outputs[p] == null) {
+            final File file = File.createTempFile("orientdb-groupby", ".tmp");
+            file.deleteOnExit();
+            partitions[p].add(file);
+            outputs[p] = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+          }
+
+          final byte[] content = toPartialState(g).toStream();
+          outputs[p].writeInt(content.length);
+          outputs[p].write(content);
+        }
+      } finally {
+        for (DataOutputStream out : outputs)
+          if (out != null)
+            out.close();
+      }
+    } catch (IOException e) {
+      close();
+      throw new OCommandExecutionException("Error on spilling GROUP BY partial aggregates to temporary file", e);
+    }
+
+    OLogManager.instance().debug(this, "GROUP BY spilled %d groups to disk", groups);
+
+    reset();
+  }
+
+  private ODocument toPartialState(final int g) {
+    final ODocument doc = new ODocument();
+    if (groupFields.length == 1) {
+      final Object key = fromKey(groupKeys[g]);
+      if (key instanceof Object[])
+        // STORED AS LIST, BUT AGGREGATED BACK AS ARRAY
+        doc.field("k0", Arrays.asList((Object[]) key)).field("a", true);
+      else
+        doc.field("k0", key);
+    } else {
+      final Object[] keys = ((CompositeKey) groupKeys[g]).keys;
+      for (int i = 0; i < keys.length; ++i)
+        if (keys[i] != null)
+          doc.field("k" + i, keys[i]);
+    }
+
+    for (int a = 0; a < aggregates.length; ++a) {
+      doc.field("c" + a, counts[a][g]);
+      doc.field("t" + a, (int) sumTypes[a][g]);
+      doc.field("l" + a, longSums[a][g]);
+      doc.field("d" + a, doubleSums[a][g]);
+      if (values[a][g] != null)
+        doc.field("v" + a, values[a][g]);
+    }
+    return doc;
+  }
+
+  private void fromPartialState(final ODocument iState, final OGroupByAggregator iBuffer) {
+    final Object key;
+    if (groupFields.length == 1) {
+      final Object value = iState.field("k0");
+      key = toKey(iState.containsField("a") ? ((Collection<?>) value).toArray() : value);
+    } else {
+      final Object[] keys = new Object[groupFields.length];
+      for (int i = 0; i < keys.length; ++i)
+        keys[i] = iState.field("k" + i);
+      key = new CompositeKey(keys);
+    }
+
+    // LOAD THE STATE AS FIRST GROUP OF THE BUFFER TO REUSE THE SAME LOGIC OF PARALLEL AGGREGATION
+    for (int a = 0; a < aggregates.length; ++a) {
+      iBuffer.counts[a][0] = ((Number) iState.field("c" + a)).longValue();
+      iBuffer.sumTypes[a][0] = ((Number) iState.field("t" + a)).byteValue();
+      iBuffer.longSums[a][0] = ((Number) iState.field("l" + a)).longValue();
+      iBuffer.doubleSums[a][0] = ((Number) iState.field("d" + a)).doubleValue();
+      iBuffer.values[a][0] = iState.field("v" + a);
+    }
+
+    mergeGroup(getGroup(key), iBuffer, 0);
+  }
+
+  /**
+   * Returns the key of the group of a single-field GROUP BY. Arrays are compared by content, as by the generic GROUP BY.
+   */
+  private static Object toKey(final Object iValue) {
+    if (iValue instanceof Object[])
+      return new ArrayKey((Object[]) iValue);
+    return iValue;
+  }
+
+  private static Object fromKey(final Object iKey) {
+    if (iKey instanceof ArrayKey)
+      return ((ArrayKey) iKey).values;
+    return iKey;
+  }
+
+  private static void deleteFile(final File iFile) {
+    if (!iFile.delete())
+      OLogManager.instance().warn(OGroupByAggregator.class, "Cannot delete temporary GROUP BY file %s", iFile);
+  }
+
+  /**
+   * Key of the group of an array value. Compares the string of the items, RIDs for the records, as the generic GROUP BY.
+   */
+  private static class ArrayKey {
+    private final Object[] values;
+    private final String   content;
+
+    private ArrayKey(final Object[] iValues) {
+      values = iValues;
+
+      final StringBuilder buffer = new StringBuilder();
+      for (Object o : iValues) {
+        if (buffer.length() > 0)
+          buffer.append(",");
+        if (o != null)
+          buffer.append(o instanceof OIdentifiable ? ((OIdentifiable) o).getIdentity().toString() : o.toString());
+        else
+          buffer.append("null");
+      }
+      content = buffer.toString();
+    }
+
+    @Override
+    public int hashCode() {
+      return content.hashCode();
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+      return obj instanceof ArrayKey && content.equals(((ArrayKey) obj).content);
+    }
+  }
+
+  /**
+   * Key of multi-field GROUP BY.
+   */
+  private static class CompositeKey {
+    private final Object[] keys;
+    private final int      hashCode;
+
+    private CompositeKey(final Object[] iKeys) {
+      keys = iKeys;
+      hashCode = Arrays.hashCode(iKeys);
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+      return obj instanceof CompositeKey && Arrays.equals(keys, ((CompositeKey) obj).keys);
+    }
+  }
+
+  /**
+   * Aggregates a partition at a time reading back its partial aggregates, then returns its groups.
+   */
+  private class PartitionIterator implements Iterator<OIdentifiable> {
+    private final List<File>[]        toMerge;
+    private int                       partition = 0;
+    private Iterator<OIdentifiable>   current;
+    private int                       toSkip;
+    private int                       left;
+
+    private PartitionIterator(final List<File>[] iPartitions, final int iSkip, final int iLimit) {
+      toMerge = iPartitions;
+      toSkip = iSkip;
+      left = iLimit;
+    }
+
+    public boolean hasNext() {
+      if (left == 0) {
+        closePartitions();
+        return false;
+      }
+
+      while (current == null || !current.hasNext()) {
+        if (partition >= PARTITIONS)
+          return false;
+        current = loadPartition(partition++).iterator();
+      }
+
+      if (toSkip > 0) {
+        current.next();
+        toSkip--;
+        return hasNext();
+      }
+      return true;
+    }
+
+    public OIdentifiable next() {
+      if (!hasNext())
+        throw new NoSuchElementException();
+      if (left > 0)
+        left--;
+      return current.next();
+    }
+
+    public void remove() {
+      throw new UnsupportedOperationException("remove()");
+    }
+
+    private Iterable<OIdentifiable> loadPartition(final int p) {
+      // THE PARTITION IS MERGED WITHOUT ANY THRESHOLD: IT CONTAINS ONLY A FRACTION OF THE GROUPS
+      final OGroupByAggregator merged = newInstance(0);
+      final OGroupByAggregator buffer = newInstance(0);
+
+      try {
+        for (File f : toMerge[p]) {
+          final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)));
+          try {
+            while (true) {
+              final int length;
+              try {
+                length = in.readInt();
+              } catch (EOFException e) {
+                break;
+              }
+              final byte[] content = new byte[length];
+              in.readFully(content);
+              merged.fromPartialState(new ODocument().fromStream(content), buffer);
+            }
+          } finally {
+            in.close();
+          }
+          deleteFile(f);
+        }
+        toMerge[p].clear();
+      } catch (IOException e) {
+        closePartitions();
+        throw new OCommandExecutionException("Error on reading GROUP BY partial aggregates from temporary file", e);
+      }
+
+      return merged.getResult(0, -1);
+    }
+
+    private void closePartitions() {
+      for (int p = partition; p < PARTITIONS; ++p) {
+        for (File f : toMerge[p])
+          deleteFile(f);
+        toMerge[p].clear();
+      }
+      partition = PARTITIONS;
+    }
+  }
+}
@@ -0,0 +1,274 @@
+/*
+ * Copyright 2010-2012 Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientechnologies.orient.core.sql;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import com.orientechnologies.orient.core.command.OCommandContext;
+import com.orientechnologies.orient.core.db.record.OIdentifiable;
+import com.orientechnologies.orient.core.id.ORID;
+import com.orientechnologies.orient.core.index.OIndex;
+import com.orientechnologies.orient.core.sql.operator.OQueryOperator;
+import com.orientechnologies.orient.core.sql.operator.OQueryOperator.INDEX_OPERATION_TYPE;
+
+/**
+ * Computes the RIDs matching a condition by combining the results of multiple indexes: the RIDs of the indexed conditions in AND
+ * are intersected, the RIDs of the indexed conditions in OR are united. Every index result is sorted by RID once, then the sets are
+ * merged as sorted streams, so the records are loaded only at the end and in physical order.
+ * <p>
+ * The result is a superset of the records matching the whole condition, because the conditions in AND that can't use an index are
+ * ignored: the records must still be filtered by the condition.
+ *
+ * @author Luca Garulli
+ */
+public abstract class OMultiIndexSearch {
+  private static final ORID[] EMPTY = new ORID[0];
+
+  /**
+   * Executes the search.
+   *
+   * @return The RIDs sorted by cluster and position, or null if the indexes can't be used to restrict the search
+   */
+  public abstract ORID[] execute(OCommandContext iContext);
+
+  /**
+   * Returns the number of index lookups the search executes.
+   */
+  public abstract int getIndexCount();
+
+  /**
+   * Returns the names of the involved indexes.
+   */
+  public abstract void getIndexNames(Collection<String> iNames);
+
+  public static OMultiIndexSearch and(final OMultiIndexSearch iLeft, final OMultiIndexSearch iRight) {
+    if (iLeft == null)
+      return iRight;
+    if (iRight == null)
+      return iLeft;
+    return new OIntersection(iLeft, iRight);
+  }
+
+  public static OMultiIndexSearch or(final OMultiIndexSearch iLeft, final OMultiIndexSearch iRight) {
+    if (iLeft == null || iRight == null)
+      // A CONDITION IN OR WITHOUT INDEX NEEDS THE FULL SCAN ANYWAY
+      return null;
+    return new OUnion(iLeft, iRight);
+  }
+
+  public static OMultiIndexSearch lookup(final OIndex<?> iIndex, final OQueryOperator iOperator, final List<Object> iKeyParams) {
+    return new OLookup(iIndex, iOperator, iKeyParams);
+  }
+
+  /**
+   * Intersects two sorted arrays of RIDs.
+   */
+  public static ORID[] intersect(final ORID[] iLeft, final ORID[] iRight) {
+    final ORID[] result = new ORID[Math.min(iLeft.length, iRight.length)];
+    int l = 0, r = 0, size = 0;
+    while (l < iLeft.length && r < iRight.length) {
+      final int cmp = iLeft[l].compareTo(iRight[r]);
+      if (cmp == 0) {
+        result[size++] = iLeft[l++];
+        r++;
+      } else if (cmp < 0)
+        l++;
+      else
+        r++;
+    }
+    return size == result.length ? result : Arrays.copyOf(result, size);
+  }
+
+  /**
+   * Unites two sorted arrays of RIDs removing the duplicates.
+   */
+  public static ORID[] union(final ORID[] iLeft, final ORID[] iRight) {
+    final ORID[] result = new ORID[iLeft.length + iRight.length];
+    int l = 0, r = 0, size = 0;
+    while (l < iLeft.length || r < iRight.length) {
+      final int cmp = l >= iLeft.length ? 1 : (r >= iRight.length ? -1 : iLeft[l].compareTo(iRight[r]));
+      if (cmp == 0) {
+        result[size++] = iLeft[l++];
+        r++;
+      } else if (cmp < 0)
+        result[size++] = iLeft[l++];
+      else
+        result[size++] = iRight[r++];
+    }
+    return size == result.length ? result : Arrays.copyOf(result, size);
+  }
+
+  /**
+   * Transforms the result of an index query in a sorted array of RIDs without duplicates.
+   */
+  @SuppressWarnings("unchecked")
+  public static ORID[] toSortedRids(final Object iIndexResult) {
+    if (iIndexResult == null)
+      return EMPTY;
+
+    if (iIndexResult instanceof OIdentifiable)
+      return new ORID[] { ((OIdentifiable) iIndexResult).getIdentity() };
+
+    final Collection<OIdentifiable> values = (Collection<OIdentifiable>) iIndexResult;
+    final ORID[] rids = new ORID[values.size()];
+    int size = 0;
+    for (OIdentifiable id : values)
+      if (id != null && size < rids.length)
+        rids[size++] = id.getIdentity();
+
+    // INDEXES ORDER THE RESULT BY KEY: SORTING IS CHEAP WHEN THE RIDS ARE ALREADY IN ORDER
+    Arrays.sort(rids, 0, size);
+
+    // REMOVE THE DUPLICATES OF MULTI-VALUE KEYS
+    int unique = 0;
+    for (int i = 0; i < size; ++i)
+      if (unique == 0 || !rids[i].equals(rids[unique - 1]))
+        rids[unique++] = rids[i];
+
+    return unique == rids.length ? rids : Arrays.copyOf(rids, unique);
+  }
+
+  private static class OLookup extends OMultiIndexSearch {
+    private final OIndex<?>      index;
+    private final OQueryOperator operator;
+    private final List<Object>   keyParams;
+
+    private OLookup(final OIndex<?> iIndex, final OQueryOperator iOperator, final List<Object> iKeyParams) {
+      index = iIndex;
+      operator = iOperator;
+      keyParams = iKeyParams;
+    }
+
+    @Override
+    public ORID[] execute(final OCommandContext iContext) {
+      final Object result = operator.executeIndexQuery(iContext, index, INDEX_OPERATION_TYPE.GET, keyParams, null, -1);
+      if (result == null)
+        // THE OPERATOR CAN'T USE THE INDEX
+        return null;
+
+      final ORID[] rids = toSortedRids(result);
+      iContext.updateMetric("indexReads", rids.length);
+      return rids;
+    }
+
+    @Override
+    public int getIndexCount() {
+      return 1;
+    }
+
+    @Override
+    public void getIndexNames(final Collection<String> iNames) {
+      if (index instanceof OChainedIndexProxy)
+        iNames.addAll(((OChainedIndexProxy<?>) index).getIndexNames());
+      else
+        iNames.add(index.getName());
+    }
+  }
+
+  private static class OIntersection extends OMultiIndexSearch {
+    private final List<OMultiIndexSearch> children = new ArrayList<OMultiIndexSearch>();
+
+    private OIntersection(final OMultiIndexSearch iLeft, final OMultiIndexSearch iRight) {
+      add(iLeft);
+      add(iRight);
+    }
+
+    private void add(final OMultiIndexSearch iChild) {
+      if (iChild instanceof OIntersection)
+        children.addAll(((OIntersection) iChild).children);
+      else
+        children.add(iChild);
+    }
+
+    @Override
+    public ORID[] execute(final OCommandContext iContext) {
+      ORID[] result = null;
+      for (OMultiIndexSearch child : children) {
+        final ORID[] rids = child.execute(iContext);
+        if (rids == null)
+          // IGNORE IT: THE CONDITION WILL BE EVALUATED AGAINST THE RECORDS
+          continue;
+
+        result = result == null ? rids : intersect(result, rids);
+        if (result.length == 0)
+          // NO MATCHES: AVOID THE OTHER LOOKUPS
+          break;
+      }
+      return result;
+    }
+
+    @Override
+    public int getIndexCount() {
+      int total = 0;
+      for (OMultiIndexSearch child : children)
+        total += child.getIndexCount();
+      return total;
+    }
+
+    @Override
+    public void getIndexNames(final Collection<String> iNames) {
+      for (OMultiIndexSearch child : children)
+        child.getIndexNames(iNames);
+    }
+  }
+
+  private static class OUnion extends OMultiIndexSearch {
+    private final List<OMultiIndexSearch> children = new ArrayList<OMultiIndexSearch>();
+
+    private OUnion(final OMultiIndexSearch iLeft, final OMultiIndexSearch iRight) {
+      add(iLeft);
+      add(iRight);
+    }
+
+    private void add(final OMultiIndexSearch iChild) {
+      if (iChild instanceof OUnion)
+        children.addAll(((OUnion) iChild).children);
+      else
+        children.add(iChild);
+    }
+
+    @Override
+    public ORID[] execute(final OCommandContext iContext) {
+      ORID[] result = EMPTY;
+      for (OMultiIndexSearch child : children) {
+        final ORID[] rids = child.execute(iContext);
+        if (rids == null)
+          // ALL THE RECORDS COULD MATCH
+          return null;
+
+        result = union(result, rids);
+      }
+      return result;
+    }
+
+    @Override
+    public int getIndexCount() {
+      int total = 0;
+      for (OMultiIndexSearch child : children)
+        total += child.getIndexCount();
+      return total;
+    }
+
+    @Override
+    public void getIndexNames(final Collection<String> iNames) {
+      for (OMultiIndexSearch child : children)
+        child.getIndexNames(iNames);
+    }
+  }
+}
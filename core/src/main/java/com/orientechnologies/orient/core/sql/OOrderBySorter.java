@@ -0,0 +1,343 @@
+/*
+ * Copyright 2010-2012 Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientechnologies.orient.core.sql;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+import com.orientechnologies.common.log.OLogManager;
+import com.orientechnologies.common.util.OPair;
+import com.orientechnologies.orient.core.Orient;
+import com.orientechnologies.orient.core.db.record.OIdentifiable;
+import com.orientechnologies.orient.core.exception.OCommandExecutionException;
+import com.orientechnologies.orient.core.id.ORecordId;
+import com.orientechnologies.orient.core.record.ORecordInternal;
+import com.orientechnologies.orient.core.record.impl.ODocumentComparator;
+import com.orientechnologies.orient.core.version.ORecordVersion;
+
+/**
+ * Sorts the results of a SELECT with ORDER BY without keeping more records than needed in memory. When a limit is known only the
+ * best <code>skip + limit</code> records are kept in a bounded heap (top-K). Otherwise records are buffered up to a threshold, then
+ * sorted and spilled to temporary files as runs that are k-way merged while the result is browsed.
+ *
+ * @author Luca Garulli
+ */
+public class OOrderBySorter {
+  private final ODocumentComparator comparator;
+  private final int                 skip;
+  private final int                 limit;
+  private final int                 maxInMemory;
+
+  private PriorityQueue<Entry>      heap;
+  private List<OIdentifiable>       buffer;
+  private List<File>                runs;
+  private MergeIterator             merge;
+  private long                      sequence;
+
+  /**
+   * Creates a new sorter.
+   *
+   * @param iOrderCriteria
+   *          Fields and ordering (ASC/DESC) to sort by
+   * @param iSkip
+   *          Number of records to skip from the head of the result
+   * @param iLimit
+   *          Maximum number of records to return, -1 means no limit
+   * @param iMaxInMemory
+   *          Maximum number of records buffered in memory before spilling a sorted run to disk, 0 means never spill
+   */
+  public OOrderBySorter(final List<OPair<String, String>> iOrderCriteria, final int iSkip, final int iLimit,
+      final int iMaxInMemory) {
+    // COPY THE CRITERIA: THE CALLER CAN RESET THEM WHILE THE SPILLED RUNS ARE STILL TO MERGE
+    comparator = new ODocumentComparator(new ArrayList<OPair<String, String>>(iOrderCriteria));
+    skip = iSkip;
+    limit = iLimit;
+    maxInMemory = iMaxInMemory;
+
+    if (limit > -1)
+      heap = new PriorityQueue<Entry>(Math.min(skip + limit, 1024) + 1, Collections.reverseOrder(new EntryComparator()));
+    else
+      buffer = new ArrayList<OIdentifiable>();
+  }
+
+  public void add(final OIdentifiable iRecord) {
+    final long seq = sequence++;
+
+    if (heap != null) {
+      if (skip + limit <= 0)
+        // LIMIT 0: NOTHING TO KEEP
+        return;
+
+      if (heap.size() < skip + limit)
+        heap.add(new Entry(iRecord, seq));
+      else if (comparator.compare(iRecord, heap.peek().record) < 0) {
+        // THE NEW RECORD IS BETTER THAN THE WORST ONE KEPT: REPLACE IT. ON EQUALITY THE OLDEST ONE WINS LIKE A STABLE SORT
+        heap.poll();
+        heap.add(new Entry(iRecord, seq));
+      }
+      return;
+    }
+
+    buffer.add(iRecord);
+    if (maxInMemory > 0 && buffer.size() >= maxInMemory)
+      spillRun();
+  }
+
+  /**
+   * Returns the sorted records with skip and limit already applied. If runs have been spilled to disk the returned Iterable merges
+   * them lazily and removes the temporary files once browsed: it can be browsed only once and {@link #close()} must be called at
+   * the end also if it's not browsed entirely.
+   */
+  public Iterable<OIdentifiable> sort() {
+    if (heap != null) {
+      final List<Entry> entries = new ArrayList<Entry>(heap);
+      heap = null;
+      Collections.sort(entries, new EntryComparator());
+
+      final List<OIdentifiable> result = new ArrayList<OIdentifiable>(Math.max(entries.size() - skip, 0));
+      for (int i = skip; i < entries.size(); ++i)
+        result.add(entries.get(i).record);
+      return result;
+    }
+
+    if (runs == null) {
+      Collections.sort(buffer, comparator);
+      final List<OIdentifiable> result = skip > 0 ? new ArrayList<OIdentifiable>(buffer.subList(Math.min(skip, buffer.size()),
+          buffer.size())) : buffer;
+      buffer = null;
+      return result;
+    }
+
+    if (!buffer.isEmpty())
+      spillRun();
+    buffer = null;
+
+    final List<File> files = runs;
+    return new Iterable<OIdentifiable>() {
+      public Iterator<OIdentifiable> iterator() {
+        if (merge != null || runs == null)
+          throw new IllegalStateException("The records sorted on disk can be browsed only once");
+        merge = new MergeIterator(files);
+        return merge;
+      }
+    };
+  }
+
+  /**
+   * Closes the merge in progress, if any, and removes all the temporary files not yet merged.
+   */
+  public void close() {
+    if (merge != null)
+      merge.closeRuns();
+    if (runs != null) {
+      for (File f : runs)
+        if (f.exists())
+          deleteRun(f);
+      runs = null;
+    }
+    buffer = null;
+    heap = null;
+  }
+
+  private void spillRun() {
+    Collections.sort(buffer, comparator);
+
+    if (runs == null)
+      runs = new ArrayList<File>();
+
+    try {
+      final File file = File.createTempFile("orientdb-orderby", ".tmp");
+      file.deleteOnExit();
+      runs.add(file);
+
+      final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+      try {
+        for (OIdentifiable id : buffer)
+          writeRecord(out, (ORecordInternal<?>) id.getRecord());
+      } finally {
+        out.close();
+      }
+
+      OLogManager.instance().debug(this, "ORDER BY spilled run of %d records to %s", buffer.size(), file);
+
+    } catch (IOException e) {
+      close();
+      throw new OCommandExecutionException("Error on spilling sorted records to temporary file", e);
+    }
+
+    buffer.clear();
+  }
+
+  private static void writeRecord(final DataOutputStream out, final ORecordInternal<?> iRecord) throws IOException {
+    out.writeUTF(iRecord.getIdentity().toString());
+    out.writeByte(iRecord.getRecordType());
+    final ORecordVersion version = iRecord.getRecordVersion();
+    version.getSerializer().writeTo((DataOutput) out, version);
+    final byte[] content = iRecord.toStream();
+    out.writeInt(content.length);
+    out.write(content);
+  }
+
+  private static ORecordInternal<?> readRecord(final DataInputStream in) throws IOException {
+    final String rid;
+    try {
+      rid = in.readUTF();
+    } catch (EOFException e) {
+      return null;
+    }
+
+    final ORecordInternal<?> record = Orient.instance().getRecordFactoryManager().newInstance(in.readByte());
+    final ORecordVersion version = record.getRecordVersion().copy();
+    version.getSerializer().readFrom((DataInput) in, version);
+    final byte[] content = new byte[in.readInt()];
+    in.readFully(content);
+
+    record.fill(new ORecordId(rid), version, content, false);
+    return record;
+  }
+
+  private static void deleteRun(final File iFile) {
+    if (!iFile.delete())
+      OLogManager.instance().warn(OOrderBySorter.class, "Cannot delete temporary ORDER BY file %s", iFile);
+  }
+
+  private static class Entry {
+    private final OIdentifiable record;
+    private final long          sequence;
+
+    private Entry(final OIdentifiable iRecord, final long iSequence) {
+      record = iRecord;
+      sequence = iSequence;
+    }
+  }
+
+  private class EntryComparator implements Comparator<Entry> {
+    public int compare(final Entry e1, final Entry e2) {
+      final int result = comparator.compare(e1.record, e2.record);
+      if (result != 0)
+        return result;
+      return e1.sequence < e2.sequence ? -1 : (e1.sequence == e2.sequence ? 0 : 1);
+    }
+  }
+
+  /**
+   * K-way merge of the sorted runs. On equal records the run spilled first wins, so the merge is stable.
+   */
+  private class MergeIterator implements Iterator<OIdentifiable> {
+    private final List<File>            files;
+    private final DataInputStream[]     inputs;
+    private final PriorityQueue<Entry>  heads;
+    private int                         toSkip = skip;
+    private int                         left   = limit;
+
+    private MergeIterator(final List<File> iFiles) {
+      files = iFiles;
+      inputs = new DataInputStream[files.size()];
+      heads = new PriorityQueue<Entry>(files.size(), new EntryComparator());
+
+      try {
+        for (int i = 0; i < inputs.length; ++i) {
+          inputs[i] = new DataInputStream(new BufferedInputStream(new FileInputStream(files.get(i))));
+          fetch(i);
+        }
+      } catch (IOException e) {
+        closeRuns();
+        throw new OCommandExecutionException("Error on merging sorted records from temporary files", e);
+      }
+
+      while (toSkip > 0 && hasNext()) {
+        next();
+        toSkip--;
+      }
+    }
+
+    public boolean hasNext() {
+      if (left == 0 || heads.isEmpty()) {
+        closeRuns();
+        return false;
+      }
+      return true;
+    }
+
+    public OIdentifiable next() {
+      if (!hasNext())
+        throw new NoSuchElementException();
+
+      final Entry head = heads.poll();
+      try {
+        fetch((int) head.sequence);
+      } catch (IOException e) {
+        closeRuns();
+        throw new OCommandExecutionException("Error on merging sorted records from temporary files", e);
+      }
+
+      if (left > 0)
+        left--;
+      return head.record;
+    }
+
+    public void remove() {
+      throw new UnsupportedOperationException("remove()");
+    }
+
+    private void fetch(final int iRun) throws IOException {
+      if (inputs[iRun] == null)
+        return;
+
+      final ORecordInternal<?> record = readRecord(inputs[iRun]);
+      if (record != null)
+        // THE RUN INDEX IS USED AS SEQUENCE TO BREAK TIES AND TO KNOW WHERE TO FETCH THE NEXT RECORD FROM
+        heads.add(new Entry(record, iRun));
+      else {
+        inputs[iRun].close();
+        inputs[iRun] = null;
+      }
+    }
+
+    private void closeRuns() {
+      for (int i = 0; i < inputs.length; ++i) {
+        if (inputs[i] != null) {
+          try {
+            inputs[i].close();
+          } catch (IOException e) {
+            // IGNORE IT
+          }
+          inputs[i] = null;
+        }
+      }
+      for (File f : files)
+        if (f.exists())
+          deleteRun(f);
+      files.clear();
+    }
+  }
+}
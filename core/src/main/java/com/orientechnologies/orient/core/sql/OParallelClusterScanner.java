@@ -0,0 +1,406 @@
+/*
+ * Copyright 2010-2012 Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientechnologies.orient.core.sql;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.orientechnologies.common.exception.OException;
+import com.orientechnologies.common.log.OLogManager;
+import com.orientechnologies.orient.core.Orient;
+import com.orientechnologies.orient.core.command.OCommandResultListener;
+import com.orientechnologies.orient.core.config.OGlobalConfiguration;
+import com.orientechnologies.orient.core.db.ODatabase;
+import com.orientechnologies.orient.core.db.ODatabaseRecordThreadLocal;
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import com.orientechnologies.orient.core.db.record.ODatabaseRecord;
+import com.orientechnologies.orient.core.exception.OCommandExecutionException;
+import com.orientechnologies.orient.core.hook.ORecordHook;
+import com.orientechnologies.orient.core.id.OClusterPositionFactory;
+import com.orientechnologies.orient.core.id.ORecordId;
+import com.orientechnologies.orient.core.record.ORecordInternal;
+import com.orientechnologies.orient.core.storage.OPhysicalPosition;
+import com.orientechnologies.orient.core.storage.ORawBuffer;
+import com.orientechnologies.orient.core.storage.OStorage;
+
+/**
+ * Browses a set of clusters with multiple threads. The workers pull batches of physical positions from a shared cursor that moves
+ * through the clusters in order, so also a single big cluster is split between all the workers. Each worker loads, unmarshalls and
+ * processes its records on its own thread, while the results sent by the workers are passed to the listener in the calling thread.
+ * The order of the results is not predictable.
+ * <p>
+ * A database instance can't be shared between threads, so every worker opens its own instance against the storage of the calling
+ * database, with its user and its hooks.
+ * <p>
+ * The threads are taken from a pool shared by all the scans and bounded by {@link OGlobalConfiguration#QUERY_PARALLEL_MAX_THREADS}.
+ * Workers that can't get a thread are not executed, since the others browse all the records anyway. When no thread is available at
+ * all the scan is executed by the calling thread with the first worker.
+ *
+ * @author Luca Garulli
+ */
+public class OParallelClusterScanner {
+  private static final Object          END_OF_WORKER = new Object();
+  private static final int             QUEUE_SIZE    = 1024;
+  private static final AtomicInteger   threadSerial  = new AtomicInteger();
+  private static final AtomicInteger   busyThreads   = new AtomicInteger();
+  private static ThreadPoolExecutor    executor;
+
+  private final ODatabaseRecord        database;
+  private final OStorage               storage;
+  private final int[]                  clusterIds;
+  private final boolean                ignoreCache;
+  private final BlockingQueue<Object>  results       = new ArrayBlockingQueue<Object>(QUEUE_SIZE);
+  private final AtomicLong             browsed       = new AtomicLong();
+  private volatile boolean             stopped;
+  private volatile Throwable           error;
+  private CountDownLatch               running;
+  private OCommandResultListener       serialListener;
+
+  // CURSOR SHARED BETWEEN THE WORKERS
+  private int                          currentCluster;
+  private OPhysicalPosition            lastPosition;
+
+  public interface OWorker {
+    /**
+     * Processes a record on the worker thread. Results must be passed to {@link OParallelClusterScanner#send(Object)}.
+     *
+     * @return false to stop the entire scan
+     */
+    boolean process(ORecordInternal<?> iRecord, OParallelClusterScanner iScanner);
+
+    /**
+     * Called on the worker thread once there are no more records to process.
+     */
+    void end();
+  }
+
+  public OParallelClusterScanner(final ODatabaseRecord iDatabase, final int[] iClusterIds, final boolean iIgnoreCache) {
+    database = iDatabase;
+    storage = iDatabase.getStorage();
+    clusterIds = iClusterIds;
+    ignoreCache = iIgnoreCache;
+  }
+
+  /**
+   * Executes the scan and waits for its end.
+   *
+   * @param iWorkers
+   *          The workers, one per thread
+   * @param iListener
+   *          Receives in the calling thread the results sent by the workers. Returning false stops the scan
+   * @return false if the scan has been stopped by a worker or by the listener, otherwise true
+   */
+  public boolean scan(final List<? extends OWorker> iWorkers, final OCommandResultListener iListener) {
+    running = new CountDownLatch(iWorkers.size());
+
+    final ThreadPoolExecutor pool = getExecutor();
+    int started = 0;
+    for (OWorker w : iWorkers) {
+      if (reserveThread(pool.getMaximumPoolSize())) {
+        pool.execute(new WorkerTask(w));
+        started++;
+      } else
+        // NO MORE THREADS AVAILABLE: THE WORKERS ALREADY STARTED BROWSE ALL THE RECORDS
+        running.countDown();
+    }
+
+    if (started == 0 && !iWorkers.isEmpty()) {
+      OLogManager.instance().debug(this, "All the %d threads of the parallel scans are busy, scanning in the current thread",
+          pool.getMaximumPoolSize());
+      return serialScan(iWorkers.get(0), iListener);
+    }
+
+    boolean completed = false;
+    try {
+      while (running.getCount() > 0 || !results.isEmpty()) {
+        final Object result = results.poll(100, TimeUnit.MILLISECONDS);
+        if (result != null && result != END_OF_WORKER && !stopped && !iListener.result(result))
+          stopped = true;
+      }
+      completed = true;
+
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new OCommandExecutionException("The parallel scan has been interrupted");
+
+    } finally {
+      if (!completed)
+        abort();
+    }
+
+    if (error != null) {
+      if (error instanceof OException)
+        throw (OException) error;
+      throw new OCommandExecutionException("Error on parallel scan of clusters", error);
+    }
+
+    return !stopped;
+  }
+
+  /**
+   * Sends a result to the calling thread. Blocks while the calling thread is late in consuming them.
+   */
+  public void send(final Object iResult) {
+    if (serialListener != null) {
+      if (!stopped && !serialListener.result(iResult))
+        stopped = true;
+      return;
+    }
+
+    try {
+      while (!stopped)
+        if (results.offer(iResult, 100, TimeUnit.MILLISECONDS))
+          return;
+    } catch (InterruptedException e) {
+      stopped = true;
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  public boolean isStopped() {
+    return stopped;
+  }
+
+  /**
+   * Returns the number of records browsed so far by all the workers.
+   */
+  public long getBrowsedRecords() {
+    return browsed.get();
+  }
+
+  /**
+   * Stops the workers when the calling thread doesn't consume the results anymore and waits for their end, so no worker is left
+   * running on the database.
+   */
+  private void abort() {
+    stopped = true;
+
+    boolean interrupted = false;
+    while (running.getCount() > 0) {
+      results.clear();
+      try {
+        running.await(100, TimeUnit.MILLISECONDS);
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    results.clear();
+
+    if (interrupted)
+      Thread.currentThread().interrupt();
+  }
+
+  /**
+   * Executes the scan in the current thread with a single worker, passing the results directly to the listener.
+   */
+  private boolean serialScan(final OWorker iWorker, final OCommandResultListener iListener) {
+    serialListener = iListener;
+    try {
+      browse(database, iWorker);
+      iWorker.end();
+    } finally {
+      serialListener = null;
+    }
+    return !stopped;
+  }
+
+  private void browse(final ODatabaseRecord iDatabase, final OWorker iWorker) {
+    Batch batch;
+    while (!stopped && (batch = nextBatch()) != null) {
+      for (OPhysicalPosition p : batch.positions) {
+        if (stopped)
+          break;
+
+        browsed.incrementAndGet();
+
+        final ORecordInternal<?> record = readRecord(iDatabase, new ORecordId(batch.clusterId, p.clusterPosition));
+        if (record != null && !iWorker.process(record, this))
+          stopped = true;
+      }
+    }
+  }
+
+  /**
+   * Opens a database instance for a worker thread sharing the storage of the calling database, that is already open, so no new
+   * connection is created and no credential is needed. The user of the calling database, already authenticated, is assigned to
+   * the instance before any record is read and the hooks are registered too, so the records are loaded and checked as the calling
+   * database would do.
+   */
+  private ODatabaseRecord openWorkerDatabase() {
+    final ODatabaseDocumentTx db = new ODatabaseDocumentTx(database.getURL());
+    db.replaceStorage(storage);
+    db.setProperty(ODatabase.OPTIONS.SECURITY.toString(), Boolean.FALSE);
+    db.open(database.getUser() != null ? database.getUser().getName() : null, null);
+    db.setUser(database.getUser());
+
+    for (ORecordHook hook : database.getHooks())
+      if (!hasHookOfClass(db, hook.getClass()))
+        db.registerHook(hook);
+
+    return db;
+  }
+
+  private static boolean hasHookOfClass(final ODatabaseRecord iDatabase, final Class<?> iClass) {
+    for (ORecordHook hook : iDatabase.getHooks())
+      if (hook.getClass().equals(iClass))
+        return true;
+    return false;
+  }
+
+  private synchronized Batch nextBatch() {
+    while (currentCluster < clusterIds.length) {
+      final int clusterId = clusterIds[currentCluster];
+
+      final OPhysicalPosition[] positions;
+      if (lastPosition == null)
+        positions = storage.ceilingPhysicalPositions(clusterId, new OPhysicalPosition(OClusterPositionFactory.INSTANCE.valueOf(0)));
+      else
+        positions = storage.higherPhysicalPositions(clusterId, lastPosition);
+
+      if (positions != null && positions.length > 0) {
+        lastPosition = positions[positions.length - 1];
+        return new Batch(clusterId, positions);
+      }
+
+      // CLUSTER COMPLETED, MOVE TO THE NEXT ONE
+      currentCluster++;
+      lastPosition = null;
+    }
+    return null;
+  }
+
+  private ORecordInternal<?> readRecord(final ODatabaseRecord iDatabase, final ORecordId iRid) {
+    final ORawBuffer buffer = storage.readRecord(iRid, null, ignoreCache, null, false).getResult();
+    if (buffer == null)
+      return null;
+
+    final ORecordInternal<?> record = Orient.instance().getRecordFactoryManager().newInstance(buffer.recordType);
+    record.fill(iRid, buffer.version, buffer.buffer, false);
+
+    if (record.getRecordVersion().isTombstone())
+      return null;
+
+    // CALL THE HOOKS LIKE THE DATABASE DOES ON LOADING, SO RECORD LEVEL SECURITY IS STILL ENFORCED
+    if (iDatabase.callbackHooks(ORecordHook.TYPE.BEFORE_READ, record) == ORecordHook.RESULT.SKIP)
+      return null;
+
+    record.fromStream(buffer.buffer);
+    iDatabase.callbackHooks(ORecordHook.TYPE.AFTER_READ, record);
+    return record;
+  }
+
+  /**
+   * Reserves a thread of the pool for a worker. Workers are never queued waiting for a thread, so a worker can execute a sub-query
+   * that is parallel too without deadlocks.
+   */
+  private static boolean reserveThread(final int iMaxThreads) {
+    while (true) {
+      final int busy = busyThreads.get();
+      if (busy >= iMaxThreads)
+        return false;
+      if (busyThreads.compareAndSet(busy, busy + 1))
+        return true;
+    }
+  }
+
+  /**
+   * Returns the pool of the workers, sized by {@link OGlobalConfiguration#QUERY_PARALLEL_MAX_THREADS}.
+   */
+  private static synchronized ThreadPoolExecutor getExecutor() {
+    final int maxThreads = Math.max(1, OGlobalConfiguration.QUERY_PARALLEL_MAX_THREADS.getValueAsInteger());
+
+    if (executor == null) {
+      executor = new ThreadPoolExecutor(maxThreads, maxThreads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+          new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+              final Thread thread = new Thread(r, "OrientDB ParallelScan-" + threadSerial.incrementAndGet());
+              thread.setDaemon(true);
+              return thread;
+            }
+          });
+      executor.allowCoreThreadTimeOut(true);
+
+    } else if (executor.getMaximumPoolSize() != maxThreads) {
+      // SETTING CHANGED AT RUN-TIME
+      if (maxThreads > executor.getMaximumPoolSize()) {
+        executor.setMaximumPoolSize(maxThreads);
+        executor.setCorePoolSize(maxThreads);
+      } else {
+        executor.setCorePoolSize(maxThreads);
+        executor.setMaximumPoolSize(maxThreads);
+      }
+    }
+    return executor;
+  }
+
+  private static class Batch {
+    private final int                 clusterId;
+    private final OPhysicalPosition[] positions;
+
+    private Batch(final int iClusterId, final OPhysicalPosition[] iPositions) {
+      clusterId = iClusterId;
+      positions = iPositions;
+    }
+  }
+
+  private class WorkerTask implements Runnable {
+    private final OWorker worker;
+
+    private WorkerTask(final OWorker iWorker) {
+      worker = iWorker;
+    }
+
+    public void run() {
+      ODatabaseRecord workerDatabase = null;
+      try {
+        workerDatabase = openWorkerDatabase();
+        ODatabaseRecordThreadLocal.INSTANCE.set(workerDatabase);
+
+        browse(workerDatabase, worker);
+        worker.end();
+
+      } catch (Throwable t) {
+        if (error == null)
+          error = t;
+        stopped = true;
+        OLogManager.instance().debug(this, "Error on parallel scan of clusters", t);
+
+      } finally {
+        if (workerDatabase != null)
+          try {
+            workerDatabase.close();
+          } catch (Exception e) {
+            OLogManager.instance().debug(this, "Error on closing the database of the parallel scan worker", e);
+          }
+        ODatabaseRecordThreadLocal.INSTANCE.remove();
+
+        busyThreads.decrementAndGet();
+        running.countDown();
+        // WAKE UP THE CALLING THREAD WITHOUT BLOCKING: IF THE QUEUE IS FULL IT'S BUSY CONSUMING THE RESULTS ANYWAY
+        results.offer(END_OF_WORKER);
+      }
+    }
+  }
+}
@@ -66,6 +66,17 @@ public class ORuntimeResult {
     return getResult(value, projections);
   }
 
+  /**
+   * Returns the result taking the values of the aggregate functions from the functions, instead of the value computed with the last
+   * record. Used to return the partial states of the functions.
+   */
+  public ODocument getPartialResult() {
+    for (Entry<String, Object> projection : projections.entrySet())
+      if (projection.getValue() instanceof OSQLFunctionRuntime && ((OSQLFunctionRuntime) projection.getValue()).aggregateResults())
+        value.removeField(projection.getKey());
+    return getResult();
+  }
+
   public static ODocument createProjectionDocument(final int iProgressive) {
     final ODocument doc = new ODocument().setOrdered(true);
     // ASSIGN A TEMPORARY RID TO ALLOW PAGINATION IF ANY
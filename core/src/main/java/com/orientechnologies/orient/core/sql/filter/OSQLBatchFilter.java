@@ -0,0 +1,449 @@
+/*
+ * Copyright 2010-2012 Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientechnologies.orient.core.sql.filter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.orientechnologies.orient.core.command.OCommandContext;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.core.record.impl.ODocumentHelper;
+import com.orientechnologies.orient.core.sql.operator.OQueryOperator;
+import com.orientechnologies.orient.core.sql.operator.OQueryOperatorAnd;
+import com.orientechnologies.orient.core.sql.operator.OQueryOperatorEquals;
+import com.orientechnologies.orient.core.sql.operator.OQueryOperatorMajor;
+import com.orientechnologies.orient.core.sql.operator.OQueryOperatorMajorEquals;
+import com.orientechnologies.orient.core.sql.operator.OQueryOperatorMinor;
+import com.orientechnologies.orient.core.sql.operator.OQueryOperatorMinorEquals;
+import com.orientechnologies.orient.core.sql.operator.OQueryOperatorNotEquals;
+import com.orientechnologies.orient.core.sql.operator.OQueryOperatorOr;
+
+/**
+ * Evaluates a WHERE condition against a batch of documents at once. The fields compared with constants are unmarshalled once per
+ * batch into column vectors of primitive values, then every comparison reduces a selection vector (the positions of the documents
+ * still matching) with a tight loop on the columns. AND and OR work on the selection vectors. Values the vectors can't hold with
+ * the same semantic of the row by row evaluation (dates, floats, conversions between types, etc.) and the conditions that can't be
+ * vectorized are evaluated one document at a time through the original condition, so the result is always the same of
+ * {@link OSQLFilter#evaluate(com.orientechnologies.orient.core.record.ORecord, ODocument, OCommandContext)}.
+ * <p>
+ * Instances keep state between calls and can't be shared between threads.
+ *
+ * @author Luca Garulli
+ */
+public class OSQLBatchFilter {
+  // VALUE KINDS IN THE COLUMN VECTORS
+  private static final byte    KIND_NULL    = 0;
+  private static final byte    KIND_INTEGER = 1;
+  private static final byte    KIND_LONG    = 2;
+  private static final byte    KIND_DOUBLE  = 3;
+  private static final byte    KIND_STRING  = 4;
+  private static final byte    KIND_OTHER   = 5;
+
+  private final int            batchSize;
+  private final Node           root;
+  private final List<Column>   columns      = new ArrayList<Column>();
+  private final String[]       fieldNames;
+
+  private ODocument[]          documents;
+  private int                  size;
+  private OCommandContext      context;
+
+  private OSQLBatchFilter(final OSQLFilterCondition iCondition, final int iBatchSize) {
+    batchSize = iBatchSize;
+    root = compile(iCondition);
+
+    fieldNames = new String[columns.size()];
+    for (int i = 0; i < fieldNames.length; ++i)
+      fieldNames[i] = columns.get(i).name;
+  }
+
+  /**
+   * Creates a batch filter for a condition.
+   *
+   * @return The new filter, or null if no part of the condition can be vectorized, so there would be no advantage against the
+   *         evaluation of one record at a time
+   */
+  public static OSQLBatchFilter create(final OSQLFilter iFilter, final int iBatchSize) {
+    if (iFilter == null || iFilter.getRootCondition() == null || iBatchSize < 2)
+      return null;
+
+    final OSQLBatchFilter filter = new OSQLBatchFilter(iFilter.getRootCondition(), iBatchSize);
+    return filter.columns.isEmpty() ? null : filter;
+  }
+
+  public int getBatchSize() {
+    return batchSize;
+  }
+
+  /**
+   * Evaluates the condition against a batch of documents.
+   *
+   * @param iDocuments
+   *          Documents to evaluate
+   * @param iSize
+   *          Number of documents in the batch, up to the batch size
+   * @param oSelection
+   *          Filled with the positions of the matching documents, in ascending order
+   * @return Number of matching documents
+   */
+  public int filter(final ODocument[] iDocuments, final int iSize, final int[] oSelection, final OCommandContext iContext) {
+    documents = iDocuments;
+    size = iSize;
+    context = iContext;
+    try {
+      for (Column c : columns)
+        c.loaded = false;
+
+      for (int i = 0; i < iSize; ++i)
+        oSelection[i] = i;
+
+      return root.filter(oSelection, iSize, oSelection);
+
+    } finally {
+      documents = null;
+      context = null;
+    }
+  }
+
+  private Node compile(final OSQLFilterCondition iCondition) {
+    final OQueryOperator operator = iCondition.getOperator();
+    final Object left = iCondition.getLeft();
+    final Object right = iCondition.getRight();
+
+    if (operator == null) {
+      // CONDITION BETWEEN PARENTHESIS
+      if (left instanceof OSQLFilterCondition && ((OSQLFilterCondition) left).getOperator() != null)
+        return compile((OSQLFilterCondition) left);
+      return new RowNode(iCondition);
+    }
+
+    if (operator.getClass() == OQueryOperatorAnd.class || operator.getClass() == OQueryOperatorOr.class) {
+      // BOTH THE SIDES MUST RETURN A BOOLEAN, OTHERWISE THE ROW BY ROW EVALUATION HAS DIFFERENT RULES FOR NULLS
+      if (!isBoolean(left) || !isBoolean(right))
+        return new RowNode(iCondition);
+
+      final Node l = compile((OSQLFilterCondition) left);
+      final Node r = compile((OSQLFilterCondition) right);
+      if (operator.getClass() == OQueryOperatorAnd.class)
+        return new AndNode(l, r);
+      return new OrNode(l, r);
+    }
+
+    final int comparison = getComparison(operator);
+    if (comparison != CompareNode.NONE && left != null && left.getClass() == OSQLFilterItemField.class
+        && !((OSQLFilterItemField) left).hasChainOperators() && !((OSQLFilterItemField) left).getRoot().startsWith("@")
+        && (right instanceof Number || right instanceof String || right instanceof OSQLFilterItemParameter))
+      return new CompareNode(iCondition, getColumn(((OSQLFilterItemField) left).getRoot()), comparison, right);
+
+    return new RowNode(iCondition);
+  }
+
+  private static boolean isBoolean(final Object iCondition) {
+    if (!(iCondition instanceof OSQLFilterCondition))
+      return false;
+
+    final OSQLFilterCondition c = (OSQLFilterCondition) iCondition;
+    if (c.getOperator() != null)
+      return true;
+    return isBoolean(c.getLeft());
+  }
+
+  private static int getComparison(final OQueryOperator iOperator) {
+    final Class<?> cls = iOperator.getClass();
+    if (cls == OQueryOperatorEquals.class)
+      return CompareNode.EQUALS;
+    if (cls == OQueryOperatorNotEquals.class)
+      return CompareNode.NOT_EQUALS;
+    if (cls == OQueryOperatorMinor.class)
+      return CompareNode.MINOR;
+    if (cls == OQueryOperatorMinorEquals.class)
+      return CompareNode.MINOR_EQUALS;
+    if (cls == OQueryOperatorMajor.class)
+      return CompareNode.MAJOR;
+    if (cls == OQueryOperatorMajorEquals.class)
+      return CompareNode.MAJOR_EQUALS;
+    return CompareNode.NONE;
+  }
+
+  private Column getColumn(final String iName) {
+    for (Column c : columns)
+      if (c.name.equals(iName))
+        return c;
+
+    final Column c = new Column(iName, batchSize);
+    columns.add(c);
+    return c;
+  }
+
+  /**
+   * Unmarshalls the referenced fields of the whole batch. Called by the first comparison that needs a column.
+   */
+  private void loadColumns() {
+    for (Column c : columns)
+      c.loaded = true;
+
+    for (int i = 0; i < size; ++i) {
+      final ODocument doc = documents[i];
+      // UNMARSHALL ONLY THE NEEDED FIELDS AND ONCE PER DOCUMENT
+      doc.deserializeFields(fieldNames);
+
+      for (Column c : columns)
+        c.set(i, ODocumentHelper.getFieldValue(doc, c.name));
+    }
+  }
+
+  private static class Column {
+    private final String   name;
+    private final byte[]   kinds;
+    private final long[]   longs;
+    private final double[] doubles;
+    private final Object[] objects;
+    private boolean        loaded;
+
+    private Column(final String iName, final int iSize) {
+      name = iName;
+      kinds = new byte[iSize];
+      longs = new long[iSize];
+      doubles = new double[iSize];
+      objects = new Object[iSize];
+    }
+
+    private void set(final int i, final Object iValue) {
+      objects[i] = null;
+      if (iValue == null)
+        kinds[i] = KIND_NULL;
+      else if (iValue instanceof Integer) {
+        kinds[i] = KIND_INTEGER;
+        longs[i] = ((Integer) iValue).longValue();
+      } else if (iValue instanceof Long) {
+        kinds[i] = KIND_LONG;
+        longs[i] = ((Long) iValue).longValue();
+      } else if (iValue instanceof Double) {
+        kinds[i] = KIND_DOUBLE;
+        doubles[i] = ((Double) iValue).doubleValue();
+      } else if (iValue instanceof String) {
+        kinds[i] = KIND_STRING;
+        objects[i] = iValue;
+      } else
+        kinds[i] = KIND_OTHER;
+    }
+  }
+
+  private abstract class Node {
+    /**
+     * Copies to oSelection the positions of iSelection that match. oSelection can be the same array of iSelection.
+     */
+    protected abstract int filter(int[] iSelection, int iSize, int[] oSelection);
+  }
+
+  private class AndNode extends Node {
+    private final Node left;
+    private final Node right;
+
+    private AndNode(final Node iLeft, final Node iRight) {
+      left = iLeft;
+      right = iRight;
+    }
+
+    @Override
+    protected int filter(final int[] iSelection, final int iSize, final int[] oSelection) {
+      final int selected = left.filter(iSelection, iSize, oSelection);
+      if (selected == 0)
+        return 0;
+      return right.filter(oSelection, selected, oSelection);
+    }
+  }
+
+  private class OrNode extends Node {
+    private final Node  left;
+    private final Node  right;
+    private final int[] leftSelection;
+    private final int[] rightSelection;
+
+    private OrNode(final Node iLeft, final Node iRight) {
+      left = iLeft;
+      right = iRight;
+      leftSelection = new int[batchSize];
+      rightSelection = new int[batchSize];
+    }
+
+    @Override
+    protected int filter(final int[] iSelection, final int iSize, final int[] oSelection) {
+      final int leftSize = left.filter(iSelection, iSize, leftSelection);
+
+      // EVALUATE THE RIGHT SIDE ONLY AGAINST THE POSITIONS NOT ALREADY MATCHED BY THE LEFT ONE
+      int missing = 0;
+      for (int i = 0, l = 0; i < iSize; ++i) {
+        if (l < leftSize && leftSelection[l] == iSelection[i])
+          l++;
+        else
+          rightSelection[missing++] = iSelection[i];
+      }
+      final int rightSize = missing > 0 ? right.filter(rightSelection, missing, rightSelection) : 0;
+
+      // MERGE THE TWO SORTED SELECTIONS
+      int l = 0, r = 0, o = 0;
+      while (l < leftSize || r < rightSize) {
+        if (r >= rightSize || (l < leftSize && leftSelection[l] < rightSelection[r]))
+          oSelection[o++] = leftSelection[l++];
+        else
+          oSelection[o++] = rightSelection[r++];
+      }
+      return o;
+    }
+  }
+
+  /**
+   * Evaluates the condition one document at a time.
+   */
+  private class RowNode extends Node {
+    private final OSQLFilterCondition condition;
+
+    private RowNode(final OSQLFilterCondition iCondition) {
+      condition = iCondition;
+    }
+
+    @Override
+    protected int filter(final int[] iSelection, final int iSize, final int[] oSelection) {
+      int selected = 0;
+      for (int i = 0; i < iSize; ++i)
+        if (evaluate(condition, iSelection[i]))
+          oSelection[selected++] = iSelection[i];
+      return selected;
+    }
+  }
+
+  private boolean evaluate(final OSQLFilterCondition iCondition, final int iPosition) {
+    context.setVariable("current", documents[iPosition]);
+    return Boolean.TRUE.equals(iCondition.evaluate(documents[iPosition], null, context));
+  }
+
+  /**
+   * Comparison between a field and a constant or a parameter.
+   */
+  private class CompareNode extends Node {
+    private static final int          NONE         = 0;
+    private static final int          EQUALS       = 1;
+    private static final int          NOT_EQUALS   = 2;
+    private static final int          MINOR        = 3;
+    private static final int          MINOR_EQUALS = 4;
+    private static final int          MAJOR        = 5;
+    private static final int          MAJOR_EQUALS = 6;
+
+    private final OSQLFilterCondition condition;
+    private final Column              column;
+    private final int                 comparison;
+    private final Object              value;
+
+    private CompareNode(final OSQLFilterCondition iCondition, final Column iColumn, final int iComparison, final Object iValue) {
+      condition = iCondition;
+      column = iColumn;
+      comparison = iComparison;
+      value = iValue;
+    }
+
+    @Override
+    protected int filter(final int[] iSelection, final int iSize, final int[] oSelection) {
+      if (!column.loaded)
+        loadColumns();
+
+      final Object constant = value instanceof OSQLFilterItemParameter ? ((OSQLFilterItemParameter) value).getValue(null, context)
+          : value;
+
+      // PREPARE THE CONSTANT FOR EVERY KIND OF VALUE IT CAN BE COMPARED WITH WITHOUT CONVERSIONS
+      final boolean integral = constant instanceof Integer || constant instanceof Long;
+      final long longConstant = integral ? ((Number) constant).longValue() : 0;
+      final boolean intCompatible = integral && longConstant >= Integer.MIN_VALUE && longConstant <= Integer.MAX_VALUE;
+      final boolean doubleCompatible = integral || constant instanceof Double;
+      final double doubleConstant = doubleCompatible ? ((Number) constant).doubleValue() : 0;
+      final String stringConstant = constant instanceof String ? (String) constant : null;
+
+      final byte[] kinds = column.kinds;
+      int selected = 0;
+      for (int i = 0; i < iSize; ++i) {
+        final int p = iSelection[i];
+
+        final int result;
+        switch (kinds[p]) {
+        case KIND_NULL:
+          // NULLS NEVER MATCH A COMPARISON
+          continue;
+        case KIND_INTEGER:
+          if (!intCompatible) {
+            if (evaluate(condition, p))
+              oSelection[selected++] = p;
+            continue;
+          }
+          result = compare(column.longs[p], longConstant);
+          break;
+        case KIND_LONG:
+          if (!integral) {
+            if (evaluate(condition, p))
+              oSelection[selected++] = p;
+            continue;
+          }
+          result = compare(column.longs[p], longConstant);
+          break;
+        case KIND_DOUBLE:
+          if (!doubleCompatible) {
+            if (evaluate(condition, p))
+              oSelection[selected++] = p;
+            continue;
+          }
+          result = Double.compare(column.doubles[p], doubleConstant);
+          break;
+        case KIND_STRING:
+          if (stringConstant == null) {
+            if (evaluate(condition, p))
+              oSelection[selected++] = p;
+            continue;
+          }
+          result = ((String) column.objects[p]).compareTo(stringConstant);
+          break;
+        default:
+          if (evaluate(condition, p))
+            oSelection[selected++] = p;
+          continue;
+        }
+
+        if (matches(result))
+          oSelection[selected++] = p;
+      }
+      return selected;
+    }
+
+    private boolean matches(final int iResult) {
+      switch (comparison) {
+      case EQUALS:
+        return iResult == 0;
+      case NOT_EQUALS:
+        return iResult != 0;
+      case MINOR:
+        return iResult < 0;
+      case MINOR_EQUALS:
+        return iResult <= 0;
+      case MAJOR:
+        return iResult > 0;
+      default:
+        return iResult >= 0;
+      }
+    }
+  }
+
+  private static int compare(final long iValue1, final long iValue2) {
+    return iValue1 < iValue2 ? -1 : (iValue1 == iValue2 ? 0 : 1);
+  }
+}
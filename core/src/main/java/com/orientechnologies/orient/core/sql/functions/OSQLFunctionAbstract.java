@@ -18,6 +18,7 @@ package com.orientechnologies.orient.core.sql.functions;
 import java.util.List;
 
 import com.orientechnologies.orient.core.db.ODatabaseRecordThreadLocal;
+import com.orientechnologies.orient.core.sql.OCommandExecutorSQLSelect;
 import com.orientechnologies.orient.core.storage.OAutoshardedStorage;
 
 /**
@@ -93,7 +94,8 @@ public abstract class OSQLFunctionAbstract implements OSQLFunction {
   }
 
   protected boolean returnDistributedResult() {
-    return ODatabaseRecordThreadLocal.INSTANCE.get().getStorage() instanceof OAutoshardedStorage;
+    return OCommandExecutorSQLSelect.isPartialResult()
+        || ODatabaseRecordThreadLocal.INSTANCE.get().getStorage() instanceof OAutoshardedStorage;
   }
 
   protected long getDistributedStorageId() {
@@ -0,0 +1,34 @@
+/*
+ * Copyright 2010-2012 Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientechnologies.orient.core.sql.query;
+
+/**
+ * Results of a query fetched while they are browsed. The cursor can be browsed only once. Close it to stop the query before the
+ * last result.
+ * 
+ * @author Luca Garulli
+ * 
+ * @param <T>
+ * @see OSQLCursorQuery
+ */
+public interface OResultCursor<T> extends Iterable<T> {
+  /**
+   * Stops the query and releases the resources held by the cursor. Closing a cursor already closed has no effect.
+   */
+  public void close();
+
+  public boolean isClosed();
+}
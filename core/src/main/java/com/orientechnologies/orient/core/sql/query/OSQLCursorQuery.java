@@ -0,0 +1,118 @@
+/*
+ * Copyright 2010-2012 Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientechnologies.orient.core.sql.query;
+
+import java.util.Iterator;
+import java.util.List;
+
+import com.orientechnologies.orient.core.config.OGlobalConfiguration;
+import com.orientechnologies.orient.core.db.ODatabaseRecordThreadLocal;
+import com.orientechnologies.orient.core.db.record.ODatabaseRecord;
+import com.orientechnologies.orient.core.exception.OQueryParsingException;
+import com.orientechnologies.orient.core.storage.OStorage;
+import com.orientechnologies.orient.core.storage.OStorageProxy;
+
+/**
+ * SQL query that returns its results through a cursor. Against remote databases the results are produced by the server one page
+ * at a time while the cursor is browsed, so big result sets are never kept in memory on both sides. Closing the cursor stops the
+ * query on the server. Against local databases the query is executed synchronously.
+ * 
+ * <pre>
+ * final OResultCursor&lt;ODocument&gt; cursor = new OSQLCursorQuery&lt;ODocument&gt;(&quot;select from Account&quot;).open();
+ * try {
+ *   for (ODocument doc : cursor)
+ *     ...
+ * } finally {
+ *   cursor.close();
+ * }
+ * </pre>
+ * 
+ * @author Luca Garulli
+ * 
+ * @param <T>
+ * @see OResultCursor
+ */
+@SuppressWarnings({ "unchecked", "serial" })
+public class OSQLCursorQuery<T extends Object> extends OSQLSynchQuery<T> {
+  private int pageSize = OGlobalConfiguration.QUERY_CURSOR_PAGE_SIZE.getValueAsInteger();
+
+  public OSQLCursorQuery() {
+  }
+
+  public OSQLCursorQuery(final String iText) {
+    super(iText);
+  }
+
+  public OSQLCursorQuery(final String iText, final int iPageSize) {
+    super(iText);
+    pageSize = iPageSize;
+  }
+
+  /**
+   * Executes the query and returns the cursor to browse the results.
+   */
+  public OResultCursor<T> open(final Object... iArgs) {
+    final ODatabaseRecord database = ODatabaseRecordThreadLocal.INSTANCE.get();
+    if (database == null)
+      throw new OQueryParsingException("No database configured");
+
+    final OStorage storage = database.getStorage();
+    if (storage instanceof OStorageProxy) {
+      setParameters(iArgs);
+      final OResultCursor<T> cursor = (OResultCursor<T>) ((OStorageProxy) storage).commandCursor(this, pageSize);
+      if (cursor != null)
+        return cursor;
+    }
+
+    // LOCAL DATABASE OR OLD SERVER: THE RESULTS ARE ALREADY IN MEMORY
+    return new OResultListCursor<T>(run(iArgs));
+  }
+
+  @Override
+  public Iterator<T> iterator() {
+    return open().iterator();
+  }
+
+  public int getPageSize() {
+    return pageSize;
+  }
+
+  public OSQLCursorQuery<T> setPageSize(final int iPageSize) {
+    pageSize = iPageSize;
+    return this;
+  }
+
+  private static class OResultListCursor<T> implements OResultCursor<T> {
+    private final List<T> result;
+    private boolean       closed;
+
+    private OResultListCursor(final List<T> iResult) {
+      result = iResult;
+    }
+
+    public Iterator<T> iterator() {
+      return result.iterator();
+    }
+
+    public void close() {
+      closed = true;
+    }
+
+    public boolean isClosed() {
+      return closed;
+    }
+  }
+}
@@ -15,11 +15,31 @@
  */
 package com.orientechnologies.orient.core.storage;
 
+import java.util.List;
+
+import com.orientechnologies.orient.core.command.OCommandRequestText;
+import com.orientechnologies.orient.core.id.ORecordId;
+import com.orientechnologies.orient.core.sql.query.OResultCursor;
+
 /**
- * Tagged interface for proxy storage implementation
+ * Interface for proxy storage implementation
  * 
  * @author Luca Garulli
  * 
  */
 public interface OStorageProxy extends OStorage {
+  /**
+   * Reads multiple records with one request.
+   * 
+   * @return The record buffers in the same order of the RIDs, with null for the records not found. Null if the records can't be
+   *         read now
+   */
+  public ORawBuffer[] readRecords(List<ORecordId> iRids, String iFetchPlan, boolean iIgnoreCache, boolean iLoadTombstones);
+
+  /**
+   * Executes the command behind a cursor that fetches iPageSize results at a time.
+   * 
+   * @return The open cursor, or null if the server doesn't support cursors
+   */
+  public OResultCursor<Object> commandCursor(OCommandRequestText iCommand, int iPageSize);
 }
\ No newline at end of file
@@ -56,6 +56,10 @@ public class ODurablePage {
     return pagePointer.get(pageOffset, valLen);
   }
 
+  public void getBinaryValue(int pageOffset, byte[] value, int valueOffset, int valLen) {
+    pagePointer.get(pageOffset, value, valueOffset, valLen);
+  }
+
   public byte getByteValue(int pageOffset) {
     return pagePointer.getByte(pageOffset);
   }
@@ -562,26 +562,89 @@ public class OPaginatedCluster extends ODurableComponent implements OCluster {
         diskCache.release(cacheEntry);
       }
 
-      byte[] fullContent = readFullEntry(clusterPosition, pageIndex, recordPosition);
-      if (fullContent == null)
+      final ORawBuffer buffer = readEntryContent(clusterPosition, pageIndex, recordPosition, recordVersion);
+      if (buffer == null)
         return null;
 
-      int fullContentPosition = 0;
+      buffer.buffer = compression.uncompress(buffer.buffer);
+      return buffer;
+    } finally {
+      releaseSharedLock();
+    }
+  }
 
-      byte recordType = fullContent[fullContentPosition];
-      fullContentPosition++;
+  /**
+   * Reads the content of a record copying it only once, from the pages memory to the returned buffer. The chunks of big records are
+   * not collected and merged before, so a record spread on many pages doesn't create temporary copies of its content.
+   */
+  private ORawBuffer readEntryContent(OClusterPosition clusterPosition, long pageIndex, int recordPosition,
+      ORecordVersion recordVersion) throws IOException {
+    if (diskCache.getFilledUpTo(fileId) <= pageIndex)
+      return null;
+
+    final byte[] header = new byte[OByteSerializer.BYTE_SIZE + OIntegerSerializer.INT_SIZE];
+    int headerSize = 0;
+    byte[] content = null;
+    int contentSize = 0;
 
-      int readContentSize = OIntegerSerializer.INSTANCE.deserializeNative(fullContent, fullContentPosition);
-      fullContentPosition += OIntegerSerializer.INT_SIZE;
+    long nextPagePointer;
+    boolean firstEntry = true;
+    do {
+      OCacheEntry cacheEntry = diskCache.load(fileId, pageIndex, false);
+      OCachePointer pointer = cacheEntry.getCachePointer();
+      try {
+        final OClusterPage localPage = new OClusterPage(pointer.getDataPointer(), false, ODurablePage.TrackMode.NONE);
 
-      byte[] recordContent = new byte[readContentSize];
-      System.arraycopy(fullContent, fullContentPosition, recordContent, 0, recordContent.length);
+        int recordPageOffset = localPage.getRecordPageOffset(recordPosition);
 
-      recordContent = compression.uncompress(recordContent);
-      return new ORawBuffer(recordContent, recordVersion, recordType);
-    } finally {
-      releaseSharedLock();
-    }
+        if (recordPageOffset < 0) {
+          if (firstEntry)
+            return null;
+          else
+            throw new OStorageException("Content of record " + new ORecordId(id, clusterPosition) + " was broken.");
+        }
+
+        final int chunkSize = localPage.getRecordSize(recordPosition) - OLongSerializer.LONG_SIZE - OByteSerializer.BYTE_SIZE;
+        final byte[] chunkTail = localPage.getBinaryValue(recordPageOffset + chunkSize, OByteSerializer.BYTE_SIZE
+            + OLongSerializer.LONG_SIZE);
+
+        if (firstEntry && chunkTail[0] == 0)
+          return null;
+
+        nextPagePointer = OLongSerializer.INSTANCE.deserializeNative(chunkTail, OByteSerializer.BYTE_SIZE);
+
+        int chunkPosition = 0;
+        if (headerSize < header.length) {
+          // THE HEADER COULD BE SPLIT BETWEEN CHUNKS
+          final int len = Math.min(header.length - headerSize, chunkSize);
+          localPage.getBinaryValue(recordPageOffset, header, headerSize, len);
+          headerSize += len;
+          chunkPosition = len;
+
+          if (headerSize == header.length)
+            content = new byte[OIntegerSerializer.INSTANCE.deserializeNative(header, OByteSerializer.BYTE_SIZE)];
+        }
+
+        // THE SPACE RESERVED FOR THE GROWTH OF THE RECORD IS NOT COPIED
+        final int len = content != null ? Math.min(chunkSize - chunkPosition, content.length - contentSize) : 0;
+        if (len > 0) {
+          localPage.getBinaryValue(recordPageOffset + chunkPosition, content, contentSize, len);
+          contentSize += len;
+        }
+
+        firstEntry = false;
+      } finally {
+        diskCache.release(cacheEntry);
+      }
+
+      pageIndex = nextPagePointer >>> PAGE_INDEX_OFFSET;
+      recordPosition = (int) (nextPagePointer & RECORD_POSITION_MASK);
+    } while (nextPagePointer >= 0);
+
+    if (content == null || contentSize < content.length)
+      throw new OStorageException("Content of record " + new ORecordId(id, clusterPosition) + " was broken.");
+
+    return new ORawBuffer(content, recordVersion, header[0]);
   }
 
   private byte[] readFullEntry(OClusterPosition clusterPosition, long pageIndex, int recordPosition) throws IOException {
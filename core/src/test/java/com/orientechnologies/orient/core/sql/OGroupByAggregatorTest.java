@@ -0,0 +1,226 @@
+package com.orientechnologies.orient.core.sql;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.orientechnologies.orient.core.config.OGlobalConfiguration;
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.core.sql.query.OSQLSynchQuery;
+
+@Test
+public class OGroupByAggregatorTest {
+  private static final int    TOTAL  = 1000;
+  private static final int    GROUPS = 37;
+
+  private ODatabaseDocumentTx db;
+  private int                 originalBufferSize;
+
+  @BeforeClass
+  public void beforeClass() {
+    originalBufferSize = OGlobalConfiguration.QUERY_GROUP_BY_BUFFER_SIZE.getValueAsInteger();
+
+    db = new ODatabaseDocumentTx("memory:" + OGroupByAggregatorTest.class.getSimpleName());
+    db.create();
+
+    db.getMetadata().getSchema().createClass("GroupedDocument");
+    for (int i = 0; i < TOTAL; i++) {
+      final ODocument doc = new ODocument("GroupedDocument");
+      doc.field("group", i % GROUPS);
+      doc.field("parity", i % 2 == 0 ? "even" : "odd");
+      doc.field("value", i);
+      doc.save();
+    }
+
+    // ONE RECORD ON THREE WITHOUT THE GROUPED FIELD
+    db.getMetadata().getSchema().createClass("SparseDocument");
+    for (int i = 0; i < 30; i++) {
+      final ODocument doc = new ODocument("SparseDocument");
+      if (i % 3 > 0)
+        doc.field("group", i % 2);
+      doc.field("value", i);
+      doc.save();
+    }
+  }
+
+  @AfterClass
+  public void afterClass() {
+    OGlobalConfiguration.QUERY_GROUP_BY_BUFFER_SIZE.setValue(originalBufferSize);
+    db.drop();
+  }
+
+  public void testAggregates() {
+    final List<ODocument> result = db.query(new OSQLSynchQuery<ODocument>(
+        "select group, count(*) as total, sum(value) as sum, min(value) as min, max(value) as max, avg(value) as avg"
+            + " from GroupedDocument group by group"));
+    checkAggregates(result);
+  }
+
+  public void testSpillToDisk() {
+    OGlobalConfiguration.QUERY_GROUP_BY_BUFFER_SIZE.setValue(8);
+    try {
+      final List<ODocument> result = db.query(new OSQLSynchQuery<ODocument>(
+          "select group, count(*) as total, sum(value) as sum, min(value) as min, max(value) as max, avg(value) as avg"
+              + " from GroupedDocument group by group"));
+      checkAggregates(result);
+    } finally {
+      OGlobalConfiguration.QUERY_GROUP_BY_BUFFER_SIZE.setValue(originalBufferSize);
+    }
+  }
+
+  public void testMultipleGroupFieldsWithOrderBy() {
+    final List<ODocument> result = db.query(new OSQLSynchQuery<ODocument>(
+        "select group, parity, count(*) as total from GroupedDocument group by group, parity order by group desc, parity asc"));
+
+    Assert.assertEquals(result.size(), GROUPS * 2);
+    Assert.assertEquals(result.get(0).field("group"), GROUPS - 1);
+    Assert.assertEquals(result.get(0).field("parity"), "even");
+    Assert.assertEquals(result.get(1).field("parity"), "odd");
+
+    long total = 0;
+    for (ODocument d : result)
+      total += ((Number) d.field("total")).longValue();
+    Assert.assertEquals(total, TOTAL);
+  }
+
+  public void testAggregatesWithoutGroupBy() {
+    final List<ODocument> result = db.query(new OSQLSynchQuery<ODocument>(
+        "select count(*) as total, max(value) as max from GroupedDocument where group = 0"));
+    Assert.assertEquals(result.size(), 1);
+    Assert.assertEquals(((Number) result.get(0).field("total")).intValue(), expectedCount(0));
+    Assert.assertEquals(((Number) result.get(0).field("max")).intValue(), (expectedCount(0) - 1) * GROUPS);
+
+    final List<ODocument> empty = db.query(new OSQLSynchQuery<ODocument>(
+        "select count(*) as total from GroupedDocument where value < 0"));
+    Assert.assertEquals(empty.size(), 1);
+    Assert.assertEquals(((Number) empty.get(0).field("total")).intValue(), 0);
+  }
+
+  public void testMergePartials() {
+    final OSQLSynchQuery<ODocument> query = new OSQLSynchQuery<ODocument>(
+        "select group, count(*) as total, sum(value) as sum from GroupedDocument group by group");
+    final OCommandExecutorSQLSelect executor = new OCommandExecutorSQLSelect();
+    executor.parse(query);
+
+    final OGroupByAggregator aggregator = OGroupByAggregator.create(executor.getProjections(), Arrays.asList("group"), 0);
+    Assert.assertNotNull(aggregator);
+
+    final OGroupByAggregator partial = aggregator.createPartial();
+    int i = 0;
+    for (ODocument doc : db.browseClass("GroupedDocument"))
+      (i++ % 2 == 0 ? aggregator : partial).aggregate(doc);
+
+    aggregator.merge(partial);
+
+    int groups = 0;
+    for (Object o : aggregator.getResult(0, -1)) {
+      final ODocument d = (ODocument) o;
+      final int group = (Integer) d.field("group");
+      Assert.assertEquals(((Number) d.field("total")).intValue(), expectedCount(group));
+      groups++;
+    }
+    Assert.assertEquals(groups, GROUPS);
+  }
+
+  public void testNullKeySameAsGeneric() {
+    final String projections = "select group, count(*) as total, sum(value) as sum, max(value) as max";
+    final String target = " from SparseDocument group by group";
+
+    final List<ODocument> fast = db.query(new OSQLSynchQuery<ODocument>(projections + target));
+    // THE FIRST() PROJECTION ISN'T HANDLED BY THE AGGREGATOR: THE SAME QUERY GOES THROUGH THE GENERIC GROUP BY
+    final List<ODocument> generic = db.query(new OSQLSynchQuery<ODocument>(projections + ", first(value) as first" + target));
+
+    // THE RECORDS WITHOUT THE GROUPED FIELD ARE NOT RETURNED BY BOTH
+    Assert.assertEquals(fast.size(), 2);
+    Assert.assertEquals(toGroups(fast), toGroups(generic));
+  }
+
+  public void testArrayKeySameAsGeneric() {
+    final OCommandExecutorSQLSelect executor = new OCommandExecutorSQLSelect();
+    executor.parse(new OSQLSynchQuery<ODocument>("select tags, count(*) as total from GroupedDocument group by tags"));
+
+    final OGroupByAggregator aggregator = OGroupByAggregator.create(executor.getProjections(), Arrays.asList("tags"), 0);
+    Assert.assertNotNull(aggregator);
+
+    // EQUAL ARRAYS, BUT DIFFERENT INSTANCES
+    final Object[][] keys = { { "a", "b" }, { "a", "b" }, { "a", null }, { "a", "b" } };
+    final Set<ORuntimeResult> genericGroups = new HashSet<ORuntimeResult>();
+    for (Object[] key : keys) {
+      aggregator.aggregate(new ODocument().field("tags", key.clone()));
+      genericGroups.add(executor.getProjectionGroup(key.clone()));
+    }
+
+    final Map<String, Integer> totals = new HashMap<String, Integer>();
+    for (Object o : aggregator.getResult(0, -1)) {
+      final ODocument d = (ODocument) o;
+      totals.put(Arrays.toString((Object[]) d.field("tags")), ((Number) d.field("total")).intValue());
+    }
+
+    Assert.assertEquals(totals.size(), genericGroups.size());
+    Assert.assertEquals(totals.get("[a, b]"), Integer.valueOf(3));
+    Assert.assertEquals(totals.get("[a, null]"), Integer.valueOf(1));
+  }
+
+  public void testArrayKeySpilled() {
+    final OCommandExecutorSQLSelect executor = new OCommandExecutorSQLSelect();
+    executor.parse(new OSQLSynchQuery<ODocument>("select tags, count(*) as total from GroupedDocument group by tags"));
+
+    final OGroupByAggregator aggregator = OGroupByAggregator.create(executor.getProjections(), Arrays.asList("tags"), 1);
+    for (int i = 0; i < 10; ++i)
+      aggregator.aggregate(new ODocument().field("tags", new Object[] { "a", i % 2 }));
+
+    final Map<String, Integer> totals = new HashMap<String, Integer>();
+    for (Object o : aggregator.getResult(0, -1)) {
+      final ODocument d = (ODocument) o;
+      totals.put(Arrays.toString((Object[]) d.field("tags")), ((Number) d.field("total")).intValue());
+    }
+    aggregator.close();
+
+    Assert.assertEquals(totals.size(), 2);
+    Assert.assertEquals(totals.get("[a, 0]"), Integer.valueOf(5));
+    Assert.assertEquals(totals.get("[a, 1]"), Integer.valueOf(5));
+  }
+
+  private static Map<Object, String> toGroups(final List<ODocument> iResult) {
+    final Map<Object, String> groups = new HashMap<Object, String>();
+    for (ODocument d : iResult)
+      groups.put(d.field("group"), d.field("total") + "/" + d.field("sum") + "/" + d.field("max"));
+    return groups;
+  }
+
+  private void checkAggregates(final List<ODocument> result) {
+    Assert.assertEquals(result.size(), GROUPS);
+
+    final Map<Integer, ODocument> byGroup = new HashMap<Integer, ODocument>();
+    for (ODocument d : result)
+      byGroup.put((Integer) d.field("group"), d);
+
+    for (int g = 0; g < GROUPS; ++g) {
+      final ODocument d = byGroup.get(g);
+      Assert.assertNotNull(d);
+
+      long sum = 0;
+      for (int v = g; v < TOTAL; v += GROUPS)
+        sum += v;
+
+      Assert.assertEquals(((Number) d.field("total")).intValue(), expectedCount(g));
+      Assert.assertEquals(((Number) d.field("sum")).longValue(), sum);
+      Assert.assertEquals(((Number) d.field("min")).intValue(), g);
+      Assert.assertEquals(((Number) d.field("max")).intValue(), g + (expectedCount(g) - 1) * GROUPS);
+      Assert.assertEquals(((Number) d.field("avg")).intValue(), (int) (sum / expectedCount(g)));
+    }
+  }
+
+  private static int expectedCount(final int iGroup) {
+    return (TOTAL - iGroup + GROUPS - 1) / GROUPS;
+  }
+}
@@ -0,0 +1,152 @@
+package com.orientechnologies.orient.core.sql;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import com.orientechnologies.orient.core.id.ORID;
+import com.orientechnologies.orient.core.id.ORecordId;
+import com.orientechnologies.orient.core.metadata.schema.OClass;
+import com.orientechnologies.orient.core.metadata.schema.OClass.INDEX_TYPE;
+import com.orientechnologies.orient.core.metadata.schema.OType;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.core.sql.query.OSQLSynchQuery;
+
+@Test
+public class OMultiIndexSearchTest {
+  private static final int    TOTAL = 1000;
+
+  private ODatabaseDocumentTx db;
+
+  @BeforeClass
+  public void beforeClass() {
+    db = new ODatabaseDocumentTx("memory:" + OMultiIndexSearchTest.class.getSimpleName());
+    db.create();
+
+    final OClass cls = db.getMetadata().getSchema().createClass("MultiIndexed");
+    cls.createProperty("a", OType.INTEGER);
+    cls.createProperty("b", OType.INTEGER);
+    cls.createProperty("c", OType.INTEGER);
+    cls.createIndex("MultiIndexed.a", INDEX_TYPE.NOTUNIQUE, "a");
+    cls.createIndex("MultiIndexed.b", INDEX_TYPE.NOTUNIQUE, "b");
+
+    for (int i = 0; i < TOTAL; i++) {
+      final ODocument doc = new ODocument("MultiIndexed");
+      doc.field("a", i % 10);
+      doc.field("b", i % 7);
+      doc.field("c", i % 3);
+      doc.save();
+    }
+  }
+
+  @AfterClass
+  public void afterClass() {
+    db.drop();
+  }
+
+  public void testIntersection() {
+    final List<ODocument> result = db.query(new OSQLSynchQuery<ODocument>("select from MultiIndexed where a = 3 and b = 4"));
+    Assert.assertEquals(rids(result), expected(3, 4, -1, false));
+    assertInvolvedIndexes("select from MultiIndexed where a = 3 and b = 4", "MultiIndexed.a", "MultiIndexed.b");
+  }
+
+  public void testIntersectionWithNotIndexedCondition() {
+    final List<ODocument> result = db.query(new OSQLSynchQuery<ODocument>(
+        "select from MultiIndexed where a = 3 and c = 1 and b = 4"));
+    Assert.assertEquals(rids(result), expected(3, 4, 1, false));
+  }
+
+  public void testUnion() {
+    final List<ODocument> result = db.query(new OSQLSynchQuery<ODocument>("select from MultiIndexed where a = 3 or b = 4"));
+    Assert.assertEquals(rids(result), expected(3, 4, -1, true));
+    assertInvolvedIndexes("select from MultiIndexed where a = 3 or b = 4", "MultiIndexed.a", "MultiIndexed.b");
+  }
+
+  public void testUnionWithNotIndexedConditionIsFullScan() {
+    final List<ODocument> result = db.query(new OSQLSynchQuery<ODocument>("select from MultiIndexed where a = 3 or c = 1"));
+
+    int expected = 0;
+    for (int i = 0; i < TOTAL; i++)
+      if (i % 10 == 3 || i % 3 == 1)
+        expected++;
+    Assert.assertEquals(result.size(), expected);
+  }
+
+  public void testRangesAndLimit() {
+    final List<ODocument> result = db.query(new OSQLSynchQuery<ODocument>(
+        "select from MultiIndexed where (a < 2 or a > 8) and b >= 5 limit 5"));
+    Assert.assertEquals(result.size(), 5);
+    for (ODocument d : result) {
+      final int a = (Integer) d.field("a");
+      Assert.assertTrue(a < 2 || a > 8);
+      Assert.assertTrue((Integer) d.field("b") >= 5);
+    }
+  }
+
+  public void testSameResultAsFullScan() {
+    assertSameAsFullScan("a = 3 and b = 4");
+    assertSameAsFullScan("a = 3 or b = 4");
+    assertSameAsFullScan("a >= 8 and b < 2");
+    assertSameAsFullScan("a < 2 or b > 5");
+    assertSameAsFullScan("(a = 1 or a = 2) and (b = 3 or b = 4)");
+    assertSameAsFullScan("(a = 1 and b = 1) or (a = 2 and b = 2)");
+    assertSameAsFullScan("a = 3 and b = 4 and c = 2");
+    assertSameAsFullScan("a = 100 or b = 100");
+  }
+
+  public void testSortedMerge() {
+    final ORID[] left = { new ORecordId("#1:1"), new ORecordId("#1:3"), new ORecordId("#2:0") };
+    final ORID[] right = { new ORecordId("#1:2"), new ORecordId("#1:3"), new ORecordId("#3:0") };
+
+    Assert.assertEquals(OMultiIndexSearch.intersect(left, right), new ORID[] { new ORecordId("#1:3") });
+    Assert.assertEquals(OMultiIndexSearch.union(left, right), new ORID[] { new ORecordId("#1:1"), new ORecordId("#1:2"),
+        new ORecordId("#1:3"), new ORecordId("#2:0"), new ORecordId("#3:0") });
+  }
+
+  /**
+   * Compares the result with the one of the same condition against the cluster, that is always browsed.
+   */
+  private void assertSameAsFullScan(final String iWhere) {
+    final List<ODocument> indexed = db.query(new OSQLSynchQuery<ODocument>("select from MultiIndexed where " + iWhere));
+    final List<ODocument> scanned = db.query(new OSQLSynchQuery<ODocument>("select from cluster:MultiIndexed where " + iWhere));
+    Assert.assertEquals(rids(indexed), rids(scanned), iWhere);
+  }
+
+  private void assertInvolvedIndexes(final String iQuery, final String... iIndexes) {
+    final ODocument explain = db.command(new OCommandSQL("explain " + iQuery)).execute();
+    final Collection<String> involved = explain.field("involvedIndexes");
+    Assert.assertNotNull(involved);
+    for (String index : iIndexes)
+      Assert.assertTrue(involved.contains(index), index + " not in " + involved);
+  }
+
+  private Set<ORID> expected(final int iA, final int iB, final int iC, final boolean iUnion) {
+    final List<ODocument> all = db.query(new OSQLSynchQuery<ODocument>("select from MultiIndexed"));
+    final List<ODocument> matching = new ArrayList<ODocument>();
+    for (ODocument d : all) {
+      final boolean a = (Integer) d.field("a") == iA;
+      final boolean b = (Integer) d.field("b") == iB;
+      final boolean c = iC < 0 || (Integer) d.field("c") == iC;
+      if (iUnion ? a || b : a && b && c)
+        matching.add(d);
+    }
+    Assert.assertFalse(matching.isEmpty());
+    return rids(matching);
+  }
+
+  private static Set<ORID> rids(final List<ODocument> iResult) {
+    final Set<ORID> rids = new HashSet<ORID>();
+    for (ODocument d : iResult)
+      rids.add(d.getIdentity());
+    Assert.assertEquals(rids.size(), iResult.size());
+    return rids;
+  }
+}
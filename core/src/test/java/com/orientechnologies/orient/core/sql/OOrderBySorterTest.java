@@ -0,0 +1,205 @@
+package com.orientechnologies.orient.core.sql;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.orientechnologies.common.util.OPair;
+import com.orientechnologies.orient.core.command.OCommandResultListener;
+import com.orientechnologies.orient.core.config.OGlobalConfiguration;
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import com.orientechnologies.orient.core.db.record.OIdentifiable;
+import com.orientechnologies.orient.core.exception.OCommandExecutionException;
+import com.orientechnologies.orient.core.metadata.schema.OClass;
+import com.orientechnologies.orient.core.metadata.schema.OType;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.core.record.impl.ORecordBytes;
+import com.orientechnologies.orient.core.sql.query.OSQLAsynchQuery;
+import com.orientechnologies.orient.core.sql.query.OSQLSynchQuery;
+
+@Test
+public class OOrderBySorterTest {
+  private static final int    TOTAL = 1000;
+
+  private ODatabaseDocumentTx db;
+  private int                 originalBufferSize;
+
+  @BeforeClass
+  public void beforeClass() {
+    originalBufferSize = OGlobalConfiguration.QUERY_ORDER_BY_BUFFER_SIZE.getValueAsInteger();
+
+    db = new ODatabaseDocumentTx("memory:" + OOrderBySorterTest.class.getSimpleName());
+    db.create();
+
+    final OClass cls = db.getMetadata().getSchema().createClass("SortedDocument");
+    cls.createProperty("value", OType.INTEGER);
+
+    final Random random = new Random(42);
+    for (int i = 0; i < TOTAL; i++) {
+      final ODocument doc = new ODocument("SortedDocument");
+      doc.field("value", random.nextInt(TOTAL / 2));
+      doc.field("progressive", i);
+      doc.save();
+    }
+  }
+
+  @AfterClass
+  public void afterClass() {
+    OGlobalConfiguration.QUERY_ORDER_BY_BUFFER_SIZE.setValue(originalBufferSize);
+    db.drop();
+  }
+
+  public void testTopKWithLimit() {
+    final List<ODocument> all = db.query(new OSQLSynchQuery<ODocument>("select from SortedDocument order by value desc"));
+    final List<ODocument> top = db.query(new OSQLSynchQuery<ODocument>("select from SortedDocument order by value desc limit 10"));
+
+    Assert.assertEquals(top.size(), 10);
+    for (int i = 0; i < top.size(); ++i)
+      Assert.assertEquals(top.get(i).field("value"), all.get(i).field("value"));
+  }
+
+  public void testTopKWithSkipAndLimit() {
+    final List<ODocument> all = db.query(new OSQLSynchQuery<ODocument>("select from SortedDocument order by value asc, progressive asc"));
+    final List<ODocument> page = db.query(new OSQLSynchQuery<ODocument>(
+        "select from SortedDocument order by value asc, progressive asc skip 20 limit 5"));
+
+    Assert.assertEquals(page.size(), 5);
+    for (int i = 0; i < page.size(); ++i)
+      Assert.assertEquals(page.get(i).field("progressive"), all.get(i + 20).field("progressive"));
+  }
+
+  public void testLimitZero() {
+    final OOrderBySorter sorter = new OOrderBySorter(Collections.singletonList(new OPair<String, String>("value",
+        OCommandExecutorSQLSelect.KEYWORD_ASC)), 0, 0, 0);
+    for (ODocument d : db.browseClass("SortedDocument"))
+      sorter.add(d);
+
+    Assert.assertFalse(sorter.sort().iterator().hasNext());
+  }
+
+  public void testSpillToDisk() {
+    OGlobalConfiguration.QUERY_ORDER_BY_BUFFER_SIZE.setValue(64);
+    try {
+      final List<ODocument> result = db.query(new OSQLSynchQuery<ODocument>("select from SortedDocument order by value"));
+      Assert.assertEquals(result.size(), TOTAL);
+
+      int last = Integer.MIN_VALUE;
+      for (ODocument d : result) {
+        final int value = (Integer) d.field("value");
+        Assert.assertTrue(value >= last);
+        last = value;
+      }
+
+      final List<ODocument> skipped = db.query(new OSQLSynchQuery<ODocument>("select from SortedDocument order by value skip 100"));
+      Assert.assertEquals(skipped.size(), TOTAL - 100);
+      Assert.assertEquals(skipped.get(0).field("value"), result.get(100).field("value"));
+    } finally {
+      OGlobalConfiguration.QUERY_ORDER_BY_BUFFER_SIZE.setValue(originalBufferSize);
+    }
+  }
+
+  public void testCloseDeletesRunsNotBrowsed() {
+    final int filesBefore = countRunFiles();
+
+    final OOrderBySorter sorter = createSpillingSorter();
+    for (ODocument d : db.browseClass("SortedDocument"))
+      sorter.add(d);
+
+    final Iterator<OIdentifiable> it = sorter.sort().iterator();
+    for (int i = 0; i < 3; ++i)
+      it.next();
+    Assert.assertTrue(countRunFiles() > filesBefore);
+
+    // ABANDONED AS WITH A LIMIT
+    sorter.close();
+    Assert.assertEquals(countRunFiles(), filesBefore);
+  }
+
+  public void testSpilledResultBrowsedOnce() {
+    final OOrderBySorter sorter = createSpillingSorter();
+    for (ODocument d : db.browseClass("SortedDocument"))
+      sorter.add(d);
+
+    final Iterable<OIdentifiable> result = sorter.sort();
+    result.iterator();
+    try {
+      result.iterator();
+      Assert.fail();
+    } catch (IllegalStateException e) {
+    } finally {
+      sorter.close();
+    }
+  }
+
+  public void testSpillNonDocuments() {
+    final OOrderBySorter sorter = createSpillingSorter();
+    for (int i = 0; i < 100; ++i)
+      sorter.add(new ORecordBytes(("content" + i).getBytes()));
+    for (ODocument d : db.browseClass("SortedDocument"))
+      sorter.add(d);
+
+    int bytes = 0;
+    int documents = 0;
+    for (OIdentifiable o : sorter.sort()) {
+      if (o instanceof ORecordBytes) {
+        // WITHOUT THE FIELD, THEY ARE SORTED FIRST
+        Assert.assertEquals(documents, 0);
+        Assert.assertTrue(new String(((ORecordBytes) o).toStream()).startsWith("content"));
+        bytes++;
+      } else
+        documents++;
+    }
+    sorter.close();
+
+    Assert.assertEquals(bytes, 100);
+    Assert.assertEquals(documents, TOTAL);
+  }
+
+  public void testExecutorDeletesRunsOnError() {
+    final int filesBefore = countRunFiles();
+
+    OGlobalConfiguration.QUERY_ORDER_BY_BUFFER_SIZE.setValue(64);
+    try {
+      db.query(new OSQLAsynchQuery<ODocument>("select from SortedDocument order by value", new OCommandResultListener() {
+        private int results;
+
+        public boolean result(final Object iRecord) {
+          if (++results == 5)
+            throw new IllegalStateException("Test failure");
+          return true;
+        }
+
+        public void end() {
+        }
+      }));
+      Assert.fail();
+    } catch (OCommandExecutionException e) {
+    } finally {
+      OGlobalConfiguration.QUERY_ORDER_BY_BUFFER_SIZE.setValue(originalBufferSize);
+    }
+
+    Assert.assertEquals(countRunFiles(), filesBefore);
+  }
+
+  private static OOrderBySorter createSpillingSorter() {
+    return new OOrderBySorter(Collections.singletonList(new OPair<String, String>("value", OCommandExecutorSQLSelect.KEYWORD_ASC)),
+        0, -1, 64);
+  }
+
+  private static int countRunFiles() {
+    final String[] files = new File(System.getProperty("java.io.tmpdir")).list(new FilenameFilter() {
+      public boolean accept(final File iDir, final String iName) {
+        return iName.startsWith("orientdb-orderby");
+      }
+    });
+    return files != null ? files.length : 0;
+  }
+}
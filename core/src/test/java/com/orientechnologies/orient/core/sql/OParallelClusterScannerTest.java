@@ -0,0 +1,259 @@
+package com.orientechnologies.orient.core.sql;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.orientechnologies.orient.core.command.OCommandResultListener;
+import com.orientechnologies.orient.core.config.OGlobalConfiguration;
+import com.orientechnologies.orient.core.db.ODatabaseRecordThreadLocal;
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import com.orientechnologies.orient.core.db.record.ODatabaseRecord;
+import com.orientechnologies.orient.core.exception.OCommandExecutionException;
+import com.orientechnologies.orient.core.id.ORID;
+import com.orientechnologies.orient.core.metadata.schema.OClass;
+import com.orientechnologies.orient.core.record.ORecordInternal;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.core.sql.query.OSQLSynchQuery;
+import com.orientechnologies.orient.core.storage.OStorage;
+
+@Test
+public class OParallelClusterScannerTest {
+  private static final int    TOTAL    = 2000;
+  private static final int    CLUSTERS = 4;
+
+  private ODatabaseDocumentTx db;
+
+  @BeforeClass
+  public void beforeClass() {
+    db = new ODatabaseDocumentTx("memory:" + OParallelClusterScannerTest.class.getSimpleName());
+    db.create();
+
+    final OClass cls = db.getMetadata().getSchema().createClass("ScannedDocument");
+    for (int i = 1; i < CLUSTERS; ++i)
+      cls.addClusterId(db.addCluster("scanneddocument" + i, OStorage.CLUSTER_TYPE.PHYSICAL));
+
+    for (int i = 0; i < TOTAL; i++) {
+      final ODocument doc = new ODocument("ScannedDocument");
+      doc.field("group", i % 10);
+      doc.field("value", i);
+      doc.save("scanneddocument" + (i % CLUSTERS == 0 ? "" : i % CLUSTERS));
+    }
+  }
+
+  @AfterClass
+  public void afterClass() {
+    db.drop();
+  }
+
+  public void testFilter() {
+    final List<ODocument> sequential = db.query(new OSQLSynchQuery<ODocument>("select from ScannedDocument where value < 1500"));
+    final List<ODocument> parallel = db.query(new OSQLSynchQuery<ODocument>(
+        "select from ScannedDocument where value < 1500 parallel"));
+
+    Assert.assertEquals(sequential.size(), 1500);
+    Assert.assertEquals(rids(parallel), rids(sequential));
+  }
+
+  public void testProjectionsAndParameters() {
+    final List<ODocument> result = db.query(new OSQLSynchQuery<ODocument>(
+        "select value as v, group from ScannedDocument where value >= ? parallel"), 1000);
+
+    Assert.assertEquals(result.size(), TOTAL - 1000);
+    final Set<Integer> values = new HashSet<Integer>();
+    for (ODocument d : result)
+      values.add(((Number) d.field("v")).intValue());
+    Assert.assertEquals(values.size(), TOTAL - 1000);
+    Assert.assertTrue(values.contains(1000));
+    Assert.assertTrue(values.contains(TOTAL - 1));
+  }
+
+  public void testGroupByAndCount() {
+    final List<ODocument> groups = db.query(new OSQLSynchQuery<ODocument>(
+        "select group, count(*) as total, sum(value) as sum from ScannedDocument group by group parallel"));
+
+    Assert.assertEquals(groups.size(), 10);
+    for (ODocument d : groups)
+      Assert.assertEquals(((Number) d.field("total")).intValue(), TOTAL / 10);
+
+    final List<ODocument> count = db.query(new OSQLSynchQuery<ODocument>(
+        "select count(*) as total from ScannedDocument where group = 3 parallel"));
+    Assert.assertEquals(count.size(), 1);
+    Assert.assertEquals(((Number) count.get(0).field("total")).intValue(), TOTAL / 10);
+  }
+
+  public void testLimitAndOrderBy() {
+    final List<ODocument> limited = db.query(new OSQLSynchQuery<ODocument>("select from ScannedDocument parallel limit 10"));
+    Assert.assertEquals(limited.size(), 10);
+
+    final List<ODocument> ordered = db.query(new OSQLSynchQuery<ODocument>(
+        "select from ScannedDocument where group = 1 order by value desc limit 3 parallel"));
+    Assert.assertEquals(ordered.size(), 3);
+    Assert.assertEquals(ordered.get(0).field("value"), TOTAL - 9);
+    Assert.assertEquals(ordered.get(2).field("value"), TOTAL - 29);
+  }
+
+  public void testAutomaticThreshold() {
+    final long originalMinimum = OGlobalConfiguration.QUERY_PARALLEL_MINIMUM_RECORDS.getValueAsLong();
+    OGlobalConfiguration.QUERY_PARALLEL_MINIMUM_RECORDS.setValue(TOTAL / 2);
+    try {
+      final List<ODocument> result = db.query(new OSQLSynchQuery<ODocument>("select from ScannedDocument where group = 5"));
+      Assert.assertEquals(result.size(), TOTAL / 10);
+    } finally {
+      OGlobalConfiguration.QUERY_PARALLEL_MINIMUM_RECORDS.setValue(originalMinimum);
+    }
+  }
+
+  public void testWorkersUseTheirOwnDatabase() {
+    final ODatabaseRecord callerDb = ODatabaseRecordThreadLocal.INSTANCE.get();
+
+    final List<RecordingWorker> workers = new ArrayList<RecordingWorker>();
+    for (int i = 0; i < 4; ++i)
+      workers.add(new RecordingWorker(-1));
+
+    final OParallelClusterScanner scanner = new OParallelClusterScanner(db, getClusterIds(), false);
+    Assert.assertTrue(scanner.scan(workers, new CountingListener()));
+
+    int processed = 0;
+    for (RecordingWorker w : workers) {
+      // THE WORKERS NOT STARTED FOR LACK OF THREADS DON'T PROCESS ANY RECORD
+      Assert.assertTrue(w.ended || w.processed == 0);
+      for (ODatabaseRecord workerDb : w.databases)
+        Assert.assertNotSame(workerDb, callerDb);
+      processed += w.processed;
+    }
+    Assert.assertEquals(processed, TOTAL);
+    Assert.assertSame(ODatabaseRecordThreadLocal.INSTANCE.get(), callerDb);
+  }
+
+  public void testErrorWaitsForAllTheWorkers() {
+    final List<RecordingWorker> workers = new ArrayList<RecordingWorker>();
+    workers.add(new RecordingWorker(10));
+    for (int i = 0; i < 3; ++i)
+      workers.add(new RecordingWorker(-1));
+
+    final OParallelClusterScanner scanner = new OParallelClusterScanner(db, getClusterIds(), false);
+    try {
+      scanner.scan(workers, new CountingListener());
+      Assert.fail();
+    } catch (OCommandExecutionException e) {
+    }
+
+    // ALL THE WORKERS HAVE BEEN TERMINATED BEFORE RETURNING
+    for (RecordingWorker w : workers)
+      Assert.assertTrue(w.terminated || w.processed == 0);
+  }
+
+  public void testSerialScanWhenThreadsAreBusy() throws Exception {
+    final int originalMaxThreads = OGlobalConfiguration.QUERY_PARALLEL_MAX_THREADS.getValueAsInteger();
+    OGlobalConfiguration.QUERY_PARALLEL_MAX_THREADS.setValue(1);
+    try {
+      // A SCAN KEEPS THE ONLY THREAD BUSY
+      final CountDownLatch busy = new CountDownLatch(1);
+      final CountDownLatch release = new CountDownLatch(1);
+      final Thread other = new Thread() {
+        @Override
+        public void run() {
+          new OParallelClusterScanner(db, getClusterIds(), false).scan(Arrays.asList(new RecordingWorker(-1) {
+            @Override
+            public boolean process(final ORecordInternal<?> iRecord, final OParallelClusterScanner iScanner) {
+              busy.countDown();
+              try {
+                release.await();
+              } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+              }
+              return false;
+            }
+          }), new CountingListener());
+        }
+      };
+      other.start();
+      Assert.assertTrue(busy.await(10, TimeUnit.SECONDS));
+
+      try {
+        final ODatabaseRecord callerDb = ODatabaseRecordThreadLocal.INSTANCE.get();
+        final RecordingWorker first = new RecordingWorker(-1);
+        final RecordingWorker second = new RecordingWorker(-1);
+        final CountingListener listener = new CountingListener();
+
+        Assert.assertTrue(new OParallelClusterScanner(db, getClusterIds(), false).scan(Arrays.asList(first, second), listener));
+
+        // ALL THE RECORDS BROWSED BY THE FIRST WORKER IN THE CURRENT THREAD
+        Assert.assertEquals(first.processed, TOTAL);
+        Assert.assertTrue(first.ended);
+        Assert.assertEquals(first.databases, Collections.singleton(callerDb));
+        Assert.assertEquals(second.processed, 0);
+        Assert.assertEquals(listener.results, TOTAL);
+      } finally {
+        release.countDown();
+        other.join();
+      }
+    } finally {
+      OGlobalConfiguration.QUERY_PARALLEL_MAX_THREADS.setValue(originalMaxThreads);
+    }
+  }
+
+  private int[] getClusterIds() {
+    return db.getMetadata().getSchema().getClass("ScannedDocument").getClusterIds();
+  }
+
+  private static class CountingListener implements OCommandResultListener {
+    private int results;
+
+    public boolean result(final Object iRecord) {
+      results++;
+      return true;
+    }
+
+    public void end() {
+    }
+  }
+
+  private static class RecordingWorker implements OParallelClusterScanner.OWorker {
+    private final int                 failAfter;
+    private final Set<ODatabaseRecord> databases = new HashSet<ODatabaseRecord>();
+    private int                       processed;
+    private volatile boolean          ended;
+    private volatile boolean          terminated;
+
+    private RecordingWorker(final int iFailAfter) {
+      failAfter = iFailAfter;
+    }
+
+    public boolean process(final ORecordInternal<?> iRecord, final OParallelClusterScanner iScanner) {
+      try {
+        databases.add(ODatabaseRecordThreadLocal.INSTANCE.get());
+        if (processed++ == failAfter)
+          throw new OCommandExecutionException("Test failure");
+        iScanner.send(iRecord);
+        return true;
+      } catch (RuntimeException e) {
+        terminated = true;
+        throw e;
+      }
+    }
+
+    public void end() {
+      ended = true;
+      terminated = true;
+    }
+  }
+
+  private static Set<ORID> rids(final List<ODocument> iResult) {
+    final Set<ORID> rids = new HashSet<ORID>();
+    for (ODocument d : iResult)
+      rids.add(d.getIdentity());
+    return rids;
+  }
+}
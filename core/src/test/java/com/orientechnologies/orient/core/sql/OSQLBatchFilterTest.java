@@ -0,0 +1,130 @@
+package com.orientechnologies.orient.core.sql;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.orientechnologies.orient.core.config.OGlobalConfiguration;
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import com.orientechnologies.orient.core.id.ORID;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.core.sql.query.OSQLSynchQuery;
+
+@Test
+public class OSQLBatchFilterTest {
+  private static final int    TOTAL = 3000;
+
+  private ODatabaseDocumentTx db;
+
+  @BeforeClass
+  public void beforeClass() {
+    db = new ODatabaseDocumentTx("memory:" + OSQLBatchFilterTest.class.getSimpleName());
+    db.create();
+    db.getMetadata().getSchema().createClass("BatchDocument");
+
+    for (int i = 0; i < TOTAL; i++) {
+      final ODocument doc = new ODocument("BatchDocument");
+      doc.field("value", i);
+      doc.field("big", i * 10000000000l);
+      doc.field("amount", i / 4d);
+      doc.field("name", "name" + (i % 100));
+      if (i % 7 != 0)
+        doc.field("optional", i % 13);
+      // THE SAME FIELD WITH DIFFERENT TYPES FORCES THE ROW BY ROW FALLBACK
+      doc.field("mixed", i % 2 == 0 ? (Object) Integer.valueOf(i % 50) : String.valueOf(i % 50));
+      doc.save();
+    }
+  }
+
+  @AfterClass
+  public void afterClass() {
+    db.drop();
+  }
+
+  public void testComparisons() {
+    Assert.assertEquals(assertSameResult("select from BatchDocument where value < 1500"), 1500);
+    assertSameResult("select from BatchDocument where value <= 1500");
+    assertSameResult("select from BatchDocument where value > 2990");
+    assertSameResult("select from BatchDocument where value >= 2990");
+    assertSameResult("select from BatchDocument where value = 1024");
+    assertSameResult("select from BatchDocument where value <> 1024");
+    assertSameResult("select from BatchDocument where big > 20000000000000");
+    assertSameResult("select from BatchDocument where amount < 100");
+    assertSameResult("select from BatchDocument where amount = 100.25");
+    assertSameResult("select from BatchDocument where name = 'name15'");
+    assertSameResult("select from BatchDocument where name > 'name5'");
+  }
+
+  public void testConversionsAndNulls() {
+    assertSameResult("select from BatchDocument where value < 100.5");
+    assertSameResult("select from BatchDocument where value = '15'");
+    assertSameResult("select from BatchDocument where amount > '700'");
+    assertSameResult("select from BatchDocument where optional = 5");
+    assertSameResult("select from BatchDocument where optional <> 5");
+    assertSameResult("select from BatchDocument where mixed = 10");
+    assertSameResult("select from BatchDocument where mixed < 10");
+    assertSameResult("select from BatchDocument where missing = 3");
+  }
+
+  public void testBooleanOperators() {
+    assertSameResult("select from BatchDocument where value > 100 and value < 200");
+    assertSameResult("select from BatchDocument where value < 100 or value > 2900");
+    assertSameResult("select from BatchDocument where (value < 100 or name = 'name50') and optional > 3");
+    assertSameResult("select from BatchDocument where value < 100 or name like 'name5%'");
+    assertSameResult("select from BatchDocument where not (value < 2000) and amount < 600");
+    assertSameResult("select from BatchDocument where optional = 3 or mixed = 7 or value = 2999");
+  }
+
+  public void testParametersAndLimits() {
+    assertSameResult("select from BatchDocument where value >= ? and name = ?", 1000, "name10");
+    assertSameResult("select from BatchDocument where value > 10 skip 5 limit 20");
+    assertSameResult("select from BatchDocument where value > 10 order by value desc limit 20");
+    assertSameResult("select name, count(*) from BatchDocument where value > 10 and value < 1500 group by name");
+  }
+
+  public void testBatchBoundaries() {
+    final int batchSize = OGlobalConfiguration.QUERY_VECTORIZED_BATCH_SIZE.getValueAsInteger();
+
+    // BATCHES SMALLER THAN THE RECORDS AND NOT A DIVISOR OF THEIR NUMBER: THE LAST ONE IS PARTIAL
+    OGlobalConfiguration.QUERY_VECTORIZED_BATCH_SIZE.setValue(7);
+    try {
+      assertSameResult("select from BatchDocument where value < 40 and optional > 6");
+      assertSameResult("select from BatchDocument where value > 2995");
+      assertSameResult("select from BatchDocument where optional = 5 or value = 2999");
+      assertSameResult("select from BatchDocument where value >= 10 limit 9");
+    } finally {
+      OGlobalConfiguration.QUERY_VECTORIZED_BATCH_SIZE.setValue(batchSize);
+    }
+  }
+
+  private int assertSameResult(final String iQuery, final Object... iArgs) {
+    final int batchSize = OGlobalConfiguration.QUERY_VECTORIZED_BATCH_SIZE.getValueAsInteger();
+
+    final List<ODocument> batched = db.query(new OSQLSynchQuery<ODocument>(iQuery), iArgs);
+
+    OGlobalConfiguration.QUERY_VECTORIZED_BATCH_SIZE.setValue(0);
+    final List<ODocument> rowByRow;
+    try {
+      rowByRow = db.query(new OSQLSynchQuery<ODocument>(iQuery), iArgs);
+    } finally {
+      OGlobalConfiguration.QUERY_VECTORIZED_BATCH_SIZE.setValue(batchSize);
+    }
+
+    Assert.assertEquals(batched.size(), rowByRow.size(), iQuery);
+    Assert.assertEquals(content(batched), content(rowByRow), iQuery);
+    return batched.size();
+  }
+
+  private static List<Object> content(final List<ODocument> iResult) {
+    final List<Object> content = new ArrayList<Object>();
+    for (ODocument d : iResult) {
+      final ORID rid = d.getIdentity();
+      content.add(rid.isPersistent() ? rid : d.toString());
+    }
+    return content;
+  }
+}
@@ -0,0 +1,71 @@
+package com.orientechnologies.orient.core.sql.query;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.orientechnologies.orient.core.command.OCommandResultListener;
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+
+@Test
+public class OSQLCursorQueryTest {
+  private static final int    TOTAL = 1000;
+
+  private ODatabaseDocumentTx db;
+
+  @BeforeClass
+  public void beforeClass() {
+    db = new ODatabaseDocumentTx("memory:" + OSQLCursorQueryTest.class.getSimpleName());
+    db.create();
+
+    db.getMetadata().getSchema().createClass("Cursored");
+    for (int i = 0; i < TOTAL; i++)
+      new ODocument("Cursored").field("n", i).save();
+  }
+
+  @AfterClass
+  public void afterClass() {
+    db.drop();
+  }
+
+  public void testBrowseAll() {
+    final OResultCursor<ODocument> cursor = new OSQLCursorQuery<ODocument>("select from Cursored where n < ?", 10).open(500);
+    try {
+      int count = 0;
+      for (ODocument doc : cursor) {
+        Assert.assertTrue((Integer) doc.field("n") < 500);
+        count++;
+      }
+      Assert.assertEquals(count, 500);
+    } finally {
+      cursor.close();
+    }
+    Assert.assertTrue(cursor.isClosed());
+  }
+
+  public void testListenerStopsTheQuery() {
+    assertStopsAfter("select from Cursored", 10);
+  }
+
+  public void testListenerStopsTheQueryWithProjections() {
+    assertStopsAfter("select n from Cursored", 10);
+  }
+
+  private void assertStopsAfter(final String iQuery, final int iMax) {
+    final AtomicInteger received = new AtomicInteger();
+    db.command(new OSQLAsynchQuery<ODocument>(iQuery, new OCommandResultListener() {
+      public boolean result(final Object iRecord) {
+        return received.incrementAndGet() < iMax;
+      }
+
+      public void end() {
+      }
+    })).execute();
+
+    Assert.assertEquals(received.get(), iMax);
+  }
+}
@@ -5,6 +5,8 @@ import static org.mockito.Mockito.when;
 
 import java.io.File;
 import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
 import java.util.*;
 
 import org.testng.Assert;
@@ -1043,4 +1045,63 @@ public class LocalPaginatedClusterTest {
         + (OByteSerializer.BYTE_SIZE + OLongSerializer.LONG_SIZE));
     diskCache.release(cacheEntry);
   }
+
+  public void testReadEntryContentSameAsFullEntry() throws Exception {
+    paginatedCluster.set(OCluster.ATTRIBUTES.COMPRESSION, ONothingCompression.NAME);
+    final float growFactor = paginatedCluster.recordGrowFactor();
+    final float overflowGrowFactor = paginatedCluster.recordOverflowGrowFactor();
+
+    final Method readEntryContent = OPaginatedCluster.class.getDeclaredMethod("readEntryContent", OClusterPosition.class,
+        long.class, int.class, ORecordVersion.class);
+    final Method readFullEntry = OPaginatedCluster.class.getDeclaredMethod("readFullEntry", OClusterPosition.class, long.class,
+        int.class);
+    final Field positionMapField = OPaginatedCluster.class.getDeclaredField("clusterPositionMap");
+    readEntryContent.setAccessible(true);
+    readFullEntry.setAccessible(true);
+    positionMapField.setAccessible(true);
+    final OClusterPositionMap positionMap = (OClusterPositionMap) positionMapField.get(paginatedCluster);
+
+    try {
+      final MersenneTwisterFast random = new MersenneTwisterFast(42);
+      final Map<OClusterPosition, byte[]> records = new LinkedHashMap<OClusterPosition, byte[]>();
+      for (int i = 0; i < 200; i++) {
+        // RECORDS OF UP TO 3 PAGES MIXED TO SMALL ONES, SO THE CHUNKS START AT ANY OFFSET OF THE PAGES
+        paginatedCluster.set(OCluster.ATTRIBUTES.RECORD_GROW_FACTOR, i % 3 == 0 ? 1.5 : 1);
+        final byte[] record = new byte[i % 2 == 0 ? random.nextInt(3 * 65536) + 1 : random.nextInt(100) + 1];
+        random.nextBytes(record);
+        records.put(paginatedCluster.createRecord(record, OVersionFactory.instance().createVersion(), (byte) 1).clusterPosition,
+            record);
+      }
+
+      // UPDATED RECORDS GROW IN MORE CHUNKS
+      paginatedCluster.set(OCluster.ATTRIBUTES.RECORD_OVERFLOW_GROW_FACTOR, 2);
+      for (Map.Entry<OClusterPosition, byte[]> entry : records.entrySet())
+        if (random.nextInt(4) == 0) {
+          final byte[] record = new byte[entry.getValue().length + random.nextInt(65536)];
+          random.nextBytes(record);
+          paginatedCluster.updateRecord(entry.getKey(), record, OVersionFactory.instance().createVersion(), (byte) 2);
+          entry.setValue(record);
+        }
+
+      for (Map.Entry<OClusterPosition, byte[]> entry : records.entrySet()) {
+        final OClusterPositionMapBucket.PositionEntry positionEntry = positionMap.get(entry.getKey());
+
+        final ORawBuffer buffer = (ORawBuffer) readEntryContent.invoke(paginatedCluster, entry.getKey(),
+            positionEntry.getPageIndex(), positionEntry.getRecordPosition(), OVersionFactory.instance().createVersion());
+        final byte[] fullEntry = (byte[]) readFullEntry.invoke(paginatedCluster, entry.getKey(), positionEntry.getPageIndex(),
+            positionEntry.getRecordPosition());
+
+        // THE FULL ENTRY IS THE RECORD TYPE, THE CONTENT SIZE AND THE CONTENT, FOLLOWED BY THE SPACE RESERVED TO GROW
+        final int size = OIntegerSerializer.INSTANCE.deserializeNative(fullEntry, OByteSerializer.BYTE_SIZE);
+        final int contentStart = OByteSerializer.BYTE_SIZE + OIntegerSerializer.INT_SIZE;
+        Assert.assertEquals(buffer.recordType, fullEntry[0]);
+        Assert.assertEquals(buffer.buffer, Arrays.copyOfRange(fullEntry, contentStart, contentStart + size));
+        Assert.assertEquals(buffer.buffer, entry.getValue());
+        Assert.assertEquals(paginatedCluster.readRecord(entry.getKey()).buffer, entry.getValue());
+      }
+    } finally {
+      paginatedCluster.set(OCluster.ATTRIBUTES.RECORD_GROW_FACTOR, growFactor);
+      paginatedCluster.set(OCluster.ATTRIBUTES.RECORD_OVERFLOW_GROW_FACTOR, overflowGrowFactor);
+    }
+  }
 }
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2010-2013 Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientechnologies.orient.server.hazelcast;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.hazelcast.nio.ObjectDataInput;
+import com.hazelcast.nio.ObjectDataOutput;
+
+/**
+ * Requests or responses sent to a node in one message of the queues. The messages are kept in the order they have been added, so
+ * the batches of the same queue are executed in the order of the single messages.
+ *
+ * @author Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ */
+public class OHazelcastDistributedBatch {
+  private List<Object> messages;
+
+  /**
+   * Constructor used by serializer.
+   */
+  public OHazelcastDistributedBatch() {
+  }
+
+  public OHazelcastDistributedBatch(final List<?> iMessages) {
+    messages = new ArrayList<Object>(iMessages);
+  }
+
+  public List<Object> getMessages() {
+    return messages;
+  }
+
+  /**
+   * Returns the messages contained in a batch or the message itself if it's not a batch.
+   */
+  @SuppressWarnings("unchecked")
+  public static <T> List<T> getMessages(final Object iMessage) {
+    if (iMessage instanceof OHazelcastDistributedBatch)
+      return (List<T>) ((OHazelcastDistributedBatch) iMessage).messages;
+    return Collections.singletonList((T) iMessage);
+  }
+
+  public void writeData(final ObjectDataOutput out) throws IOException {
+    out.writeInt(messages.size());
+    for (Object m : messages)
+      out.writeObject(m);
+  }
+
+  public void readData(final ObjectDataInput in) throws IOException {
+    final int size = in.readInt();
+    messages = new ArrayList<Object>(size);
+    for (int i = 0; i < size; ++i)
+      messages.add(in.readObject());
+  }
+
+  @Override
+  public String toString() {
+    return "batch of " + messages.size() + " messages";
+  }
+}
@@ -15,41 +15,69 @@
  */
 package com.orientechnologies.orient.server.hazelcast;
 
+import java.io.File;
+import java.io.IOException;
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Queue;
 import java.util.Set;
 import java.util.TimerTask;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
+import com.hazelcast.core.IAtomicLong;
 import com.hazelcast.core.IMap;
 import com.hazelcast.core.IQueue;
+import com.orientechnologies.common.profiler.OAbstractProfiler.OProfilerHookValue;
 import com.orientechnologies.orient.core.Orient;
 import com.orientechnologies.orient.core.config.OGlobalConfiguration;
 import com.orientechnologies.orient.core.db.ODatabaseRecordThreadLocal;
 import com.orientechnologies.orient.core.db.OScenarioThreadLocal;
 import com.orientechnologies.orient.core.db.OScenarioThreadLocal.RUN_MODE;
 import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import com.orientechnologies.orient.core.hook.ORecordHook;
+import com.orientechnologies.orient.core.hook.ORecordHookAbstract;
+import com.orientechnologies.orient.core.id.ORID;
+import com.orientechnologies.orient.core.record.ORecord;
 import com.orientechnologies.orient.core.record.impl.ODocument;
 import com.orientechnologies.orient.server.config.OServerUserConfiguration;
 import com.orientechnologies.orient.server.distributed.ODistributedAbstractPlugin;
+import com.orientechnologies.orient.server.distributed.ODistributedClusterMovingException;
 import com.orientechnologies.orient.server.distributed.ODistributedConfiguration;
 import com.orientechnologies.orient.server.distributed.ODistributedDatabase;
+import com.orientechnologies.orient.server.distributed.ODistributedDatabaseDelta;
 import com.orientechnologies.orient.server.distributed.ODistributedException;
+import com.orientechnologies.orient.server.distributed.ODistributedJournal;
+import com.orientechnologies.orient.server.distributed.ODistributedMetrics;
 import com.orientechnologies.orient.server.distributed.ODistributedPartition;
 import com.orientechnologies.orient.server.distributed.ODistributedPartitioningStrategy;
+import com.orientechnologies.orient.server.distributed.ODistributedRecordLockedException;
 import com.orientechnologies.orient.server.distributed.ODistributedRequest;
 import com.orientechnologies.orient.server.distributed.ODistributedRequest.EXECUTION_MODE;
 import com.orientechnologies.orient.server.distributed.ODistributedResponse;
 import com.orientechnologies.orient.server.distributed.ODistributedResponseManager;
 import com.orientechnologies.orient.server.distributed.ODistributedServerLog;
 import com.orientechnologies.orient.server.distributed.ODistributedServerLog.DIRECTION;
+import com.orientechnologies.orient.server.distributed.ODistributedTransactions;
+import com.orientechnologies.orient.server.distributed.ODistributedTransactions.OPreparedTransaction;
+import com.orientechnologies.orient.server.distributed.task.OAbstractRecordReplicatedTask;
 import com.orientechnologies.orient.server.distributed.task.OAbstractRemoteTask;
 import com.orientechnologies.orient.server.distributed.task.OAbstractRemoteTask.QUORUM_TYPE;
+import com.orientechnologies.orient.server.distributed.task.OCompleteTxTask;
+import com.orientechnologies.orient.server.distributed.task.OCopyClusterTask;
 import com.orientechnologies.orient.server.distributed.task.OResynchTask;
+import com.orientechnologies.orient.server.distributed.task.OSQLCommandTask;
+import com.orientechnologies.orient.server.distributed.task.OTxTask;
 
 /**
  * Hazelcast implementation of distributed peer. There is one instance per database. Each node creates own instance to talk with
@@ -66,18 +94,77 @@ public class OHazelcastDistributedDatabase implements ODistributedDatabase {
   protected final String                                  databaseName;
   protected final static Map<String, IQueue<?>>           queues                     = new HashMap<String, IQueue<?>>();
   protected final Lock                                    requestLock;
+  protected final IAtomicLong                             lsnCounter;
+  protected final IMap<String, Long>                      nodeLSNs;
+  protected final ODistributedMetrics                     metrics;
+  protected final ODistributedTransactions                transactions;
 
   protected volatile ODatabaseDocumentTx                  database;
+  protected volatile ODistributedJournal                  journal;
 
   public static final String                              NODE_QUEUE_PREFIX          = "orientdb.node.";
   public static final String                              NODE_QUEUE_REQUEST_POSTFIX = ".request";
   public static final String                              NODE_QUEUE_UNDO_POSTFIX    = ".undo";
 
   private static final String                             NODE_LOCK_PREFIX           = "orientdb.reqlock.";
+  private static final String                             NODE_LSN_PREFIX            = "orientdb.lsn.";
   protected volatile Class<? extends OAbstractRemoteTask> waitForTaskType;
   protected AtomicBoolean                                 status                     = new AtomicBoolean(false);
   protected Object                                        waitForOnline              = new Object();
 
+  // REQUESTS WAITING TO BE SENT: THE THREAD THAT GETS THE FLUSH LOCK SENDS ALSO THE ONES OF THE OTHER THREADS
+  protected final Queue<OPendingRequest>                  pendingRequests            = new ConcurrentLinkedQueue<OPendingRequest>();
+  protected final Lock                                    flushLock                  = new ReentrantLock();
+
+  // USED ONLY BY THE QUEUE LISTENER: REQUESTS OF THE LAST BATCH TO EXECUTE AND RESPONSES TO SEND
+  protected final LinkedList<ODistributedRequest>         receivedRequests           = new LinkedList<ODistributedRequest>();
+  protected final List<ODistributedResponse>              pendingResponses           = new ArrayList<ODistributedResponse>();
+  protected OHazelcastDistributedLanes                    lanes;
+  protected final ORecordHook                             lockHook                   = new OLockedRecordHook();
+  protected final TimerTask                               txResolver;
+
+  /**
+   * Request waiting to be broadcast together with the requests of the other threads.
+   */
+  protected static class OPendingRequest {
+    protected final ODistributedRequest request;
+    protected final Set<String>         nodes;
+    protected volatile boolean          sent;
+    protected volatile Throwable        error;
+
+    protected OPendingRequest(final ODistributedRequest iRequest, final Set<String> iNodes) {
+      request = iRequest;
+      nodes = iNodes;
+    }
+  }
+
+  /**
+   * Refuses the changes of a SQL command to the records locked by a distributed transaction not completed yet.
+   */
+  protected class OLockedRecordHook extends ORecordHookAbstract {
+    @Override
+    public RESULT onRecordBeforeUpdate(final ORecord<?> iRecord) {
+      checkLocked(iRecord);
+      return RESULT.RECORD_NOT_CHANGED;
+    }
+
+    @Override
+    public RESULT onRecordBeforeDelete(final ORecord<?> iRecord) {
+      checkLocked(iRecord);
+      return RESULT.RECORD_NOT_CHANGED;
+    }
+
+    public DISTRIBUTED_EXECUTION_MODE getDistributedExecutionMode() {
+      return DISTRIBUTED_EXECUTION_MODE.TARGET_NODE;
+    }
+
+    private void checkLocked(final ORecord<?> iRecord) {
+      final ODistributedRecordLockedException locked = checkLock(iRecord.getIdentity());
+      if (locked != null)
+        throw locked;
+    }
+  }
+
   public OHazelcastDistributedDatabase(final OHazelcastPlugin manager, final OHazelcastDistributedMessageService msgService,
       final String iDatabaseName) {
     this.manager = manager;
@@ -85,6 +172,12 @@ public class OHazelcastDistributedDatabase implements ODistributedDatabase {
     this.databaseName = iDatabaseName;
 
     this.requestLock = manager.getHazelcastInstance().getLock(NODE_LOCK_PREFIX + iDatabaseName);
+    this.lsnCounter = manager.getHazelcastInstance().getAtomicLong(NODE_LSN_PREFIX + iDatabaseName);
+    this.nodeLSNs = manager.getHazelcastInstance().getMap(NODE_LSN_PREFIX + iDatabaseName + ".nodes");
+    this.metrics = manager.getMetrics(iDatabaseName);
+    this.transactions = manager.getTransactions(iDatabaseName);
+
+    openJournal();
 
     long resyncEvery = manager.getDatabaseConfiguration(databaseName).getResyncEvery();
     if (resyncEvery > 0) {
@@ -98,22 +191,45 @@ public class OHazelcastDistributedDatabase implements ODistributedDatabase {
       }, resyncEvery, resyncEvery);
     }
 
+    // CREATE A TIMER TASK TO COMPLETE THE TRANSACTIONS PREPARED AND NOT COMPLETED IN TIME
+    final long txCheckEvery = Math.max(OGlobalConfiguration.DISTRIBUTED_TX_LOCK_TIMEOUT.getValueAsLong() / 2, 1000);
+    txResolver = new TimerTask() {
+      @Override
+      public void run() {
+        resolveTransactions();
+      }
+    };
+    Orient.instance().getTimer().schedule(txResolver, txCheckEvery, txCheckEvery);
+
     checkLocalNodeInConfiguration();
   }
 
   @Override
-  public void send2Node(final ODistributedRequest iRequest, final String iTargetNode) {
+  public ODistributedResponse send2Node(final ODistributedRequest iRequest, final String iTargetNode) {
     final IQueue<ODistributedRequest> queue = msgService.getQueue(OHazelcastDistributedMessageService.getRequestQueueName(
         iTargetNode, iRequest.getDatabaseName()));
 
+    ODistributedResponseManager currentResponseMgr = null;
+    if (iRequest.getExecutionMode() != EXECUTION_MODE.NO_RESPONSE) {
+      // WAIT FOR THE RESPONSE OF THE TARGET NODE ONLY
+      currentResponseMgr = new ODistributedResponseManager(manager, iRequest, Collections.singleton(iTargetNode), 1, 1, false,
+          iRequest.getTask().getSynchronousTimeout(1), iRequest.getTask().getTotalTimeout(1));
+      msgService.registerRequest(iRequest.getId(), currentResponseMgr);
+    }
+
     try {
       queue.offer(iRequest, OGlobalConfiguration.DISTRIBUTED_QUEUE_TIMEOUT.getValueAsLong(), TimeUnit.MILLISECONDS);
 
-      Orient
-          .instance()
-          .getProfiler()
-          .updateCounter("distributed.replication." + databaseName + ".fixMsgSent",
-              "Number of replication fix messages sent from current node", +1, "distributed.replication.fixMsgSent");
+      if (currentResponseMgr == null) {
+        Orient
+            .instance()
+            .getProfiler()
+            .updateCounter("distributed.replication." + databaseName + ".fixMsgSent",
+                "Number of replication fix messages sent from current node", +1, "distributed.replication.fixMsgSent");
+        return null;
+      }
+
+      return collectResponses(iRequest, currentResponseMgr);
 
     } catch (Throwable e) {
       throw new ODistributedException("Error on sending distributed request against " + iTargetNode, e);
@@ -121,6 +237,35 @@ public class OHazelcastDistributedDatabase implements ODistributedDatabase {
 
   }
 
+  /**
+   * Sends the request to the target nodes only, waiting for the responses of all of them.
+   */
+  public ODistributedResponse send2Nodes(final ODistributedRequest iRequest, final Set<String> iTargetNodes) {
+    ODistributedResponseManager currentResponseMgr = null;
+    if (iRequest.getExecutionMode() != EXECUTION_MODE.NO_RESPONSE) {
+      final int nodes = iTargetNodes.size();
+      currentResponseMgr = new ODistributedResponseManager(manager, iRequest, iTargetNodes, nodes, 0, false, iRequest.getTask()
+          .getSynchronousTimeout(nodes), iRequest.getTask().getTotalTimeout(nodes));
+      msgService.registerRequest(iRequest.getId(), currentResponseMgr);
+    }
+
+    if (ODistributedServerLog.isDebugEnabled())
+      ODistributedServerLog.debug(this, getLocalNodeName(), iTargetNodes.toString(), DIRECTION.OUT, "request %s",
+          iRequest.getTask());
+
+    try {
+      broadcast(iRequest, iTargetNodes);
+
+      if (currentResponseMgr == null)
+        return null;
+
+      return collectResponses(iRequest, currentResponseMgr);
+
+    } catch (Throwable e) {
+      throw new ODistributedException("Error on sending distributed request against " + iTargetNodes, e);
+    }
+  }
+
   @Override
   public ODistributedResponse send(final ODistributedRequest iRequest) {
     final String databaseName = iRequest.getDatabaseName();
@@ -129,6 +274,10 @@ public class OHazelcastDistributedDatabase implements ODistributedDatabase {
 
     final ODistributedConfiguration cfg = manager.getDatabaseConfiguration(databaseName);
 
+    if (clusterName != null && iRequest.getTask().getQuorumType() == QUORUM_TYPE.WRITE && cfg.isClusterMoving(clusterName))
+      // THE NEW OWNERS ARE COPYING THE CLUSTER: A CHANGE NOW COULD BE LOST
+      throw new ODistributedClusterMovingException(databaseName, clusterName);
+
     final ODistributedPartitioningStrategy strategy = manager.getPartitioningStrategy(cfg.getPartitionStrategy(clusterName));
     final ODistributedPartition partition = strategy.getPartition(manager, databaseName, clusterName);
     final Set<String> nodes = partition.getNodes();
@@ -140,8 +289,6 @@ public class OHazelcastDistributedDatabase implements ODistributedDatabase {
           + iRequest);
     }
 
-    final IQueue<ODistributedRequest>[] reqQueues = getRequestQueues(databaseName, nodes);
-
     int quorum = calculateQuorum(iRequest, clusterName, cfg, nodes);
 
     iRequest.setSenderNodeName(manager.getLocalNodeName());
@@ -171,34 +318,137 @@ public class OHazelcastDistributedDatabase implements ODistributedDatabase {
     if (ODistributedServerLog.isDebugEnabled())
       ODistributedServerLog.debug(this, getLocalNodeName(), nodes.toString(), DIRECTION.OUT, "request %s", iRequest.getTask());
 
+    try {
+      broadcast(iRequest, nodes);
+
+      Orient
+          .instance()
+          .getProfiler()
+          .updateCounter("distributed.replication." + databaseName + ".msgSent",
+              "Number of replication messages sent from current node", +1, "distributed.replication.*.msgSent");
+
+      return collectResponses(iRequest, currentResponseMgr);
+
+    } catch (Throwable e) {
+      throw new ODistributedException("Error on sending distributed request against " + databaseName
+          + (clusterName != null ? ":" + clusterName : ""), e);
+    }
+
+  }
+
+  /**
+   * Broadcasts the request together with the requests that other threads are sending in the meanwhile. Only one thread at a time
+   * sends: it takes the cluster lock once for all the requests waiting and offers one message per node, while the other threads
+   * queue their requests for the next batch. The senders don't wait for the responses to release the flush lock, so more batches
+   * are in flight at the same time.
+   */
+  protected void broadcast(final ODistributedRequest iRequest, final Set<String> iNodes) throws Throwable {
+    metrics.recordSent();
+
+    final OPendingRequest pending = new OPendingRequest(iRequest, iNodes);
+    pendingRequests.offer(pending);
+
+    flushLock.lock();
+    try {
+      while (!pending.sent)
+        flushPendingRequests();
+    } finally {
+      flushLock.unlock();
+    }
+
+    if (pending.error != null)
+      throw pending.error;
+  }
+
+  protected void flushPendingRequests() {
+    final int maxBatch = OGlobalConfiguration.DISTRIBUTED_REPLICATION_BATCH_SIZE.getValueAsInteger();
+
+    final List<OPendingRequest> batch = new ArrayList<OPendingRequest>();
+    OPendingRequest pending;
+    while (batch.size() < Math.max(maxBatch, 1) && (pending = pendingRequests.poll()) != null)
+      batch.add(pending);
+
+    // GROUP THE REQUESTS BY NODE KEEPING THEIR ORDER
+    final Map<String, List<ODistributedRequest>> requestsByNode = new LinkedHashMap<String, List<ODistributedRequest>>();
+    int writes = 0;
+    for (OPendingRequest p : batch) {
+      if (p.request.getTask().isWriteOperation())
+        writes++;
+
+      for (String node : p.nodes) {
+        List<ODistributedRequest> requests = requestsByNode.get(node);
+        if (requests == null) {
+          requests = new ArrayList<ODistributedRequest>();
+          requestsByNode.put(node, requests);
+        }
+        requests.add(p.request);
+      }
+    }
+
     final long timeout = OGlobalConfiguration.DISTRIBUTED_QUEUE_TIMEOUT.getValueAsLong();
 
+    // LAST CHANGE SENT TO EVERY NODE: THE NODES RECEIVE ONLY THE CHANGES OF THE CLUSTERS THEY OWN
+    final Map<String, Long> sentLSNs = new HashMap<String, Long>();
+
+    Throwable error = null;
     try {
       requestLock.lock();
       try {
         // LOCK = ASSURE MESSAGES IN THE QUEUE ARE INSERTED SEQUENTIALLY AT CLUSTER LEVEL
-        // BROADCAST THE REQUEST TO ALL THE NODE QUEUES
-        for (IQueue<ODistributedRequest> queue : reqQueues) {
-          queue.offer(iRequest, timeout, TimeUnit.MILLISECONDS);
+        if (writes > 0) {
+          // THE LSN FOLLOWS THE ORDER OF THE QUEUES
+          long lsn = lsnCounter.addAndGet(writes) - writes;
+          for (OPendingRequest p : batch)
+            if (p.request.getTask().isWriteOperation())
+              p.request.setLSN(++lsn);
+        }
+
+        // BROADCAST THE REQUESTS TO ALL THE NODE QUEUES, ONE MESSAGE PER NODE
+        for (Entry<String, List<ODistributedRequest>> entry : requestsByNode.entrySet()) {
+          final IQueue<Object> queue = msgService.getQueue(OHazelcastDistributedMessageService.getRequestQueueName(entry.getKey(),
+              databaseName));
+          final List<ODistributedRequest> requests = entry.getValue();
+          if (!queue.offer(requests.size() == 1 ? requests.get(0) : new OHazelcastDistributedBatch(requests), timeout,
+              TimeUnit.MILLISECONDS))
+            throw new ODistributedException("Timeout on sending the requests to the queue of node " + entry.getKey()
+                + " after " + timeout + "ms");
+
+          long lastLSN = 0;
+          for (ODistributedRequest r : requests)
+            if (r.getLSN() > lastLSN)
+              lastLSN = r.getLSN();
+          if (lastLSN > 0)
+            sentLSNs.put(entry.getKey(), lastLSN);
         }
 
       } finally {
         requestLock.unlock();
       }
+    } catch (Throwable t) {
+      error = t;
+    }
+
+    // PUBLISHED OUT OF THE LOCK: THE UPDATE NEVER MOVES BACK THE LSN, SO A LATER BATCH CAN PUBLISH BEFORE THIS ONE
+    for (Entry<String, Long> entry : sentLSNs.entrySet())
+      try {
+        updateNodeLSN(entry.getKey(), entry.getValue());
+      } catch (Exception e) {
+        ODistributedServerLog.warn(this, getLocalNodeName(), entry.getKey(), DIRECTION.OUT,
+            "db=%s cannot publish the last change %d sent to the node", e, databaseName, entry.getValue());
+      }
 
+    if (batch.size() > 1)
       Orient
           .instance()
           .getProfiler()
-          .updateCounter("distributed.replication." + databaseName + ".msgSent",
-              "Number of replication messages sent from current node", +1, "distributed.replication.*.msgSent");
-
-      return collectResponses(iRequest, currentResponseMgr);
+          .updateCounter("distributed.replication." + databaseName + ".batchedMsgSent",
+              "Number of replication messages sent in batches from current node", batch.size(),
+              "distributed.replication.*.batchedMsgSent");
 
-    } catch (Throwable e) {
-      throw new ODistributedException("Error on sending distributed request against " + databaseName
-          + (clusterName != null ? ":" + clusterName : ""), e);
+    for (OPendingRequest p : batch) {
+      p.error = error;
+      p.sent = true;
     }
-
   }
 
   protected void resynch() {
@@ -264,7 +514,9 @@ public class OHazelcastDistributedDatabase implements ODistributedDatabase {
     final long beginTime = System.currentTimeMillis();
 
     // WAIT FOR THE MINIMUM SYNCHRONOUS RESPONSES (WRITE QUORUM)
-    if (!currentResponseMgr.waitForSynchronousResponses()) {
+    final boolean received = currentResponseMgr.waitForSynchronousResponses();
+    metrics.recordQuorumWait(beginTime, received);
+    if (!received) {
       ODistributedServerLog.warn(this, getLocalNodeName(), null, DIRECTION.IN,
           "timeout (%dms) on waiting for synchronous responses from nodes=%s responsesSoFar=%s request=%s",
           System.currentTimeMillis() - beginTime, currentResponseMgr.getExpectedNodes(), currentResponseMgr.getRespondingNodes(),
@@ -283,7 +535,7 @@ public class OHazelcastDistributedDatabase implements ODistributedDatabase {
       final boolean iUnqueuePendingMessages) {
     // CREATE A QUEUE PER DATABASE
     final String queueName = OHazelcastDistributedMessageService.getRequestQueueName(manager.getLocalNodeName(), databaseName);
-    final IQueue<ODistributedRequest> requestQueue = msgService.getQueue(queueName);
+    final IQueue<Object> requestQueue = msgService.getQueue(queueName);
 
     if (ODistributedServerLog.isDebugEnabled())
       ODistributedServerLog.debug(this, getLocalNodeName(), null, DIRECTION.NONE, "listening for incoming requests on queue: %s",
@@ -294,6 +546,19 @@ public class OHazelcastDistributedDatabase implements ODistributedDatabase {
 
     msgService.checkForPendingMessages(requestQueue, queueName, iUnqueuePendingMessages);
 
+    lanes = new OHazelcastDistributedLanes(this, databaseName,
+        OGlobalConfiguration.DISTRIBUTED_APPLY_LANES.getValueAsInteger());
+
+    metrics.registerGauges(new OProfilerHookValue() {
+      public Object getValue() {
+        return requestQueue.size() + receivedRequests.size();
+      }
+    }, new OProfilerHookValue() {
+      public Object getValue() {
+        return getReplicationLag();
+      }
+    });
+
     // CREATE THREAD LISTENER AGAINST orientdb.node.<node>.<db>.request, ONE PER NODE, THEN DISPATCH THE MESSAGE INTERNALLY USING
     // THE THREAD ID
     new Thread(new Runnable() {
@@ -303,18 +568,19 @@ public class OHazelcastDistributedDatabase implements ODistributedDatabase {
           String senderNode = null;
           ODistributedRequest message = null;
           try {
-            message = readRequest(requestQueue);
-
-            // SAVE THE MESSAGE IN THE UNDO MAP IN CASE OF FAILURE
-            undoMap.put(databaseName, message);
+            message = readRequest(requestQueue, undoMap);
 
             if (message != null) {
               senderNode = message.getSenderNodeName();
-              onMessage(message);
+              lanes.submit(message, receivedRequests.isEmpty(), pendingResponses);
             }
 
-            // OK: REMOVE THE UNDO BUFFER
-            undoMap.remove(databaseName);
+            if (receivedRequests.isEmpty()) {
+              // THE WHOLE BATCH HAS BEEN EXECUTED: SEND THE RESPONSES AND REMOVE THE UNDO BUFFER
+              lanes.flush(pendingResponses);
+              sendResponses();
+              undoMap.remove(databaseName);
+            }
 
           } catch (InterruptedException e) {
             // EXIT CURRENT THREAD
@@ -333,13 +599,11 @@ public class OHazelcastDistributedDatabase implements ODistributedDatabase {
   }
 
   public void setOnline() {
-    if (database == null) {
-      // OPEN IT
-      final OServerUserConfiguration replicatorUser = manager.getServerInstance().getUser(
-          ODistributedAbstractPlugin.REPLICATOR_USER);
-      database = (ODatabaseDocumentTx) manager.getServerInstance().openDatabase("document", databaseName, replicatorUser.name,
-          replicatorUser.password);
-    }
+    openDatabase();
+
+    if (journal == null)
+      // THE DATABASE HAS BEEN INSTALLED
+      openJournal();
 
     status.set(true);
 
@@ -347,6 +611,28 @@ public class OHazelcastDistributedDatabase implements ODistributedDatabase {
     synchronized (waitForOnline) {
       waitForOnline.notifyAll();
     }
+
+    manager.checkClusterOwners(databaseName);
+  }
+
+  public boolean isOnline() {
+    return status.get();
+  }
+
+  /**
+   * Aligns the local cluster to the copy received from one of its owners, with a dedicated instance of the database. Returns the
+   * number of records changed.
+   */
+  public long installCluster(final String iClusterName, final File iFile) throws IOException {
+    final ODatabaseDocumentTx db = openReplicatorDatabase();
+    OScenarioThreadLocal.INSTANCE.set(RUN_MODE.RUNNING_DISTRIBUTED);
+    try {
+      ODatabaseRecordThreadLocal.INSTANCE.set(db);
+      return OCopyClusterTask.installCluster(db, iClusterName, iFile);
+    } finally {
+      OScenarioThreadLocal.INSTANCE.set(RUN_MODE.DEFAULT);
+      db.close();
+    }
   }
 
   protected void waitForOnline() {
@@ -361,43 +647,221 @@ public class OHazelcastDistributedDatabase implements ODistributedDatabase {
 
   public OHazelcastDistributedDatabase setWaitForTaskType(Class<? extends OAbstractRemoteTask> iTaskType) {
     waitForTaskType = iTaskType;
+
+    // WAKE UP THE LISTENER IF IT'S WAITING TO EXECUTE A REQUEST
+    synchronized (waitForOnline) {
+      waitForOnline.notifyAll();
+    }
     return this;
   }
 
-  protected ODistributedRequest readRequest(final IQueue<ODistributedRequest> requestQueue) throws InterruptedException {
-    ODistributedRequest req = requestQueue.take();
-
-    while (waitForTaskType != null) {
-      if (req != null) {
-        if (req.getTask().getClass().equals(waitForTaskType)) {
-          // ARRIVED, RESET IT
-          waitForTaskType = null;
-          return req;
-        } else {
-          // SKIP IT
-          ODistributedServerLog.debug(this, manager.getLocalNodeName(), req.getSenderNodeName(), DIRECTION.OUT,
-              "skip request because the node is not online yet, request=%s sourceNode=%s", req, req.getSenderNodeName());
+  /**
+   * Applies the changes received from the journal of another node, writing them in the local journal. The first changes could be
+   * already in the database if the node crashed after applying them and before writing the journal: the ones the task recognizes
+   * as applied are only written in the journal.
+   */
+  public void applyDelta(final String iSourceNode, final ODistributedDatabaseDelta iDelta) throws IOException,
+      ClassNotFoundException {
+    openDatabase();
 
-          // READ THE NEXT ONE
-          req = requestQueue.take();
+    OScenarioThreadLocal.INSTANCE.set(RUN_MODE.RUNNING_DISTRIBUTED);
+    try {
+      for (int i = 0; i < iDelta.lsns.length; ++i) {
+        final OAbstractRemoteTask task = ODistributedJournal.deserialize(iDelta.tasks[i]);
+        task.setNodeSource(iSourceNode);
+
+        final Serializable result;
+        try {
+          ODatabaseRecordThreadLocal.INSTANCE.set(database);
+          if (task.isApplied(database))
+            result = null;
+          else
+            result = manager.executeOnLocalNode(new OHazelcastDistributedRequest(iSourceNode, databaseName, null, task,
+                EXECUTION_MODE.NO_RESPONSE).setLSN(iDelta.lsns[i]), database);
+        } finally {
+          database.getLevel1Cache().clear();
         }
+
+        if (result == null)
+          ODistributedServerLog.debug(this, getLocalNodeName(), iSourceNode, DIRECTION.IN,
+              "change %d was already applied before the restart, skipped", iDelta.lsns[i]);
+        else if (result instanceof Throwable)
+          // THE SAME ERROR HAPPENED ON THE SOURCE NODE
+          ODistributedServerLog.debug(this, getLocalNodeName(), iSourceNode, DIRECTION.IN, "error on applying change %d: %s",
+              iDelta.lsns[i], result);
+
+        if (journal != null)
+          journal.append(iDelta.lsns[i], iDelta.tasks[i]);
       }
+    } finally {
+      OScenarioThreadLocal.INSTANCE.set(RUN_MODE.DEFAULT);
+    }
+  }
+
+  /**
+   * Returns the journal of the changes applied on the current node, or null if disabled or the database is not installed yet.
+   */
+  public ODistributedJournal getJournal() {
+    return journal;
+  }
+
+  /**
+   * Closes the database and the journal before the database is replaced by a copy received from another node.
+   */
+  public void close() {
+    if (database != null) {
+      database.close();
+      database = null;
+    }
+
+    if (lanes != null)
+      lanes.reopen();
+
+    if (journal != null) {
+      journal.close();
+      journal = null;
     }
+  }
+
+  protected void openDatabase() {
+    if (database == null)
+      // OPEN IT
+      database = openReplicatorDatabase();
+  }
+
+  /**
+   * Opens a new instance of the database with the replicator user.
+   */
+  protected ODatabaseDocumentTx openReplicatorDatabase() {
+    final OServerUserConfiguration replicatorUser = manager.getServerInstance().getUser(ODistributedAbstractPlugin.REPLICATOR_USER);
+    return (ODatabaseDocumentTx) manager.getServerInstance().openDatabase("document", databaseName, replicatorUser.name,
+        replicatorUser.password);
+  }
+
+  protected void openJournal() {
+    final int maxSize = OGlobalConfiguration.DISTRIBUTED_JOURNAL_MAX_SIZE.getValueAsInteger();
+    final File directory = new File(manager.getServerInstance().getDatabaseDirectory() + databaseName);
+    if (maxSize <= 0 || !directory.isDirectory())
+      return;
+
+    try {
+      journal = new ODistributedJournal(directory, maxSize * 1024l * 1024l, lsnCounter.get() + 1);
+
+      // AFTER A RESTART OF THE WHOLE CLUSTER THE COUNTER STARTS FROM THE LAST CHANGE APPLIED
+      final long lastLSN = journal.getLastLSN();
+      long current = lsnCounter.get();
+      while (current < lastLSN && !lsnCounter.compareAndSet(current, lastLSN))
+        current = lsnCounter.get();
+
+    } catch (IOException e) {
+      ODistributedServerLog.error(this, getLocalNodeName(), null, DIRECTION.NONE, "cannot open the journal of database %s", e,
+          databaseName);
+    }
+  }
 
-    while (!status.get() && req.getTask().isRequireNodeOnline()) {
-      // WAIT UNTIL THE NODE IS ONLINE
+  protected ODistributedRequest readRequest(final IQueue<Object> requestQueue, final IMap<Object, Object> undoMap)
+      throws InterruptedException {
+    ODistributedRequest req = nextRequest(requestQueue, undoMap);
+
+    while (true) {
+      while (waitForTaskType != null) {
+        if (req != null) {
+          if (req.getTask().getClass().equals(waitForTaskType)) {
+            // ARRIVED, RESET IT
+            waitForTaskType = null;
+            return req;
+          } else {
+            // SKIP IT
+            ODistributedServerLog.debug(this, manager.getLocalNodeName(), req.getSenderNodeName(), DIRECTION.OUT,
+                "skip request because the node is not online yet, request=%s sourceNode=%s", req, req.getSenderNodeName());
+
+            // READ THE NEXT ONE
+            req = nextRequest(requestQueue, undoMap);
+          }
+        }
+      }
+
+      if (status.get() || !req.getTask().isRequireNodeOnline())
+        return req;
+
+      // THE REQUESTS ALREADY EXECUTED COULD BE WAITED TO SET THE NODE ONLINE
+      if (lanes != null)
+        lanes.flush(pendingResponses);
+      sendResponses();
+
+      // WAIT UNTIL THE NODE IS ONLINE. IF IN THE MEANWHILE THE NODE WAITS FOR A TASK, THE REQUEST IS SKIPPED
       synchronized (waitForOnline) {
         waitForOnline.wait(5000);
       }
     }
+  }
+
+  /**
+   * Returns the next request of the batch received, or waits for the next message of the queue. The message is saved in the undo
+   * map until all its requests are executed.
+   */
+  protected ODistributedRequest nextRequest(final IQueue<Object> iQueue, final IMap<Object, Object> iUndoMap)
+      throws InterruptedException {
+    if (receivedRequests.isEmpty()) {
+      final Object message = iQueue.take();
+
+      // SAVE THE MESSAGE IN THE UNDO MAP IN CASE OF FAILURE
+      iUndoMap.put(databaseName, message);
+
+      receivedRequests.addAll(OHazelcastDistributedBatch.<ODistributedRequest> getMessages(message));
+    }
+    return receivedRequests.poll();
+  }
+
+  /**
+   * Sends the responses of the executed requests, one message per sender node.
+   */
+  protected void sendResponses() {
+    if (pendingResponses.isEmpty())
+      return;
+
+    final Map<String, List<ODistributedResponse>> responsesBySender = new LinkedHashMap<String, List<ODistributedResponse>>();
+    for (ODistributedResponse r : pendingResponses) {
+      List<ODistributedResponse> responses = responsesBySender.get(r.getSenderNodeName());
+      if (responses == null) {
+        responses = new ArrayList<ODistributedResponse>();
+        responsesBySender.put(r.getSenderNodeName(), responses);
+      }
+      responses.add(r);
+    }
+    pendingResponses.clear();
+
+    for (Entry<String, List<ODistributedResponse>> entry : responsesBySender.entrySet()) {
+      final String senderNode = entry.getKey();
+      final List<ODistributedResponse> responses = entry.getValue();
+      try {
+        // GET THE SENDER'S RESPONSE QUEUE
+        final IQueue<Object> queue = msgService.getQueue(OHazelcastDistributedMessageService.getResponseQueueName(senderNode));
+
+        if (!queue.offer(responses.size() == 1 ? responses.get(0) : new OHazelcastDistributedBatch(responses),
+            OGlobalConfiguration.DISTRIBUTED_QUEUE_TIMEOUT.getValueAsLong(), TimeUnit.MILLISECONDS))
+          throw new ODistributedException("Timeout on dispatching response to the thread queue " + senderNode);
+
+      } catch (Exception e) {
+        ODistributedServerLog.error(this, getLocalNodeName(), senderNode, DIRECTION.OUT,
+            "cannot dispatch %d response(s) to the thread queue", e, responses.size());
+      }
+    }
+  }
 
-    return req;
+  /**
+   * Execute the remote call on the local node, writes it in the journal and returns the response to send back.
+   */
+  protected ODistributedResponse onMessage(final ODistributedRequest iRequest) {
+    final ODistributedResponse response = execute(iRequest, database);
+    appendToJournal(iRequest);
+    return response;
   }
 
   /**
-   * Execute the remote call on the local node and send back the result
+   * Execute the remote call on the local node against the database instance passed and returns the response to send back.
    */
-  protected void onMessage(final ODistributedRequest iRequest) {
+  protected ODistributedResponse execute(final ODistributedRequest iRequest, final ODatabaseDocumentTx iDatabase) {
     OScenarioThreadLocal.INSTANCE.set(RUN_MODE.RUNNING_DISTRIBUTED);
 
     try {
@@ -408,56 +872,172 @@ public class OHazelcastDistributedDatabase implements ODistributedDatabase {
             task);
 
       // EXECUTE IT LOCALLY
+      final long beginTime = System.currentTimeMillis();
       final Serializable responsePayload;
       try {
-        ODatabaseRecordThreadLocal.INSTANCE.set(database);
+        ODatabaseRecordThreadLocal.INSTANCE.set(iDatabase);
         task.setNodeSource(iRequest.getSenderNodeName());
-        responsePayload = manager.executeOnLocalNode(iRequest, database);
+
+        final ODistributedRecordLockedException locked = checkLocks(task);
+        if (locked != null)
+          // THE RECORDS ARE LOCKED BY A DISTRIBUTED TRANSACTION NOT COMPLETED YET
+          responsePayload = locked;
+        else if (task instanceof OSQLCommandTask && transactions.getPreparedTransaction() != null) {
+          // THE RECORDS CHANGED BY A COMMAND ARE NOT KNOWN IN ADVANCE: CHECK THEM WHILE THE COMMAND CHANGES THEM
+          iDatabase.registerHook(lockHook);
+          try {
+            responsePayload = manager.executeOnLocalNode(iRequest, iDatabase);
+          } finally {
+            iDatabase.unregisterHook(lockHook);
+          }
+        } else
+          responsePayload = manager.executeOnLocalNode(iRequest, iDatabase);
       } finally {
-        if (database != null)
-          database.getLevel1Cache().clear();
+        if (iDatabase != null)
+          iDatabase.getLevel1Cache().clear();
+        metrics.recordApplied(beginTime);
       }
 
       if (ODistributedServerLog.isDebugEnabled())
         ODistributedServerLog.debug(this, manager.getLocalNodeName(), iRequest.getSenderNodeName(), DIRECTION.OUT,
             "sending back response %s to request %s", responsePayload, task);
 
-      final OHazelcastDistributedResponse response = new OHazelcastDistributedResponse(iRequest.getId(),
-          manager.getLocalNodeName(), iRequest.getSenderNodeName(), responsePayload);
+      return new OHazelcastDistributedResponse(iRequest.getId(), manager.getLocalNodeName(), iRequest.getSenderNodeName(),
+          responsePayload);
+
+    } finally {
+      OScenarioThreadLocal.INSTANCE.set(RUN_MODE.DEFAULT);
+    }
+  }
+
+  /**
+   * Returns the exception to send back if the task changes a record locked by a distributed transaction not completed yet,
+   * otherwise null.
+   */
+  protected ODistributedRecordLockedException checkLocks(final OAbstractRemoteTask iTask) {
+    if (iTask instanceof OAbstractRecordReplicatedTask)
+      return checkLock(((OAbstractRecordReplicatedTask) iTask).getRid());
+
+    if (iTask instanceof OTxTask)
+      for (OAbstractRecordReplicatedTask task : ((OTxTask) iTask).getTasks()) {
+        final ODistributedRecordLockedException locked = checkLock(task.getRid());
+        if (locked != null)
+          return locked;
+      }
+
+    return null;
+  }
+
+  protected ODistributedRecordLockedException checkLock(final ORID iRid) {
+    final String lockingTx = transactions.getLockingTransaction(iRid);
+    return lockingTx != null ? new ODistributedRecordLockedException(iRid, lockingTx) : null;
+  }
 
+  /**
+   * Completes the transactions prepared on the current node and not completed in time with the outcome recorded in the cluster. If
+   * no outcome has been recorded yet, the node waits for the node that started the transaction while it's running, otherwise it
+   * records the rollback, so the node that started the transaction can't commit it anymore. The completion is sent to the current
+   * node, so it's executed in the order of its replication queue.
+   */
+  protected void resolveTransactions() {
+    for (OPreparedTransaction tx : transactions.getInDoubtTransactions()) {
       try {
-        // GET THE SENDER'S RESPONSE QUEUE
-        final IQueue<ODistributedResponse> queue = msgService.getQueue(OHazelcastDistributedMessageService
-            .getResponseQueueName(iRequest.getSenderNodeName()));
+        Boolean commit = manager.getTransactionOutcome(databaseName, tx.id);
+        if (commit == null) {
+          if (manager.isNodeAvailable(tx.coordinator))
+            // STILL WAITING FOR THE NODE THAT STARTED IT
+            continue;
+          commit = manager.setTransactionOutcome(databaseName, tx.id, false);
+        }
+
+        ODistributedServerLog.warn(this, getLocalNodeName(), tx.coordinator, DIRECTION.NONE,
+            "db=%s distributed transaction %s not completed in time, completing it with the outcome recorded in the cluster: %s",
+            databaseName, tx.id, commit ? "commit" : "rollback");
 
-        if (!queue.offer(response, OGlobalConfiguration.DISTRIBUTED_QUEUE_TIMEOUT.getValueAsLong(), TimeUnit.MILLISECONDS))
-          throw new ODistributedException("Timeout on dispatching response to the thread queue " + iRequest.getSenderNodeName());
+        transactions.setResolving(tx.id);
+        manager.sendRequest2Node(databaseName, getLocalNodeName(), new OCompleteTxTask(tx.id, commit, tx.tx.getClusterId()));
 
       } catch (Exception e) {
-        throw new ODistributedException("Cannot dispatch response to the thread queue " + iRequest.getSenderNodeName(), e);
+        ODistributedServerLog.error(this, getLocalNodeName(), tx.coordinator, DIRECTION.NONE,
+            "cannot get the outcome of the distributed transaction %s against db=%s", e, tx.id, databaseName);
       }
-
-    } finally {
-      OScenarioThreadLocal.INSTANCE.set(RUN_MODE.DEFAULT);
     }
   }
 
-  @SuppressWarnings("unchecked")
-  protected IQueue<ODistributedRequest>[] getRequestQueues(final String iDatabaseName, final Set<String> nodes) {
-    final IQueue<ODistributedRequest>[] queues = new IQueue[nodes.size()];
+  /**
+   * Writes the change in the journal once it has been applied.
+   */
+  protected void appendToJournal(final ODistributedRequest iRequest) {
+    if (iRequest.getLSN() > metrics.getLastAppliedLSN())
+      metrics.setLastAppliedLSN(iRequest.getLSN());
 
-    int i = 0;
-    for (String node : nodes)
-      queues[i++] = msgService.getQueue(OHazelcastDistributedMessageService.getRequestQueueName(node, iDatabaseName));
+    if (iRequest.getLSN() > 0 && journal != null)
+      try {
+        journal.append(iRequest.getLSN(), iRequest.getTask().getJournalTask());
+      } catch (IOException e) {
+        ODistributedServerLog.error(this, getLocalNodeName(), iRequest.getSenderNodeName(), DIRECTION.IN,
+            "cannot write the change %d in the journal of database %s", e, iRequest.getLSN(), databaseName);
+      }
+  }
 
-    return queues;
+  /**
+   * Returns the number of changes sent to the current node and not applied yet. The LSNs are assigned by the whole cluster, so
+   * with partitioned clusters the changes of the clusters not owned in between are counted too and it's an upper bound.
+   */
+  public long getReplicationLag() {
+    return Math.max(getLastLSN(getLocalNodeName()) - getLastAppliedLSN(), 0);
+  }
+
+  public long getLastLSN() {
+    return lsnCounter.get();
+  }
+
+  /**
+   * Sets the LSN of the last change sent to a node, unless it's already greater.
+   */
+  protected void updateNodeLSN(final String iNodeName, final long iLSN) {
+    while (true) {
+      final Long current = nodeLSNs.get(iNodeName);
+      if (current == null) {
+        if (nodeLSNs.putIfAbsent(iNodeName, iLSN) == null)
+          return;
+      } else if (current >= iLSN || nodeLSNs.replace(iNodeName, current, iLSN))
+        return;
+    }
+  }
+
+  /**
+   * Returns the LSN of the last change sent to a node, that receives only the changes of the clusters it owns.
+   */
+  public long getLastLSN(final String iNodeName) {
+    final Long lsn = nodeLSNs.get(iNodeName);
+    return lsn != null ? lsn : 0;
+  }
+
+  /**
+   * Returns the LSN of the last change applied by the current node, also received with the journal of another node.
+   */
+  public long getLastAppliedLSN() {
+    final long lastApplied = metrics.getLastAppliedLSN();
+    if (journal != null && journal.getLastLSN() > lastApplied)
+      return journal.getLastLSN();
+    return lastApplied;
   }
 
   public void shutdown() {
+    txResolver.cancel();
+    metrics.unregisterGauges();
+
+    if (lanes != null)
+      lanes.shutdown();
+
     try {
       database.close();
     } catch (Exception e) {
     }
+
+    if (journal != null)
+      journal.close();
   }
 
   /**
@@ -479,20 +1059,49 @@ public class OHazelcastDistributedDatabase implements ODistributedDatabase {
     return manager.getLocalNodeName();
   }
 
+  /**
+   * Returns true if the change of the request is already in the local database.
+   */
+  protected boolean isApplied(final ODistributedRequest iRequest) {
+    if (database == null || !iRequest.getTask().isWriteOperation())
+      return false;
+
+    ODatabaseRecordThreadLocal.INSTANCE.set(database);
+    try {
+      return iRequest.getTask().isApplied(database);
+    } finally {
+      database.getLevel1Cache().clear();
+    }
+  }
+
   protected IMap<Object, Object> restoreMessagesBeforeFailure(final boolean iRestoreMessages) {
     final IMap<Object, Object> undoMap = manager.getHazelcastInstance().getMap(getUndoMapName(databaseName));
-    final ODistributedRequest undoRequest = (ODistributedRequest) undoMap.remove(databaseName);
-    if (undoRequest != null && iRestoreMessages) {
-      ODistributedServerLog.warn(this, getLocalNodeName(), null, DIRECTION.NONE,
-          "restore last replication message before the crash for database %s: %s", databaseName, undoRequest);
+    final Object undoMessage = undoMap.remove(databaseName);
+    if (undoMessage != null && iRestoreMessages) {
+      for (ODistributedRequest undoRequest : OHazelcastDistributedBatch.<ODistributedRequest> getMessages(undoMessage)) {
+        if (undoRequest.getLSN() > 0 && journal != null && undoRequest.getLSN() <= journal.getLastLSN())
+          // THE REQUESTS OF THE BATCH EXECUTED BEFORE THE CRASH ARE IN THE JOURNAL
+          continue;
+
+        try {
+          if (isApplied(undoRequest)) {
+            // APPLIED BEFORE THE CRASH BUT NOT WRITTEN IN THE JOURNAL YET
+            ODistributedServerLog.warn(this, getLocalNodeName(), null, DIRECTION.NONE,
+                "last replication message before the crash for database %s was already applied: %s", databaseName, undoRequest);
+            appendToJournal(undoRequest);
+            continue;
+          }
 
-      try {
-        onMessage(undoRequest);
-      } catch (Throwable t) {
-        ODistributedServerLog.error(this, getLocalNodeName(), null, DIRECTION.NONE,
-            "error on executing restored message for database %s", t, databaseName);
-      }
+          ODistributedServerLog.warn(this, getLocalNodeName(), null, DIRECTION.NONE,
+              "restore last replication message before the crash for database %s: %s", databaseName, undoRequest);
 
+          pendingResponses.add(onMessage(undoRequest));
+        } catch (Throwable t) {
+          ODistributedServerLog.error(this, getLocalNodeName(), null, DIRECTION.NONE,
+              "error on executing restored message for database %s", t, databaseName);
+        }
+      }
+      sendResponses();
     }
     return undoMap;
   }
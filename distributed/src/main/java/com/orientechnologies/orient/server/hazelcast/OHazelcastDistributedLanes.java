@@ -0,0 +1,255 @@
+/*
+ * Copyright 2010-2013 Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientechnologies.orient.server.hazelcast;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import com.orientechnologies.orient.core.db.ODatabaseRecordThreadLocal;
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import com.orientechnologies.orient.core.index.OIndex;
+import com.orientechnologies.orient.core.metadata.schema.OClass;
+import com.orientechnologies.orient.server.distributed.ODistributedRequest;
+import com.orientechnologies.orient.server.distributed.ODistributedResponse;
+import com.orientechnologies.orient.server.distributed.ODistributedServerLog;
+import com.orientechnologies.orient.server.distributed.ODistributedServerLog.DIRECTION;
+
+/**
+ * Applies in parallel the replicated requests of a batch received by the current node. The requests against the same cluster are
+ * executed by the same lane in the order they have been received, because the records created must get the same positions of the
+ * source node. The requests against different clusters don't conflict, so they are executed by different lanes at the same time.
+ * <p>
+ * The clusters of classes with a unique index, also inherited, share the same lane, because the order of the changes decides which
+ * one fails on a duplicated key. The requests that involve more clusters or the whole database (transactions against more
+ * clusters, commands, schema changes) wait for the previous requests and are executed alone by the queue listener. The journal is
+ * written in the order of the LSNs after all the lanes completed, so after a crash the changes applied by the lanes and not
+ * flushed yet are received again: see {@link com.orientechnologies.orient.server.distributed.ODistributedJournal}.
+ *
+ * @author Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ */
+public class OHazelcastDistributedLanes {
+  private final OHazelcastDistributedDatabase distributedDatabase;
+  private final String                        databaseName;
+  private final OLane[]                       lanes;
+  private final List<OSlot>                   submitted = new ArrayList<OSlot>();
+  private final Map<Integer, Integer>         laneKeys  = new HashMap<Integer, Integer>();
+  private int                                 running   = 0;
+  private volatile int                        generation;
+
+  /**
+   * Request executed by a lane together with its response.
+   */
+  protected static class OSlot {
+    protected final ODistributedRequest   request;
+    protected volatile ODistributedResponse response;
+    protected volatile boolean              failed;
+
+    protected OSlot(final ODistributedRequest iRequest) {
+      request = iRequest;
+    }
+  }
+
+  /**
+   * Thread that executes the requests of its clusters with an own database instance.
+   */
+  protected class OLane extends Thread {
+    private final BlockingQueue<OSlot> queue = new LinkedBlockingQueue<OSlot>();
+    private ODatabaseDocumentTx        database;
+    private int                        databaseGeneration;
+
+    protected OLane(final int iIndex) {
+      super("OrientDB DistributedLane " + databaseName + "-" + iIndex);
+      setDaemon(true);
+    }
+
+    @Override
+    public void run() {
+      try {
+        while (!isInterrupted()) {
+          final OSlot slot = queue.take();
+          try {
+            slot.response = distributedDatabase.execute(slot.request, getDatabase());
+          } catch (Throwable t) {
+            ODistributedServerLog.error(this, distributedDatabase.getLocalNodeName(), slot.request.getSenderNodeName(),
+                DIRECTION.IN, "error on executing distributed request: %s", t, slot.request.getTask());
+
+            // SEND BACK THE ERROR LIKE THE ONES OF THE TASK, SO THE SENDER DOESN'T WAIT FOR THE TIMEOUT
+            slot.failed = true;
+            slot.response = new OHazelcastDistributedResponse(slot.request.getId(), distributedDatabase.getLocalNodeName(),
+                slot.request.getSenderNodeName(), t);
+          } finally {
+            completed();
+          }
+        }
+      } catch (InterruptedException e) {
+        // EXIT CURRENT THREAD
+      } finally {
+        closeDatabase();
+      }
+    }
+
+    protected ODatabaseDocumentTx getDatabase() {
+      if (database != null && databaseGeneration != generation)
+        // THE DATABASE HAS BEEN REPLACED
+        closeDatabase();
+
+      if (database == null) {
+        databaseGeneration = generation;
+        database = distributedDatabase.openReplicatorDatabase();
+      }
+      return database;
+    }
+
+    protected void closeDatabase() {
+      if (database != null)
+        try {
+          database.close();
+        } catch (Exception e) {
+        }
+      database = null;
+    }
+  }
+
+  public OHazelcastDistributedLanes(final OHazelcastDistributedDatabase iDistributedDatabase, final String iDatabaseName,
+      final int iLanes) {
+    distributedDatabase = iDistributedDatabase;
+    databaseName = iDatabaseName;
+    lanes = new OLane[iLanes > 1 ? iLanes : 0];
+    for (int i = 0; i < lanes.length; ++i) {
+      lanes[i] = new OLane(i);
+      lanes[i].start();
+    }
+  }
+
+  /**
+   * Executes the request. It's executed by a lane if it involves one cluster, otherwise it waits for the requests in progress and
+   * it's executed by the current thread. The responses are collected by {@link #flush(List)}.
+   *
+   * @param iRequest
+   *          Request to execute
+   * @param iLastOfBatch
+   *          True if no other requests of the same batch follow. If nothing else is in progress the request is executed by the
+   *          current thread, saving the hand-off to the lane
+   * @param iResponses
+   *          Where the responses are added in the order of the requests
+   */
+  public void submit(final ODistributedRequest iRequest, final boolean iLastOfBatch, final List<ODistributedResponse> iResponses)
+      throws InterruptedException {
+    final int clusterId = lanes.length > 0 ? iRequest.getTask().getClusterId() : -1;
+
+    if (clusterId <= 0 || iLastOfBatch && submitted.isEmpty()) {
+      // MORE CLUSTERS OR THE INTERNAL ONE, THAT CONTAINS THE SCHEMA AND THE INDEX CONFIGURATION: EXECUTE IT ALONE
+      flush(iResponses);
+
+      iResponses.add(distributedDatabase.onMessage(iRequest));
+
+      if (clusterId <= 0)
+        // THE SCHEMA COULD BE CHANGED
+        laneKeys.clear();
+      return;
+    }
+
+    final OSlot slot = new OSlot(iRequest);
+    submitted.add(slot);
+    synchronized (this) {
+      running++;
+    }
+    lanes[getLaneKey(clusterId) % lanes.length].queue.offer(slot);
+  }
+
+  /**
+   * Waits for the requests in progress, writes the executed ones in the journal and adds their responses.
+   */
+  public void flush(final List<ODistributedResponse> iResponses) throws InterruptedException {
+    if (submitted.isEmpty())
+      return;
+
+    synchronized (this) {
+      while (running > 0)
+        wait();
+    }
+
+    for (OSlot slot : submitted) {
+      if (!slot.failed)
+        distributedDatabase.appendToJournal(slot.request);
+      if (slot.response != null)
+        iResponses.add(slot.response);
+    }
+    submitted.clear();
+  }
+
+  /**
+   * Makes the lanes to reopen their database before the next request, because it has been replaced.
+   */
+  public void reopen() {
+    generation++;
+  }
+
+  public void shutdown() {
+    for (OLane lane : lanes)
+      lane.interrupt();
+  }
+
+  protected synchronized void completed() {
+    if (--running == 0)
+      notifyAll();
+  }
+
+  /**
+   * Returns the key used to choose the lane of a cluster. It's the cluster itself, or the default cluster of the upper class with a
+   * unique index when the cluster is of a class with a unique index.
+   */
+  protected int getLaneKey(final int iClusterId) {
+    if (laneKeys.isEmpty()) {
+      final ODatabaseDocumentTx db = distributedDatabase.getDatabase();
+      if (db == null)
+        return iClusterId;
+
+      ODatabaseRecordThreadLocal.INSTANCE.set(db);
+
+      for (OClass cls : db.getMetadata().getSchema().getClasses()) {
+        OClass uniqueClass = null;
+        for (OClass c = cls; c != null; c = c.getSuperClass())
+          if (hasUniqueIndex(c))
+            uniqueClass = c;
+
+        if (uniqueClass != null)
+          for (int clusterId : cls.getClusterIds())
+            laneKeys.put(clusterId, uniqueClass.getDefaultClusterId());
+      }
+
+      // AVOID TO BROWSE THE SCHEMA AGAIN IF NO UNIQUE INDEXES ARE DEFINED
+      laneKeys.put(0, 0);
+    }
+
+    final Integer key = laneKeys.get(iClusterId);
+    return key != null ? key : iClusterId;
+  }
+
+  protected boolean hasUniqueIndex(final OClass iClass) {
+    for (OIndex<?> index : iClass.getClassIndexes()) {
+      final String type = index.getType();
+      if (OClass.INDEX_TYPE.UNIQUE.toString().equals(type) || OClass.INDEX_TYPE.UNIQUE_HASH_INDEX.toString().equals(type))
+        return true;
+    }
+    return false;
+  }
+}
@@ -49,7 +49,7 @@ public class OHazelcastDistributedMessageService implements ODistributedMessageS
 
   protected final static Map<String, IQueue<?>>                        queues                      = new HashMap<String, IQueue<?>>();
 
-  protected final IQueue<ODistributedResponse>                         nodeResponseQueue;
+  protected final IQueue<Object>                                       nodeResponseQueue;
   protected final ConcurrentHashMap<Long, ODistributedResponseManager> responsesByRequestIds;
   protected final TimerTask                                            asynchMessageManager;
 
@@ -90,9 +90,9 @@ public class OHazelcastDistributedMessageService implements ODistributedMessageS
           String senderNode = null;
           ODistributedResponse message = null;
           try {
-            message = nodeResponseQueue.take();
-
-            if (message != null) {
+            // A BATCH CONTAINS THE RESPONSES TO THE REQUESTS OF A BATCH
+            for (Object m : OHazelcastDistributedBatch.getMessages(nodeResponseQueue.take())) {
+              message = (ODistributedResponse) m;
               senderNode = message.getSenderNodeName();
               dispatchResponseToThread(message);
             }
@@ -215,6 +215,8 @@ public class OHazelcastDistributedMessageService implements ODistributedMessageS
             .updateCounter("distributed.replication." + resp.getDatabaseName() + ".timeouts",
                 "Number of timeouts on replication messages responses", +1, "distributed.replication.*.timeouts");
 
+        manager.getMetrics(resp.getDatabaseName()).recordAsynchTimeout();
+
         resp.timeout();
         it.remove();
       }
@@ -15,12 +15,12 @@
  */
 package com.orientechnologies.orient.server.hazelcast;
 
-import java.io.Externalizable;
 import java.io.IOException;
-import java.io.ObjectInput;
-import java.io.ObjectOutput;
 import java.util.concurrent.atomic.AtomicLong;
 
+import com.hazelcast.nio.ObjectDataInput;
+import com.hazelcast.nio.ObjectDataOutput;
+import com.orientechnologies.orient.server.distributed.ODistributedMessageSerializer;
 import com.orientechnologies.orient.server.distributed.ODistributedRequest;
 import com.orientechnologies.orient.server.distributed.task.OAbstractRemoteTask;
 
@@ -30,7 +30,7 @@ import com.orientechnologies.orient.server.distributed.task.OAbstractRemoteTask;
  * @author Luca Garulli (l.garulli--at--orientechnologies.com)
  * 
  */
-public class OHazelcastDistributedRequest implements ODistributedRequest, Externalizable {
+public class OHazelcastDistributedRequest implements ODistributedRequest {
   private static AtomicLong   serialId = new AtomicLong();
 
   private long                id;
@@ -39,6 +39,7 @@ public class OHazelcastDistributedRequest implements ODistributedRequest, Extern
   private String              databaseName;
   private String              clusterName;
   private long                senderThreadId;
+  private long                lsn;
   private OAbstractRemoteTask task;
 
   /**
@@ -109,6 +110,17 @@ public class OHazelcastDistributedRequest implements ODistributedRequest, Extern
     return this;
   }
 
+  @Override
+  public long getLSN() {
+    return lsn;
+  }
+
+  @Override
+  public OHazelcastDistributedRequest setLSN(final long iLSN) {
+    this.lsn = iLSN;
+    return this;
+  }
+
   @Override
   public EXECUTION_MODE getExecutionMode() {
     return executionMode;
@@ -119,18 +131,19 @@ public class OHazelcastDistributedRequest implements ODistributedRequest, Extern
     return this;
   }
 
-  @Override
-  public void writeExternal(final ObjectOutput out) throws IOException {
+  public void writeData(final ObjectDataOutput out) throws IOException {
+    out.writeByte(ODistributedMessageSerializer.VERSION);
     out.writeLong(id);
     out.writeUTF(senderNodeName);
     out.writeLong(senderThreadId);
     out.writeUTF(databaseName);
     out.writeUTF(clusterName != null ? clusterName : "");
-    out.writeObject(task);
+    out.writeLong(lsn);
+    ODistributedMessageSerializer.writeObject(out, task);
   }
 
-  @Override
-  public void readExternal(final ObjectInput in) throws IOException, ClassNotFoundException {
+  public void readData(final ObjectDataInput in) throws IOException {
+    ODistributedMessageSerializer.checkVersion(in.readByte());
     id = in.readLong();
     senderNodeName = in.readUTF();
     senderThreadId = in.readLong();
@@ -138,7 +151,12 @@ public class OHazelcastDistributedRequest implements ODistributedRequest, Extern
     clusterName = in.readUTF();
     if (clusterName.length() == 0)
       clusterName = null;
-    task = (OAbstractRemoteTask) in.readObject();
+    lsn = in.readLong();
+    try {
+      task = (OAbstractRemoteTask) ODistributedMessageSerializer.readObject(in);
+    } catch (ClassNotFoundException e) {
+      throw new IOException("Cannot read the task of distributed request " + id, e);
+    }
   }
 
   @Override
@@ -146,6 +164,10 @@ public class OHazelcastDistributedRequest implements ODistributedRequest, Extern
     final StringBuilder buffer = new StringBuilder();
     buffer.append("id=");
     buffer.append(id);
+    if (lsn > 0) {
+      buffer.append(" lsn=");
+      buffer.append(lsn);
+    }
     if (task != null) {
       buffer.append(" task=");
       buffer.append(task.toString());
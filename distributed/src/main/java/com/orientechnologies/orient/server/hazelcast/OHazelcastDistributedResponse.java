@@ -15,12 +15,12 @@
  */
 package com.orientechnologies.orient.server.hazelcast;
 
-import java.io.Externalizable;
 import java.io.IOException;
-import java.io.ObjectInput;
-import java.io.ObjectOutput;
 import java.io.Serializable;
 
+import com.hazelcast.nio.ObjectDataInput;
+import com.hazelcast.nio.ObjectDataOutput;
+import com.orientechnologies.orient.server.distributed.ODistributedMessageSerializer;
 import com.orientechnologies.orient.server.distributed.ODistributedResponse;
 
 /**
@@ -29,7 +29,7 @@ import com.orientechnologies.orient.server.distributed.ODistributedResponse;
  * @author Luca Garulli (l.garulli--at--orientechnologies.com)
  * 
  */
-public class OHazelcastDistributedResponse implements ODistributedResponse, Externalizable {
+public class OHazelcastDistributedResponse implements ODistributedResponse {
   private long   requestId;
   private String executorNodeName;
   private String senderNodeName;
@@ -87,20 +87,24 @@ public class OHazelcastDistributedResponse implements ODistributedResponse, Exte
     return this;
   }
 
-  @Override
-  public void writeExternal(final ObjectOutput out) throws IOException {
+  public void writeData(final ObjectDataOutput out) throws IOException {
+    out.writeByte(ODistributedMessageSerializer.VERSION);
     out.writeLong(requestId);
     out.writeUTF(executorNodeName);
     out.writeUTF(senderNodeName);
-    out.writeObject(payload);
+    ODistributedMessageSerializer.writeObject(out, payload);
   }
 
-  @Override
-  public void readExternal(final ObjectInput in) throws IOException, ClassNotFoundException {
+  public void readData(final ObjectDataInput in) throws IOException {
+    ODistributedMessageSerializer.checkVersion(in.readByte());
     requestId = in.readLong();
     executorNodeName = in.readUTF();
     senderNodeName = in.readUTF();
-    payload = (Serializable) in.readObject();
+    try {
+      payload = ODistributedMessageSerializer.readObject(in);
+    } catch (ClassNotFoundException e) {
+      throw new IOException("Cannot read the result of distributed request " + requestId, e);
+    }
   }
 
   @Override
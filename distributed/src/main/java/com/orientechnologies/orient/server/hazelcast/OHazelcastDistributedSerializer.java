@@ -0,0 +1,93 @@
+/*
+ * Copyright 2010-2013 Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientechnologies.orient.server.hazelcast;
+
+import java.io.IOException;
+
+import com.hazelcast.config.Config;
+import com.hazelcast.config.SerializerConfig;
+import com.hazelcast.nio.ObjectDataInput;
+import com.hazelcast.nio.ObjectDataOutput;
+import com.hazelcast.nio.serialization.StreamSerializer;
+
+/**
+ * Writes the messages exchanged through the Hazelcast queues with the binary format of the distributed messages, identified by a
+ * type id instead of the class descriptors of the Java serialization. It's registered in the Hazelcast configuration when the
+ * plugin starts, one instance per message class.
+ *
+ * @author Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ */
+public class OHazelcastDistributedSerializer implements StreamSerializer<Object> {
+  public static final int REQUEST  = 1000;
+  public static final int RESPONSE = 1001;
+  public static final int BATCH    = 1002;
+
+  private final int       typeId;
+
+  public OHazelcastDistributedSerializer(final int iTypeId) {
+    typeId = iTypeId;
+  }
+
+  public static void register(final Config iConfig) {
+    iConfig.getSerializationConfig().addSerializerConfig(
+        new SerializerConfig().setTypeClass(OHazelcastDistributedRequest.class).setImplementation(
+            new OHazelcastDistributedSerializer(REQUEST)));
+    iConfig.getSerializationConfig().addSerializerConfig(
+        new SerializerConfig().setTypeClass(OHazelcastDistributedResponse.class).setImplementation(
+            new OHazelcastDistributedSerializer(RESPONSE)));
+    iConfig.getSerializationConfig().addSerializerConfig(
+        new SerializerConfig().setTypeClass(OHazelcastDistributedBatch.class).setImplementation(
+            new OHazelcastDistributedSerializer(BATCH)));
+  }
+
+  public int getTypeId() {
+    return typeId;
+  }
+
+  public void write(final ObjectDataOutput out, final Object iMessage) throws IOException {
+    switch (typeId) {
+    case REQUEST:
+      ((OHazelcastDistributedRequest) iMessage).writeData(out);
+      break;
+    case RESPONSE:
+      ((OHazelcastDistributedResponse) iMessage).writeData(out);
+      break;
+    default:
+      ((OHazelcastDistributedBatch) iMessage).writeData(out);
+    }
+  }
+
+  public Object read(final ObjectDataInput in) throws IOException {
+    switch (typeId) {
+    case REQUEST:
+      final OHazelcastDistributedRequest request = new OHazelcastDistributedRequest();
+      request.readData(in);
+      return request;
+    case RESPONSE:
+      final OHazelcastDistributedResponse response = new OHazelcastDistributedResponse();
+      response.readData(in);
+      return response;
+    default:
+      final OHazelcastDistributedBatch batch = new OHazelcastDistributedBatch();
+      batch.readData(in);
+      return batch;
+    }
+  }
+
+  public void destroy() {
+  }
+}
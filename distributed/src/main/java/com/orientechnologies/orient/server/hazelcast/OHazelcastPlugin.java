@@ -15,12 +15,16 @@
  */
 package com.orientechnologies.orient.server.hazelcast;
 
-import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
@@ -28,8 +32,10 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Lock;
 
+import com.hazelcast.config.Config;
 import com.hazelcast.config.FileSystemXmlConfig;
 import com.hazelcast.config.QueueConfig;
 import com.hazelcast.core.EntryEvent;
@@ -47,13 +53,14 @@ import com.orientechnologies.common.parser.OSystemVariableResolver;
 import com.orientechnologies.common.profiler.OProfilerEntry;
 import com.orientechnologies.common.util.OArrays;
 import com.orientechnologies.orient.core.Orient;
+import com.orientechnologies.orient.core.config.OGlobalConfiguration;
 import com.orientechnologies.orient.core.db.ODatabase;
 import com.orientechnologies.orient.core.db.ODatabaseComplex;
 import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
 import com.orientechnologies.orient.core.exception.OConfigurationException;
 import com.orientechnologies.orient.core.metadata.schema.OType;
 import com.orientechnologies.orient.core.record.impl.ODocument;
-import com.orientechnologies.orient.core.type.OBuffer;
+import com.orientechnologies.orient.core.storage.OStorage;
 import com.orientechnologies.orient.server.OClientConnectionManager;
 import com.orientechnologies.orient.server.OServer;
 import com.orientechnologies.orient.server.config.OServerConfiguration;
@@ -61,16 +68,27 @@ import com.orientechnologies.orient.server.config.OServerHandlerConfiguration;
 import com.orientechnologies.orient.server.config.OServerParameterConfiguration;
 import com.orientechnologies.orient.server.distributed.ODistributedAbstractPlugin;
 import com.orientechnologies.orient.server.distributed.ODistributedConfiguration;
+import com.orientechnologies.orient.server.distributed.ODistributedDatabaseChunk;
+import com.orientechnologies.orient.server.distributed.ODistributedDatabaseDelta;
 import com.orientechnologies.orient.server.distributed.ODistributedException;
+import com.orientechnologies.orient.server.distributed.ODistributedJournal;
+import com.orientechnologies.orient.server.distributed.ODistributedMetrics;
 import com.orientechnologies.orient.server.distributed.ODistributedPartition;
+import com.orientechnologies.orient.server.distributed.ODistributedPartitioningStrategy;
+import com.orientechnologies.orient.server.distributed.ODistributedReadConsistency;
 import com.orientechnologies.orient.server.distributed.ODistributedRequest;
 import com.orientechnologies.orient.server.distributed.ODistributedRequest.EXECUTION_MODE;
 import com.orientechnologies.orient.server.distributed.ODistributedResponse;
 import com.orientechnologies.orient.server.distributed.ODistributedServerLog;
 import com.orientechnologies.orient.server.distributed.ODistributedServerLog.DIRECTION;
+import com.orientechnologies.orient.server.distributed.ODistributedTransactions;
 import com.orientechnologies.orient.server.distributed.conflict.OReplicationConflictResolver;
 import com.orientechnologies.orient.server.distributed.task.OAbstractRemoteTask;
+import com.orientechnologies.orient.server.distributed.task.OCopyClusterTask;
+import com.orientechnologies.orient.server.distributed.task.OCopyDatabaseChunkTask;
 import com.orientechnologies.orient.server.distributed.task.ODeployDatabaseTask;
+import com.orientechnologies.orient.server.distributed.task.OSyncDatabaseDeltaTask;
+import com.orientechnologies.orient.server.hazelcast.sharding.strategy.OConsistentHashPartitioningStrategy;
 import com.orientechnologies.orient.server.network.OServerNetworkListener;
 
 /**
@@ -81,15 +99,19 @@ import com.orientechnologies.orient.server.network.OServerNetworkListener;
  */
 public class OHazelcastPlugin extends ODistributedAbstractPlugin implements MembershipListener, EntryListener<String, Object> {
 
-  protected static final String                 CONFIG_NODE_PREFIX     = "node.";
-  protected static final String                 CONFIG_DATABASE_PREFIX = "database.";
+  protected static final String                   CONFIG_NODE_PREFIX     = "node.";
+  protected static final String                   CONFIG_DATABASE_PREFIX = "database.";
+  protected static final String                   TX_OUTCOME_PREFIX      = "orientdb.tx.";
+  protected static final int                      DEPLOY_CHUNK_MAX_RETRY = 3;
 
-  protected String                              nodeId;
-  protected String                              hazelcastConfigFile    = "hazelcast.xml";
-  protected Map<String, Member>                 cachedClusterNodes     = new ConcurrentHashMap<String, Member>();
-  protected OHazelcastDistributedMessageService messageService;
-  protected long                                timeOffset             = 0;
-  protected Date                                startedOn              = new Date();
+  protected String                                nodeId;
+  protected String                                hazelcastConfigFile    = "hazelcast.xml";
+  protected Map<String, Member>                   cachedClusterNodes     = new ConcurrentHashMap<String, Member>();
+  protected Map<String, ODistributedMetrics>      metrics                = new HashMap<String, ODistributedMetrics>();
+  protected Map<String, ODistributedTransactions> transactions           = new HashMap<String, ODistributedTransactions>();
+  protected OHazelcastDistributedMessageService   messageService;
+  protected long                                  timeOffset             = 0;
+  protected Date                                  startedOn              = new Date();
 
   protected volatile STATUS                     status                 = STATUS.OFFLINE;
 
@@ -97,6 +119,8 @@ public class OHazelcastPlugin extends ODistributedAbstractPlugin implements Memb
 
   protected volatile HazelcastInstance          hazelcastInstance;
   protected Object                              installDatabaseLock    = new Object();
+  protected final Set<String>                   syncingClusters        = Collections
+                                                                           .newSetFromMap(new ConcurrentHashMap<String, Boolean>());
 
   public OHazelcastPlugin() {
   }
@@ -158,7 +182,9 @@ public class OHazelcastPlugin extends ODistributedAbstractPlugin implements Memb
     cachedClusterNodes.clear();
 
     try {
-      hazelcastInstance = Hazelcast.newHazelcastInstance(new FileSystemXmlConfig(hazelcastConfigFile));
+      final Config config = new FileSystemXmlConfig(hazelcastConfigFile);
+      OHazelcastDistributedSerializer.register(config);
+      hazelcastInstance = Hazelcast.newHazelcastInstance(config);
 
       nodeId = hazelcastInstance.getCluster().getLocalMember().getUuid();
       timeOffset = System.currentTimeMillis() - hazelcastInstance.getCluster().getClusterTime();
@@ -312,6 +338,11 @@ public class OHazelcastPlugin extends ODistributedAbstractPlugin implements Memb
     final OHazelcastDistributedDatabase db = messageService.getDatabase(iDatabaseName);
 
     final ODistributedResponse response = db.send(req);
+
+    if (req.getLSN() > 0)
+      // READ YOUR WRITES IN THE CURRENT SESSION
+      ODistributedReadConsistency.updateSessionLSN(req.getLSN());
+
     if (response != null)
       return response.getPayload();
 
@@ -328,6 +359,41 @@ public class OHazelcastPlugin extends ODistributedAbstractPlugin implements Memb
     db.send2Node(req, iTargetNodeName);
   }
 
+  @Override
+  public Object sendRequest2Node(final String iDatabaseName, final String iTargetNodeName, final OAbstractRemoteTask iTask,
+      final EXECUTION_MODE iExecutionMode) {
+    final OHazelcastDistributedRequest req = new OHazelcastDistributedRequest(getLocalNodeName(), iDatabaseName, null, iTask,
+        iExecutionMode);
+
+    final OHazelcastDistributedDatabase db = messageService.getDatabase(iDatabaseName);
+
+    final ODistributedResponse response = db.send2Node(req, iTargetNodeName);
+    if (response != null)
+      return response.getPayload();
+
+    return null;
+  }
+
+  @Override
+  public Object sendRequest2Nodes(final String iDatabaseName, final Set<String> iTargetNodeNames, final OAbstractRemoteTask iTask,
+      final EXECUTION_MODE iExecutionMode) {
+    final OHazelcastDistributedRequest req = new OHazelcastDistributedRequest(getLocalNodeName(), iDatabaseName, null, iTask,
+        iExecutionMode);
+
+    final OHazelcastDistributedDatabase db = messageService.getDatabase(iDatabaseName);
+
+    final ODistributedResponse response = db.send2Nodes(req, iTargetNodeNames);
+
+    if (req.getLSN() > 0)
+      // READ YOUR WRITES IN THE CURRENT SESSION
+      ODistributedReadConsistency.updateSessionLSN(req.getLSN());
+
+    if (response != null)
+      return response.getPayload();
+
+    return null;
+  }
+
   public Set<String> getManagedDatabases() {
     return messageService.getDatabases();
   }
@@ -369,6 +435,7 @@ public class OHazelcastPlugin extends ODistributedAbstractPlugin implements Memb
       final OProfilerEntry chrono = Orient.instance().getProfiler().getChrono("distributed.replication." + dbName + ".resynch");
       if (chrono != null)
         db.put("resync", new ODocument().fromJSON(chrono.toJSON()));
+      db.put("replication", getMetrics(dbName).toDocument());
     }
 
     for (Entry<String, QueueConfig> entry : hazelcastInstance.getConfig().getQueueConfigs().entrySet()) {
@@ -408,6 +475,59 @@ public class OHazelcastPlugin extends ODistributedAbstractPlugin implements Memb
     return doc;
   }
 
+  public ODistributedMetrics getMetrics(final String iDatabaseName) {
+    synchronized (metrics) {
+      ODistributedMetrics m = metrics.get(iDatabaseName);
+      if (m == null) {
+        m = new ODistributedMetrics(iDatabaseName);
+        metrics.put(iDatabaseName, m);
+      }
+      return m;
+    }
+  }
+
+  public ODistributedTransactions getTransactions(final String iDatabaseName) {
+    synchronized (transactions) {
+      ODistributedTransactions t = transactions.get(iDatabaseName);
+      if (t == null) {
+        t = new ODistributedTransactions(iDatabaseName);
+        transactions.put(iDatabaseName, t);
+      }
+      return t;
+    }
+  }
+
+  @Override
+  public boolean setTransactionOutcome(final String iDatabaseName, final String iTxId, final boolean iCommit) {
+    // THE FIRST OUTCOME WINS: A NODE THAT ROLLED IT BACK BECAUSE THE COORDINATOR LEFT PREVENTS A LATE COMMIT
+    final Boolean outcome = getTransactionOutcomes(iDatabaseName).putIfAbsent(iTxId, iCommit,
+        OGlobalConfiguration.DISTRIBUTED_TX_LOCK_TIMEOUT.getValueAsLong() * 10, TimeUnit.MILLISECONDS);
+    return outcome != null ? outcome : iCommit;
+  }
+
+  @Override
+  public Boolean getTransactionOutcome(final String iDatabaseName, final String iTxId) {
+    return getTransactionOutcomes(iDatabaseName).get(iTxId);
+  }
+
+  @Override
+  public long getLastLSN(final String iDatabaseName) {
+    final OHazelcastDistributedDatabase db = messageService.getDatabase(iDatabaseName);
+    return db != null ? db.getLastLSN() : 0;
+  }
+
+  @Override
+  public long getLastLSN(final String iDatabaseName, final String iNodeName) {
+    final OHazelcastDistributedDatabase db = messageService.getDatabase(iDatabaseName);
+    return db != null ? db.getLastLSN(iNodeName) : 0;
+  }
+
+  @Override
+  public long getLastAppliedLSN(final String iDatabaseName) {
+    final OHazelcastDistributedDatabase db = messageService.getDatabase(iDatabaseName);
+    return db != null ? db.getLastAppliedLSN() : 0;
+  }
+
   public String getNodeName(final Member iMember) {
     final ODocument cfg = getNodeConfigurationById(iMember.getUuid());
     return (String) (cfg != null ? cfg.field("name") : null);
@@ -567,11 +687,21 @@ public class OHazelcastPlugin extends ODistributedAbstractPlugin implements Memb
     }
   }
 
+  @Override
+  public ODistributedJournal getJournal(final String iDatabaseName) {
+    final OHazelcastDistributedDatabase db = messageService.getDatabase(iDatabaseName);
+    return db != null ? db.getJournal() : null;
+  }
+
   @Override
   public ODistributedPartition newPartition(final List<String> partition) {
     return new OHazelcastDistributionPartition(partition);
   }
 
+  protected IMap<String, Boolean> getTransactionOutcomes(final String iDatabaseName) {
+    return getHazelcastInstance().getMap(TX_OUTCOME_PREFIX + iDatabaseName);
+  }
+
   protected IMap<String, Object> getConfigurationMap() {
     return getHazelcastInstance().getMap("orientdb");
   }
@@ -619,9 +749,24 @@ public class OHazelcastPlugin extends ODistributedAbstractPlugin implements Memb
             final Boolean hotAlignment = config.field("hotAlignment");
             final String dbPath = serverInstance.getDatabaseDirectory() + databaseName;
 
+            OHazelcastDistributedDatabase distrDatabase = null;
+
             final Set<String> configuredDatabases = serverInstance.getAvailableStorageNames().keySet();
             if (configuredDatabases.contains(databaseName)) {
               if (iStartup && hotAlignment != null && !hotAlignment) {
+                distrDatabase = messageService.registerDatabase(databaseName);
+
+                // READ ALL THE MESSAGES DISCARDING EVERYTHING UNTIL THE REQUEST OF THE MISSED CHANGES
+                distrDatabase.setWaitForTaskType(OSyncDatabaseDeltaTask.class);
+                distrDatabase.configureDatabase(null, false, false);
+
+                if (synchronizeDatabase(distrDatabase, databaseName))
+                  continue;
+
+                // READ ALL THE MESSAGES DISCARDING EVERYTHING UNTIL DEPLOY
+                distrDatabase.setWaitForTaskType(ODeployDatabaseTask.class);
+                distrDatabase.close();
+
                 // DROP THE DATABASE ON CURRENT NODE
                 ODistributedServerLog.warn(this, getLocalNodeName(), null, DIRECTION.NONE,
                     "dropping local database %s in %s and get a fresh copy from a remote node...", databaseName, dbPath);
@@ -634,37 +779,47 @@ public class OHazelcastPlugin extends ODistributedAbstractPlugin implements Memb
                 continue;
             }
 
-            final OHazelcastDistributedDatabase distrDatabase = messageService.registerDatabase(databaseName);
+            if (distrDatabase == null) {
+              distrDatabase = messageService.registerDatabase(databaseName);
 
-            // READ ALL THE MESSAGES DISCARDING EVERYTHING UNTIL DEPLOY
-            distrDatabase.setWaitForTaskType(ODeployDatabaseTask.class);
-            distrDatabase.configureDatabase(null, false, false);
+              // READ ALL THE MESSAGES DISCARDING EVERYTHING UNTIL DEPLOY
+              distrDatabase.setWaitForTaskType(ODeployDatabaseTask.class);
+              distrDatabase.configureDatabase(null, false, false);
+            }
 
-            final Map<String, OBuffer> results = (Map<String, OBuffer>) sendRequest(databaseName, null, new ODeployDatabaseTask(),
+            final Map<String, Object> results = (Map<String, Object>) sendRequest(databaseName, null, new ODeployDatabaseTask(),
                 EXECUTION_MODE.RESPONSE);
 
-            // EXTRACT THE REAL RESULT
-            OBuffer result = null;
-            for (Entry<String, OBuffer> r : results.entrySet())
-              if (r.getValue().getBuffer() != null && r.getValue().getBuffer().length > 0) {
-                result = r.getValue();
+            // EXTRACT THE REAL RESULT: THE FIRST CHUNK OF THE NODE THAT IS DEPLOYING
+            String sourceNode = null;
+            ODistributedDatabaseChunk firstChunk = null;
+            for (Entry<String, Object> r : results.entrySet())
+              if (r.getValue() instanceof ODistributedDatabaseChunk) {
+                sourceNode = r.getKey();
+                firstChunk = (ODistributedDatabaseChunk) r.getValue();
 
-                ODistributedServerLog.warn(this, getLocalNodeName(), r.getKey(), DIRECTION.IN, "installing database %s in %s...",
+                ODistributedServerLog.warn(this, getLocalNodeName(), sourceNode, DIRECTION.IN, "installing database %s in %s...",
                     databaseName, dbPath);
 
                 break;
               }
 
-            if (result == null)
+            if (firstChunk == null)
               throw new ODistributedException("No response received from remote nodes for auto-deploy of database");
 
             new File(dbPath).mkdirs();
             final ODatabaseDocumentTx db = new ODatabaseDocumentTx("local:" + dbPath);
 
-            final ByteArrayInputStream in = new ByteArrayInputStream(result.getBuffer());
+            final File backupFile = new File(dbPath + ".deploy");
             try {
-              db.restore(in, null, null);
-              in.close();
+              receiveDatabase(databaseName, sourceNode, firstChunk, backupFile);
+
+              final InputStream in = new FileInputStream(backupFile);
+              try {
+                db.restore(in, null, null);
+              } finally {
+                in.close();
+              }
 
               db.close();
               Orient.instance().unregisterStorageByName(db.getName());
@@ -679,6 +834,8 @@ public class OHazelcastPlugin extends ODistributedAbstractPlugin implements Memb
             } catch (IOException e) {
               ODistributedServerLog.warn(this, getLocalNodeName(), null, DIRECTION.IN,
                   "error on copying database '%s' on local server", e, databaseName);
+            } finally {
+              backupFile.delete();
             }
           }
         }
@@ -686,6 +843,371 @@ public class OHazelcastPlugin extends ODistributedAbstractPlugin implements Memb
     }
   }
 
+  /**
+   * Aligns the local database applying the changes after the last LSN of its journal, received from the node that has most of
+   * them. Returns false if no node has all the changes, so the database must be installed from scratch.
+   */
+  @SuppressWarnings("unchecked")
+  protected boolean synchronizeDatabase(final OHazelcastDistributedDatabase iDistrDatabase, final String iDatabaseName) {
+    final ODistributedJournal journal = iDistrDatabase.getJournal();
+    if (journal == null || journal.isEmpty())
+      return false;
+
+    final long lastLSN = journal.getLastLSN();
+
+    ODistributedServerLog.warn(this, getLocalNodeName(), null, DIRECTION.NONE,
+        "asking the changes of database %s after LSN %d to the other nodes...", iDatabaseName, lastLSN);
+
+    final Map<String, Object> results = (Map<String, Object>) sendRequest(iDatabaseName, null, new OSyncDatabaseDeltaTask(lastLSN,
+        -1), EXECUTION_MODE.RESPONSE);
+
+    String sourceNode = null;
+    ODistributedDatabaseDelta delta = null;
+    for (Entry<String, Object> r : results.entrySet())
+      if (r.getValue() instanceof ODistributedDatabaseDelta) {
+        final ODistributedDatabaseDelta d = (ODistributedDatabaseDelta) r.getValue();
+        if (!d.truncated && (delta == null || d.toLSN > delta.toLSN)) {
+          sourceNode = r.getKey();
+          delta = d;
+        }
+      }
+
+    if (delta == null) {
+      ODistributedServerLog.warn(this, getLocalNodeName(), null, DIRECTION.NONE,
+          "the changes of database %s after LSN %d are not available on the other nodes", iDatabaseName, lastLSN);
+      return false;
+    }
+
+    try {
+      long applied = 0;
+      while (true) {
+        iDistrDatabase.applyDelta(sourceNode, delta);
+        applied += delta.lsns.length;
+
+        if (delta.isLast())
+          break;
+
+        final Object result = sendRequest2Node(iDatabaseName, sourceNode, new OSyncDatabaseDeltaTask(delta.getLastLSN(),
+            delta.toLSN), EXECUTION_MODE.RESPONSE);
+        if (!(result instanceof ODistributedDatabaseDelta) || ((ODistributedDatabaseDelta) result).truncated)
+          throw new ODistributedException("Cannot receive the changes of database " + iDatabaseName + " after LSN "
+              + delta.getLastLSN() + " from node " + sourceNode + ": " + result);
+
+        delta = (ODistributedDatabaseDelta) result;
+      }
+
+      ODistributedServerLog.warn(this, getLocalNodeName(), sourceNode, DIRECTION.IN,
+          "applied %d changes to database %s up to LSN %d, setting it online...", applied, iDatabaseName, delta.toLSN);
+
+      iDistrDatabase.setOnline();
+      return true;
+
+    } catch (Exception e) {
+      ODistributedServerLog.error(this, getLocalNodeName(), sourceNode, DIRECTION.IN,
+          "error on aligning database %s from the changes of the other nodes", e, iDatabaseName);
+      return false;
+    }
+  }
+
+  /**
+   * Writes the database backup to the file asking the chunks to the source node one by one. A chunk that is lost or corrupted is
+   * asked again from the same offset. At the end the backup is released on the source node.
+   */
+  protected void receiveDatabase(final String iDatabaseName, final String iSourceNode, final ODistributedDatabaseChunk iFirstChunk,
+      final File iFile) throws IOException {
+    final OutputStream out = new FileOutputStream(iFile);
+    try {
+      ODistributedDatabaseChunk chunk = iFirstChunk;
+      long offset = 0;
+      int retry = 0;
+
+      while (true) {
+        if (chunk != null && chunk.offset == offset && chunk.isValid()) {
+          out.write(chunk.buffer);
+          offset += chunk.buffer.length;
+          retry = 0;
+
+          if (chunk.last)
+            break;
+
+          if (ODistributedServerLog.isDebugEnabled())
+            ODistributedServerLog.debug(this, getLocalNodeName(), iSourceNode, DIRECTION.IN, "received %s of database %s (%s)",
+                OFileUtils.getSizeAsString(offset), iDatabaseName, OFileUtils.getSizeAsString(chunk.fileSize));
+
+        } else if (++retry > DEPLOY_CHUNK_MAX_RETRY)
+          throw new ODistributedException("Cannot receive the database " + iDatabaseName + " from node " + iSourceNode
+              + ": chunk at offset " + offset + " not received");
+        else
+          ODistributedServerLog.warn(this, getLocalNodeName(), iSourceNode, DIRECTION.IN,
+              "chunk at offset %d of database %s is missing or corrupted, asking it again (%d/%d)", offset, iDatabaseName, retry,
+              DEPLOY_CHUNK_MAX_RETRY);
+
+        try {
+          final Object result = sendRequest2Node(iDatabaseName, iSourceNode, new OCopyDatabaseChunkTask(iFirstChunk.fileName,
+              offset, ODeployDatabaseTask.CHUNK_MAX_SIZE), EXECUTION_MODE.RESPONSE);
+          chunk = result instanceof ODistributedDatabaseChunk ? (ODistributedDatabaseChunk) result : null;
+        } catch (ODistributedException e) {
+          ODistributedServerLog.debug(this, getLocalNodeName(), iSourceNode, DIRECTION.IN,
+              "error on receiving chunk at offset %d of database %s", e, offset, iDatabaseName);
+          chunk = null;
+        }
+      }
+
+      if (offset != iFirstChunk.fileSize)
+        throw new ODistributedException("Cannot receive the database " + iDatabaseName + " from node " + iSourceNode + ": received "
+            + offset + " bytes of " + iFirstChunk.fileSize);
+
+      ODistributedServerLog.warn(this, getLocalNodeName(), iSourceNode, DIRECTION.IN, "received database %s, total %s",
+          iDatabaseName, OFileUtils.getSizeAsString(offset));
+
+    } finally {
+      out.close();
+
+      try {
+        sendRequest2Node(iDatabaseName, iSourceNode, new OCopyDatabaseChunkTask(iFirstChunk.fileName), EXECUTION_MODE.NO_RESPONSE);
+      } catch (Exception e) {
+        // THE BACKUP EXPIRES ON THE SOURCE NODE
+        ODistributedServerLog.debug(this, getLocalNodeName(), iSourceNode, DIRECTION.OUT,
+            "error on releasing the backup of database %s", e, iDatabaseName);
+      }
+    }
+  }
+
+  /**
+   * Updates the configuration and logs the clusters partitioned with a consistent hash that changed owners, like when a node joined
+   * or left the configuration. The new owners of a cluster that don't have its records are recorded as syncing and copy it from
+   * the current owners, that keep serving it in the meanwhile.
+   */
+  @Override
+  public void updateCachedDatabaseConfiguration(final String iDatabaseName, final ODocument cfg) {
+    final ODocument oldCfg;
+    synchronized (cachedDatabaseConfiguration) {
+      oldCfg = cachedDatabaseConfiguration.get(iDatabaseName);
+    }
+
+    super.updateCachedDatabaseConfiguration(iDatabaseName, cfg);
+
+    if (oldCfg != null && oldCfg != cfg)
+      checkMovedClusters(iDatabaseName, new ODistributedConfiguration(oldCfg), new ODistributedConfiguration(cfg));
+
+    updateClusterOwners(iDatabaseName, cfg);
+    startClusterSyncs(iDatabaseName);
+  }
+
+  /**
+   * Records the owners of the clusters the first time the database is online on a node, then starts copying the clusters assigned
+   * to the current node.
+   */
+  public void checkClusterOwners(final String iDatabaseName) {
+    updateClusterOwners(iDatabaseName, getDatabaseConfiguration(iDatabaseName).serialize());
+    startClusterSyncs(iDatabaseName);
+  }
+
+  /**
+   * Aligns the owners of the clusters partitioned with a consistent hash recorded in the configuration to the nodes assigned by the
+   * hash, publishing the configuration if it changed. Every node with the database does it, on the last version of the configuration
+   * in the cluster and holding its lock, so the nodes without the database that change the configuration don't need to.
+   */
+  protected void updateClusterOwners(final String iDatabaseName, final ODocument iCfg) {
+    if (hazelcastInstance == null || Orient.instance().getStorage(iDatabaseName) == null)
+      return;
+
+    // CHECK ON A COPY FIRST TO AVOID LOCKING ON EVERY CHANGE
+    if (!updateClusterOwners(iDatabaseName, new ODistributedConfiguration((ODocument) new ODocument().fromStream(iCfg.toStream()))))
+      return;
+
+    final String key = CONFIG_DATABASE_PREFIX + iDatabaseName;
+    final IMap<String, Object> configurationMap = getConfigurationMap();
+    ODocument cfg;
+    configurationMap.lock(key);
+    try {
+      cfg = (ODocument) configurationMap.get(key);
+      if (cfg != null && updateClusterOwners(iDatabaseName, new ODistributedConfiguration(cfg)))
+        configurationMap.put(key, cfg);
+      else
+        cfg = null;
+    } finally {
+      configurationMap.unlock(key);
+    }
+
+    // OUTSIDE THE LOCK: THE CALLER COULD HOLD THE CACHE OF THE CONFIGURATIONS
+    if (cfg != null)
+      updateCachedDatabaseConfiguration(iDatabaseName, cfg);
+  }
+
+  protected boolean updateClusterOwners(final String iDatabaseName, final ODistributedConfiguration iCfg) {
+    final OStorage storage = Orient.instance().getStorage(iDatabaseName);
+    if (storage == null)
+      return false;
+
+    boolean changed = false;
+    for (String clusterName : storage.getClusterNames()) {
+      final OConsistentHashPartitioningStrategy strategy = getConsistentHashStrategy(iCfg, clusterName);
+      if (strategy != null)
+        try {
+          changed |= strategy.updateOwners(iCfg, clusterName);
+        } catch (ODistributedException e) {
+          // NO NODES CONFIGURED FOR THE CLUSTER
+        }
+    }
+    return changed;
+  }
+
+  /**
+   * Starts copying the clusters the configuration lists the current node as syncing, if the database is online.
+   */
+  protected void startClusterSyncs(final String iDatabaseName) {
+    final OHazelcastDistributedDatabase distrDatabase = messageService != null ? messageService.getDatabase(iDatabaseName) : null;
+    final OStorage storage = Orient.instance().getStorage(iDatabaseName);
+    if (distrDatabase == null || !distrDatabase.isOnline() || storage == null)
+      return;
+
+    final ODistributedConfiguration cfg = getDatabaseConfiguration(iDatabaseName);
+    for (final String clusterName : storage.getClusterNames()) {
+      if (getConsistentHashStrategy(cfg, clusterName) == null || !cfg.getClusterSyncingNodes(clusterName).contains(getLocalNodeName()))
+        continue;
+
+      if (!syncingClusters.add(iDatabaseName + "." + clusterName))
+        // ALREADY RUNNING
+        continue;
+
+      new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            syncCluster(iDatabaseName, clusterName);
+          } finally {
+            syncingClusters.remove(iDatabaseName + "." + clusterName);
+          }
+        }
+      }, "OrientDB Cluster Sync " + iDatabaseName + "." + clusterName).start();
+    }
+  }
+
+  /**
+   * Copies the cluster from one of its owners and records the current node as owner. The copy starts after the timeout of the
+   * changes, so the ones sent to the owners before the cluster was moving have been applied. If no owner can send it, the cluster
+   * keeps moving until the next change of the configuration.
+   */
+  protected void syncCluster(final String iDatabaseName, final String iClusterName) {
+    try {
+      Thread.sleep(OGlobalConfiguration.DISTRIBUTED_CRUD_TASK_SYNCH_TIMEOUT.getValueAsLong());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return;
+    }
+
+    final ODistributedConfiguration cfg = getDatabaseConfiguration(iDatabaseName);
+    if (!cfg.getClusterSyncingNodes(iClusterName).contains(getLocalNodeName()))
+      return;
+
+    for (String owner : cfg.getClusterOwners(iClusterName)) {
+      if (owner.equals(getLocalNodeName()) || !isNodeAvailable(owner))
+        continue;
+
+      ODistributedServerLog.warn(this, getLocalNodeName(), owner, DIRECTION.IN, "copying cluster %s.%s...", iDatabaseName,
+          iClusterName);
+
+      File file = null;
+      try {
+        final Object result = sendRequest2Node(iDatabaseName, owner, new OCopyClusterTask(iClusterName), EXECUTION_MODE.RESPONSE);
+        if (!(result instanceof ODistributedDatabaseChunk)) {
+          ODistributedServerLog.warn(this, getLocalNodeName(), owner, DIRECTION.IN, "cannot copy cluster %s.%s: %s", iDatabaseName,
+              iClusterName, result);
+          continue;
+        }
+
+        file = File.createTempFile("orientdb-sync-" + iDatabaseName + "-" + iClusterName + "-", ".cluster");
+        receiveDatabase(iDatabaseName, owner, (ODistributedDatabaseChunk) result, file);
+
+        final long changed = messageService.getDatabase(iDatabaseName).installCluster(iClusterName, file);
+
+        ODistributedServerLog.warn(this, getLocalNodeName(), owner, DIRECTION.IN,
+            "copied cluster %s.%s changing %d records, the current node is one of its owners", iDatabaseName, iClusterName, changed);
+
+        addClusterOwner(iDatabaseName, iClusterName);
+        return;
+
+      } catch (Exception e) {
+        ODistributedServerLog.error(this, getLocalNodeName(), owner, DIRECTION.IN, "error on copying cluster %s.%s", e,
+            iDatabaseName, iClusterName);
+      } finally {
+        if (file != null)
+          file.delete();
+      }
+    }
+
+    ODistributedServerLog.error(this, getLocalNodeName(), null, DIRECTION.IN,
+        "no owner of cluster %s.%s can send it, its records can't be changed until the configuration changes", iDatabaseName,
+        iClusterName);
+  }
+
+  protected void addClusterOwner(final String iDatabaseName, final String iClusterName) {
+    final String key = CONFIG_DATABASE_PREFIX + iDatabaseName;
+    final IMap<String, Object> configurationMap = getConfigurationMap();
+    ODocument cfg;
+    configurationMap.lock(key);
+    try {
+      cfg = (ODocument) configurationMap.get(key);
+      if (cfg != null) {
+        final ODistributedConfiguration dCfg = new ODistributedConfiguration(cfg);
+        final OConsistentHashPartitioningStrategy strategy = getConsistentHashStrategy(dCfg, iClusterName);
+        if (strategy != null && strategy.addOwner(dCfg, iClusterName, getLocalNodeName()))
+          configurationMap.put(key, cfg);
+        else
+          cfg = null;
+      }
+    } finally {
+      configurationMap.unlock(key);
+    }
+
+    if (cfg != null)
+      updateCachedDatabaseConfiguration(iDatabaseName, cfg);
+  }
+
+  protected OConsistentHashPartitioningStrategy getConsistentHashStrategy(final ODistributedConfiguration iCfg,
+      final String iClusterName) {
+    if (iCfg.getPartitioningConfiguration(iClusterName) == null)
+      return null;
+
+    final ODistributedPartitioningStrategy strategy = getPartitioningStrategy(iCfg.getPartitionStrategy(iClusterName));
+    return strategy instanceof OConsistentHashPartitioningStrategy ? (OConsistentHashPartitioningStrategy) strategy : null;
+  }
+
+  protected void checkMovedClusters(final String iDatabaseName, final ODistributedConfiguration iOldCfg,
+      final ODistributedConfiguration iNewCfg) {
+    final OStorage storage = Orient.instance().getStorage(iDatabaseName);
+    if (storage == null)
+      return;
+
+    int moved = 0;
+    for (String clusterName : storage.getClusterNames()) {
+      if (iOldCfg.getPartitioningConfiguration(clusterName) == null)
+        continue;
+
+      final OConsistentHashPartitioningStrategy strategy = getConsistentHashStrategy(iNewCfg, clusterName);
+      if (strategy == null)
+        continue;
+
+      try {
+        final List<String> oldOwners = strategy.getRingOwners(iOldCfg, clusterName);
+        final List<String> newOwners = strategy.getRingOwners(iNewCfg, clusterName);
+        if (!oldOwners.equals(newOwners)) {
+          moved++;
+          ODistributedServerLog.info(this, getLocalNodeName(), null, DIRECTION.NONE,
+              "db=%s cluster %s moved from nodes %s to nodes %s", iDatabaseName, clusterName, oldOwners, newOwners);
+        }
+      } catch (ODistributedException e) {
+        // NO NODES CONFIGURED FOR THE CLUSTER
+      }
+    }
+
+    if (moved > 0)
+      Orient.instance().getProfiler()
+          .updateCounter("distributed.sharding." + iDatabaseName + ".movedClusters", "Number of clusters that changed owners", moved,
+              "distributed.sharding.*.movedClusters");
+  }
+
   @Override
   protected ODocument loadDatabaseConfiguration(final String iDatabaseName, final File file) {
     // FIRST LOOK IN THE CLUSTER
@@ -0,0 +1,208 @@
+/*
+ * Copyright 2010-2012 Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientechnologies.orient.server.hazelcast.sharding.strategy;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.orientechnologies.orient.server.distributed.ODistributedConfiguration;
+import com.orientechnologies.orient.server.distributed.ODistributedException;
+import com.orientechnologies.orient.server.distributed.ODistributedPartition;
+import com.orientechnologies.orient.server.distributed.ODistributedPartitioningStrategy;
+import com.orientechnologies.orient.server.distributed.ODistributedServerManager;
+
+/**
+ * Assigns every cluster to the nodes with a consistent hash. The nodes configured in the partitions of the cluster are placed on a
+ * ring, each one many times to balance the load, and the cluster is owned by the first "replicas" nodes that follow the hash of
+ * its name. When a node joins or leaves the configuration only the clusters next to its points on the ring change owners, all the
+ * others stay where they are.
+ * <p>
+ * Together with the "shardKey" custom attribute of a class, that spreads the new records among the clusters of the class, the
+ * records of a class are distributed on all the nodes and every node executes only the writes of the clusters it owns.
+ * <p>
+ * The nodes that have the data of every cluster are recorded in the configuration: when the hash assigns a cluster to a node that
+ * doesn't have it, the cluster keeps being served by the recorded owners, while the new node copies it. Once all the new nodes
+ * have copied it they become the owners.
+ *
+ * @author Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ */
+public class OConsistentHashPartitioningStrategy implements ODistributedPartitioningStrategy {
+  public static final String                         NAME          = "consistent-hash";
+  protected static final int                         VIRTUAL_NODES = 64;
+  protected final Map<String, TreeMap<Long, String>> rings         = new ConcurrentHashMap<String, TreeMap<Long, String>>();
+
+  @Override
+  public ODistributedPartition getPartition(final ODistributedServerManager iManager, final String iDatabaseName,
+      final String iClusterName) {
+    return iManager.newPartition(getOwners(iManager.getDatabaseConfiguration(iDatabaseName), iClusterName));
+  }
+
+  /**
+   * Returns the nodes that own the cluster: the ones recorded in the configuration if any, otherwise the ones assigned by the hash.
+   */
+  public List<String> getOwners(final ODistributedConfiguration iConfiguration, final String iClusterName) {
+    final List<String> owners = iConfiguration.getClusterOwners(iClusterName);
+    if (owners != null && !owners.isEmpty())
+      return owners;
+    return getRingOwners(iConfiguration, iClusterName);
+  }
+
+  /**
+   * Returns the nodes the hash assigns the cluster to. The first one is the node where the cluster would be if there was one
+   * replica.
+   */
+  public List<String> getRingOwners(final ODistributedConfiguration iConfiguration, final String iClusterName) {
+    final Collection<String> nodes = getConfiguredNodes(iConfiguration, iClusterName);
+    if (nodes.isEmpty())
+      throw new ODistributedException("No nodes configured for cluster '" + iClusterName + "'");
+
+    final int replicas = Math.min(iConfiguration.getReplicas(iClusterName), nodes.size());
+
+    final TreeMap<Long, String> ring = getRing(nodes);
+
+    // WALK THE RING CLOCKWISE FROM THE HASH OF THE CLUSTER COLLECTING DISTINCT NODES
+    final List<String> owners = new ArrayList<String>(replicas);
+    final SortedMap<Long, String> tail = ring.tailMap(hash(iClusterName));
+    for (String node : tail.values()) {
+      if (owners.size() >= replicas)
+        break;
+      if (!owners.contains(node))
+        owners.add(node);
+    }
+    for (String node : ring.values()) {
+      if (owners.size() >= replicas)
+        break;
+      if (!owners.contains(node))
+        owners.add(node);
+    }
+    return owners;
+  }
+
+  /**
+   * Returns the nodes assigned to the cluster by the hash that have not copied it yet.
+   */
+  public List<String> getNodesToSync(final ODistributedConfiguration iConfiguration, final String iClusterName) {
+    final List<String> owners = iConfiguration.getClusterOwners(iClusterName);
+    if (owners == null)
+      return Collections.emptyList();
+
+    final List<String> nodes = new ArrayList<String>(getRingOwners(iConfiguration, iClusterName));
+    nodes.removeAll(owners);
+    return nodes;
+  }
+
+  /**
+   * Aligns the owners recorded in the configuration to the nodes assigned by the hash. The first time the assigned nodes are
+   * recorded as they are. Then, while some assigned node has not copied the cluster, it's listed among the syncing nodes and the
+   * recorded owners don't change, otherwise the assigned nodes become the owners. Returns true if the configuration changed.
+   */
+  public boolean updateOwners(final ODistributedConfiguration iConfiguration, final String iClusterName) {
+    final List<String> ringOwners = getRingOwners(iConfiguration, iClusterName);
+    final List<String> owners = iConfiguration.getClusterOwners(iClusterName);
+
+    if (owners == null) {
+      iConfiguration.setClusterOwners(iClusterName, ringOwners, Collections.<String> emptyList());
+      return true;
+    }
+
+    final List<String> syncing = getNodesToSync(iConfiguration, iClusterName);
+    if (syncing.isEmpty()) {
+      if (owners.equals(ringOwners) && !iConfiguration.isClusterMoving(iClusterName))
+        return false;
+      // ALL THE ASSIGNED NODES HAVE THE DATA
+      iConfiguration.setClusterOwners(iClusterName, ringOwners, Collections.<String> emptyList());
+      return true;
+    }
+
+    if (new HashSet<String>(syncing).equals(new HashSet<String>(iConfiguration.getClusterSyncingNodes(iClusterName))))
+      return false;
+
+    iConfiguration.setClusterOwners(iClusterName, owners, syncing);
+    return true;
+  }
+
+  /**
+   * Records that the node has copied the cluster, so it's one of its owners. Returns true if the configuration changed.
+   */
+  public boolean addOwner(final ODistributedConfiguration iConfiguration, final String iClusterName, final String iNode) {
+    final List<String> owners = iConfiguration.getClusterOwners(iClusterName);
+    if (owners == null || owners.contains(iNode))
+      return updateOwners(iConfiguration, iClusterName);
+
+    final List<String> newOwners = new ArrayList<String>(owners);
+    newOwners.add(iNode);
+    iConfiguration.setClusterOwners(iClusterName, newOwners, iConfiguration.getClusterSyncingNodes(iClusterName));
+    updateOwners(iConfiguration, iClusterName);
+    return true;
+  }
+
+  /**
+   * Returns the nodes configured in all the partitions of the cluster, sorted by name.
+   */
+  protected Collection<String> getConfiguredNodes(final ODistributedConfiguration iConfiguration, final String iClusterName) {
+    final TreeSet<String> nodes = new TreeSet<String>();
+    final List<List<String>> partitions = iConfiguration.getPartitions(iClusterName);
+    if (partitions != null)
+      for (List<String> partition : partitions)
+        for (String node : partition)
+          if (!node.equalsIgnoreCase(ODistributedConfiguration.NEW_NODE_TAG))
+            nodes.add(node);
+    return nodes;
+  }
+
+  protected TreeMap<Long, String> getRing(final Collection<String> iNodes) {
+    final String key = iNodes.toString();
+
+    TreeMap<Long, String> ring = rings.get(key);
+    if (ring == null) {
+      ring = new TreeMap<Long, String>();
+      for (String node : iNodes)
+        for (int i = 0; i < VIRTUAL_NODES; ++i)
+          ring.put(hash(node + "#" + i), node);
+      rings.put(key, ring);
+    }
+    return ring;
+  }
+
+  /**
+   * Hash independent by the JVM, so all the nodes compute the same ring.
+   */
+  protected static long hash(final String iValue) {
+    try {
+      final byte[] digest = MessageDigest.getInstance("MD5").digest(iValue.getBytes("UTF-8"));
+      long h = 0;
+      for (int i = 0; i < 8; ++i)
+        h = (h << 8) | (digest[i] & 0xff);
+      return h;
+    } catch (NoSuchAlgorithmException e) {
+      throw new ODistributedException("Cannot compute the hash of " + iValue, e);
+    } catch (UnsupportedEncodingException e) {
+      throw new ODistributedException("Cannot compute the hash of " + iValue, e);
+    }
+  }
+}
@@ -0,0 +1,257 @@
+/*
+ * Copyright 2010-2012 Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientechnologies.orient.server.hazelcast;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import com.orientechnologies.orient.core.id.OClusterPositionFactory;
+import com.orientechnologies.orient.core.id.ORecordId;
+import com.orientechnologies.orient.core.metadata.schema.OClass;
+import com.orientechnologies.orient.core.metadata.schema.OSchema;
+import com.orientechnologies.orient.core.metadata.schema.OType;
+import com.orientechnologies.orient.server.distributed.ODistributedRequest;
+import com.orientechnologies.orient.server.distributed.ODistributedRequest.EXECUTION_MODE;
+import com.orientechnologies.orient.server.distributed.ODistributedResponse;
+import com.orientechnologies.orient.server.distributed.task.OAbstractRemoteTask;
+import com.orientechnologies.orient.server.distributed.task.OReadRecordTask;
+import com.orientechnologies.orient.server.distributed.task.OTxTask;
+
+/**
+ * Checks that the lanes execute the requests of the same cluster in order, the ones of different clusters in parallel, and that
+ * the journal and the responses follow the order of the requests.
+ *
+ * @author Luca Garulli (l.garulli--at--orientechnologies.com)
+ */
+@Test
+public class OHazelcastDistributedLanesTest {
+  private static final int             LANES = 4;
+
+  private OHazelcastDistributedDatabase distributedDatabase;
+  private OHazelcastDistributedLanes    lanes;
+  private final Map<Integer, List<Long>> executed  = new HashMap<Integer, List<Long>>();
+  private final List<Long>               journaled = Collections.synchronizedList(new ArrayList<Long>());
+  private final List<Long>               serial    = Collections.synchronizedList(new ArrayList<Long>());
+  private volatile Answer<Object>        onExecute;
+
+  @BeforeMethod
+  public void createLanes() {
+    executed.clear();
+    journaled.clear();
+    serial.clear();
+    onExecute = null;
+
+    distributedDatabase = Mockito.mock(OHazelcastDistributedDatabase.class);
+    Mockito.doAnswer(new Answer<ODistributedResponse>() {
+      public ODistributedResponse answer(final InvocationOnMock invocation) throws Throwable {
+        final ODistributedRequest request = (ODistributedRequest) invocation.getArguments()[0];
+        if (onExecute != null)
+          onExecute.answer(invocation);
+
+        synchronized (executed) {
+          List<Long> lsns = executed.get(request.getTask().getClusterId());
+          if (lsns == null) {
+            lsns = new ArrayList<Long>();
+            executed.put(request.getTask().getClusterId(), lsns);
+          }
+          lsns.add(request.getLSN());
+        }
+        return response(request);
+      }
+    }).when(distributedDatabase).execute(Mockito.any(ODistributedRequest.class), Mockito.any(ODatabaseDocumentTx.class));
+
+    Mockito.doAnswer(new Answer<ODistributedResponse>() {
+      public ODistributedResponse answer(final InvocationOnMock invocation) throws Throwable {
+        final ODistributedRequest request = (ODistributedRequest) invocation.getArguments()[0];
+        serial.add(request.getLSN());
+        return response(request);
+      }
+    }).when(distributedDatabase).onMessage(Mockito.any(ODistributedRequest.class));
+
+    Mockito.doAnswer(new Answer<Object>() {
+      public Object answer(final InvocationOnMock invocation) throws Throwable {
+        journaled.add(((ODistributedRequest) invocation.getArguments()[0]).getLSN());
+        return null;
+      }
+    }).when(distributedDatabase).appendToJournal(Mockito.any(ODistributedRequest.class));
+
+    lanes = new OHazelcastDistributedLanes(distributedDatabase, "test", LANES);
+  }
+
+  @AfterMethod
+  public void shutdownLanes() {
+    lanes.shutdown();
+  }
+
+  public void testSameClusterInOrder() throws Exception {
+    // SOME REQUESTS ARE SLOWER: THE LANES OF THE OTHER CLUSTERS GO AHEAD
+    onExecute = new Answer<Object>() {
+      public Object answer(final InvocationOnMock invocation) throws Throwable {
+        final long lsn = ((ODistributedRequest) invocation.getArguments()[0]).getLSN();
+        if (lsn % 7 == 0)
+          Thread.sleep(5);
+        return null;
+      }
+    };
+
+    final List<ODistributedResponse> responses = new ArrayList<ODistributedResponse>();
+    for (long lsn = 1; lsn <= 200; ++lsn)
+      lanes.submit(request(lsn, 5 + (int) (lsn % 3)), false, responses);
+    lanes.flush(responses);
+
+    for (int clusterId = 5; clusterId < 8; ++clusterId) {
+      final List<Long> lsns = executed.get(clusterId);
+      Assert.assertEquals(lsns.size(), clusterId == 5 ? 66 : 67);
+      for (int i = 1; i < lsns.size(); ++i)
+        Assert.assertTrue(lsns.get(i - 1) < lsns.get(i), "cluster " + clusterId + " executed out of order: " + lsns);
+    }
+
+    // THE JOURNAL AND THE RESPONSES FOLLOW THE ORDER OF THE REQUESTS, NOT THE ONE OF COMPLETION
+    Assert.assertEquals(journaled, sequence(1, 200));
+    Assert.assertEquals(payloads(responses), sequence(1, 200));
+    Assert.assertTrue(serial.isEmpty());
+  }
+
+  public void testDifferentClustersInParallel() throws Exception {
+    // THE REQUEST OF CLUSTER 5 CAN COMPLETE ONLY IF THE ONE OF CLUSTER 6 IS EXECUTED MEANWHILE
+    final CountDownLatch other = new CountDownLatch(1);
+    final boolean[] parallel = new boolean[1];
+    onExecute = new Answer<Object>() {
+      public Object answer(final InvocationOnMock invocation) throws Throwable {
+        if (((ODistributedRequest) invocation.getArguments()[0]).getTask().getClusterId() == 5)
+          parallel[0] = other.await(10, TimeUnit.SECONDS);
+        else
+          other.countDown();
+        return null;
+      }
+    };
+
+    final List<ODistributedResponse> responses = new ArrayList<ODistributedResponse>();
+    lanes.submit(request(1, 5), false, responses);
+    lanes.submit(request(2, 6), false, responses);
+    lanes.flush(responses);
+
+    Assert.assertTrue(parallel[0], "the clusters have been executed one after the other");
+    Assert.assertEquals(payloads(responses), sequence(1, 2));
+  }
+
+  public void testMoreClustersExecutedAlone() throws Exception {
+    onExecute = new Answer<Object>() {
+      public Object answer(final InvocationOnMock invocation) throws Throwable {
+        Thread.sleep(50);
+        return null;
+      }
+    };
+
+    final List<ODistributedResponse> responses = new ArrayList<ODistributedResponse>();
+    lanes.submit(request(1, 5), false, responses);
+    lanes.submit(request(2, 6), false, responses);
+
+    // A TRANSACTION AGAINST MORE CLUSTERS WAITS FOR THE LANES
+    final ODistributedRequest tx = new OHazelcastDistributedRequest("node1", "test", null, new OTxTask(), EXECUTION_MODE.RESPONSE)
+        .setLSN(3);
+    lanes.submit(tx, false, responses);
+    Assert.assertEquals(journaled, sequence(1, 2));
+    Assert.assertEquals(serial, sequence(3, 3));
+
+    lanes.submit(request(4, 5), true, responses);
+    lanes.flush(responses);
+
+    Assert.assertEquals(executed.get(5), sequence(1, 1));
+    Assert.assertEquals(executed.get(6), sequence(2, 2));
+    // THE LAST OF THE BATCH WITH NOTHING IN PROGRESS IS EXECUTED BY THE CALLER
+    Assert.assertEquals(serial, Arrays.asList(3L, 4L));
+    Assert.assertEquals(payloads(responses), sequence(1, 4));
+  }
+
+  public void testFailedRequestNotJournaled() throws Exception {
+    onExecute = new Answer<Object>() {
+      public Object answer(final InvocationOnMock invocation) throws Throwable {
+        if (((ODistributedRequest) invocation.getArguments()[0]).getLSN() == 2)
+          throw new IllegalStateException("cannot open the database");
+        return null;
+      }
+    };
+
+    final List<ODistributedResponse> responses = new ArrayList<ODistributedResponse>();
+    for (long lsn = 1; lsn <= 3; ++lsn)
+      lanes.submit(request(lsn, 5), false, responses);
+    lanes.flush(responses);
+
+    Assert.assertEquals(journaled, Arrays.asList(1L, 3L));
+    Assert.assertEquals(responses.size(), 3);
+    Assert.assertTrue(responses.get(1).getPayload() instanceof IllegalStateException);
+    Assert.assertEquals(responses.get(2).getPayload(), 3L);
+  }
+
+  public void testUniqueIndexSharesTheLane() {
+    final ODatabaseDocumentTx db = new ODatabaseDocumentTx("memory:" + getClass().getSimpleName()).create();
+    try {
+      final OSchema schema = db.getMetadata().getSchema();
+      final OClass account = schema.createClass("Account");
+      account.createProperty("email", OType.STRING).createIndex(OClass.INDEX_TYPE.UNIQUE);
+      final OClass customer = schema.createClass("Customer", account);
+      final OClass order = schema.createClass("Order");
+
+      Mockito.when(distributedDatabase.getDatabase()).thenReturn(db);
+
+      // THE ORDER OF THE CHANGES TO THE SUBCLASS DECIDES WHICH ONE FAILS ON THE KEY OF THE SUPERCLASS
+      Assert.assertEquals(lanes.getLaneKey(customer.getDefaultClusterId()), account.getDefaultClusterId());
+      Assert.assertEquals(lanes.getLaneKey(account.getDefaultClusterId()), account.getDefaultClusterId());
+      Assert.assertEquals(lanes.getLaneKey(order.getDefaultClusterId()), order.getDefaultClusterId());
+    } finally {
+      db.drop();
+    }
+  }
+
+  private static ODistributedRequest request(final long iLSN, final int iClusterId) {
+    final OAbstractRemoteTask task = new OReadRecordTask(new ORecordId(iClusterId, OClusterPositionFactory.INSTANCE.valueOf(iLSN)));
+    return new OHazelcastDistributedRequest("node1", "test", null, task, EXECUTION_MODE.RESPONSE).setLSN(iLSN);
+  }
+
+  private static ODistributedResponse response(final ODistributedRequest iRequest) {
+    return new OHazelcastDistributedResponse(iRequest.getId(), "node0", iRequest.getSenderNodeName(), iRequest.getLSN());
+  }
+
+  private static List<Long> payloads(final List<ODistributedResponse> iResponses) {
+    final List<Long> payloads = new ArrayList<Long>();
+    for (ODistributedResponse response : iResponses)
+      payloads.add((Long) response.getPayload());
+    return payloads;
+  }
+
+  private static List<Long> sequence(final long iFrom, final long iTo) {
+    final List<Long> sequence = new ArrayList<Long>();
+    for (long i = iFrom; i <= iTo; ++i)
+      sequence.add(i);
+    return sequence;
+  }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2010-2012 Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientechnologies.orient.server.hazelcast;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.orientechnologies.orient.server.distributed.ODistributedDatabaseChunk;
+import com.orientechnologies.orient.server.distributed.ODistributedException;
+import com.orientechnologies.orient.server.distributed.ODistributedRequest.EXECUTION_MODE;
+import com.orientechnologies.orient.server.distributed.task.OAbstractRemoteTask;
+import com.orientechnologies.orient.server.distributed.task.OCopyDatabaseChunkTask;
+import com.orientechnologies.orient.server.distributed.task.ODeployDatabaseTask;
+
+/**
+ * Checks that a database deployed in chunks is written whole and in order by the receiving node, asking again the chunks that are
+ * lost, corrupted or out of order, and that the backup is released on the deploying node at the end.
+ *
+ * @author Luca Garulli (l.garulli--at--orientechnologies.com)
+ */
+@Test
+public class OHazelcastPluginReceiveDatabaseTest {
+  private static final int   SIZE = ODeployDatabaseTask.CHUNK_MAX_SIZE * 2 + 1000;
+
+  private File               backup;
+  private File               received;
+  private byte[]             content;
+  private OChunkSourcePlugin plugin;
+
+  /**
+   * Answers the chunk requests executing the tasks as the deploying node would, after applying the failures in the queue.
+   */
+  private static class OChunkSourcePlugin extends OHazelcastPlugin {
+    private final LinkedList<String> failures  = new LinkedList<String>();
+    private final List<Long>         requested = new ArrayList<Long>();
+    private boolean                  released;
+
+    @Override
+    public Object sendRequest2Node(final String iDatabaseName, final String iTargetNodeName, final OAbstractRemoteTask iTask,
+        final EXECUTION_MODE iExecutionMode) {
+      Assert.assertFalse(released, "request after the release");
+
+      final Object result = execute(iTask);
+      if (!(result instanceof ODistributedDatabaseChunk)) {
+        Assert.assertEquals(iExecutionMode, EXECUTION_MODE.NO_RESPONSE);
+        released = true;
+        return result;
+      }
+
+      final ODistributedDatabaseChunk chunk = (ODistributedDatabaseChunk) result;
+      requested.add(chunk.offset);
+
+      final String failure = failures.poll();
+      if (failure == null)
+        return chunk;
+      else if (failure.equals("lost"))
+        return null;
+      else if (failure.equals("error"))
+        throw new ODistributedException("Timeout on receiving the response");
+      else if (failure.equals("corrupted")) {
+        chunk.buffer[10] ^= 1;
+        return chunk;
+      } else
+        // OUT OF ORDER: THE FIRST CHUNK AGAIN
+        return execute(new OCopyDatabaseChunkTask(chunk.fileName, 0, ODeployDatabaseTask.CHUNK_MAX_SIZE));
+    }
+
+    private Object execute(final OAbstractRemoteTask iTask) {
+      try {
+        return iTask.execute(null, this, null);
+      } catch (Exception e) {
+        throw new ODistributedException("Error on executing " + iTask, e);
+      }
+    }
+  }
+
+  @BeforeMethod
+  public void createBackup() throws IOException {
+    content = new byte[SIZE];
+    new Random(SIZE).nextBytes(content);
+
+    backup = File.createTempFile("orientdb-deploy-test-", ".zip");
+    final FileOutputStream out = new FileOutputStream(backup);
+    try {
+      out.write(content);
+    } finally {
+      out.close();
+    }
+
+    received = File.createTempFile("orientdb-install-test-", ".zip");
+    plugin = new OChunkSourcePlugin();
+  }
+
+  @AfterMethod
+  public void deleteFiles() {
+    backup.delete();
+    received.delete();
+  }
+
+  public void testReassembly() throws IOException {
+    plugin.receiveDatabase("test", "node1", firstChunk(), received);
+
+    Assert.assertEquals(readFile(received), content);
+    Assert.assertEquals(plugin.requested,
+        Arrays.asList((long) ODeployDatabaseTask.CHUNK_MAX_SIZE, (long) ODeployDatabaseTask.CHUNK_MAX_SIZE * 2));
+    Assert.assertTrue(plugin.released);
+    Assert.assertFalse(backup.exists(), "backup not released");
+  }
+
+  public void testFailedChunksAskedAgain() throws IOException {
+    // THE SECOND CHUNK FAILS UP TO THE MAXIMUM OF RETRIES, THE THIRD ARRIVES OUT OF ORDER AND THEN CORRUPTED
+    plugin.failures.addAll(Arrays.asList("corrupted", "lost", "error", null, "wrong-offset", "corrupted"));
+    plugin.receiveDatabase("test", "node1", firstChunk(), received);
+
+    Assert.assertEquals(readFile(received), content);
+    final Long second = (long) ODeployDatabaseTask.CHUNK_MAX_SIZE;
+    final Long third = (long) ODeployDatabaseTask.CHUNK_MAX_SIZE * 2;
+    Assert.assertEquals(plugin.requested, Arrays.asList(second, second, second, second, third, third, third));
+    Assert.assertTrue(plugin.released);
+  }
+
+  public void testTooManyFailures() throws IOException {
+    for (int i = 0; i <= OHazelcastPlugin.DEPLOY_CHUNK_MAX_RETRY; ++i)
+      plugin.failures.add("lost");
+
+    try {
+      plugin.receiveDatabase("test", "node1", firstChunk(), received);
+      Assert.fail("database received without a chunk");
+    } catch (ODistributedException e) {
+    }
+
+    Assert.assertEquals(received.length(), ODeployDatabaseTask.CHUNK_MAX_SIZE);
+    // RELEASED ANYWAY: THE RECEIVER WILL ASK A NEW DEPLOYMENT
+    Assert.assertTrue(plugin.released);
+  }
+
+  private ODistributedDatabaseChunk firstChunk() throws IOException {
+    return new ODistributedDatabaseChunk(backup, 0, ODeployDatabaseTask.CHUNK_MAX_SIZE);
+  }
+
+  private static byte[] readFile(final File iFile) throws IOException {
+    final RandomAccessFile f = new RandomAccessFile(iFile, "r");
+    try {
+      final byte[] buffer = new byte[(int) f.length()];
+      f.readFully(buffer);
+      return buffer;
+    } finally {
+      f.close();
+    }
+  }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright 2010-2012 Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientechnologies.orient.server.hazelcast.sharding.strategy;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.server.distributed.ODistributedConfiguration;
+import com.orientechnologies.orient.server.distributed.ODistributedException;
+
+/**
+ * @author Luca Garulli (l.garulli--at--orientechnologies.com)
+ */
+@Test
+public class OConsistentHashPartitioningStrategyTest {
+  private static final int                          CLUSTERS = 100;
+  private final OConsistentHashPartitioningStrategy strategy = new OConsistentHashPartitioningStrategy();
+
+  public void testRingOwners() {
+    final ODistributedConfiguration cfg = createConfiguration(2, "node0", "node1", "node2", ODistributedConfiguration.NEW_NODE_TAG);
+
+    final Set<String> primaries = new HashSet<String>();
+    for (int i = 0; i < CLUSTERS; ++i) {
+      final List<String> owners = strategy.getRingOwners(cfg, "cluster" + i);
+      Assert.assertEquals(owners.size(), 2);
+      Assert.assertFalse(owners.get(0).equals(owners.get(1)));
+      Assert.assertTrue(Arrays.asList("node0", "node1", "node2").containsAll(owners));
+
+      // THE SAME RESULT ON EVERY CALL AND WITH A NEW INSTANCE, AS ON ANOTHER NODE
+      Assert.assertEquals(strategy.getRingOwners(cfg, "cluster" + i), owners);
+      Assert.assertEquals(new OConsistentHashPartitioningStrategy().getRingOwners(cfg, "cluster" + i), owners);
+
+      primaries.add(owners.get(0));
+    }
+
+    // THE CLUSTERS ARE SPREAD ON ALL THE NODES
+    Assert.assertEquals(primaries.size(), 3);
+  }
+
+  public void testReplicasMoreThanNodes() {
+    final ODistributedConfiguration cfg = createConfiguration(5, "node0", "node1");
+    Assert.assertEquals(new HashSet<String>(strategy.getRingOwners(cfg, "cluster")),
+        new HashSet<String>(Arrays.asList("node0", "node1")));
+  }
+
+  @Test(expectedExceptions = ODistributedException.class)
+  public void testNoNodes() {
+    strategy.getRingOwners(createConfiguration(2, ODistributedConfiguration.NEW_NODE_TAG), "cluster");
+  }
+
+  public void testNewNodeMovesOnlyItsClusters() {
+    final ODistributedConfiguration before = createConfiguration(2, "node0", "node1", "node2");
+    final ODistributedConfiguration after = createConfiguration(2, "node0", "node1", "node2", "node3");
+
+    int moved = 0;
+    for (int i = 0; i < CLUSTERS; ++i) {
+      final List<String> oldOwners = strategy.getRingOwners(before, "cluster" + i);
+      final List<String> newOwners = strategy.getRingOwners(after, "cluster" + i);
+
+      // THE CLUSTERS CHANGE OWNERS ONLY TO GO TO THE NEW NODE
+      final List<String> lost = new ArrayList<String>(oldOwners);
+      lost.removeAll(newOwners);
+      if (!lost.isEmpty()) {
+        Assert.assertTrue(newOwners.contains("node3"));
+        Assert.assertEquals(lost.size(), 1);
+        ++moved;
+      }
+    }
+    Assert.assertTrue(moved > 0 && moved < CLUSTERS, "moved " + moved);
+  }
+
+  public void testUpdateOwners() {
+    final ODistributedConfiguration cfg = createConfiguration(2, "node0", "node1", "node2");
+
+    // NOT RECORDED YET: THE HASH DECIDES
+    Assert.assertNull(cfg.getClusterOwners("cluster0"));
+    Assert.assertEquals(strategy.getOwners(cfg, "cluster0"), strategy.getRingOwners(cfg, "cluster0"));
+    Assert.assertTrue(strategy.getNodesToSync(cfg, "cluster0").isEmpty());
+
+    for (int i = 0; i < CLUSTERS; ++i) {
+      Assert.assertTrue(strategy.updateOwners(cfg, "cluster" + i));
+      Assert.assertEquals(cfg.getClusterOwners("cluster" + i), strategy.getRingOwners(cfg, "cluster" + i));
+      Assert.assertFalse(cfg.isClusterMoving("cluster" + i));
+      Assert.assertFalse(strategy.updateOwners(cfg, "cluster" + i));
+    }
+
+    // A NEW NODE JOINS: THE RECORDED OWNERS ARE KEPT
+    cfg.addNodeInPartition("*", 0, "node3");
+
+    final String cluster = findMovingCluster(cfg);
+    final List<String> owners = new ArrayList<String>(cfg.getClusterOwners(cluster));
+    Assert.assertEquals(strategy.getNodesToSync(cfg, cluster), Arrays.asList("node3"));
+
+    Assert.assertTrue(strategy.updateOwners(cfg, cluster));
+    Assert.assertEquals(cfg.getClusterOwners(cluster), owners);
+    Assert.assertEquals(cfg.getClusterSyncingNodes(cluster), Arrays.asList("node3"));
+    Assert.assertTrue(cfg.isClusterMoving(cluster));
+    Assert.assertEquals(strategy.getOwners(cfg, cluster), owners);
+    Assert.assertFalse(strategy.updateOwners(cfg, cluster));
+
+    // THE NEW NODE HAS COPIED THE CLUSTER: IT BECOMES AN OWNER IN PLACE OF THE OLD ONE
+    Assert.assertTrue(strategy.addOwner(cfg, cluster, "node3"));
+    Assert.assertEquals(cfg.getClusterOwners(cluster), strategy.getRingOwners(cfg, cluster));
+    Assert.assertTrue(cfg.getClusterOwners(cluster).contains("node3"));
+    Assert.assertFalse(cfg.isClusterMoving(cluster));
+    Assert.assertTrue(strategy.getNodesToSync(cfg, cluster).isEmpty());
+
+    Assert.assertFalse(strategy.addOwner(cfg, cluster, "node3"));
+  }
+
+  public void testAddOwnerBeforeAllNodesSynced() {
+    final ODistributedConfiguration cfg = createConfiguration(3, "node0", "node1", "node2");
+    for (int i = 0; i < CLUSTERS; ++i)
+      strategy.updateOwners(cfg, "cluster" + i);
+
+    // MANY NEW NODES: THE OWNERS CHANGE ONLY WHEN ALL THE ASSIGNED ONES HAVE COPIED THE CLUSTER
+    for (int i = 3; i < 9; ++i)
+      cfg.addNodeInPartition("*", 0, "node" + i);
+
+    String cluster = null;
+    for (int i = 0; i < CLUSTERS && cluster == null; ++i)
+      if (strategy.getNodesToSync(cfg, "cluster" + i).size() > 1)
+        cluster = "cluster" + i;
+    Assert.assertNotNull(cluster, "No cluster assigned to more new nodes");
+
+    final List<String> toSync = strategy.getNodesToSync(cfg, cluster);
+    final List<String> owners = new ArrayList<String>(cfg.getClusterOwners(cluster));
+    strategy.updateOwners(cfg, cluster);
+
+    Assert.assertTrue(strategy.addOwner(cfg, cluster, toSync.get(0)));
+    Assert.assertTrue(cfg.getClusterOwners(cluster).containsAll(owners));
+    Assert.assertTrue(cfg.getClusterOwners(cluster).contains(toSync.get(0)));
+    Assert.assertTrue(cfg.isClusterMoving(cluster));
+    Assert.assertEquals(strategy.getNodesToSync(cfg, cluster), toSync.subList(1, toSync.size()));
+
+    for (String node : toSync.subList(1, toSync.size()))
+      strategy.addOwner(cfg, cluster, node);
+
+    Assert.assertEquals(cfg.getClusterOwners(cluster), strategy.getRingOwners(cfg, cluster));
+    Assert.assertFalse(cfg.isClusterMoving(cluster));
+  }
+
+  private String findMovingCluster(final ODistributedConfiguration iConfiguration) {
+    for (int i = 0; i < CLUSTERS; ++i)
+      if (!strategy.getNodesToSync(iConfiguration, "cluster" + i).isEmpty())
+        return "cluster" + i;
+    throw new AssertionError("No cluster assigned to the new node");
+  }
+
+  private static ODistributedConfiguration createConfiguration(final int iReplicas, final String... iNodes) {
+    final List<String> partition = new ArrayList<String>(Arrays.asList(iNodes));
+    final List<List<String>> partitions = new ArrayList<List<String>>();
+    partitions.add(partition);
+
+    final ODocument partitioning = new ODocument().field("strategy", OConsistentHashPartitioningStrategy.NAME)
+        .field("replicas", iReplicas).field("partitions", partitions);
+    final ODocument clusters = new ODocument().field("*", new ODocument().field("partitioning", partitioning));
+    return new ODistributedConfiguration(new ODocument().field("clusters", clusters));
+  }
+}
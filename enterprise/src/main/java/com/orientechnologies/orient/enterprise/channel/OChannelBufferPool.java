@@ -0,0 +1,81 @@
+/*
+ * Copyright 2010-2013 Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientechnologies.orient.enterprise.channel;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of the buffers used by the channels while they are reading or writing. Connections served by selectors borrow the buffers
+ * only while they execute requests, so thousands of idle connections don't keep their buffers in memory.
+ *
+ * @author Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ */
+public class OChannelBufferPool {
+  private static final int                                        MAX_POOLED = 256;
+  private static final ConcurrentMap<Integer, OChannelBufferPool> pools      = new ConcurrentHashMap<Integer, OChannelBufferPool>();
+
+  private final int                                               bufferSize;
+  private final Queue<byte[]>                                     buffers    = new ConcurrentLinkedQueue<byte[]>();
+  private final AtomicInteger                                     pooled     = new AtomicInteger();
+
+  protected OChannelBufferPool(final int iBufferSize) {
+    bufferSize = iBufferSize;
+  }
+
+  /**
+   * Returns the shared pool of buffers of the requested size.
+   */
+  public static OChannelBufferPool getInstance(final int iBufferSize) {
+    OChannelBufferPool pool = pools.get(iBufferSize);
+    if (pool == null) {
+      pool = new OChannelBufferPool(iBufferSize);
+      final OChannelBufferPool prev = pools.putIfAbsent(iBufferSize, pool);
+      if (prev != null)
+        pool = prev;
+    }
+    return pool;
+  }
+
+  public byte[] acquire() {
+    final byte[] buffer = buffers.poll();
+    if (buffer == null)
+      return new byte[bufferSize];
+
+    pooled.decrementAndGet();
+    return buffer;
+  }
+
+  public void release(final byte[] iBuffer) {
+    if (iBuffer.length != bufferSize)
+      return;
+
+    if (pooled.incrementAndGet() > MAX_POOLED) {
+      // TOO MANY FREE BUFFERS: LET THE GC COLLECT IT
+      pooled.decrementAndGet();
+      return;
+    }
+    buffers.offer(iBuffer);
+  }
+
+  public int getBufferSize() {
+    return bufferSize;
+  }
+}
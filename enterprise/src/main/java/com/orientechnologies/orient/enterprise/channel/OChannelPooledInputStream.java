@@ -0,0 +1,107 @@
+/*
+ * Copyright 2010-2013 Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientechnologies.orient.enterprise.channel;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Buffered input stream that takes its buffer from a pool when it has to read and gives it back on {@link #release()} once all
+ * the buffered bytes have been consumed.
+ *
+ * @author Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ */
+public class OChannelPooledInputStream extends InputStream {
+  private final InputStream        in;
+  private final OChannelBufferPool pool;
+  private byte[]                   buffer;
+  private int                      position;
+  private int                      count;
+
+  public OChannelPooledInputStream(final InputStream iIn, final OChannelBufferPool iPool) {
+    in = iIn;
+    pool = iPool;
+  }
+
+  @Override
+  public int read() throws IOException {
+    if (position >= count && !fill())
+      return -1;
+    return buffer[position++] & 0xff;
+  }
+
+  @Override
+  public int read(final byte[] iBuffer, final int iOffset, final int iLength) throws IOException {
+    if (iLength == 0)
+      return 0;
+
+    if (position >= count) {
+      if (iLength >= pool.getBufferSize())
+        // BIG READ: AVOID THE COPY
+        return in.read(iBuffer, iOffset, iLength);
+
+      if (!fill())
+        return -1;
+    }
+
+    final int read = Math.min(iLength, count - position);
+    System.arraycopy(buffer, position, iBuffer, iOffset, read);
+    position += read;
+    return read;
+  }
+
+  @Override
+  public int available() throws IOException {
+    return count - position + in.available();
+  }
+
+  /**
+   * Gives the buffer back to the pool if all its bytes have been read.
+   */
+  public void release() {
+    if (buffer != null && position >= count) {
+      pool.release(buffer);
+      buffer = null;
+      position = 0;
+      count = 0;
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    // THE BUFFER COULD BE IN USE BY ANOTHER THREAD: DON'T PUT IT BACK IN THE POOL
+    buffer = null;
+    position = 0;
+    count = 0;
+    in.close();
+  }
+
+  private boolean fill() throws IOException {
+    if (buffer == null)
+      buffer = pool.acquire();
+
+    position = 0;
+    count = 0;
+
+    final int read = in.read(buffer, 0, buffer.length);
+    if (read <= 0)
+      return false;
+
+    count = read;
+    return true;
+  }
+}
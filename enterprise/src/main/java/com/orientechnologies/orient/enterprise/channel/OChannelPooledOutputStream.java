@@ -0,0 +1,91 @@
+/*
+ * Copyright 2010-2013 Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientechnologies.orient.enterprise.channel;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Buffered output stream that takes its buffer from a pool at the first write and gives it back at every flush.
+ *
+ * @author Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ */
+public class OChannelPooledOutputStream extends OutputStream {
+  private final OutputStream       out;
+  private final OChannelBufferPool pool;
+  private byte[]                   buffer;
+  private int                      count;
+
+  public OChannelPooledOutputStream(final OutputStream iOut, final OChannelBufferPool iPool) {
+    out = iOut;
+    pool = iPool;
+  }
+
+  @Override
+  public void write(final int iByte) throws IOException {
+    if (buffer == null)
+      buffer = pool.acquire();
+    else if (count >= buffer.length)
+      flushBuffer();
+
+    buffer[count++] = (byte) iByte;
+  }
+
+  @Override
+  public void write(final byte[] iBuffer, final int iOffset, final int iLength) throws IOException {
+    if (iLength >= pool.getBufferSize()) {
+      // BIG WRITE: AVOID THE COPY
+      flushBuffer();
+      out.write(iBuffer, iOffset, iLength);
+      return;
+    }
+
+    if (buffer == null)
+      buffer = pool.acquire();
+    else if (iLength > buffer.length - count)
+      flushBuffer();
+
+    System.arraycopy(iBuffer, iOffset, buffer, count, iLength);
+    count += iLength;
+  }
+
+  @Override
+  public void flush() throws IOException {
+    flushBuffer();
+    out.flush();
+
+    if (buffer != null) {
+      pool.release(buffer);
+      buffer = null;
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    // THE BUFFER COULD BE IN USE BY ANOTHER THREAD: DON'T PUT IT BACK IN THE POOL
+    buffer = null;
+    count = 0;
+    out.close();
+  }
+
+  private void flushBuffer() throws IOException {
+    if (count > 0) {
+      out.write(buffer, 0, count);
+      count = 0;
+    }
+  }
+}
@@ -31,6 +31,7 @@ import com.orientechnologies.orient.core.id.OClusterPositionFactory;
 import com.orientechnologies.orient.core.id.ORID;
 import com.orientechnologies.orient.core.id.ORecordId;
 import com.orientechnologies.orient.core.serialization.OBinaryProtocol;
+import com.orientechnologies.orient.core.serialization.compression.OCompression;
 import com.orientechnologies.orient.core.version.ODistributedVersion;
 import com.orientechnologies.orient.core.version.ORecordVersion;
 import com.orientechnologies.orient.core.version.OVersionFactory;
@@ -44,6 +45,8 @@ public abstract class OChannelBinary extends OChannel {
   private final int        maxChunkSize;
   protected final boolean  debug;
   private final byte[]     buffer;
+  private OCompression     compression;
+  private int              compressionThreshold;
 
   public OChannelBinary(final Socket iSocket, final OContextConfiguration iConfig) throws IOException {
     super(iSocket, iConfig);
@@ -155,10 +158,19 @@ public abstract class OChannelBinary extends OChannel {
     if (debug)
       OLogManager.instance().info(this, "%s - Reading %d bytes...", socket.getRemoteSocketAddress(), len);
 
+    boolean compressed = false;
+    if (compression != null) {
+      compressed = in.readByte() == 1;
+      updateMetricReceivedBytes(OBinaryProtocol.SIZE_BYTE);
+    }
+
     // REUSE STATIC BUFFER?
-    final byte[] tmp = new byte[len];
+    byte[] tmp = new byte[len];
     in.readFully(tmp);
 
+    if (compressed)
+      tmp = compression.uncompress(tmp);
+
     if (debug)
       OLogManager.instance().info(this, "%s - Read %d bytes: %s", socket.getRemoteSocketAddress(), len, new String(tmp));
 
@@ -330,6 +342,26 @@ public abstract class OChannelBinary extends OChannel {
     if (iContent == null) {
       out.writeInt(-1);
       updateMetricTransmittedBytes(OBinaryProtocol.SIZE_INT);
+    } else if (compression != null) {
+      byte[] compressed = null;
+      if (iLength >= compressionThreshold) {
+        compressed = compression.compress(iLength == iContent.length ? iContent : Arrays.copyOf(iContent, iLength));
+        if (compressed.length >= iLength)
+          // NOT WORTH: SEND THE ORIGINAL CONTENT
+          compressed = null;
+      }
+
+      if (compressed != null) {
+        out.writeInt(compressed.length);
+        out.write(1);
+        out.write(compressed);
+        updateMetricTransmittedBytes(OBinaryProtocol.SIZE_INT + OBinaryProtocol.SIZE_BYTE + compressed.length);
+      } else {
+        out.writeInt(iLength);
+        out.write(0);
+        out.write(iContent, 0, iLength);
+        updateMetricTransmittedBytes(OBinaryProtocol.SIZE_INT + OBinaryProtocol.SIZE_BYTE + iLength);
+      }
     } else {
       out.writeInt(iLength);
       out.write(iContent, 0, iLength);
@@ -338,6 +370,21 @@ public abstract class OChannelBinary extends OChannel {
     return this;
   }
 
+  /**
+   * Sets the compression negotiated with the other side of the channel. Once set, every content sent with
+   * {@link #writeBytes(byte[], int)} is followed by a byte telling if it has been compressed: only the contents of at least
+   * iThreshold bytes are compressed. Both sides must switch at the same point of the stream, so this is called when no other
+   * request is pending on the channel.
+   */
+  public void setCompression(final OCompression iCompression, final int iThreshold) {
+    compression = iCompression;
+    compressionThreshold = iThreshold;
+  }
+
+  public OCompression getCompression() {
+    return compression;
+  }
+
   public OChannelBinary writeCollectionString(final Collection<String> iCollection) throws IOException {
     if (debug)
       OLogManager.instance().info(this, "%s - Writing strings (4+%d=%d items): %s", socket.getRemoteSocketAddress(),
@@ -21,8 +21,12 @@ import java.lang.reflect.InvocationTargetException;
 import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Condition;
 
 import com.orientechnologies.common.concur.OTimeoutException;
@@ -36,12 +40,27 @@ import com.orientechnologies.orient.core.config.OGlobalConfiguration;
 import com.orientechnologies.orient.core.exception.OStorageException;
 import com.orientechnologies.orient.core.serialization.OMemoryInputStream;
 
+/**
+ * Client side of a binary channel. Multiple requests can be in flight on the same socket: the write lock is held only to send a
+ * request, then every requester waits for its own response. The server answers the requests of a connection in the order they are
+ * received, so every request registered with {@link #registerRequest(int)} gets an id that is matched to the responses of the same
+ * session in the same order. This allows many threads, even sharing the same session, to use a few connections.
+ * <p>
+ * If a registered request is abandoned before its response is read, for example on a timeout, the channel is closed: its response
+ * would be matched to the next request of the session.
+ */
 public class OChannelBinaryAsynchClient extends OChannelBinary {
-  private final Condition             readCondition = lockRead.getUnderlying().newCondition();
+  private final Condition                    readCondition   = lockRead.getUnderlying().newCondition();
+
+  private volatile boolean                   channelRead     = false;
+  private volatile boolean                   closed          = false;
+  private byte                               currentStatus;
+  private int                                currentSessionId;
+  private int                                currentRequestId;
 
-  private volatile boolean            channelRead   = false;
-  private byte                        currentStatus;
-  private int                         currentSessionId;
+  private final Map<Integer, List<Integer>> pendingRequests = new HashMap<Integer, List<Integer>>();
+  private final AtomicInteger                inFlight        = new AtomicInteger();
+  private int                                requestSerial;
 
   private final int                   maxUnreadResponses;
 
@@ -109,11 +128,106 @@ public class OChannelBinaryAsynchClient extends OChannelBinary {
     releaseWriteLock();
   }
 
+  /**
+   * Registers a request that waits for a response. Must be called by the writer of the request, holding the write lock and before
+   * writing it, so the ids follow the order of the requests on the socket.
+   *
+   * @param iSessionId
+   *          Session id sent with the request
+   * @return The id to pass to {@link #beginResponse(int, int, long)}
+   */
+  public int registerRequest(final int iSessionId) {
+    synchronized (pendingRequests) {
+      List<Integer> requests = pendingRequests.get(iSessionId);
+      if (requests == null) {
+        requests = new LinkedList<Integer>();
+        pendingRequests.put(iSessionId, requests);
+      }
+
+      final int requestId = ++requestSerial & Integer.MAX_VALUE;
+      requests.add(requestId);
+      inFlight.incrementAndGet();
+      return requestId;
+    }
+  }
+
+  /**
+   * Removes a registered request the server will not answer.
+   */
+  public void unregisterRequest(final int iSessionId, final int iRequestId) {
+    synchronized (pendingRequests) {
+      final List<Integer> requests = pendingRequests.get(iSessionId);
+      if (requests != null && requests.remove((Integer) iRequestId)) {
+        if (requests.isEmpty())
+          pendingRequests.remove(iSessionId);
+        inFlight.decrementAndGet();
+      }
+    }
+  }
+
+  /**
+   * Tells if a registered request is still waiting for its response.
+   */
+  public boolean isPending(final int iSessionId, final int iRequestId) {
+    synchronized (pendingRequests) {
+      final List<Integer> requests = pendingRequests.get(iSessionId);
+      return requests != null && requests.contains(iRequestId);
+    }
+  }
+
+  /**
+   * Returns the number of requests sent and waiting for the response.
+   */
+  public int getInFlightRequests() {
+    return inFlight.get();
+  }
+
   public void beginResponse(final int iRequesterId) throws IOException {
-    beginResponse(iRequesterId, timeout);
+    beginResponse(iRequesterId, -1, timeout);
   }
 
   public void beginResponse(final int iRequesterId, final long iTimeout) throws IOException {
+    beginResponse(iRequesterId, -1, iTimeout);
+  }
+
+  public void beginResponse(final int iRequesterId, final int iRequestId) throws IOException {
+    beginResponse(iRequesterId, iRequestId, timeout);
+  }
+
+  /**
+   * Waits for the response of a request.
+   *
+   * @param iRequesterId
+   *          Session id of the request
+   * @param iRequestId
+   *          Id returned by {@link #registerRequest(int)}, or -1 to get the first response of the session
+   * @param iTimeout
+   *          Timeout in ms, 0 to wait forever
+   */
+  public void beginResponse(final int iRequesterId, final int iRequestId, final long iTimeout) throws IOException {
+    try {
+      waitResponse(iRequesterId, iRequestId, iTimeout);
+    } catch (IOException e) {
+      discardIfPending(iRequesterId, iRequestId);
+      throw e;
+    } catch (RuntimeException e) {
+      discardIfPending(iRequesterId, iRequestId);
+      throw e;
+    }
+  }
+
+  /**
+   * Closes the channel if the request is abandoned before reading its response, because the next responses can't be matched
+   * anymore.
+   */
+  private void discardIfPending(final int iRequesterId, final int iRequestId) {
+    if (iRequestId > -1 && !closed && isPending(iRequesterId, iRequestId)) {
+      OLogManager.instance().debug(this, "Response of request %d not read, closing the channel %s", iRequestId, this);
+      close();
+    }
+  }
+
+  private void waitResponse(final int iRequesterId, final int iRequestId, final long iTimeout) throws IOException {
     try {
       int unreadResponse = 0;
       final long startClock = iTimeout > 0 ? System.currentTimeMillis() : 0;
@@ -125,16 +239,22 @@ public class OChannelBinaryAsynchClient extends OChannelBinary {
         else if (!lockRead.tryAcquireLock(iTimeout, TimeUnit.MILLISECONDS))
           throw new OTimeoutException("Cannot acquire read lock against channel: " + this);
 
+        if (closed) {
+          releaseReadLock();
+          throw new IOException("Channel " + this + " has been closed while waiting for the response");
+        }
+
         if (!channelRead) {
           channelRead = true;
 
           try {
             currentStatus = readByte();
             currentSessionId = readInt();
+            currentRequestId = currentStatus == OChannelBinaryProtocol.PUSH_DATA ? -1 : nextRequestId(currentSessionId);
 
             if (debug)
-              OLogManager.instance().debug(this, "%s - Read response: %d-%d", socket.getLocalAddress(), (int) currentStatus,
-                  currentSessionId);
+              OLogManager.instance().debug(this, "%s - Read response: %d-%d (request %d)", socket.getLocalAddress(),
+                  (int) currentStatus, currentSessionId, currentRequestId);
 
           } catch (IOException e) {
             // UNLOCK THE RESOURCE AND PROPAGATES THE EXCEPTION
@@ -145,7 +265,7 @@ public class OChannelBinaryAsynchClient extends OChannelBinary {
           }
         }
 
-        if (currentSessionId == iRequesterId)
+        if (currentSessionId == iRequesterId && (iRequestId < 0 || currentRequestId < 0 || currentRequestId == iRequestId))
           // IT'S FOR ME
           break;
 
@@ -333,6 +453,13 @@ public class OChannelBinaryAsynchClient extends OChannelBinary {
 
   @Override
   public void close() {
+    closed = true;
+
+    synchronized (pendingRequests) {
+      pendingRequests.clear();
+      inFlight.set(0);
+    }
+
     if (lockRead.tryAcquireLock())
       try {
         readCondition.signalAll();
@@ -378,6 +505,24 @@ public class OChannelBinaryAsynchClient extends OChannelBinary {
     return srvProtocolVersion;
   }
 
+  /**
+   * Assigns the response just read to the oldest request of the session.
+   */
+  private int nextRequestId(final int iSessionId) {
+    synchronized (pendingRequests) {
+      final List<Integer> requests = pendingRequests.get(iSessionId);
+      if (requests == null)
+        // NOT REGISTERED: IT'S MATCHED BY SESSION ONLY
+        return -1;
+
+      final int requestId = requests.remove(0);
+      if (requests.isEmpty())
+        pendingRequests.remove(iSessionId);
+      inFlight.decrementAndGet();
+      return requestId;
+    }
+  }
+
   public OAdaptiveLock getLockRead() {
     return lockRead;
   }
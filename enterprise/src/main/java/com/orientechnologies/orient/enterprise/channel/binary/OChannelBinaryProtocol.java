@@ -58,6 +58,7 @@ public class OChannelBinaryProtocol {
   public static final byte  REQUEST_RECORD_UPDATE                  = 32;
   public static final byte  REQUEST_RECORD_DELETE                  = 33;
   public static final byte  REQUEST_RECORD_COPY                    = 34;
+  public static final byte  REQUEST_RECORD_LOAD_MULTI              = 35; // since 1.6.1
   public static final byte  REQUEST_POSITIONS_HIGHER               = 36; // since 1.3.0
   public static final byte  REQUEST_POSITIONS_LOWER                = 37; // since 1.3.0
   public static final byte  REQUEST_RECORD_CLEAN_OUT               = 38; // since 1.3.0
@@ -66,6 +67,10 @@ public class OChannelBinaryProtocol {
   public static final byte  REQUEST_COUNT                          = 40; // DEPRECATED: USE REQUEST_DATACLUSTER_COUNT
   public static final byte  REQUEST_COMMAND                        = 41;
   public static final byte  REQUEST_POSITIONS_CEILING              = 42; // since 1.3.0
+  public static final byte  REQUEST_CURSOR_FETCH                   = 43; // since 1.6.1
+  public static final byte  REQUEST_CURSOR_CLOSE                   = 44; // since 1.6.1
+  public static final byte  REQUEST_RECORD_INVALIDATIONS           = 45; // since 1.6.1
+  public static final byte  REQUEST_CHANNEL_COMPRESSION            = 46; // since 1.6.1
 
   public static final byte  REQUEST_TX_COMMIT                      = 60;
 
@@ -77,6 +82,7 @@ public class OChannelBinaryProtocol {
 
   public static final byte  REQUEST_PUSH_RECORD                    = 79;
   public static final byte  REQUEST_PUSH_DISTRIB_CONFIG            = 80;
+  public static final byte  REQUEST_PUSH_RECORD_INVALIDATE         = 81; // since 1.6.1
 
   // DISTRIBUTED
   public static final byte  REQUEST_DB_COPY                        = 90; // SINCE 1.0rc8
@@ -101,7 +107,7 @@ public class OChannelBinaryProtocol {
   public static final short RECORD_RID                             = -3;
 
   // FOR MORE INFO: https://github.com/orientechnologies/orientdb/wiki/Network-Binary-Protocol#wiki-Compatibility
-  public static final int   CURRENT_PROTOCOL_VERSION               = 19; // SENT AS SHORT AS FIRST PACKET AFTER SOCKET CONNECTION
+  public static final int   CURRENT_PROTOCOL_VERSION               = 23; // SENT AS SHORT AS FIRST PACKET AFTER SOCKET CONNECTION
 
   public static OIdentifiable readIdentifiable(final OChannelBinaryAsynchClient network) throws IOException {
     final int classId = network.readShort();
@@ -45,7 +45,11 @@ public class OChannelBinaryServer extends OChannelBinary {
 		super(iSocket, iConfig);
 
 		inStream = new BufferedInputStream(socket.getInputStream(), socketBufferSize);
-		outStream = new BufferedOutputStream(socket.getOutputStream(), socketBufferSize);
+		if (socket.getChannel() != null)
+			// SOCKET SERVED BY A SELECTOR: SUPPORT WRITES ALSO WHILE IN NON-BLOCKING MODE AND SEND BIG CONTENTS WITH GATHERING WRITES
+			outStream = new OChannelBinaryServerOutputStream(socket.getChannel(), socketBufferSize);
+		else
+			outStream = new BufferedOutputStream(socket.getOutputStream(), socketBufferSize);
 
 		out = new DataOutputStream(outStream);
 		in = new DataInputStream(inStream);
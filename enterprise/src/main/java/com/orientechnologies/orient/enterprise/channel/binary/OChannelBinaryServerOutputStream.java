@@ -0,0 +1,118 @@
+/*
+ * Copyright 2010-2012 Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientechnologies.orient.enterprise.channel.binary;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.IllegalBlockingModeException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Buffered stream that writes to a socket channel in both blocking and non-blocking mode. Connections served by selectors are
+ * non-blocking while they wait for requests, but other threads can still push data to the client: in this case the writer waits
+ * until the socket accepts more data.
+ * <p>
+ * Small writes are collected in a direct buffer. Contents bigger than the buffer, like the record contents, are not copied in it:
+ * the buffered bytes and the content are sent together with one gathering write.
+ * </p>
+ *
+ * @author Luca Garulli
+ */
+public class OChannelBinaryServerOutputStream extends OutputStream {
+  private static final long   WRITE_WAIT = 100;
+
+  private final SocketChannel channel;
+  private final ByteBuffer    buffer;
+
+  public OChannelBinaryServerOutputStream(final SocketChannel iChannel, final int iBufferSize) {
+    channel = iChannel;
+    buffer = ByteBuffer.allocateDirect(iBufferSize);
+  }
+
+  @Override
+  public void write(final int b) throws IOException {
+    if (!buffer.hasRemaining())
+      flushBuffer();
+    buffer.put((byte) b);
+  }
+
+  @Override
+  public void write(final byte[] b, final int off, final int len) throws IOException {
+    if (len <= buffer.remaining()) {
+      buffer.put(b, off, len);
+      return;
+    }
+
+    if (len < buffer.capacity()) {
+      flushBuffer();
+      buffer.put(b, off, len);
+      return;
+    }
+
+    // BIG CONTENT: SEND IT TOGETHER WITH THE BUFFERED BYTES WITHOUT COPYING IT IN THE BUFFER
+    buffer.flip();
+    try {
+      writeFully(new ByteBuffer[] { buffer, ByteBuffer.wrap(b, off, len) });
+    } finally {
+      buffer.clear();
+    }
+  }
+
+  @Override
+  public void flush() throws IOException {
+    flushBuffer();
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+
+  private void flushBuffer() throws IOException {
+    if (buffer.position() == 0)
+      return;
+
+    buffer.flip();
+    try {
+      writeFully(new ByteBuffer[] { buffer });
+    } finally {
+      buffer.clear();
+    }
+  }
+
+  private void writeFully(final ByteBuffer[] iBuffers) throws IOException {
+    final ByteBuffer last = iBuffers[iBuffers.length - 1];
+    while (last.hasRemaining())
+      if (channel.write(iBuffers) == 0)
+        // NON-BLOCKING MODE AND SOCKET BUFFER FULL
+        waitForWrite();
+  }
+
+  private void waitForWrite() throws IOException {
+    final Selector selector = Selector.open();
+    try {
+      channel.register(selector, SelectionKey.OP_WRITE);
+      selector.select(WRITE_WAIT);
+    } catch (IllegalBlockingModeException e) {
+      // THE CHANNEL HAS BEEN SWITCHED TO BLOCKING MODE IN THE MEANTIME: WRITE AGAIN
+    } finally {
+      selector.close();
+    }
+  }
+}
@@ -21,9 +21,22 @@ import java.io.IOException;
 import java.net.Socket;
 
 import com.orientechnologies.orient.core.config.OContextConfiguration;
+import com.orientechnologies.orient.enterprise.channel.OChannelBufferPool;
+import com.orientechnologies.orient.enterprise.channel.OChannelPooledInputStream;
+import com.orientechnologies.orient.enterprise.channel.OChannelPooledOutputStream;
 
 public class OChannelTextServer extends OChannelText {
 	public OChannelTextServer(final Socket iSocket, final OContextConfiguration iConfiguration) throws IOException {
+		this(iSocket, iConfiguration, false);
+	}
+
+	/**
+	 * @param iPooledBuffers
+	 *          if true the buffers are taken from a shared pool only while reading and writing. Call {@link #releaseBuffers()} when
+	 *          the connection becomes idle.
+	 */
+	public OChannelTextServer(final Socket iSocket, final OContextConfiguration iConfiguration, final boolean iPooledBuffers)
+			throws IOException {
 		super(iSocket, iConfiguration);
 
 		socket.setKeepAlive(true);
@@ -31,7 +44,21 @@ public class OChannelTextServer extends OChannelText {
 		socket.setSendBufferSize(socketBufferSize);
 		socket.setReceiveBufferSize(socketBufferSize);
 
-		inStream = new BufferedInputStream(socket.getInputStream(), socketBufferSize);
-		outStream = new BufferedOutputStream(socket.getOutputStream(), socketBufferSize);
+		if (iPooledBuffers) {
+			final OChannelBufferPool pool = OChannelBufferPool.getInstance(socketBufferSize);
+			inStream = new OChannelPooledInputStream(socket.getInputStream(), pool);
+			outStream = new OChannelPooledOutputStream(socket.getOutputStream(), pool);
+		} else {
+			inStream = new BufferedInputStream(socket.getInputStream(), socketBufferSize);
+			outStream = new BufferedOutputStream(socket.getOutputStream(), socketBufferSize);
+		}
+	}
+
+	/**
+	 * Gives the input buffer back to the pool if it doesn't contain bytes to read. The output buffer goes back at every flush.
+	 */
+	public void releaseBuffers() {
+		if (inStream instanceof OChannelPooledInputStream)
+			((OChannelPooledInputStream) inStream).release();
 	}
 }
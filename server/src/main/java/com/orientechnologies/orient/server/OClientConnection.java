@@ -17,6 +17,10 @@ package com.orientechnologies.orient.server;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
 import com.orientechnologies.orient.core.db.raw.ODatabaseRaw;
@@ -24,6 +28,7 @@ import com.orientechnologies.orient.enterprise.channel.binary.OChannelBinary;
 import com.orientechnologies.orient.server.config.OServerUserConfiguration;
 import com.orientechnologies.orient.server.network.protocol.ONetworkProtocol;
 import com.orientechnologies.orient.server.network.protocol.ONetworkProtocolData;
+import com.orientechnologies.orient.server.network.protocol.binary.OCommandCursor;
 
 public class OClientConnection {
   public final int                         id;
@@ -33,7 +38,10 @@ public class OClientConnection {
   public volatile ODatabaseRaw             rawDatabase;
   public volatile OServerUserConfiguration serverUser;
 
-  public ONetworkProtocolData              data = new ONetworkProtocolData();
+  public ONetworkProtocolData              data         = new ONetworkProtocolData();
+
+  private final Map<Integer, OCommandCursor> cursors      = new ConcurrentHashMap<Integer, OCommandCursor>();
+  private final AtomicInteger                cursorSerial = new AtomicInteger();
 
   public OClientConnection(final int iId, final ONetworkProtocol iProtocol) throws IOException {
     this.id = iId;
@@ -42,6 +50,12 @@ public class OClientConnection {
   }
 
   public void close() {
+    OClientInvalidationManager.instance().unsubscribe(this);
+
+    for (OCommandCursor cursor : cursors.values())
+      cursor.close();
+    cursors.clear();
+
     if (database != null) {
       database.close();
       database = null;
@@ -82,6 +96,44 @@ public class OClientConnection {
     return true;
   }
 
+  public int nextCursorId() {
+    return cursorSerial.incrementAndGet();
+  }
+
+  public int getCursorCount() {
+    return cursors.size();
+  }
+
+  public void addCursor(final OCommandCursor iCursor) {
+    cursors.put(iCursor.getId(), iCursor);
+  }
+
+  public OCommandCursor getCursor(final int iCursorId) {
+    return cursors.get(iCursorId);
+  }
+
+  /**
+   * Closes the cursor, stopping its command if it's still running.
+   */
+  public void closeCursor(final int iCursorId) {
+    final OCommandCursor cursor = cursors.remove(iCursorId);
+    if (cursor != null)
+      cursor.close();
+  }
+
+  /**
+   * Closes the cursors the client didn't fetch for more than iTimeout milliseconds.
+   */
+  public void closeExpiredCursors(final long iTimeout) {
+    for (Iterator<OCommandCursor> it = cursors.values().iterator(); it.hasNext();) {
+      final OCommandCursor cursor = it.next();
+      if (cursor.isExpired(iTimeout)) {
+        it.remove();
+        cursor.close();
+      }
+    }
+  }
+
   public OChannelBinary getChannel() {
     return (OChannelBinary) protocol.getChannel();
   }
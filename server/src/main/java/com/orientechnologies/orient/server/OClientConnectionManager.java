@@ -49,6 +49,8 @@ public class OClientConnectionManager {
 
       @Override
       public void run() {
+        final long cursorTimeout = OGlobalConfiguration.QUERY_CURSOR_TIMEOUT.getValueAsLong();
+
         final Iterator<Entry<Integer, OClientConnection>> iterator = connections.entrySet().iterator();
         while (iterator.hasNext()) {
           final Entry<Integer, OClientConnection> entry = iterator.next();
@@ -67,7 +69,14 @@ public class OClientConnectionManager {
             } catch (Exception e) {
             }
             iterator.remove();
-          }
+          } else
+            // CANCEL THE QUERIES OF THE CURSORS ABANDONED BY THE CLIENT
+            try {
+              entry.getValue().closeExpiredCursors(cursorTimeout);
+            } catch (Exception e) {
+              OLogManager.instance().debug(this, "[OClientConnectionManager] error on closing the expired cursors of channel %d", e,
+                  entry.getKey());
+            }
         }
       }
     }, delay, delay);
@@ -0,0 +1,217 @@
+/*
+ * Copyright 2010-2013 Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientechnologies.orient.server;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import com.orientechnologies.common.log.OLogManager;
+import com.orientechnologies.orient.core.Orient;
+import com.orientechnologies.orient.core.db.ODatabase;
+import com.orientechnologies.orient.core.db.ODatabaseComplex;
+import com.orientechnologies.orient.core.db.ODatabaseLifecycleListener;
+import com.orientechnologies.orient.core.hook.ORecordHookAbstract;
+import com.orientechnologies.orient.core.id.ORID;
+import com.orientechnologies.orient.core.record.ORecord;
+import com.orientechnologies.orient.core.version.ORecordVersion;
+import com.orientechnologies.orient.enterprise.channel.binary.OChannelBinary;
+import com.orientechnologies.orient.enterprise.channel.binary.OChannelBinaryProtocol;
+import com.orientechnologies.orient.server.network.protocol.binary.ONetworkProtocolBinary;
+
+/**
+ * Pushes to the subscribed clients the RIDs of the records updated or deleted, so they can invalidate their near cache. A hook
+ * registered on every database opened by the server collects the changes only while there is at least one subscriber. The changes
+ * are sent by a background thread that groups all the changes waiting, so a channel receives one message per batch even if more
+ * sessions on it subscribed.
+ *
+ * @author Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ */
+public class OClientInvalidationManager implements ODatabaseLifecycleListener, Runnable {
+  private static final OClientInvalidationManager instance      = new OClientInvalidationManager();
+  private static final int                        MAX_BATCH     = 1000;
+
+  private final Set<OClientConnection>            subscribers   = Collections
+                                                                    .newSetFromMap(new ConcurrentHashMap<OClientConnection, Boolean>());
+  private final BlockingQueue<OInvalidation>      invalidations = new LinkedBlockingQueue<OInvalidation>();
+  private Thread                                  thread;
+
+  private static class OInvalidation {
+    private final String         database;
+    private final ORID           rid;
+    private final ORecordVersion version;
+
+    private OInvalidation(final String iDatabase, final ORID iRid, final ORecordVersion iVersion) {
+      database = iDatabase;
+      rid = iRid;
+      version = iVersion;
+    }
+  }
+
+  private class OInvalidationHook extends ORecordHookAbstract {
+    @Override
+    public void onRecordAfterUpdate(final ORecord<?> iRecord) {
+      invalidate(iRecord, false);
+    }
+
+    @Override
+    public void onRecordAfterDelete(final ORecord<?> iRecord) {
+      invalidate(iRecord, true);
+    }
+
+    public DISTRIBUTED_EXECUTION_MODE getDistributedExecutionMode() {
+      return DISTRIBUTED_EXECUTION_MODE.BOTH;
+    }
+  }
+
+  public static OClientInvalidationManager instance() {
+    return instance;
+  }
+
+  public void startup() {
+    Orient.instance().addDbLifecycleListener(this);
+  }
+
+  public synchronized void shutdown() {
+    Orient.instance().removeDbLifecycleListener(this);
+    subscribers.clear();
+    if (thread != null) {
+      thread.interrupt();
+      thread = null;
+    }
+  }
+
+  /**
+   * Starts or stops pushing the invalidations to the connection.
+   */
+  public synchronized void subscribe(final OClientConnection iConnection, final boolean iEnabled) {
+    if (!iEnabled) {
+      subscribers.remove(iConnection);
+      return;
+    }
+
+    subscribers.add(iConnection);
+
+    if (thread == null) {
+      thread = new Thread(Orient.instance().getThreadGroup(), this, "OrientDB Client Invalidations");
+      thread.setDaemon(true);
+      thread.start();
+    }
+  }
+
+  public void unsubscribe(final OClientConnection iConnection) {
+    subscribers.remove(iConnection);
+  }
+
+  public void onCreate(final ODatabase iDatabase) {
+    onOpen(iDatabase);
+  }
+
+  public void onOpen(final ODatabase iDatabase) {
+    if (iDatabase instanceof ODatabaseComplex<?>)
+      ((ODatabaseComplex<?>) iDatabase).registerHook(new OInvalidationHook());
+  }
+
+  public void onClose(final ODatabase iDatabase) {
+  }
+
+  public void run() {
+    final List<OInvalidation> batch = new ArrayList<OInvalidation>();
+    while (!Thread.currentThread().isInterrupted()) {
+      try {
+        batch.add(invalidations.take());
+      } catch (InterruptedException e) {
+        break;
+      }
+      invalidations.drainTo(batch, MAX_BATCH - 1);
+
+      try {
+        push(batch);
+      } catch (Exception e) {
+        OLogManager.instance().warn(this, "Error on pushing record invalidations to the clients", e);
+      }
+      batch.clear();
+    }
+  }
+
+  protected void invalidate(final ORecord<?> iRecord, final boolean iDeleted) {
+    if (subscribers.isEmpty() || !iRecord.getIdentity().isPersistent())
+      return;
+
+    final ORecordVersion version = iRecord.getRecordVersion().copy();
+    if (iDeleted)
+      // THE CACHED COPIES WITH THE SAME VERSION ARE STALE TOO
+      version.increment();
+
+    invalidations.offer(new OInvalidation(iRecord.getDatabase().getName(), iRecord.getIdentity().copy(), version));
+  }
+
+  private void push(final List<OInvalidation> iBatch) {
+    final Map<String, List<OInvalidation>> byDatabase = new HashMap<String, List<OInvalidation>>();
+    for (OInvalidation i : iBatch) {
+      List<OInvalidation> list = byDatabase.get(i.database);
+      if (list == null) {
+        list = new ArrayList<OInvalidation>();
+        byDatabase.put(i.database, list);
+      }
+      list.add(i);
+    }
+
+    final Set<OChannelBinary> pushed = new HashSet<OChannelBinary>();
+    for (OClientConnection c : subscribers) {
+      if (c.database == null || !(c.protocol instanceof ONetworkProtocolBinary))
+        continue;
+
+      final List<OInvalidation> list = byDatabase.get(c.database.getName());
+      if (list == null)
+        continue;
+
+      final OChannelBinary channel = (OChannelBinary) c.protocol.getChannel();
+      if (!pushed.add(channel))
+        // ALREADY SENT ON THIS CHANNEL
+        continue;
+
+      try {
+        channel.acquireWriteLock();
+        try {
+          channel.writeByte(OChannelBinaryProtocol.PUSH_DATA);
+          channel.writeInt(Integer.MIN_VALUE);
+          channel.writeByte(OChannelBinaryProtocol.REQUEST_PUSH_RECORD_INVALIDATE);
+          channel.writeInt(list.size());
+          for (OInvalidation i : list) {
+            channel.writeRID(i.rid);
+            channel.writeVersion(i.version);
+          }
+          channel.flush();
+        } finally {
+          channel.releaseWriteLock();
+        }
+      } catch (IOException e) {
+        OLogManager.instance().warn(this, "Cannot push record invalidations to the client %s", c.getRemoteAddress());
+        subscribers.remove(c);
+      }
+    }
+  }
+}
@@ -245,6 +245,8 @@ public class OServer {
 
     OLogManager.instance().info(this, "OrientDB Server is shutting down...");
 
+    OClientInvalidationManager.instance().shutdown();
+
     if (!Orient.isRegisterDatabaseByPath())
       try {
         Orient.instance().shutdown();
@@ -509,6 +511,7 @@ public class OServer {
       loadStorages();
       loadUsers();
       hookManager = new OConfigurableHooksManager(iConfiguration);
+      OClientInvalidationManager.instance().startup();
 
     } catch (IOException e) {
       OLogManager.instance().error(this, "Error on reading server configuration.", OConfigurationException.class, e);
@@ -0,0 +1,33 @@
+/*
+ * Copyright 2010-2012 Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientechnologies.orient.server.distributed;
+
+import com.orientechnologies.common.concur.ONeedRetryException;
+
+/**
+ * Exception thrown when a record of a cluster is changed while the cluster is being copied to its new owners. The operation can be
+ * retried once the copy is completed.
+ *
+ * @author Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ */
+public class ODistributedClusterMovingException extends ONeedRetryException {
+  private static final long serialVersionUID = 1L;
+
+  public ODistributedClusterMovingException(final String iDatabaseName, final String iClusterName) {
+    super("Cluster " + iDatabaseName + "." + iClusterName + " is being copied to its new owners");
+  }
+}
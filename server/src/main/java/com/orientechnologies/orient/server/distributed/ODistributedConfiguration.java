@@ -15,10 +15,14 @@
  */
 package com.orientechnologies.orient.server.distributed;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import com.orientechnologies.common.log.OLogManager;
+import com.orientechnologies.orient.core.config.OGlobalConfiguration;
 import com.orientechnologies.orient.core.exception.OConfigurationException;
+import com.orientechnologies.orient.core.metadata.schema.OType;
 import com.orientechnologies.orient.core.record.impl.ODocument;
 
 /**
@@ -126,6 +130,42 @@ public class ODistributedConfiguration {
     }
   }
 
+  /**
+   * Returns the consistency of the reads against the cluster. If not configured, the "distributed.readConsistency" setting is used.
+   */
+  public ODistributedReadConsistency.MODE getReadConsistency(final String iClusterName) {
+    synchronized (configuration) {
+      final Object value = getClusterConfiguration(iClusterName).field("readConsistency");
+      return ODistributedReadConsistency.MODE.valueOf((value != null ? value.toString()
+          : OGlobalConfiguration.DISTRIBUTED_READ_CONSISTENCY.getValueAsString()).toUpperCase());
+    }
+  }
+
+  /**
+   * Returns the maximum number of changes a node can miss to serve BOUNDED_STALENESS reads against the cluster, -1 if unbounded.
+   */
+  public long getReadMaxLag(final String iClusterName) {
+    synchronized (configuration) {
+      final Object value = getClusterConfiguration(iClusterName).field("readMaxLag");
+      if (value != null)
+        return ((Number) value).longValue();
+      return OGlobalConfiguration.DISTRIBUTED_READ_MAX_LAG.getValueAsLong();
+    }
+  }
+
+  /**
+   * Returns the maximum age in milliseconds of the data a node can serve with BOUNDED_STALENESS reads against the cluster, -1 if
+   * unbounded.
+   */
+  public long getReadMaxStaleness(final String iClusterName) {
+    synchronized (configuration) {
+      final Object value = getClusterConfiguration(iClusterName).field("readMaxStaleness");
+      if (value != null)
+        return ((Number) value).longValue();
+      return OGlobalConfiguration.DISTRIBUTED_READ_MAX_STALENESS.getValueAsLong();
+    }
+  }
+
   /**
    * Returns the delay timer to resync asynchronous nodes.
    */
@@ -165,6 +205,20 @@ public class ODistributedConfiguration {
     }
   }
 
+  /**
+   * Returns the number of nodes that own every cluster when the partitions are assigned by a consistent hash.
+   */
+  public int getReplicas(final String iClusterName) {
+    synchronized (configuration) {
+      final ODocument partitioning = getPartitioningConfiguration(iClusterName);
+      final Object value = partitioning != null ? partitioning.field("replicas") : null;
+      if (value != null)
+        return (Integer) value;
+      else
+        return 2;
+    }
+  }
+
   public ODistributedConfiguration addNodeInPartition(final String iClusterName, final int iPartition, final String iNode) {
     synchronized (configuration) {
       getPartition(iClusterName, iPartition).add(iNode);
@@ -233,6 +287,61 @@ public class ODistributedConfiguration {
     }
   }
 
+  /**
+   * Returns the nodes that have the data of a cluster partitioned with a consistent hash, or null if they have not been recorded
+   * yet. They own the cluster until the new owners assigned by the hash have copied it.
+   */
+  public List<String> getClusterOwners(final String iClusterName) {
+    synchronized (configuration) {
+      final ODocument owners = getClusterOwnersConfiguration(iClusterName);
+      return owners != null ? owners.<List<String>> field("owners") : null;
+    }
+  }
+
+  /**
+   * Returns the nodes that are copying the cluster to become its owners.
+   */
+  public List<String> getClusterSyncingNodes(final String iClusterName) {
+    synchronized (configuration) {
+      final ODocument owners = getClusterOwnersConfiguration(iClusterName);
+      final List<String> syncing = owners != null ? owners.<List<String>> field("syncing") : null;
+      if (syncing != null)
+        return syncing;
+      return Collections.emptyList();
+    }
+  }
+
+  /**
+   * Returns true if the cluster is being copied to new owners: its records can't be changed until the copy is completed.
+   */
+  public boolean isClusterMoving(final String iClusterName) {
+    return !getClusterSyncingNodes(iClusterName).isEmpty();
+  }
+
+  public ODistributedConfiguration setClusterOwners(final String iClusterName, final List<String> iOwners,
+      final List<String> iSyncingNodes) {
+    synchronized (configuration) {
+      ODocument clusters = configuration.field("clusterOwners");
+      if (clusters == null) {
+        clusters = new ODocument();
+        configuration.field("clusterOwners", clusters, OType.EMBEDDED);
+      }
+
+      final ODocument owners = new ODocument();
+      owners.field("owners", new ArrayList<String>(iOwners), OType.EMBEDDEDLIST);
+      owners.field("syncing", new ArrayList<String>(iSyncingNodes), OType.EMBEDDEDLIST);
+      clusters.field(iClusterName, owners, OType.EMBEDDED);
+    }
+    return this;
+  }
+
+  protected ODocument getClusterOwnersConfiguration(final String iClusterName) {
+    synchronized (configuration) {
+      final ODocument clusters = configuration.field("clusterOwners");
+      return clusters != null ? (ODocument) clusters.field(iClusterName) : null;
+    }
+  }
+
   public ODocument serialize() {
     return configuration.copy();
   }
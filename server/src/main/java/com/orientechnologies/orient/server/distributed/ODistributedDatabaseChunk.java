@@ -0,0 +1,108 @@
+/*
+ * Copyright 2010-2012 Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientechnologies.orient.server.distributed;
+
+import java.io.Externalizable;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.io.RandomAccessFile;
+import java.util.zip.CRC32;
+
+/**
+ * Piece of a database backup sent to a node that is installing the database. The receiver asks for the next chunk by offset only
+ * after the previous one is written, so the memory used on both sides is bounded by the chunk size and a corrupted or lost chunk
+ * is asked again from the same offset.
+ *
+ * @author Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ */
+public class ODistributedDatabaseChunk implements Externalizable {
+  private static final long serialVersionUID = 1L;
+
+  public String             fileName;
+  public long               fileSize;
+  public long               offset;
+  public byte[]             buffer;
+  public long               checksum;
+  public boolean            last;
+
+  /**
+   * Constructor used by serialization.
+   */
+  public ODistributedDatabaseChunk() {
+  }
+
+  /**
+   * Reads up to iMaxSize bytes of the file starting from iOffset.
+   */
+  public ODistributedDatabaseChunk(final File iFile, final long iOffset, final int iMaxSize) throws IOException {
+    final RandomAccessFile f = new RandomAccessFile(iFile, "r");
+    try {
+      fileName = iFile.getName();
+      fileSize = f.length();
+      offset = iOffset;
+
+      buffer = new byte[(int) Math.max(0, Math.min(iMaxSize, fileSize - iOffset))];
+      f.seek(iOffset);
+      f.readFully(buffer);
+
+      checksum = computeChecksum(buffer);
+      last = iOffset + buffer.length >= fileSize;
+    } finally {
+      f.close();
+    }
+  }
+
+  /**
+   * Returns true if the content is the one read on the sender node.
+   */
+  public boolean isValid() {
+    return buffer != null && computeChecksum(buffer) == checksum;
+  }
+
+  public void writeExternal(final ObjectOutput out) throws IOException {
+    out.writeUTF(fileName);
+    out.writeLong(fileSize);
+    out.writeLong(offset);
+    out.writeLong(checksum);
+    out.writeBoolean(last);
+    out.writeInt(buffer.length);
+    out.write(buffer);
+  }
+
+  public void readExternal(final ObjectInput in) throws IOException, ClassNotFoundException {
+    fileName = in.readUTF();
+    fileSize = in.readLong();
+    offset = in.readLong();
+    checksum = in.readLong();
+    last = in.readBoolean();
+    buffer = new byte[in.readInt()];
+    in.readFully(buffer);
+  }
+
+  @Override
+  public String toString() {
+    return fileName + " offset:" + offset + " size:" + (buffer != null ? buffer.length : 0) + "/" + fileSize;
+  }
+
+  private static long computeChecksum(final byte[] iBuffer) {
+    final CRC32 crc = new CRC32();
+    crc.update(iBuffer);
+    return crc.getValue();
+  }
+}
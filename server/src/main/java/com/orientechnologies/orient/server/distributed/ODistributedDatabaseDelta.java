@@ -0,0 +1,106 @@
+/*
+ * Copyright 2010-2012 Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientechnologies.orient.server.distributed;
+
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+
+/**
+ * Changes sent to a node that is aligning its database from the journal of another node. The changes are sent in pieces of limited
+ * size up to the LSN the source node had when the alignment started: the following changes are in the queue of the requester. If
+ * the source node doesn't have the changes anymore the delta is marked as truncated and the requester installs the whole database.
+ *
+ * @author Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ */
+public class ODistributedDatabaseDelta implements Externalizable {
+  private static final long serialVersionUID = 1L;
+
+  public long               fromLSN;
+  public long               toLSN;
+  public long[]             lsns;
+  public byte[][]           tasks;
+  public boolean            truncated;
+
+  /**
+   * Constructor used by serialization.
+   */
+  public ODistributedDatabaseDelta() {
+  }
+
+  /**
+   * Creates the delta with the changes after iFromLSN up to iToLSN. Null entries mean the changes are not available.
+   */
+  public ODistributedDatabaseDelta(final long iFromLSN, final long iToLSN, final ODistributedJournal.OEntries iEntries) {
+    fromLSN = iFromLSN;
+    toLSN = iToLSN;
+    if (iEntries == null) {
+      truncated = true;
+      lsns = new long[0];
+      tasks = new byte[0][];
+    } else {
+      lsns = iEntries.lsns;
+      tasks = iEntries.tasks;
+    }
+  }
+
+  /**
+   * Returns the LSN of the last change contained.
+   */
+  public long getLastLSN() {
+    return lsns.length > 0 ? lsns[lsns.length - 1] : fromLSN;
+  }
+
+  /**
+   * Returns true if there are no more changes to ask.
+   */
+  public boolean isLast() {
+    return truncated || lsns.length == 0 || getLastLSN() >= toLSN;
+  }
+
+  public void writeExternal(final ObjectOutput out) throws IOException {
+    out.writeLong(fromLSN);
+    out.writeLong(toLSN);
+    out.writeBoolean(truncated);
+    out.writeInt(lsns.length);
+    for (int i = 0; i < lsns.length; ++i) {
+      out.writeLong(lsns[i]);
+      out.writeInt(tasks[i].length);
+      out.write(tasks[i]);
+    }
+  }
+
+  public void readExternal(final ObjectInput in) throws IOException, ClassNotFoundException {
+    fromLSN = in.readLong();
+    toLSN = in.readLong();
+    truncated = in.readBoolean();
+    final int size = in.readInt();
+    lsns = new long[size];
+    tasks = new byte[size][];
+    for (int i = 0; i < size; ++i) {
+      lsns[i] = in.readLong();
+      tasks[i] = new byte[in.readInt()];
+      in.readFully(tasks[i]);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "delta from:" + fromLSN + " to:" + toLSN + " changes:" + lsns.length + (truncated ? " (truncated)" : "");
+  }
+}
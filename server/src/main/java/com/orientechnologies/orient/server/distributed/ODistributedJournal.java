@@ -0,0 +1,257 @@
+/*
+ * Copyright 2010-2012 Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientechnologies.orient.server.distributed;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import com.orientechnologies.common.log.OLogManager;
+import com.orientechnologies.orient.server.distributed.task.OAbstractRemoteTask;
+
+/**
+ * Journal of the replicated changes applied by the current node to a database. Every change is stored as the task received from
+ * the cluster together with its LSN, the cluster-wide sequence assigned when the change has been broadcast. A node that restarts
+ * asks another node all the changes after the last LSN in its own journal instead of copying the whole database.
+ * <p>
+ * The journal is kept in the database directory in segments named with the first LSN they can contain. When the current segment
+ * is full a new one is created and the older ones are deleted, so the disk used is bounded and the oldest LSN available tells if a
+ * node can still be aligned by the journal.
+ * <p>
+ * The file is written after the change has been applied and it's not forced on disk, so after a crash the journal never contains
+ * changes not applied, but it can miss the last changes applied: all the ones executed by the parallel lanes since their last
+ * flush, and more if the operating system crashed. The missing changes are received again from another node. The record tasks
+ * recognize by RID and version the changes already in the database and are not executed twice (see
+ * {@link OAbstractRemoteTask#isApplied}), while the commands and the other tasks can't tell it and are executed again.
+ *
+ * @author Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ */
+public class ODistributedJournal {
+  public static final String FILE_PREFIX    = "distributed-journal.";
+  private static final int   ENTRY_OVERHEAD = 8 + 4;
+
+  private final File         directory;
+  private final long         maxSegmentSize;
+  private RandomAccessFile   segment;
+  private long               firstLSN;
+  private long               lastLSN;
+
+  /**
+   * Changes read from the journal: LSNs and serialized tasks in the same order.
+   */
+  public static class OEntries {
+    public long[]   lsns;
+    public byte[][] tasks;
+  }
+
+  /**
+   * Opens the journal in the database directory. The disk used is about iMaxSize bytes. If the journal doesn't exist it's created to
+   * contain the changes from iNextLSN.
+   */
+  public ODistributedJournal(final File iDirectory, final long iMaxSize, final long iNextLSN) throws IOException {
+    directory = iDirectory;
+    maxSegmentSize = Math.max(iMaxSize / 2, 1);
+    open(iNextLSN);
+  }
+
+  /**
+   * Returns the oldest LSN the journal can return.
+   */
+  public synchronized long getFirstLSN() {
+    return firstLSN;
+  }
+
+  /**
+   * Returns the LSN of the last change applied on the current node.
+   */
+  public synchronized long getLastLSN() {
+    return lastLSN;
+  }
+
+  /**
+   * Returns true if the journal doesn't contain any change, so it can't tell what the node missed.
+   */
+  public synchronized boolean isEmpty() {
+    return lastLSN < firstLSN;
+  }
+
+  public synchronized void append(final long iLSN, final OAbstractRemoteTask iTask) throws IOException {
+    append(iLSN, serialize(iTask));
+  }
+
+  public synchronized void append(final long iLSN, final byte[] iTask) throws IOException {
+    if (iLSN <= lastLSN)
+      // ALREADY APPLIED
+      return;
+
+    if (segment.length() + ENTRY_OVERHEAD + iTask.length > maxSegmentSize && segment.length() > 0)
+      createSegment(lastLSN + 1);
+
+    segment.seek(segment.length());
+    segment.writeLong(iLSN);
+    segment.writeInt(iTask.length);
+    segment.write(iTask);
+    lastLSN = iLSN;
+  }
+
+  /**
+   * Reads the changes after iFromLSN up to iToLSN included, stopping when iMaxSize bytes have been read. Returns null if the changes
+   * after iFromLSN have been already removed from the journal.
+   */
+  public synchronized OEntries read(final long iFromLSN, final long iToLSN, final int iMaxSize) throws IOException {
+    if (iFromLSN + 1 < firstLSN)
+      return null;
+
+    final List<Long> lsns = new ArrayList<Long>();
+    final List<byte[]> tasks = new ArrayList<byte[]>();
+
+    int size = 0;
+    for (File f : getSegments()) {
+      if (size >= iMaxSize)
+        break;
+
+      final RandomAccessFile file = new RandomAccessFile(f, "r");
+      try {
+        final long length = file.length();
+        long pos = 0;
+        while (pos + ENTRY_OVERHEAD <= length && size < iMaxSize) {
+          file.seek(pos);
+          final long lsn = file.readLong();
+          final int len = file.readInt();
+          if (lsn > iToLSN)
+            break;
+
+          if (lsn > iFromLSN) {
+            final byte[] task = new byte[len];
+            file.readFully(task);
+            tasks.add(task);
+            lsns.add(lsn);
+            size += ENTRY_OVERHEAD + len;
+          }
+          pos += ENTRY_OVERHEAD + len;
+        }
+      } finally {
+        file.close();
+      }
+    }
+
+    final OEntries entries = new OEntries();
+    entries.tasks = tasks.toArray(new byte[tasks.size()][]);
+    entries.lsns = new long[lsns.size()];
+    for (int i = 0; i < entries.lsns.length; ++i)
+      entries.lsns[i] = lsns.get(i);
+    return entries;
+  }
+
+  public synchronized void close() {
+    try {
+      if (segment != null)
+        segment.close();
+    } catch (IOException e) {
+      OLogManager.instance().warn(this, "Error on closing the distributed journal in %s", e, directory);
+    }
+    segment = null;
+  }
+
+  public static byte[] serialize(final OAbstractRemoteTask iTask) throws IOException {
+    return ODistributedMessageSerializer.toStream(iTask);
+  }
+
+  public static OAbstractRemoteTask deserialize(final byte[] iTask) throws IOException, ClassNotFoundException {
+    return (OAbstractRemoteTask) ODistributedMessageSerializer.fromStream(iTask);
+  }
+
+  protected void open(final long iNextLSN) throws IOException {
+    final File[] segments = getSegments();
+    if (segments.length == 0) {
+      lastLSN = iNextLSN - 1;
+      createSegment(iNextLSN);
+      return;
+    }
+
+    firstLSN = getSegmentLSN(segments[0]);
+    lastLSN = getSegmentLSN(segments[segments.length - 1]) - 1;
+
+    segment = new RandomAccessFile(segments[segments.length - 1], "rw");
+
+    // FIND THE LAST ENTRY, DISCARDING THE ONE PARTIALLY WRITTEN IF ANY
+    final long length = segment.length();
+    long pos = 0;
+    while (pos + ENTRY_OVERHEAD <= length) {
+      segment.seek(pos);
+      final long lsn = segment.readLong();
+      final int len = segment.readInt();
+      if (len < 0 || pos + ENTRY_OVERHEAD + len > length)
+        break;
+      lastLSN = lsn;
+      pos += ENTRY_OVERHEAD + len;
+    }
+
+    if (pos < length) {
+      OLogManager.instance().warn(this, "Truncated the last change of the distributed journal in %s", directory);
+      segment.setLength(pos);
+    }
+  }
+
+  protected void createSegment(final long iFirstLSN) throws IOException {
+    close();
+
+    final File[] segments = getSegments();
+
+    segment = new RandomAccessFile(new File(directory, FILE_PREFIX + iFirstLSN), "rw");
+    segment.setLength(0);
+
+    // KEEP ONLY THE PREVIOUS SEGMENT
+    for (int i = 0; i < segments.length - 1; ++i)
+      segments[i].delete();
+
+    firstLSN = segments.length > 0 ? getSegmentLSN(segments[segments.length - 1]) : iFirstLSN;
+  }
+
+  protected File[] getSegments() {
+    final File[] files = directory.listFiles(new FileFilter() {
+      public boolean accept(final File iFile) {
+        return iFile.getName().startsWith(FILE_PREFIX) && getSegmentLSN(iFile) > 0;
+      }
+    });
+
+    if (files == null)
+      return new File[0];
+
+    Arrays.sort(files, new Comparator<File>() {
+      public int compare(final File o1, final File o2) {
+        final long lsn1 = getSegmentLSN(o1);
+        final long lsn2 = getSegmentLSN(o2);
+        return lsn1 < lsn2 ? -1 : lsn1 == lsn2 ? 0 : 1;
+      }
+    });
+    return files;
+  }
+
+  protected static long getSegmentLSN(final File iFile) {
+    try {
+      return Long.parseLong(iFile.getName().substring(FILE_PREFIX.length()));
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+}
@@ -0,0 +1,422 @@
+/*
+ * Copyright 2010-2012 Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientechnologies.orient.server.distributed;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInput;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutput;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import com.orientechnologies.orient.core.id.OClusterPositionFactory;
+import com.orientechnologies.orient.core.id.ORID;
+import com.orientechnologies.orient.core.id.ORecordId;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.core.storage.OPhysicalPosition;
+import com.orientechnologies.orient.core.storage.ORawBuffer;
+import com.orientechnologies.orient.core.version.ORecordVersion;
+import com.orientechnologies.orient.core.version.OVersionFactory;
+import com.orientechnologies.orient.server.distributed.task.OCompleteTxTask;
+import com.orientechnologies.orient.server.distributed.task.OCopyClusterTask;
+import com.orientechnologies.orient.server.distributed.task.OCopyDatabaseChunkTask;
+import com.orientechnologies.orient.server.distributed.task.OCreateRecordTask;
+import com.orientechnologies.orient.server.distributed.task.ODeleteRecordTask;
+import com.orientechnologies.orient.server.distributed.task.ODeployDatabaseTask;
+import com.orientechnologies.orient.server.distributed.task.OFixCreateRecordTask;
+import com.orientechnologies.orient.server.distributed.task.OFixDeleteRecordTask;
+import com.orientechnologies.orient.server.distributed.task.OFixTxTask;
+import com.orientechnologies.orient.server.distributed.task.OFixUpdateRecordTask;
+import com.orientechnologies.orient.server.distributed.task.OMapReduceCommandTask;
+import com.orientechnologies.orient.server.distributed.task.OPrepareTxTask;
+import com.orientechnologies.orient.server.distributed.task.OReadRecordTask;
+import com.orientechnologies.orient.server.distributed.task.OResynchTask;
+import com.orientechnologies.orient.server.distributed.task.OSQLCommandTask;
+import com.orientechnologies.orient.server.distributed.task.OSyncDatabaseDeltaTask;
+import com.orientechnologies.orient.server.distributed.task.OTxTask;
+import com.orientechnologies.orient.server.distributed.task.OUpdateRecordTask;
+
+/**
+ * Binary format of the tasks and of the results exchanged between the nodes. The built-in tasks and results are written with a
+ * type byte and a class id instead of the class descriptors of the Java serialization, RIDs and versions in their binary form and
+ * the common values without wrapping objects. Only the values of other types fall back to the Java serialization.
+ * <p>
+ * Every message starts with the format version, so a node refuses the messages of an incompatible node instead of misreading them.
+ * The class ids are the position in the list of the registered classes: new classes must be added at the end and the version
+ * increased when the format of a class changes. The buffers used to write are kept per thread and reused.
+ *
+ * @author Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ */
+public class ODistributedMessageSerializer {
+  public static final byte                                   VERSION        = 1;
+
+  private static final byte                                  NULL           = 0;
+  private static final byte                                  EXTERNALIZABLE = 1;
+  private static final byte                                  BOOLEAN        = 2;
+  private static final byte                                  INTEGER        = 3;
+  private static final byte                                  LONG           = 4;
+  private static final byte                                  STRING         = 5;
+  private static final byte                                  BYTES          = 6;
+  private static final byte                                  RID            = 7;
+  private static final byte                                  RECORD_VERSION = 8;
+  private static final byte                                  LIST           = 9;
+  private static final byte                                  SET            = 10;
+  private static final byte                                  MAP            = 11;
+  private static final byte                                  SERIALIZABLE   = 12;
+
+  private static final int                                   MAX_POOLED     = 1024 * 1024;
+
+  private static final List<Class<? extends Externalizable>> classes        = new ArrayList<Class<? extends Externalizable>>();
+  private static final Map<Class<?>, Integer>                classIds       = new IdentityHashMap<Class<?>, Integer>();
+  private static final ThreadLocal<OBufferOutput>            buffers        = new ThreadLocal<OBufferOutput>();
+
+  static {
+    // DON'T CHANGE THE ORDER: THE POSITION IS THE ID WRITTEN IN THE MESSAGES
+    register(OCreateRecordTask.class);
+    register(OUpdateRecordTask.class);
+    register(ODeleteRecordTask.class);
+    register(OReadRecordTask.class);
+    register(OTxTask.class);
+    register(OSQLCommandTask.class);
+    register(OMapReduceCommandTask.class);
+    register(OFixCreateRecordTask.class);
+    register(OFixUpdateRecordTask.class);
+    register(OFixDeleteRecordTask.class);
+    register(OFixTxTask.class);
+    register(OResynchTask.class);
+    register(ODeployDatabaseTask.class);
+    register(OCopyDatabaseChunkTask.class);
+    register(OSyncDatabaseDeltaTask.class);
+    register(ODistributedDatabaseChunk.class);
+    register(ODistributedDatabaseDelta.class);
+    register(OPhysicalPosition.class);
+    register(ORawBuffer.class);
+    register(ODocument.class);
+    register(OCopyClusterTask.class);
+    register(OPrepareTxTask.class);
+    register(OCompleteTxTask.class);
+  }
+
+  /**
+   * Output that writes the nested objects with this format. It's what the tasks receive in writeExternal().
+   */
+  public static class OObjectOutput extends DataOutputStream implements ObjectOutput {
+    public OObjectOutput(final OutputStream iOut) {
+      super(iOut);
+    }
+
+    public void writeObject(final Object iValue) throws IOException {
+      ODistributedMessageSerializer.writeObject(this, iValue);
+    }
+  }
+
+  /**
+   * Input that reads the nested objects with this format. It's what the tasks receive in readExternal().
+   */
+  public static class OObjectInput extends DataInputStream implements ObjectInput {
+    public OObjectInput(final InputStream iIn) {
+      super(iIn);
+    }
+
+    public Object readObject() throws ClassNotFoundException, IOException {
+      return ODistributedMessageSerializer.readObject(this);
+    }
+  }
+
+  private static class OBufferOutput extends OObjectOutput {
+    private final ByteArrayOutputStream buffer;
+
+    private OBufferOutput(final ByteArrayOutputStream iBuffer) {
+      super(iBuffer);
+      buffer = iBuffer;
+    }
+  }
+
+  private ODistributedMessageSerializer() {
+  }
+
+  /**
+   * Returns the object serialized, format version included.
+   */
+  public static byte[] toStream(final Object iValue) throws IOException {
+    OBufferOutput out = buffers.get();
+    if (out == null) {
+      out = new OBufferOutput(new ByteArrayOutputStream(1024));
+      buffers.set(out);
+    }
+
+    out.buffer.reset();
+    try {
+      out.writeByte(VERSION);
+      writeObject(out, iValue);
+      out.flush();
+      return out.buffer.toByteArray();
+    } finally {
+      if (out.buffer.size() > MAX_POOLED)
+        // DON'T KEEP THE BUFFERS OF THE BIG MESSAGES
+        buffers.remove();
+    }
+  }
+
+  public static Object fromStream(final byte[] iStream) throws IOException, ClassNotFoundException {
+    final OObjectInput in = new OObjectInput(new ByteArrayInputStream(iStream));
+    checkVersion(in.readByte());
+    return readObject(in);
+  }
+
+  /**
+   * Throws an exception if the message has been written with a format this node doesn't know.
+   */
+  public static void checkVersion(final byte iVersion) {
+    if (iVersion != VERSION)
+      throw new ODistributedException("Distributed message written with format version " + iVersion + " while this node supports "
+          + VERSION + ": the nodes of the cluster must run compatible releases");
+  }
+
+  public static void writeObject(final DataOutput iOut, final Object iValue) throws IOException {
+    if (iValue == null)
+      iOut.writeByte(NULL);
+
+    else if (iValue instanceof ORecordId) {
+      iOut.writeByte(RID);
+      writeRID(iOut, (ORID) iValue);
+
+    } else if (iValue instanceof ORecordVersion) {
+      iOut.writeByte(RECORD_VERSION);
+      final ORecordVersion version = (ORecordVersion) iValue;
+      version.getSerializer().writeTo(iOut, version);
+
+    } else if (classIds.containsKey(iValue.getClass())) {
+      iOut.writeByte(EXTERNALIZABLE);
+      iOut.writeShort(classIds.get(iValue.getClass()));
+      ((Externalizable) iValue).writeExternal(toObjectOutput(iOut));
+
+    } else if (iValue instanceof Boolean) {
+      iOut.writeByte(BOOLEAN);
+      iOut.writeBoolean((Boolean) iValue);
+
+    } else if (iValue instanceof Integer) {
+      iOut.writeByte(INTEGER);
+      iOut.writeInt((Integer) iValue);
+
+    } else if (iValue instanceof Long) {
+      iOut.writeByte(LONG);
+      iOut.writeLong((Long) iValue);
+
+    } else if (iValue instanceof String) {
+      iOut.writeByte(STRING);
+      writeBytes(iOut, ((String) iValue).getBytes("UTF-8"));
+
+    } else if (iValue instanceof byte[]) {
+      iOut.writeByte(BYTES);
+      writeBytes(iOut, (byte[]) iValue);
+
+    } else if (iValue.getClass() == ArrayList.class || iValue.getClass() == HashSet.class) {
+      // ONLY THE PLAIN COLLECTIONS: THE OTHERS KEEP THEIR CLASS WITH THE JAVA SERIALIZATION
+      iOut.writeByte(iValue.getClass() == ArrayList.class ? LIST : SET);
+      final Collection<?> collection = (Collection<?>) iValue;
+      iOut.writeInt(collection.size());
+      for (Object o : collection)
+        writeObject(iOut, o);
+
+    } else if (iValue.getClass() == HashMap.class) {
+      iOut.writeByte(MAP);
+      final Map<?, ?> map = (Map<?, ?>) iValue;
+      iOut.writeInt(map.size());
+      for (Entry<?, ?> entry : map.entrySet()) {
+        writeObject(iOut, entry.getKey());
+        writeObject(iOut, entry.getValue());
+      }
+
+    } else {
+      iOut.writeByte(SERIALIZABLE);
+      final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+      final ObjectOutputStream out = new ObjectOutputStream(buffer);
+      out.writeObject(iValue);
+      out.close();
+      writeBytes(iOut, buffer.toByteArray());
+    }
+  }
+
+  public static Object readObject(final DataInput iIn) throws IOException, ClassNotFoundException {
+    final byte type = iIn.readByte();
+    switch (type) {
+    case NULL:
+      return null;
+
+    case RID:
+      return readRID(iIn);
+
+    case RECORD_VERSION:
+      return readVersion(iIn);
+
+    case EXTERNALIZABLE:
+      final int id = iIn.readShort();
+      if (id < 0 || id >= classes.size())
+        throw new ODistributedException("Unknown class id " + id + " in distributed message");
+      final Externalizable value;
+      try {
+        value = classes.get(id).newInstance();
+      } catch (Exception e) {
+        throw new ODistributedException("Cannot create the instance of class " + classes.get(id), e);
+      }
+      value.readExternal(toObjectInput(iIn));
+      return value;
+
+    case BOOLEAN:
+      return iIn.readBoolean();
+
+    case INTEGER:
+      return iIn.readInt();
+
+    case LONG:
+      return iIn.readLong();
+
+    case STRING:
+      return new String(readBytes(iIn), "UTF-8");
+
+    case BYTES:
+      return readBytes(iIn);
+
+    case LIST:
+    case SET: {
+      final int size = iIn.readInt();
+      final Collection<Object> collection = type == LIST ? new ArrayList<Object>(size) : new HashSet<Object>(size);
+      for (int i = 0; i < size; ++i)
+        collection.add(readObject(iIn));
+      return collection;
+    }
+
+    case MAP: {
+      final int size = iIn.readInt();
+      final Map<Object, Object> map = new HashMap<Object, Object>(size);
+      for (int i = 0; i < size; ++i)
+        map.put(readObject(iIn), readObject(iIn));
+      return map;
+    }
+
+    case SERIALIZABLE:
+      final ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(readBytes(iIn)));
+      try {
+        return in.readObject();
+      } finally {
+        in.close();
+      }
+
+    default:
+      throw new ODistributedException("Unknown type " + type + " in distributed message");
+    }
+  }
+
+  public static void writeRID(final DataOutput iOut, final ORID iRID) throws IOException {
+    iOut.writeShort(iRID.getClusterId());
+    iOut.write(iRID.getClusterPosition().toStream());
+  }
+
+  public static ORecordId readRID(final DataInput iIn) throws IOException {
+    final int clusterId = iIn.readShort();
+    return new ORecordId(clusterId, OClusterPositionFactory.INSTANCE.fromStream(iIn));
+  }
+
+  public static ORecordVersion readVersion(final DataInput iIn) throws IOException {
+    final ORecordVersion version = OVersionFactory.instance().createVersion();
+    version.getSerializer().readFrom(iIn, version);
+    return version;
+  }
+
+  /**
+   * Returns an output that writes the nested objects with this format on the output received, without copying the content.
+   */
+  public static OObjectOutput toObjectOutput(final DataOutput iOut) {
+    if (iOut instanceof OObjectOutput)
+      return (OObjectOutput) iOut;
+
+    return new OObjectOutput(new OutputStream() {
+      @Override
+      public void write(final int b) throws IOException {
+        iOut.write(b);
+      }
+
+      @Override
+      public void write(final byte[] b, final int off, final int len) throws IOException {
+        iOut.write(b, off, len);
+      }
+    });
+  }
+
+  /**
+   * Returns an input that reads the nested objects with this format from the input received, without copying the content.
+   */
+  public static OObjectInput toObjectInput(final DataInput iIn) {
+    if (iIn instanceof OObjectInput)
+      return (OObjectInput) iIn;
+
+    return new OObjectInput(new InputStream() {
+      @Override
+      public int read() throws IOException {
+        // NOT readUnsignedByte(): SOME IMPLEMENTATIONS (HAZELCAST 3.1) DON'T MASK THE SIGN AND THE STREAM WOULD SEE EOF
+        return iIn.readByte() & 0xFF;
+      }
+
+      @Override
+      public int read(final byte[] b, final int off, final int len) throws IOException {
+        iIn.readFully(b, off, len);
+        return len;
+      }
+    });
+  }
+
+  /**
+   * Returns the registered classes in the order of their ids.
+   */
+  static List<Class<? extends Externalizable>> getRegisteredClasses() {
+    return Collections.unmodifiableList(classes);
+  }
+
+  private static void register(final Class<? extends Externalizable> iClass) {
+    classIds.put(iClass, classes.size());
+    classes.add(iClass);
+  }
+
+  private static void writeBytes(final DataOutput iOut, final byte[] iBytes) throws IOException {
+    iOut.writeInt(iBytes.length);
+    iOut.write(iBytes);
+  }
+
+  private static byte[] readBytes(final DataInput iIn) throws IOException {
+    final byte[] bytes = new byte[iIn.readInt()];
+    iIn.readFully(bytes);
+    return bytes;
+  }
+}
@@ -0,0 +1,326 @@
+/*
+ * Copyright 2010-2012 Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientechnologies.orient.server.distributed;
+
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.orientechnologies.common.profiler.OAbstractProfiler.OProfilerHookValue;
+import com.orientechnologies.common.profiler.OProfilerMBean;
+import com.orientechnologies.common.profiler.OProfilerMBean.METRIC_TYPE;
+import com.orientechnologies.orient.core.Orient;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+
+/**
+ * Replication metrics of a database on the current node: the requests sent and applied, the time to apply the changes received,
+ * the time waited for the quorum and for the responses of every node, the timeouts and the quorums not reached. The counters and
+ * times are also updated in the profiler under "distributed.replication.&lt;database&gt;".
+ * <p>
+ * The messages waiting in the queue of the current node and the replication lag, as the number of changes sent to the current
+ * node and not applied yet, are read from the database that receives the replicated changes.
+ * <p>
+ * The times are kept in histograms with fixed buckets, so the percentiles can be read without storing the single values.
+ *
+ * @author Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ */
+public class ODistributedMetrics {
+  private final String                            databaseName;
+  private final String                            prefix;
+  private final AtomicLong                        sentRequests     = new AtomicLong();
+  private final AtomicLong                        appliedRequests  = new AtomicLong();
+  private final AtomicLong                        synchTimeouts    = new AtomicLong();
+  private final AtomicLong                        asynchTimeouts   = new AtomicLong();
+  private final AtomicLong                        quorumNotReached = new AtomicLong();
+  private final AtomicLong                        localReads       = new AtomicLong();
+  private final AtomicLong                        forwardedReads   = new AtomicLong();
+  private final LinkedList<long[]>                lsnSamples       = new LinkedList<long[]>();
+  private final OHistogram                        applyTime        = new OHistogram();
+  private final OHistogram                        quorumTime       = new OHistogram();
+  private final ConcurrentMap<String, OHistogram> responseTimes    = new ConcurrentHashMap<String, OHistogram>();
+  private volatile long                           lastAppliedLSN;
+  private volatile OProfilerHookValue             queueSize;
+  private volatile OProfilerHookValue             replicationLag;
+  private static final int                        MAX_LSN_SAMPLES  = 1024;
+
+  /**
+   * Histogram of times in milliseconds with exponential buckets from 1ms to 10 seconds.
+   */
+  public static class OHistogram {
+    private static final long[] BOUNDS  = { 1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000, Long.MAX_VALUE };
+    private final AtomicLongArray buckets = new AtomicLongArray(BOUNDS.length);
+    private final AtomicLong      count   = new AtomicLong();
+    private final AtomicLong      total   = new AtomicLong();
+    private final AtomicLong      max     = new AtomicLong();
+
+    public void record(final long iTime) {
+      int i = 0;
+      while (iTime > BOUNDS[i])
+        i++;
+      buckets.incrementAndGet(i);
+      count.incrementAndGet();
+      total.addAndGet(iTime);
+
+      long current = max.get();
+      while (iTime > current && !max.compareAndSet(current, iTime))
+        current = max.get();
+    }
+
+    public long getCount() {
+      return count.get();
+    }
+
+    public long getAverage() {
+      final long c = count.get();
+      return c > 0 ? total.get() / c : 0;
+    }
+
+    public long getMax() {
+      return max.get();
+    }
+
+    /**
+     * Returns the upper bound of the bucket that contains the percentile (0-100) of the times recorded.
+     */
+    public long getPercentile(final double iPercentile) {
+      final long c = count.get();
+      if (c == 0)
+        return 0;
+
+      final long target = (long) Math.ceil(c * iPercentile / 100);
+      long sum = 0;
+      for (int i = 0; i < BOUNDS.length; ++i) {
+        sum += buckets.get(i);
+        if (sum >= target)
+          return BOUNDS[i] == Long.MAX_VALUE ? max.get() : Math.min(BOUNDS[i], max.get());
+      }
+      return max.get();
+    }
+
+    public ODocument toDocument() {
+      final ODocument doc = new ODocument();
+      doc.field("count", getCount());
+      doc.field("average", getAverage());
+      doc.field("p50", getPercentile(50));
+      doc.field("p95", getPercentile(95));
+      doc.field("p99", getPercentile(99));
+      doc.field("max", getMax());
+      return doc;
+    }
+  }
+
+  public ODistributedMetrics(final String iDatabaseName) {
+    databaseName = iDatabaseName;
+    prefix = "distributed.replication." + iDatabaseName;
+  }
+
+  public String getDatabaseName() {
+    return databaseName;
+  }
+
+  public void recordSent() {
+    sentRequests.incrementAndGet();
+  }
+
+  /**
+   * Records a request received from another node and executed on the current node.
+   */
+  public void recordApplied(final long iStartTime) {
+    appliedRequests.incrementAndGet();
+    applyTime.record(System.currentTimeMillis() - iStartTime);
+
+    getProfiler().stopChrono(prefix + ".applyTime", "Time to apply the replicated changes received", iStartTime,
+        "distributed.replication.*.applyTime");
+  }
+
+  /**
+   * Records the time waited for the synchronous responses. If they have not been received in time a timeout is counted.
+   */
+  public void recordQuorumWait(final long iStartTime, final boolean iReceived) {
+    quorumTime.record(System.currentTimeMillis() - iStartTime);
+
+    getProfiler().stopChrono(prefix + ".quorumTime", "Time waited for the synchronous responses of the replication messages",
+        iStartTime, "distributed.replication.*.quorumTime");
+
+    if (!iReceived) {
+      synchTimeouts.incrementAndGet();
+      getProfiler().updateCounter(prefix + ".synchTimeouts", "Number of timeouts on waiting for the synchronous responses", +1,
+          "distributed.replication.*.synchTimeouts");
+    }
+  }
+
+  public void recordResponse(final String iNode, final long iSentOn) {
+    OHistogram histogram = responseTimes.get(iNode);
+    if (histogram == null) {
+      final OHistogram newHistogram = new OHistogram();
+      histogram = responseTimes.putIfAbsent(iNode, newHistogram);
+      if (histogram == null)
+        histogram = newHistogram;
+    }
+    histogram.record(System.currentTimeMillis() - iSentOn);
+  }
+
+  /**
+   * Records a request expired before all the responses have been received.
+   */
+  public void recordAsynchTimeout() {
+    asynchTimeouts.incrementAndGet();
+  }
+
+  public void recordQuorumNotReached() {
+    quorumNotReached.incrementAndGet();
+    getProfiler().updateCounter(prefix + ".quorumNotReached", "Number of replication requests where the quorum was not reached",
+        +1, "distributed.replication.*.quorumNotReached");
+  }
+
+  /**
+   * Records a read served by the current node or sent to the nodes that own the data because the current node can't serve it with
+   * the consistency requested.
+   */
+  public void recordRead(final boolean iLocal) {
+    if (iLocal)
+      localReads.incrementAndGet();
+    else {
+      forwardedReads.incrementAndGet();
+      getProfiler().updateCounter(prefix + ".forwardedReads",
+          "Number of reads sent to other nodes because the current node can't serve them with the consistency requested", +1,
+          "distributed.replication.*.forwardedReads");
+    }
+  }
+
+  /**
+   * Returns how many milliseconds old is the data of the current node, or Long.MAX_VALUE if unknown. The LSN of the last change sent
+   * to the current node is sampled at every call: the data is at least as recent as the latest sample with an LSN already applied
+   * by the current node.
+   */
+  public long getStaleness(final long iLastLSN, final long iAppliedLSN) {
+    final long now = System.currentTimeMillis();
+
+    synchronized (lsnSamples) {
+      if (lsnSamples.isEmpty() || lsnSamples.getLast()[0] < iLastLSN)
+        // WITH THE SAME LSN THE OLDEST TIME IS KEPT
+        lsnSamples.addLast(new long[] { iLastLSN, now });
+
+      // REMOVE THE SAMPLES ALREADY APPLIED, BUT THE LATEST ONE
+      while (lsnSamples.size() > 1 && lsnSamples.get(1)[0] <= iAppliedLSN)
+        lsnSamples.removeFirst();
+
+      if (lsnSamples.size() > MAX_LSN_SAMPLES)
+        lsnSamples.removeFirst();
+
+      final long[] first = lsnSamples.getFirst();
+      if (first[0] > iAppliedLSN)
+        return Long.MAX_VALUE;
+
+      if (first == lsnSamples.getLast())
+        // UP TO DATE
+        return 0;
+
+      return now - first[1];
+    }
+  }
+
+  /**
+   * Returns the LSN of the last change received from the other nodes and applied on the current node.
+   */
+  public long getLastAppliedLSN() {
+    return lastAppliedLSN;
+  }
+
+  public void setLastAppliedLSN(final long iLSN) {
+    lastAppliedLSN = iLSN;
+  }
+
+  /**
+   * Registers the values read on demand: the messages waiting in the queue of the current node and the replication lag.
+   */
+  public void registerGauges(final OProfilerHookValue iQueueSize, final OProfilerHookValue iReplicationLag) {
+    queueSize = iQueueSize;
+    replicationLag = iReplicationLag;
+
+    getProfiler().registerHookValue(prefix + ".queueSize", "Number of replication messages waiting to be executed",
+        METRIC_TYPE.COUNTER, iQueueSize, "distributed.replication.*.queueSize");
+    getProfiler().registerHookValue(prefix + ".lag", "Number of replicated changes not applied yet", METRIC_TYPE.COUNTER,
+        iReplicationLag, "distributed.replication.*.lag");
+  }
+
+  public void unregisterGauges() {
+    getProfiler().unregisterHookValue(prefix + ".queueSize");
+    getProfiler().unregisterHookValue(prefix + ".lag");
+    queueSize = null;
+    replicationLag = null;
+  }
+
+  /**
+   * Returns the number of replication messages waiting in the queue of the current node, or -1 if unknown.
+   */
+  public long getQueueSize() {
+    return getGauge(queueSize);
+  }
+
+  /**
+   * Returns the number of changes sent to the current node and not applied yet, or -1 if unknown.
+   */
+  public long getReplicationLag() {
+    return getGauge(replicationLag);
+  }
+
+  public OHistogram getApplyTime() {
+    return applyTime;
+  }
+
+  public OHistogram getQuorumTime() {
+    return quorumTime;
+  }
+
+  public ODocument toDocument() {
+    final ODocument doc = new ODocument();
+    doc.field("sentRequests", sentRequests.get());
+    doc.field("appliedRequests", appliedRequests.get());
+    doc.field("lastAppliedLSN", lastAppliedLSN);
+    doc.field("queueSize", getQueueSize());
+    doc.field("lag", getReplicationLag());
+    doc.field("synchTimeouts", synchTimeouts.get());
+    doc.field("asynchTimeouts", asynchTimeouts.get());
+    doc.field("quorumNotReached", quorumNotReached.get());
+    doc.field("localReads", localReads.get());
+    doc.field("forwardedReads", forwardedReads.get());
+    doc.field("applyTime", applyTime.toDocument());
+    doc.field("quorumTime", quorumTime.toDocument());
+
+    final Map<String, ODocument> nodes = new LinkedHashMap<String, ODocument>();
+    for (Map.Entry<String, OHistogram> entry : responseTimes.entrySet())
+      nodes.put(entry.getKey(), entry.getValue().toDocument());
+    doc.field("responseTimes", nodes);
+    return doc;
+  }
+
+  private static long getGauge(final OProfilerHookValue iGauge) {
+    if (iGauge == null)
+      return -1;
+    final Object value = iGauge.getValue();
+    return value instanceof Number ? ((Number) value).longValue() : -1;
+  }
+
+  private static OProfilerMBean getProfiler() {
+    return Orient.instance().getProfiler();
+  }
+}
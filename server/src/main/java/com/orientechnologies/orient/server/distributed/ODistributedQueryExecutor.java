@@ -0,0 +1,329 @@
+/*
+ * Copyright 2010-2012 Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientechnologies.orient.server.distributed;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.orientechnologies.common.concur.ONeedRetryException;
+import com.orientechnologies.orient.core.command.OCommandRequestText;
+import com.orientechnologies.orient.core.command.OCommandResultListener;
+import com.orientechnologies.orient.core.config.OGlobalConfiguration;
+import com.orientechnologies.orient.core.db.ODatabaseRecordThreadLocal;
+import com.orientechnologies.orient.core.db.record.OIdentifiable;
+import com.orientechnologies.orient.core.id.OClusterPositionFactory;
+import com.orientechnologies.orient.core.id.ORecordId;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.core.record.impl.ODocumentHelper;
+import com.orientechnologies.orient.core.sql.OCommandExecutorSQLSelect;
+import com.orientechnologies.orient.core.sql.ORuntimeResult;
+import com.orientechnologies.orient.core.sql.functions.OSQLFunctionRuntime;
+import com.orientechnologies.orient.core.sql.functions.math.OSQLFunctionMathAbstract;
+import com.orientechnologies.orient.core.sql.functions.misc.OSQLFunctionCount;
+import com.orientechnologies.orient.core.sql.query.OSQLSynchQuery;
+import com.orientechnologies.orient.core.storage.OStorage;
+import com.orientechnologies.orient.server.distributed.ODistributedRequest.EXECUTION_MODE;
+import com.orientechnologies.orient.server.distributed.task.OMapReduceCommandTask;
+
+/**
+ * Executes a query splitting the clusters to browse among the nodes that own them. Every node executes the query only against
+ * its clusters returning partial results: the states of the aggregate functions per group and the top records when ORDER BY and
+ * LIMIT are used. The current node merges them and applies ORDER BY, SKIP and LIMIT to the merged result, so the records sent by
+ * the nodes are bounded by the size of the result and not by the records browsed.
+ * <p>
+ * Only the aggregate functions that can merge their partial states (count, sum, min, max, avg) are supported, the other queries
+ * are executed by the current node.
+ *
+ * @author Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ */
+public class ODistributedQueryExecutor {
+  private final ODistributedServerManager dManager;
+  private final String                    databaseName;
+  private final OStorage                  storage;
+  private final OCommandRequestText       request;
+  private final OCommandExecutorSQLSelect select;
+  private Map<String, List<String>>       assignedClusters;
+
+  public ODistributedQueryExecutor(final ODistributedServerManager iManager, final OStorage iStorage,
+      final OCommandRequestText iRequest, final OCommandExecutorSQLSelect iSelect) {
+    dManager = iManager;
+    databaseName = iStorage.getName();
+    storage = iStorage;
+    request = iRequest;
+    select = iSelect;
+  }
+
+  /**
+   * Returns true if the query can be split among more nodes. The clusters are assigned to the nodes at this time.
+   */
+  public boolean isSplittable() {
+    if (!OGlobalConfiguration.DISTRIBUTED_QUERY_SPLIT.getValueAsBoolean())
+      return false;
+
+    if (ODatabaseRecordThreadLocal.INSTANCE.get().getTransaction().isActive())
+      // THE CHANGES IN TRANSACTION ARE VISIBLE ONLY ON THE CURRENT NODE
+      return false;
+
+    if (select.getExpandTarget() != null || select.getGroupByFields() != null && select.getProjections() == null)
+      return false;
+
+    if (select.getProjections() != null)
+      for (Object projection : select.getProjections().values())
+        if (projection instanceof OSQLFunctionRuntime) {
+          final OSQLFunctionRuntime f = (OSQLFunctionRuntime) projection;
+          if (f.filterResult())
+            // DISTINCT() CAN'T FILTER THE RECORDS OF THE OTHER NODES
+            return false;
+
+          if (f.aggregateResults() && !(f.getFunction() instanceof OSQLFunctionMathAbstract)
+              && !(f.getFunction() instanceof OSQLFunctionCount))
+            return false;
+        }
+
+    final int[] clusterIds = select.getTargetClusterIds();
+    if (clusterIds == null || clusterIds.length == 0)
+      return false;
+
+    // ALSO A SINGLE CLUSTER IS SENT TO THE OWNER NODE WHEN THE CURRENT NODE DOESN'T OWN IT
+    assignedClusters = assignClusters(clusterIds);
+    return assignedClusters != null
+        && !(assignedClusters.size() == 1 && assignedClusters.containsKey(dManager.getLocalNodeName()));
+  }
+
+  /**
+   * Returns true if the current node owns all the clusters to browse. It's false when the clusters are sharded among the nodes.
+   */
+  public boolean isLocal() {
+    final int[] clusterIds = select.getTargetClusterIds();
+    if (clusterIds == null)
+      return true;
+
+    final ODistributedConfiguration cfg = dManager.getDatabaseConfiguration(databaseName);
+    final String localNode = dManager.getLocalNodeName();
+
+    for (int clusterId : clusterIds) {
+      final String clusterName = storage.getClusterById(clusterId).getName();
+      if (!cfg.isReplicationActive(clusterName))
+        continue;
+
+      final ODistributedPartitioningStrategy strategy = dManager.getPartitioningStrategy(cfg.getPartitionStrategy(clusterName));
+      if (!strategy.getPartition(dManager, databaseName, clusterName).getNodes().contains(localNode))
+        return false;
+    }
+    return true;
+  }
+
+  @SuppressWarnings("unchecked")
+  public Object execute() {
+    final Object response = dManager.sendRequest2Nodes(databaseName, assignedClusters.keySet(),
+        new OMapReduceCommandTask(request.getText(), request.getParameters(), assignedClusters, getPartialLimit()),
+        EXECUTION_MODE.RESPONSE);
+
+    if (!(response instanceof Map<?, ?>))
+      throw new ODistributedException("Unexpected response for the distributed query: " + response);
+
+    // COLLECT THE PARTIAL RESULTS OF ALL THE NODES
+    final Map<String, Object> payloads = (Map<String, Object>) response;
+    final List<OIdentifiable> partials = new ArrayList<OIdentifiable>();
+    for (String node : assignedClusters.keySet()) {
+      final Object payload = payloads.get(node);
+      if (payload instanceof ONeedRetryException)
+        throw (ONeedRetryException) payload;
+      else if (payload instanceof Throwable)
+        throw new ODistributedException("Error on execution distributed QUERY on node '" + node + "'", (Throwable) payload);
+      else if (!(payload instanceof Collection<?>))
+        throw new ODistributedException("No result received from node '" + node + "' for the distributed query: " + request);
+
+      for (Object o : (Collection<?>) payload)
+        partials.add((OIdentifiable) o);
+    }
+
+    final List<OIdentifiable> merged = select.isAnyFunctionAggregates() || select.getGroupByFields() != null ? mergeGroups(partials)
+        : renumber(partials);
+
+    if (select.getOrderedFields() != null)
+      ODocumentHelper.sort(merged, select.getOrderedFields());
+
+    final List<OIdentifiable> result = applyLimitAndSkip(merged);
+
+    final OCommandResultListener listener = request.getResultListener();
+    if (listener == null)
+      return result;
+
+    for (OIdentifiable r : result)
+      if (!listener.result(r))
+        break;
+    listener.end();
+
+    if (request instanceof OSQLSynchQuery<?>)
+      return ((OSQLSynchQuery<?>) request).getResult();
+    return null;
+  }
+
+  /**
+   * Assigns every cluster to one of the available nodes that own it, balancing the records to browse. The biggest clusters are
+   * assigned first, each one to the node with less records assigned so far, preferring the current node. Returns null if a
+   * cluster has no available node.
+   */
+  protected Map<String, List<String>> assignClusters(final int[] iClusterIds) {
+    final ODistributedConfiguration cfg = dManager.getDatabaseConfiguration(databaseName);
+    final String localNode = dManager.getLocalNodeName();
+
+    final Integer[] clusterIds = new Integer[iClusterIds.length];
+    final Map<Integer, Long> clusterRecords = new HashMap<Integer, Long>();
+    for (int i = 0; i < iClusterIds.length; ++i) {
+      clusterIds[i] = iClusterIds[i];
+      clusterRecords.put(iClusterIds[i], storage.count(iClusterIds[i]));
+    }
+
+    Arrays.sort(clusterIds, new Comparator<Integer>() {
+      public int compare(final Integer o1, final Integer o2) {
+        return clusterRecords.get(o2).compareTo(clusterRecords.get(o1));
+      }
+    });
+
+    final Map<String, List<String>> assignments = new HashMap<String, List<String>>();
+    final Map<String, Long> assignedRecords = new HashMap<String, Long>();
+
+    for (Integer clusterId : clusterIds) {
+      final String clusterName = storage.getClusterById(clusterId).getName();
+
+      final ODistributedPartitioningStrategy strategy = dManager.getPartitioningStrategy(cfg.getPartitionStrategy(clusterName));
+
+      String target = null;
+      long targetRecords = Long.MAX_VALUE;
+      for (String node : strategy.getPartition(dManager, databaseName, clusterName).getNodes()) {
+        if (!node.equals(localNode) && !dManager.isNodeAvailable(node))
+          continue;
+
+        final Long records = assignedRecords.get(node);
+        final long nodeRecords = records != null ? records : 0;
+        if (nodeRecords < targetRecords || nodeRecords == targetRecords && node.equals(localNode)) {
+          target = node;
+          targetRecords = nodeRecords;
+        }
+      }
+
+      if (target == null)
+        return null;
+
+      List<String> clusters = assignments.get(target);
+      if (clusters == null) {
+        clusters = new ArrayList<String>();
+        assignments.put(target, clusters);
+      }
+      clusters.add(clusterName);
+      assignedRecords.put(target, targetRecords + clusterRecords.get(clusterId));
+    }
+
+    return assignments;
+  }
+
+  /**
+   * Merges the partial states of the same group returned by the nodes.
+   */
+  protected List<OIdentifiable> mergeGroups(final List<OIdentifiable> iPartials) {
+    final Map<Object, List<ODocument>> groups = new LinkedHashMap<Object, List<ODocument>>();
+    for (OIdentifiable partial : iPartials) {
+      final ODocument doc = (ODocument) partial.getRecord();
+      final Object key = doc.field(OCommandExecutorSQLSelect.PARTIAL_GROUP_KEY);
+
+      List<ODocument> group = groups.get(key);
+      if (group == null) {
+        group = new ArrayList<ODocument>();
+        groups.put(key, group);
+      }
+      group.add(doc);
+    }
+
+    final List<OIdentifiable> result = new ArrayList<OIdentifiable>(groups.size());
+    for (List<ODocument> group : groups.values()) {
+      final ODocument merged = ORuntimeResult.createProjectionDocument(result.size());
+
+      for (Map.Entry<String, Object> projection : select.getProjections().entrySet()) {
+        final String field = projection.getKey();
+
+        if (projection.getValue() instanceof OSQLFunctionRuntime && ((OSQLFunctionRuntime) projection.getValue()).aggregateResults()) {
+          final List<Object> states = new ArrayList<Object>(group.size());
+          for (ODocument doc : group) {
+            final Object state = doc.field(field);
+            if (state != null)
+              states.add(state);
+          }
+
+          merged.field(field,
+              states.isEmpty() ? null : ((OSQLFunctionRuntime) projection.getValue()).getFunction().mergeDistributedResult(states));
+        } else
+          // NOT AGGREGATED: THE VALUE OF ANY RECORD OF THE GROUP
+          merged.field(field, group.get(0).field(field));
+      }
+
+      result.add(merged);
+    }
+    return result;
+  }
+
+  /**
+   * Assigns new temporary RIDs to the projections, because every node numbers its own from 0.
+   */
+  protected List<OIdentifiable> renumber(final List<OIdentifiable> iPartials) {
+    int i = 0;
+    for (OIdentifiable partial : iPartials)
+      if (partial.getIdentity().getClusterId() == -2)
+        ((ORecordId) partial.getIdentity()).clusterPosition = OClusterPositionFactory.INSTANCE.valueOf(i++);
+    return iPartials;
+  }
+
+  /**
+   * Returns the records every node returns: the records to skip plus the limit, because a node doesn't know the records of the
+   * others. All the records when there is no limit or the groups are merged.
+   */
+  protected int getPartialLimit() {
+    if (select.isAnyFunctionAggregates() || select.getGroupByFields() != null)
+      return -1;
+
+    final int limit = getLimit();
+    return limit > -1 ? limit + select.getSkip() : -1;
+  }
+
+  /**
+   * Returns the lower between the LIMIT of the query and the limit of the request, or -1 if none is set.
+   */
+  protected int getLimit() {
+    final int limit = select.getLimit();
+    if (request.getLimit() > -1 && (limit == -1 || request.getLimit() < limit))
+      return request.getLimit();
+    return limit;
+  }
+
+  protected List<OIdentifiable> applyLimitAndSkip(final List<OIdentifiable> iResult) {
+    final int limit = getLimit();
+
+    final int from = Math.min(select.getSkip(), iResult.size());
+    final int to = limit > -1 ? Math.min(from + limit, iResult.size()) : iResult.size();
+    if (from == 0 && to == iResult.size())
+      return iResult;
+
+    return new ArrayList<OIdentifiable>(iResult.subList(from, to));
+  }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2010-2012 Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientechnologies.orient.server.distributed;
+
+import com.orientechnologies.orient.core.db.ODatabaseRecordThreadLocal;
+import com.orientechnologies.orient.core.db.record.ODatabaseRecord;
+
+/**
+ * Consistency requested by a read, that decides if the current node can serve it with its own copy of the data or if the read must
+ * be sent to the nodes that own the data through the replication queues, where it's executed after all the changes sent before:
+ * <ul>
+ * <li>STRONG: the current node must have applied all the changes sent to it when the read started</li>
+ * <li>BOUNDED_STALENESS: the current node can miss at most "readMaxLag" changes and its data can be at most "readMaxStaleness"
+ * milliseconds old. With no bounds, the default, any node that owns the data serves the read</li>
+ * <li>SESSION: the current node must have applied the last change written by the database session (read your writes)</li>
+ * </ul>
+ * A node receives only the changes of the clusters it owns, so the LSNs it has applied are compared with the LSN of the last change
+ * sent to it, not with the last LSN of the whole cluster.
+ * The consistency is configured per cluster in the distributed configuration with "readConsistency", "readMaxLag" and
+ * "readMaxStaleness", and can be changed by a database session for the next reads setting the properties with the same names
+ * prefixed by "distributed.". The LSN of the last change written by the session is kept in the "distributed.sessionLSN" property:
+ * copying it to another session makes that one read the changes of the first session.
+ *
+ * @author Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ */
+public class ODistributedReadConsistency {
+  public static final String READ_CONSISTENCY   = "distributed.readConsistency";
+  public static final String READ_MAX_LAG       = "distributed.readMaxLag";
+  public static final String READ_MAX_STALENESS = "distributed.readMaxStaleness";
+  public static final String SESSION_LSN        = "distributed.sessionLSN";
+
+  public enum MODE {
+    STRONG, BOUNDED_STALENESS, SESSION
+  }
+
+  private final MODE mode;
+  private final long maxLag;
+  private final long maxStaleness;
+  private final long sessionLSN;
+
+  public ODistributedReadConsistency(final MODE iMode, final long iMaxLag, final long iMaxStaleness, final long iSessionLSN) {
+    mode = iMode;
+    maxLag = iMaxLag;
+    maxStaleness = iMaxStaleness;
+    sessionLSN = iSessionLSN;
+  }
+
+  /**
+   * Returns the consistency requested by the current database session for a read against the cluster.
+   */
+  public static ODistributedReadConsistency getCurrent(final ODistributedConfiguration iConfiguration, final String iClusterName) {
+    MODE mode = iConfiguration.getReadConsistency(iClusterName);
+    long maxLag = iConfiguration.getReadMaxLag(iClusterName);
+    long maxStaleness = iConfiguration.getReadMaxStaleness(iClusterName);
+    long sessionLSN = 0;
+
+    final ODatabaseRecord db = ODatabaseRecordThreadLocal.INSTANCE.getIfDefined();
+    if (db != null) {
+      final Object sessionMode = db.getProperty(READ_CONSISTENCY);
+      if (sessionMode != null)
+        mode = sessionMode instanceof MODE ? (MODE) sessionMode : MODE.valueOf(sessionMode.toString().toUpperCase());
+
+      maxLag = getLong(db.getProperty(READ_MAX_LAG), maxLag);
+      maxStaleness = getLong(db.getProperty(READ_MAX_STALENESS), maxStaleness);
+      sessionLSN = getLong(db.getProperty(SESSION_LSN), 0);
+    }
+
+    return new ODistributedReadConsistency(mode, maxLag, maxStaleness, sessionLSN);
+  }
+
+  /**
+   * Remembers in the current database session the LSN of a change it wrote.
+   */
+  public static void updateSessionLSN(final long iLSN) {
+    final ODatabaseRecord db = ODatabaseRecordThreadLocal.INSTANCE.getIfDefined();
+    if (db != null && iLSN > getLong(db.getProperty(SESSION_LSN), 0))
+      db.setProperty(SESSION_LSN, iLSN);
+  }
+
+  /**
+   * Returns the LSN the current node must have applied to serve the read, or -1 if the read is bounded by the staleness. It's
+   * computed once when the read starts.
+   */
+  public long getRequiredLSN(final ODistributedServerManager iManager, final String iDatabaseName) {
+    switch (mode) {
+    case STRONG:
+      return iManager.getLastLSN(iDatabaseName, iManager.getLocalNodeName());
+    case SESSION:
+      // THE LAST CHANGE OF THE SESSION COULD BE OF A CLUSTER NOT OWNED BY THE CURRENT NODE: THEN IT NEVER RECEIVES IT
+      return Math.min(sessionLSN, iManager.getLastLSN(iDatabaseName, iManager.getLocalNodeName()));
+    default:
+      return -1;
+    }
+  }
+
+  /**
+   * Tells if the current node, that owns the data, can serve the read now.
+   */
+  public boolean isSatisfied(final ODistributedServerManager iManager, final String iDatabaseName, final long iRequiredLSN) {
+    final long appliedLSN = iManager.getLastAppliedLSN(iDatabaseName);
+
+    if (mode != MODE.BOUNDED_STALENESS)
+      return appliedLSN >= iRequiredLSN;
+
+    if (maxLag < 0 && maxStaleness < 0)
+      // NO BOUNDS: ANY NODE THAT OWNS THE DATA
+      return true;
+
+    final long lastLSN = iManager.getLastLSN(iDatabaseName, iManager.getLocalNodeName());
+
+    if (maxStaleness >= 0 && iManager.getMetrics(iDatabaseName).getStaleness(lastLSN, appliedLSN) > maxStaleness)
+      return false;
+
+    return maxLag < 0 || lastLSN - appliedLSN <= maxLag;
+  }
+
+  /**
+   * Waits until the current node can serve the read.
+   *
+   * @throws ODistributedException
+   *           if the current node doesn't reach the consistency requested in time
+   */
+  public void waitFor(final ODistributedServerManager iManager, final String iDatabaseName, final long iTimeout) {
+    final long requiredLSN = getRequiredLSN(iManager, iDatabaseName);
+    final long timeout = System.currentTimeMillis() + iTimeout;
+
+    while (!isSatisfied(iManager, iDatabaseName, requiredLSN)) {
+      if (System.currentTimeMillis() > timeout)
+        throw new ODistributedException("Timeout (" + iTimeout + "ms) on waiting for the current node to reach the " + mode
+            + " read consistency on database " + iDatabaseName);
+      try {
+        Thread.sleep(5);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new ODistributedException("Interrupted on waiting for the " + mode + " read consistency on database "
+            + iDatabaseName);
+      }
+    }
+  }
+
+  public MODE getMode() {
+    return mode;
+  }
+
+  @Override
+  public String toString() {
+    return mode + (mode == MODE.BOUNDED_STALENESS ? "(maxLag=" + maxLag + ",maxStaleness=" + maxStaleness + ")" : "");
+  }
+
+  private static long getLong(final Object iValue, final long iDefault) {
+    if (iValue instanceof Number)
+      return ((Number) iValue).longValue();
+    if (iValue != null)
+      return Long.parseLong(iValue.toString());
+    return iDefault;
+  }
+}
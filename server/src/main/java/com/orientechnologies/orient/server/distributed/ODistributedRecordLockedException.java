@@ -0,0 +1,34 @@
+/*
+ * Copyright 2010-2012 Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientechnologies.orient.server.distributed;
+
+import com.orientechnologies.common.concur.ONeedRetryException;
+import com.orientechnologies.orient.core.id.ORID;
+
+/**
+ * Exception thrown when a record is changed while it's locked by a distributed transaction prepared and not completed yet. The
+ * operation can be retried.
+ *
+ * @author Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ */
+public class ODistributedRecordLockedException extends ONeedRetryException {
+  private static final long serialVersionUID = 1L;
+
+  public ODistributedRecordLockedException(final ORID iRid, final String iTransactionId) {
+    super("Record " + iRid + " is locked by the distributed transaction " + iTransactionId);
+  }
+}
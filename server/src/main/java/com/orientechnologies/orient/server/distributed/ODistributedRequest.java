@@ -47,5 +47,12 @@ public interface ODistributedRequest {
 
   ODistributedRequest setTask(final OAbstractRemoteTask payload);
 
+  /**
+   * Returns the cluster-wide sequence of the change, or 0 if the request doesn't change the database.
+   */
+  long getLSN();
+
+  ODistributedRequest setLSN(long iLSN);
+
   void undo();
 }
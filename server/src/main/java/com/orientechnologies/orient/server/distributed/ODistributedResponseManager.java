@@ -100,6 +100,8 @@ public class ODistributedResponseManager {
         .stopChrono("distributed.replication." + executorNode + ".responseTime", "Response time from replication messages", sentOn,
             "distributed.replication.*.responseTime");
 
+    dManager.getMetrics(request.getDatabaseName()).recordResponse(executorNode, sentOn);
+
     responses.put(executorNode, response);
     receivedResponses++;
 
@@ -109,7 +111,7 @@ public class ODistributedResponseManager {
     boolean foundBucket = false;
     for (int i = 0; i < responseGroups.size(); ++i) {
       final List<ODistributedResponse> sameResponse = responseGroups.get(i);
-      if (sameResponse.isEmpty() || sameResponse.get(0).getPayload().equals(response.getPayload())) {
+      if (sameResponse.isEmpty() || isSamePayload(sameResponse.get(0).getPayload(), response.getPayload())) {
         sameResponse.add(response);
         foundBucket = true;
         break;
@@ -143,6 +145,20 @@ public class ODistributedResponseManager {
   /**
    * Returns the received response objects.
    */
+  /**
+   * Tells if two nodes responded the same. The exceptions are compared by class and message, so the nodes that refused a change
+   * for the same reason are not in conflict.
+   */
+  protected static boolean isSamePayload(final Object iPayload1, final Object iPayload2) {
+    if (iPayload1 instanceof Throwable && iPayload2 instanceof Throwable) {
+      final Throwable e1 = (Throwable) iPayload1;
+      final Throwable e2 = (Throwable) iPayload2;
+      return e1.getClass().equals(e2.getClass())
+          && (e1.getMessage() == null ? e2.getMessage() == null : e1.getMessage().equals(e2.getMessage()));
+    }
+    return iPayload1 == null ? iPayload2 == null : iPayload1.equals(iPayload2);
+  }
+
   public List<ODistributedResponse> getReceivedResponses() {
     final List<ODistributedResponse> parsed = new ArrayList<ODistributedResponse>();
     for (Object r : responses.values())
@@ -399,6 +415,8 @@ public class ODistributedResponseManager {
       // TODO: UNDO
       request.undo();
 
+      dManager.getMetrics(request.getDatabaseName()).recordQuorumNotReached();
+
       final StringBuilder msg = new StringBuilder();
 
       msg.append("Quorum " + getQuorum() + " not reached for request=" + request + ". Servers in conflicts are:");
@@ -16,6 +16,7 @@
 package com.orientechnologies.orient.server.distributed;
 
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.locks.Lock;
 
 import com.orientechnologies.orient.core.record.impl.ODocument;
@@ -84,8 +85,64 @@ public interface ODistributedServerManager {
 
   public void sendRequest2Node(String iDatabaseName, String iTargetNodeName, OAbstractRemoteTask iTask);
 
+  /**
+   * Sends the task only to the target node, waiting for its response if the execution mode is RESPONSE.
+   */
+  public Object sendRequest2Node(String iDatabaseName, String iTargetNodeName, OAbstractRemoteTask iTask,
+      EXECUTION_MODE iExecutionMode);
+
+  /**
+   * Sends the task to the target nodes only, waiting for the responses of all of them if the execution mode is RESPONSE.
+   */
+  public Object sendRequest2Nodes(String iDatabaseName, Set<String> iTargetNodeNames, OAbstractRemoteTask iTask,
+      EXECUTION_MODE iExecutionMode);
+
   public ODistributedPartitioningStrategy getPartitioningStrategy(String partitionStrategy);
 
+  /**
+   * Returns the journal of the changes applied on the current node to the database, or null if the database has no journal.
+   */
+  public ODistributedJournal getJournal(String iDatabaseName);
+
   public ODocument getStats();
 
+  /**
+   * Returns the replication metrics of the database on the current node.
+   */
+  public ODistributedMetrics getMetrics(String iDatabaseName);
+
+  /**
+   * Returns the LSN of the last change broadcast to the cluster for the database.
+   */
+  public long getLastLSN(String iDatabaseName);
+
+  /**
+   * Returns the LSN of the last change sent to a node for the database. A node receives only the changes of the clusters it owns.
+   */
+  public long getLastLSN(String iDatabaseName, String iNodeName);
+
+  /**
+   * Returns the LSN of the last change applied by the current node to the database.
+   */
+  public long getLastAppliedLSN(String iDatabaseName);
+
+  /**
+   * Returns the distributed transactions prepared on the current node for the database.
+   */
+  public ODistributedTransactions getTransactions(String iDatabaseName);
+
+  /**
+   * Records the outcome of a distributed transaction in the cluster, unless an outcome has already been recorded. The nodes that
+   * prepared the transaction and don't receive its completion complete it with the outcome recorded.
+   *
+   * @return true if the transaction must be committed, false if it must be rolled back
+   */
+  public boolean setTransactionOutcome(String iDatabaseName, String iTxId, boolean iCommit);
+
+  /**
+   * Returns the outcome recorded in the cluster for a distributed transaction: true to commit it, false to roll it back or null if
+   * it has not been decided yet.
+   */
+  public Boolean getTransactionOutcome(String iDatabaseName, String iTxId);
+
 }
@@ -19,8 +19,11 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.UUID;
 import java.util.concurrent.Callable;
 
 import com.orientechnologies.common.concur.ONeedRetryException;
@@ -32,22 +35,26 @@ import com.orientechnologies.orient.core.command.OCommandDistributedReplicateReq
 import com.orientechnologies.orient.core.command.OCommandExecutor;
 import com.orientechnologies.orient.core.command.OCommandManager;
 import com.orientechnologies.orient.core.command.OCommandRequestText;
+import com.orientechnologies.orient.core.config.OGlobalConfiguration;
 import com.orientechnologies.orient.core.config.OStorageConfiguration;
 import com.orientechnologies.orient.core.db.OScenarioThreadLocal;
 import com.orientechnologies.orient.core.db.OScenarioThreadLocal.RUN_MODE;
 import com.orientechnologies.orient.core.db.record.ORecordOperation;
 import com.orientechnologies.orient.core.exception.OStorageException;
+import com.orientechnologies.orient.core.exception.OTransactionException;
 import com.orientechnologies.orient.core.id.OClusterPosition;
 import com.orientechnologies.orient.core.id.ORID;
 import com.orientechnologies.orient.core.id.ORecordId;
 import com.orientechnologies.orient.core.record.ORecordInternal;
 import com.orientechnologies.orient.core.sql.OCommandExecutorSQLDelegate;
+import com.orientechnologies.orient.core.sql.OCommandExecutorSQLSelect;
 import com.orientechnologies.orient.core.storage.*;
 import com.orientechnologies.orient.core.storage.impl.local.OFreezableStorage;
 import com.orientechnologies.orient.core.tx.OTransaction;
 import com.orientechnologies.orient.core.version.ORecordVersion;
 import com.orientechnologies.orient.server.OServer;
 import com.orientechnologies.orient.server.distributed.ODistributedRequest.EXECUTION_MODE;
+import com.orientechnologies.orient.server.distributed.ODistributedServerLog.DIRECTION;
 import com.orientechnologies.orient.server.distributed.task.*;
 
 /**
@@ -89,6 +96,35 @@ public class ODistributedStorage implements OStorage, OFreezableStorage {
     final OCommandExecutor exec = executor instanceof OCommandExecutorSQLDelegate ? ((OCommandExecutorSQLDelegate) executor)
         .getDelegate() : executor;
 
+    if (exec instanceof OCommandExecutorSQLSelect) {
+      // QUERY: THE CURRENT NODE HAS ALL THE RECORDS, UNLESS IT'S WORTH TO SPLIT THE CLUSTERS AMONG THE NODES
+      final ODistributedQueryExecutor query = new ODistributedQueryExecutor(dManager, wrapped, iCommand,
+          (OCommandExecutorSQLSelect) exec);
+      if (!query.isSplittable()) {
+        if (!query.isLocal())
+          throw new ODistributedException("Cannot execute the query because the current node doesn't own all the clusters and the query cannot be split among the nodes: "
+              + iCommand.getText());
+
+        // THE QUERY CAN BE EXECUTED ONLY LOCALLY: WAIT FOR THE CURRENT NODE TO REACH THE CONSISTENCY REQUESTED
+        ODistributedReadConsistency.getCurrent(dConfig, null).waitFor(dManager, getName(),
+            OGlobalConfiguration.DISTRIBUTED_READ_WAIT_TIMEOUT.getValueAsLong());
+        dManager.getMetrics(getName()).recordRead(true);
+
+        return wrapped.executeCommand(iCommand, executor);
+      }
+
+      try {
+        return query.execute();
+      } catch (ONeedRetryException e) {
+        // PASS THROUGH
+        throw e;
+      } catch (Exception e) {
+        handleDistributedException("Cannot route QUERY operation to the distributed nodes", e);
+        // UNREACHABLE
+        return null;
+      }
+    }
+
     boolean distribute = false;
     if (OScenarioThreadLocal.INSTANCE.get() != RUN_MODE.RUNNING_DISTRIBUTED)
       if (exec instanceof OCommandDistributedReplicateRequest)
@@ -100,8 +136,6 @@ public class ODistributedStorage implements OStorage, OFreezableStorage {
 
     try {
       // REPLICATE IT
-      // final OAbstractRemoteTask task = exec instanceof OCommandExecutorSQLResultsetAbstract ? new OMapReduceCommandTask(
-      // iCommand.getText()) : new OSQLCommandTask(iCommand.getText());
       final OAbstractRemoteTask task = new OSQLCommandTask(iCommand.getText());
 
       final Object result = dManager.sendRequest(getName(), null, task, EXECUTION_MODE.RESPONSE);
@@ -178,11 +212,17 @@ public class ODistributedStorage implements OStorage, OFreezableStorage {
 
       final ODistributedPartitioningStrategy strategy = dManager.getPartitioningStrategy(dConfig.getPartitionStrategy(clusterName));
       final ODistributedPartition partition = strategy.getPartition(dManager, getName(), clusterName);
-      if (partition.getNodes().contains(dManager.getLocalNodeName()))
-        // LOCAL NODE OWNS THE DATA: GET IT LOCALLY BECAUSE IT'S FASTER
-        return wrapped.readRecord(iRecordId, iFetchPlan, iIgnoreCache, iCallback, loadTombstones);
+      if (partition.getNodes().contains(dManager.getLocalNodeName())) {
+        final ODistributedReadConsistency consistency = ODistributedReadConsistency.getCurrent(dConfig, clusterName);
+        if (consistency.isSatisfied(dManager, getName(), consistency.getRequiredLSN(dManager, getName()))) {
+          // LOCAL NODE OWNS THE DATA AND IT'S RECENT ENOUGH: GET IT LOCALLY BECAUSE IT'S FASTER
+          dManager.getMetrics(getName()).recordRead(true);
+          return wrapped.readRecord(iRecordId, iFetchPlan, iIgnoreCache, iCallback, loadTombstones);
+        }
+      }
 
-      // DISTRIBUTE IT
+      // DISTRIBUTE IT: THE OWNERS EXECUTE THE READ AFTER ALL THE CHANGES SENT BEFORE
+      dManager.getMetrics(getName()).recordRead(false);
       final Object result = dManager.sendRequest(getName(), clusterName, new OReadRecordTask(iRecordId), EXECUTION_MODE.RESPONSE);
 
       if (result instanceof ONeedRetryException)
@@ -380,15 +420,138 @@ public class ODistributedStorage implements OStorage, OFreezableStorage {
             txTask.add(task);
           }
 
-          // REPLICATE IT
-          dManager.sendRequest(getName(), null, txTask, EXECUTION_MODE.RESPONSE);
+          if (txTask.getTasks().isEmpty())
+            return;
+
+          final Set<String> nodes = getTransactionNodes(dConfig, txTask);
+          if (nodes.size() == 1) {
+            // ALL THE RECORDS ARE ON ONE NODE: COMMIT IT IN ONE ROUND TRIP
+            final Object result = dManager.sendRequest2Nodes(getName(), nodes, txTask, EXECUTION_MODE.RESPONSE);
+            if (result instanceof Throwable)
+              throwTransactionException(nodes.iterator().next(), (Throwable) result);
+          } else
+            commit2Phases(txTask, nodes);
         }
+      } catch (ONeedRetryException e) {
+        // PASS THROUGH
+        throw e;
+      } catch (OTransactionException e) {
+        // PASS THROUGH
+        throw e;
       } catch (Exception e) {
         handleDistributedException("Cannot route TX operation against distributed node", e);
       }
     }
   }
 
+  /**
+   * Commits the transaction on the nodes with two phases: every node checks the versions and locks the records, then the
+   * transaction is committed only if all the nodes are ready, otherwise it's rolled back. The outcome is recorded in the cluster
+   * before sending it, so the nodes that don't receive it complete the transaction the same way.
+   */
+  @SuppressWarnings("unchecked")
+  protected void commit2Phases(final OTxTask iTx, final Set<String> iNodes) {
+    final String txId = dManager.getLocalNodeName() + "." + UUID.randomUUID();
+
+    final Object votes;
+    try {
+      votes = dManager.sendRequest2Nodes(getName(), iNodes, new OPrepareTxTask(txId, iTx), EXECUTION_MODE.RESPONSE);
+    } catch (RuntimeException e) {
+      // SOME NODES COULD HAVE BEEN PREPARED: UNLOCK THEIR RECORDS
+      rollback2Phases(txId, iTx, iNodes);
+      throw e;
+    }
+
+    String failedNode = null;
+    Object failure = null;
+    for (String node : iNodes) {
+      final Object vote = votes instanceof Map ? ((Map<String, Object>) votes).get(node) : null;
+      if (!Boolean.TRUE.equals(vote)) {
+        failedNode = node;
+        failure = vote;
+        break;
+      }
+    }
+
+    if (failedNode == null && !dManager.setTransactionOutcome(getName(), txId, true))
+      // THE NODES ROLLED IT BACK BECAUSE THE CURRENT NODE DIDN'T COMPLETE IT IN TIME
+      throw new OTransactionException("Distributed transaction " + txId
+          + " has been rolled back by the nodes because it has not been completed in time");
+
+    if (failedNode != null) {
+      rollback2Phases(txId, iTx, iNodes);
+      if (failure instanceof Throwable)
+        throwTransactionException(failedNode, (Throwable) failure);
+      throw new OTransactionException("Distributed transaction " + txId + " rolled back because node " + failedNode
+          + " has not been prepared in time");
+    }
+
+    final Object result = dManager.sendRequest2Nodes(getName(), iNodes, new OCompleteTxTask(txId, true, iTx.getClusterId()),
+        EXECUTION_MODE.RESPONSE);
+
+    // THE OTHER NODES HAVE COMMITTED IT: A NODE THAT FAILED IS NOT ALIGNED ANYMORE AND THE CALLER MUST KNOW IT
+    final Map<String, Throwable> errors = new HashMap<String, Throwable>();
+    if (result instanceof Map) {
+      for (Map.Entry<String, Object> entry : ((Map<String, Object>) result).entrySet())
+        if (entry.getValue() instanceof Throwable)
+          errors.put(entry.getKey(), (Throwable) entry.getValue());
+    } else if (result instanceof Throwable)
+      errors.put(iNodes.iterator().next(), (Throwable) result);
+
+    if (!errors.isEmpty()) {
+      ODistributedServerLog.error(this, dManager.getLocalNodeName(), errors.keySet().toString(), DIRECTION.OUT,
+          "error on committing distributed transaction %s, the nodes are not aligned anymore: %s", txId, errors);
+      throw new ODistributedException("Distributed transaction " + txId + " has been committed but it failed on nodes "
+          + errors.keySet() + " that are not aligned anymore", errors.values().iterator().next());
+    }
+  }
+
+  /**
+   * Rolls back the transaction on the nodes that could have prepared it. The outcome is recorded first, so the nodes roll it back
+   * even if they don't receive the rollback.
+   */
+  protected void rollback2Phases(final String iTxId, final OTxTask iTx, final Set<String> iNodes) {
+    try {
+      dManager.setTransactionOutcome(getName(), iTxId, false);
+      dManager.sendRequest2Nodes(getName(), iNodes, new OCompleteTxTask(iTxId, false, iTx.getClusterId()),
+          EXECUTION_MODE.NO_RESPONSE);
+    } catch (RuntimeException e) {
+      ODistributedServerLog.error(this, dManager.getLocalNodeName(), iNodes.toString(), DIRECTION.OUT,
+          "error on rolling back distributed transaction %s, the nodes will complete it with the outcome recorded in the cluster",
+          e, iTxId);
+    }
+  }
+
+  /**
+   * Returns the available nodes that own the records of the transaction.
+   */
+  protected Set<String> getTransactionNodes(final ODistributedConfiguration iConfig, final OTxTask iTx) {
+    final Set<String> nodes = new HashSet<String>();
+    for (OAbstractRecordReplicatedTask task : iTx.getTasks()) {
+      final String clusterName = getClusterNameByRID(task.getRid());
+      if (iConfig.isClusterMoving(clusterName))
+        throw new ODistributedClusterMovingException(getName(), clusterName);
+
+      final ODistributedPartitioningStrategy strategy = dManager.getPartitioningStrategy(iConfig.getPartitionStrategy(clusterName));
+      for (String node : strategy.getPartition(dManager, getName(), clusterName).getNodes())
+        if (dManager.isNodeAvailable(node))
+          nodes.add(node);
+    }
+
+    if (nodes.isEmpty())
+      throw new ODistributedException("No nodes available to commit the transaction against database " + getName());
+
+    return nodes;
+  }
+
+  protected void throwTransactionException(final String iNode, final Throwable iCause) {
+    if (iCause instanceof ONeedRetryException)
+      throw (ONeedRetryException) iCause;
+    else if (iCause instanceof OTransactionException)
+      throw (OTransactionException) iCause;
+    throw new ODistributedException("Error on committing distributed transaction on node " + iNode, iCause);
+  }
+
   public void rollback(final OTransaction iTx) {
     wrapped.rollback(iTx);
   }
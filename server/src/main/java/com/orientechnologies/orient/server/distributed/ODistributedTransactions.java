@@ -0,0 +1,148 @@
+/*
+ * Copyright 2010-2012 Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientechnologies.orient.server.distributed;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.orientechnologies.orient.core.config.OGlobalConfiguration;
+import com.orientechnologies.orient.core.id.ORID;
+import com.orientechnologies.orient.server.distributed.task.OTxTask;
+
+/**
+ * Distributed transactions prepared on the current node for a database, waiting for the commit or the rollback of the node that
+ * started them. The records changed by a prepared transaction are locked: another transaction that changes them can't be prepared
+ * and the single changes are refused until the transaction is completed.
+ * <p>
+ * The transactions are prepared and completed in the order of the replication queue, that is the same on all the nodes, so all the
+ * nodes lock the same records. A node never rolls back a prepared transaction on its own, because the other nodes could have
+ * committed it: if the transaction is not completed in "distributed.txLockTimeout" milliseconds, it's completed with the outcome
+ * recorded in the cluster by the node that started it.
+ *
+ * @author Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ */
+public class ODistributedTransactions {
+  private final String                            databaseName;
+  private final Map<String, OPreparedTransaction> prepared = new HashMap<String, OPreparedTransaction>();
+  private final Map<ORID, OPreparedTransaction>   locks    = new HashMap<ORID, OPreparedTransaction>();
+
+  public static class OPreparedTransaction {
+    public final String              id;
+    public final String              coordinator;
+    public final OTxTask             tx;
+    protected final Collection<ORID> rids;
+    protected final long             preparedOn = System.currentTimeMillis();
+    protected boolean                resolving;
+
+    protected OPreparedTransaction(final String iId, final String iCoordinator, final OTxTask iTx, final Collection<ORID> iRids) {
+      id = iId;
+      coordinator = iCoordinator;
+      tx = iTx;
+      rids = iRids;
+    }
+  }
+
+  public ODistributedTransactions(final String iDatabaseName) {
+    databaseName = iDatabaseName;
+  }
+
+  /**
+   * Locks the records of the transaction. If a record is locked by another transaction nothing is locked.
+   *
+   * @return The record locked by another transaction, or null if the records have been locked
+   */
+  public synchronized ORID lock(final String iTxId, final String iCoordinator, final OTxTask iTx, final Collection<ORID> iRids) {
+    for (ORID rid : iRids)
+      if (getLockingTransaction(rid) != null)
+        return rid;
+
+    final OPreparedTransaction tx = new OPreparedTransaction(iTxId, iCoordinator, iTx, iRids);
+    prepared.put(iTxId, tx);
+    for (ORID rid : iRids)
+      locks.put(rid, tx);
+    return null;
+  }
+
+  /**
+   * Unlocks the records of the transaction.
+   *
+   * @return The transaction prepared, or null if it has not been prepared on the current node or it's already completed
+   */
+  public synchronized OTxTask complete(final String iTxId) {
+    final OPreparedTransaction tx = prepared.remove(iTxId);
+    if (tx == null)
+      return null;
+
+    for (ORID rid : tx.rids)
+      locks.remove(rid);
+    return tx.tx;
+  }
+
+  /**
+   * Returns the id of the transaction that locks the record, or null if it's not locked.
+   */
+  public synchronized String getLockingTransaction(final ORID iRid) {
+    if (locks.isEmpty())
+      return null;
+
+    final OPreparedTransaction tx = locks.get(iRid);
+    return tx != null ? tx.id : null;
+  }
+
+  /**
+   * Returns the id of a transaction prepared and not completed yet, or null if there are none.
+   */
+  public synchronized String getPreparedTransaction() {
+    return prepared.isEmpty() ? null : prepared.keySet().iterator().next();
+  }
+
+  public synchronized int getPreparedCount() {
+    return prepared.size();
+  }
+
+  /**
+   * Returns the transactions not completed in time and not being resolved yet. Their records stay locked until they are completed
+   * with the outcome recorded in the cluster.
+   */
+  public synchronized List<OPreparedTransaction> getInDoubtTransactions() {
+    final List<OPreparedTransaction> result = new ArrayList<OPreparedTransaction>();
+    if (prepared.isEmpty())
+      return result;
+
+    final long timeout = System.currentTimeMillis() - OGlobalConfiguration.DISTRIBUTED_TX_LOCK_TIMEOUT.getValueAsLong();
+    for (OPreparedTransaction tx : prepared.values())
+      if (!tx.resolving && tx.preparedOn < timeout)
+        result.add(tx);
+    return result;
+  }
+
+  /**
+   * Marks the transaction as being completed with the outcome recorded in the cluster, so it's not returned anymore as in doubt.
+   */
+  public synchronized void setResolving(final String iTxId) {
+    final OPreparedTransaction tx = prepared.get(iTxId);
+    if (tx != null)
+      tx.resolving = true;
+  }
+
+  public String getDatabaseName() {
+    return databaseName;
+  }
+}
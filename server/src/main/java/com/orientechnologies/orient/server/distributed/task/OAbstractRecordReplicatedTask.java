@@ -49,6 +49,11 @@ public abstract class OAbstractRecordReplicatedTask extends OAbstractReplicatedT
     this.rid = rid;
   }
 
+  @Override
+  public int getClusterId() {
+    return rid.getClusterId();
+  }
+
   public ORecordVersion getVersion() {
     return version;
   }
@@ -61,4 +66,9 @@ public abstract class OAbstractRecordReplicatedTask extends OAbstractReplicatedT
   public String getPayload() {
     return "rid=" + rid + " v=" + version;
   }
+
+  @Override
+  public boolean isWriteOperation() {
+    return true;
+  }
 }
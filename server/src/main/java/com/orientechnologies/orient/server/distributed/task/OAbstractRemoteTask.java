@@ -90,4 +90,36 @@ public abstract class OAbstractRemoteTask implements Externalizable {
   public boolean isRequireNodeOnline() {
     return true;
   }
+
+  /**
+   * Returns true if the task changes the database. These tasks are written in the journal of the nodes, so a node that restarts can
+   * receive the ones it missed.
+   */
+  public boolean isWriteOperation() {
+    return false;
+  }
+
+  /**
+   * Returns true if the change of the task is already in the database. It's asked before executing again the changes that could
+   * have been applied before a crash but not written in the journal yet, so they are not applied twice. By default it's false: the
+   * task is always executed.
+   */
+  public boolean isApplied(final ODatabaseDocumentTx database) {
+    return false;
+  }
+
+  /**
+   * Returns the task written in the journal once this task has been executed. By default it's the task itself.
+   */
+  public OAbstractRemoteTask getJournalTask() {
+    return this;
+  }
+
+  /**
+   * Returns the only cluster read or changed by the task, or -1 if the task involves more clusters or the whole database. The
+   * receiving node executes the tasks against different clusters in parallel and the other ones alone.
+   */
+  public int getClusterId() {
+    return -1;
+  }
 }
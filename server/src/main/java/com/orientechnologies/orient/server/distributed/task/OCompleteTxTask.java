@@ -0,0 +1,124 @@
+/*
+ * Copyright 2010-2012 Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientechnologies.orient.server.distributed.task;
+
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import com.orientechnologies.orient.server.OServer;
+import com.orientechnologies.orient.server.distributed.ODistributedException;
+import com.orientechnologies.orient.server.distributed.ODistributedServerLog;
+import com.orientechnologies.orient.server.distributed.ODistributedServerLog.DIRECTION;
+import com.orientechnologies.orient.server.distributed.ODistributedServerManager;
+
+/**
+ * Second phase of a distributed transaction: commits the transaction prepared by {@link OPrepareTxTask} and unlocks its records,
+ * or just unlocks them on rollback. The committed transaction is written in the journal in place of this task. A node that doesn't
+ * receive the completion in time sends it to itself with the outcome recorded in the cluster.
+ *
+ * @author Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ */
+public class OCompleteTxTask extends OAbstractRemoteTask {
+  private static final long serialVersionUID = 1L;
+
+  private String            txId;
+  private boolean           commit;
+  private int               clusterId;
+  private transient OTxTask committed;
+
+  public OCompleteTxTask() {
+  }
+
+  public OCompleteTxTask(final String iTxId, final boolean iCommit, final int iClusterId) {
+    txId = iTxId;
+    commit = iCommit;
+    clusterId = iClusterId;
+  }
+
+  @Override
+  public Object execute(final OServer iServer, ODistributedServerManager iManager, final ODatabaseDocumentTx database)
+      throws Exception {
+    ODistributedServerLog.debug(this, iManager.getLocalNodeName(), getNodeSource(), DIRECTION.IN,
+        "%s transaction %s against db=%s...", commit ? "committing" : "rolling back", txId, database.getName());
+
+    final OTxTask tx = iManager.getTransactions(database.getName()).complete(txId);
+    if (!commit)
+      return Boolean.TRUE;
+
+    if (tx == null) {
+      ODistributedServerLog.warn(this, iManager.getLocalNodeName(), getNodeSource(), DIRECTION.IN,
+          "cannot commit transaction %s against db=%s because it has not been prepared or it's already completed", txId,
+          database.getName());
+      return new ODistributedException("Transaction " + txId + " has not been prepared on node " + iManager.getLocalNodeName()
+          + " or it's already completed");
+    }
+
+    committed = tx;
+    return tx.execute(iServer, iManager, database);
+  }
+
+  @Override
+  public OAbstractRemoteTask getJournalTask() {
+    return committed != null ? committed : this;
+  }
+
+  @Override
+  public boolean isWriteOperation() {
+    return commit;
+  }
+
+  @Override
+  public int getClusterId() {
+    return clusterId;
+  }
+
+  @Override
+  public QUORUM_TYPE getQuorumType() {
+    return QUORUM_TYPE.ALL;
+  }
+
+  @Override
+  public RESULT_STRATEGY getResultStrategy() {
+    return RESULT_STRATEGY.UNION;
+  }
+
+  @Override
+  public void writeExternal(final ObjectOutput out) throws IOException {
+    out.writeUTF(txId);
+    out.writeBoolean(commit);
+    out.writeInt(clusterId);
+  }
+
+  @Override
+  public void readExternal(final ObjectInput in) throws IOException, ClassNotFoundException {
+    txId = in.readUTF();
+    commit = in.readBoolean();
+    clusterId = in.readInt();
+  }
+
+  @Override
+  public String getName() {
+    return commit ? "commit_tx" : "rollback_tx";
+  }
+
+  @Override
+  public String toString() {
+    return getName() + "(" + txId + ")";
+  }
+}
@@ -0,0 +1,324 @@
+/*
+ * Copyright 2010-2012 Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientechnologies.orient.server.distributed.task;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import com.orientechnologies.common.io.OFileUtils;
+import com.orientechnologies.orient.core.Orient;
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import com.orientechnologies.orient.core.id.OClusterPosition;
+import com.orientechnologies.orient.core.id.OClusterPositionFactory;
+import com.orientechnologies.orient.core.id.ORecordId;
+import com.orientechnologies.orient.core.record.ORecordInternal;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.core.storage.OPhysicalPosition;
+import com.orientechnologies.orient.core.storage.ORawBuffer;
+import com.orientechnologies.orient.core.storage.OStorage;
+import com.orientechnologies.orient.core.version.ORecordVersion;
+import com.orientechnologies.orient.server.OServer;
+import com.orientechnologies.orient.server.distributed.ODistributedDatabaseChunk;
+import com.orientechnologies.orient.server.distributed.ODistributedException;
+import com.orientechnologies.orient.server.distributed.ODistributedMessageSerializer;
+import com.orientechnologies.orient.server.distributed.ODistributedRequest;
+import com.orientechnologies.orient.server.distributed.ODistributedResponse;
+import com.orientechnologies.orient.server.distributed.ODistributedServerLog;
+import com.orientechnologies.orient.server.distributed.ODistributedServerLog.DIRECTION;
+import com.orientechnologies.orient.server.distributed.ODistributedServerManager;
+
+/**
+ * Asks an owner of a cluster for the copy of its records, when the cluster has been assigned to the requester. The owner writes the
+ * records in a temporary file and answers with its first chunk: the requester asks for the next ones with
+ * {@link OCopyDatabaseChunkTask} as for the deployment of the whole database.
+ * <p>
+ * For every record the file contains true, the RID, the version, the record type and the content as length and bytes, in the order
+ * of position. The end is marked by false. The requester aligns its cluster to the copy with
+ * {@link #installCluster(ODatabaseDocumentTx, String, File)}.
+ * 
+ * @author Luca Garulli (l.garulli--at--orientechnologies.com)
+ * 
+ */
+public class OCopyClusterTask extends OAbstractReplicatedTask {
+  private static final long serialVersionUID = 1L;
+
+  private String            clusterName;
+
+  public OCopyClusterTask() {
+  }
+
+  public OCopyClusterTask(final String iClusterName) {
+    clusterName = iClusterName;
+  }
+
+  @Override
+  public Object execute(final OServer iServer, ODistributedServerManager iManager, final ODatabaseDocumentTx database)
+      throws Exception {
+    final int clusterId = database.getClusterIdByName(clusterName);
+    if (clusterId < 0)
+      throw new ODistributedException("Cluster " + clusterName + " not found in database " + database.getName() + " on node "
+          + iManager.getLocalNodeName());
+
+    ODistributedServerLog.warn(this, iManager.getLocalNodeName(), getNodeSource(), DIRECTION.OUT, "copying cluster %s.%s...",
+        database.getName(), clusterName);
+
+    final File file = ODeployDatabaseTask.createDeployFile(database.getName() + "-" + clusterName, ".cluster");
+    long records = 0;
+    boolean completed = false;
+
+    final ODistributedMessageSerializer.OObjectOutput out = new ODistributedMessageSerializer.OObjectOutput(
+        new BufferedOutputStream(new FileOutputStream(file)));
+    try {
+      final OStorage storage = database.getStorage();
+
+      OPhysicalPosition[] positions = storage.ceilingPhysicalPositions(clusterId,
+          new OPhysicalPosition(OClusterPositionFactory.INSTANCE.valueOf(0)));
+      while (positions.length > 0) {
+        for (OPhysicalPosition position : positions) {
+          final ORecordId rid = new ORecordId(clusterId, position.clusterPosition);
+          final ORawBuffer buffer = storage.readRecord(rid, null, false, null, false).getResult();
+          if (buffer == null)
+            continue;
+
+          out.writeBoolean(true);
+          ODistributedMessageSerializer.writeRID(out, rid);
+          buffer.version.getSerializer().writeTo((DataOutput) out, buffer.version);
+          out.writeByte(buffer.recordType);
+          out.writeInt(buffer.buffer.length);
+          out.write(buffer.buffer);
+          records++;
+        }
+
+        positions = storage.higherPhysicalPositions(clusterId, positions[positions.length - 1]);
+      }
+      out.writeBoolean(false);
+      completed = true;
+
+    } finally {
+      out.close();
+      if (!completed)
+        file.delete();
+    }
+
+    ODistributedServerLog.warn(this, iManager.getLocalNodeName(), getNodeSource(), DIRECTION.OUT,
+        "sending %d records of cluster %s.%s over the network in chunks of %s, total %s", records, database.getName(), clusterName,
+        OFileUtils.getSizeAsString(ODeployDatabaseTask.CHUNK_MAX_SIZE), OFileUtils.getSizeAsString(file.length()));
+
+    final ODistributedDatabaseChunk chunk = new ODistributedDatabaseChunk(file, 0, ODeployDatabaseTask.CHUNK_MAX_SIZE);
+    ODeployDatabaseTask.scheduleExpiration(file);
+    return chunk;
+  }
+
+  /**
+   * Aligns the local cluster to the copy received from its owner. The records are changed through the database so the indexes are
+   * updated: the ones with a different version are updated keeping the version of the copy, the missing ones are created and the
+   * ones not in the copy are deleted. The storage assigns the positions of the new records, so the positions before a missing
+   * record are filled with empty documents, deleted at the end: a record whose position the storage doesn't assign anymore is
+   * logged and skipped. Returns the number of records changed.
+   */
+  public static long installCluster(final ODatabaseDocumentTx iDatabase, final String iClusterName, final File iFile)
+      throws IOException {
+    final int clusterId = iDatabase.getClusterIdByName(iClusterName);
+    if (clusterId < 0)
+      throw new ODistributedException("Cluster " + iClusterName + " not found in database " + iDatabase.getName());
+
+    final OStorage storage = iDatabase.getStorage();
+
+    // ONLY THE RECORDS THAT WERE IN THE CLUSTER BEFORE CAN BE DELETED, THE OTHERS HAVE BEEN CREATED BY THE COPY
+    final OClusterPosition lastPosition = storage.getClusterDataRange(clusterId)[1];
+    OPhysicalPosition[] positions = storage.ceilingPhysicalPositions(clusterId,
+        new OPhysicalPosition(OClusterPositionFactory.INSTANCE.valueOf(0)));
+    int index = 0;
+
+    final Set<ORecordId> placeholders = new HashSet<ORecordId>();
+    long changed = 0;
+
+    final ODistributedMessageSerializer.OObjectInput in = new ODistributedMessageSerializer.OObjectInput(new BufferedInputStream(
+        new FileInputStream(iFile)));
+    try {
+      while (in.readBoolean()) {
+        final ORecordId rid = new ORecordId(clusterId, ODistributedMessageSerializer.readRID(in).getClusterPosition());
+        final ORecordVersion version = ODistributedMessageSerializer.readVersion(in);
+        final byte recordType = in.readByte();
+        final byte[] content = new byte[in.readInt()];
+        in.readFully(content);
+
+        // DELETE THE RECORDS BEFORE THIS ONE THAT ARE NOT IN THE COPY
+        while (positions.length > 0) {
+          if (index >= positions.length) {
+            positions = storage.higherPhysicalPositions(clusterId, positions[positions.length - 1]);
+            index = 0;
+            continue;
+          }
+
+          final OClusterPosition position = positions[index].clusterPosition;
+          if (position.compareTo(lastPosition) > 0 || position.compareTo(rid.getClusterPosition()) > 0)
+            break;
+
+          index++;
+          if (position.equals(rid.getClusterPosition()))
+            break;
+
+          if (!placeholders.contains(new ORecordId(clusterId, position)))
+            if (deleteRecord(iDatabase, new ORecordId(clusterId, position)))
+              changed++;
+        }
+
+        if (placeholders.remove(rid)) {
+          // FILL THE EMPTY DOCUMENT CREATED BEFORE
+          updateRecord(iDatabase, rid, version, recordType, content);
+          changed++;
+          continue;
+        }
+
+        final ORawBuffer local = storage.readRecord(rid, null, false, null, false).getResult();
+        if (local != null) {
+          if (!local.version.equals(version) || local.recordType != recordType || !Arrays.equals(local.buffer, content)) {
+            updateRecord(iDatabase, rid, version, recordType, content);
+            changed++;
+          }
+        } else if (createPlaceholders(iDatabase, iClusterName, rid, placeholders)) {
+          updateRecord(iDatabase, rid, version, recordType, content);
+          changed++;
+        } else
+          ODistributedServerLog.warn(OCopyClusterTask.class, null, null, DIRECTION.NONE,
+              "cannot create record %s of database %s in the same position of the copy, skipped", rid, iDatabase.getName());
+      }
+
+      // DELETE THE RECORDS AFTER THE LAST ONE OF THE COPY
+      while (positions.length > 0) {
+        for (; index < positions.length; ++index)
+          if (positions[index].clusterPosition.compareTo(lastPosition) <= 0
+              && !placeholders.contains(new ORecordId(clusterId, positions[index].clusterPosition)))
+            if (deleteRecord(iDatabase, new ORecordId(clusterId, positions[index].clusterPosition)))
+              changed++;
+
+        positions = storage.higherPhysicalPositions(clusterId, positions[positions.length - 1]);
+        index = 0;
+      }
+
+    } finally {
+      in.close();
+
+      for (ORecordId rid : placeholders)
+        deleteRecord(iDatabase, rid);
+    }
+
+    return changed;
+  }
+
+  /**
+   * Creates empty documents until the storage assigns the position of the record. Returns false if the position is not assigned
+   * anymore.
+   */
+  protected static boolean createPlaceholders(final ODatabaseDocumentTx iDatabase, final String iClusterName, final ORecordId iRid,
+      final Set<ORecordId> iPlaceholders) {
+    while (true) {
+      final ODocument placeholder = new ODocument();
+      iDatabase.save(placeholder, iClusterName);
+
+      final ORecordId rid = (ORecordId) placeholder.getIdentity();
+      if (rid.equals(iRid))
+        return true;
+
+      iPlaceholders.add(rid.copy());
+      if (rid.getClusterPosition().compareTo(iRid.getClusterPosition()) > 0)
+        return false;
+    }
+  }
+
+  /**
+   * Replaces the record with the one of the copy, keeping its version. The documents are merged, like in {@link OUpdateRecordTask},
+   * so the indexes are updated.
+   */
+  protected static void updateRecord(final ODatabaseDocumentTx iDatabase, final ORecordId iRid, final ORecordVersion iVersion,
+      final byte iRecordType, final byte[] iContent) {
+    final ORecordInternal<?> record = Orient.instance().getRecordFactoryManager().newInstance(iRecordType);
+    record.fill(iRid, iVersion, iContent, true);
+
+    ORecordInternal<?> toSave = record;
+    if (record instanceof ODocument) {
+      final ORecordInternal<?> loadedRecord = iDatabase.load(iRid);
+      if (loadedRecord instanceof ODocument) {
+        ((ODocument) loadedRecord).merge((ODocument) record, false, false);
+        toSave = loadedRecord;
+      }
+    }
+
+    // THE STORAGE SETS THE VERSION OF THE COPY INSTEAD OF CHECKING IT
+    toSave.getRecordVersion().copyFrom(iVersion);
+    toSave.getRecordVersion().setRollbackMode();
+    iDatabase.save(toSave);
+  }
+
+  protected static boolean deleteRecord(final ODatabaseDocumentTx iDatabase, final ORecordId iRid) {
+    final ORecordInternal<?> record = iDatabase.load(iRid);
+    if (record == null)
+      return false;
+    iDatabase.delete(record);
+    return true;
+  }
+
+  public QUORUM_TYPE getQuorumType() {
+    return QUORUM_TYPE.NONE;
+  }
+
+  @Override
+  public long getTimeout() {
+    return 60000;
+  }
+
+  @Override
+  public String getPayload() {
+    return null;
+  }
+
+  @Override
+  public OFixUpdateRecordTask getFixTask(ODistributedRequest iRequest, ODistributedResponse iBadResponse,
+      ODistributedResponse iGoodResponse) {
+    return null;
+  }
+
+  @Override
+  public String getName() {
+    return "copy_cluster";
+  }
+
+  @Override
+  public String toString() {
+    return getName() + "(" + clusterName + ")";
+  }
+
+  @Override
+  public void writeExternal(final ObjectOutput out) throws IOException {
+    out.writeUTF(clusterName);
+  }
+
+  @Override
+  public void readExternal(final ObjectInput in) throws IOException, ClassNotFoundException {
+    clusterName = in.readUTF();
+  }
+}
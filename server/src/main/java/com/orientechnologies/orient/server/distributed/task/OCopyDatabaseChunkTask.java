@@ -15,18 +15,15 @@
  */
 package com.orientechnologies.orient.server.distributed.task;
 
-import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInput;
 import java.io.ObjectOutput;
 
-import com.orientechnologies.common.io.OFileUtils;
-import com.orientechnologies.common.io.OIOUtils;
 import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
-import com.orientechnologies.orient.core.db.tool.ODatabaseImport;
 import com.orientechnologies.orient.server.OServer;
+import com.orientechnologies.orient.server.distributed.ODistributedDatabaseChunk;
+import com.orientechnologies.orient.server.distributed.ODistributedException;
 import com.orientechnologies.orient.server.distributed.ODistributedRequest;
 import com.orientechnologies.orient.server.distributed.ODistributedResponse;
 import com.orientechnologies.orient.server.distributed.ODistributedServerLog;
@@ -34,7 +31,8 @@ import com.orientechnologies.orient.server.distributed.ODistributedServerLog.DIR
 import com.orientechnologies.orient.server.distributed.ODistributedServerManager;
 
 /**
- * Copy database in chunks.
+ * Asks the node that is deploying a database for the chunk of the backup starting at the offset. Once the whole backup has been
+ * received the requester releases it with a task created by {@link #OCopyDatabaseChunkTask(String)}, so the file is deleted.
  * 
  * @author Luca Garulli (l.garulli--at--orientechnologies.com)
  * 
@@ -42,57 +40,56 @@ import com.orientechnologies.orient.server.distributed.ODistributedServerManager
 public class OCopyDatabaseChunkTask extends OAbstractReplicatedTask {
   private static final long serialVersionUID = 1L;
 
-  private String            databaseName;
-  private boolean           lastChunk        = false;
-  private byte[]            chunkContent;
+  private String            fileName;
+  private long              offset;
+  private int               maxSize;
+  private boolean           release;
 
   public OCopyDatabaseChunkTask() {
   }
 
-  public OCopyDatabaseChunkTask(final byte[] chunk) {
-    chunkContent = chunk;
+  /**
+   * Releases the backup: the requester doesn't need it anymore.
+   */
+  public OCopyDatabaseChunkTask(final String iFileName) {
+    fileName = iFileName;
+    release = true;
+  }
+
+  public OCopyDatabaseChunkTask(final String iFileName, final long iOffset, final int iMaxSize) {
+    fileName = iFileName;
+    offset = iOffset;
+    maxSize = iMaxSize;
   }
 
   @Override
   public Object execute(final OServer iServer, ODistributedServerManager iManager, final ODatabaseDocumentTx database)
       throws Exception {
 
-    ODistributedServerLog.warn(this, iManager.getLocalNodeName(), getNodeSource(), DIRECTION.OUT,
-        "writing database %s in chunk to disk size=%d...", database.getName(), chunkContent.length);
-
-    final File f = new File("importDatabase/" + database.getName());
+    final File f = ODeployDatabaseTask.getDeployFile(fileName);
 
-    final FileOutputStream out = new FileOutputStream(f, true);
-    try {
-      final ByteArrayInputStream in = new ByteArrayInputStream(chunkContent);
-      try {
-        OIOUtils.copyStream(in, out, chunkContent.length);
-      } finally {
-        in.close();
+    if (release) {
+      if (f != null && f.exists()) {
+        ODistributedServerLog.debug(this, iManager.getLocalNodeName(), getNodeSource(), DIRECTION.IN,
+            "database backup %s received, deleting it", fileName);
+        f.delete();
       }
-    } finally {
-      out.close();
+      return Boolean.TRUE;
     }
 
-    if (lastChunk)
-      try {
-        ODistributedServerLog.warn(this, iManager.getLocalNodeName(), getNodeSource(), DIRECTION.OUT, "importing database %s...",
-            database.getName());
-
-        final ODatabaseImport importDb = new ODatabaseImport(database, f.getAbsolutePath(), null);
-        try {
-          importDb.importDatabase();
-        } finally {
-          ODistributedServerLog.warn(this, iManager.getLocalNodeName(), getNodeSource(), DIRECTION.OUT,
-              "database %s imported correctly", database.getName());
-
-          importDb.close();
-        }
-      } finally {
-        OFileUtils.deleteRecursively(new File("importDatabase"));
-      }
+    if (f == null || !f.exists())
+      throw new ODistributedException("Database backup " + fileName + " is not available on node " + iManager.getLocalNodeName());
+
+    // KEEP THE FILE ALIVE WHILE THE CHUNKS ARE ASKED
+    f.setLastModified(System.currentTimeMillis());
 
-    return Boolean.TRUE;
+    final ODistributedDatabaseChunk chunk = new ODistributedDatabaseChunk(f, offset, maxSize);
+
+    if (ODistributedServerLog.isDebugEnabled())
+      ODistributedServerLog.debug(this, iManager.getLocalNodeName(), getNodeSource(), DIRECTION.OUT, "sending chunk %s", chunk);
+
+    // THE FILE IS KEPT ALSO AFTER THE LAST CHUNK: IF THE RESPONSE IS LOST THE CHUNK IS ASKED AGAIN
+    return chunk;
   }
 
   public QUORUM_TYPE getQuorumType() {
@@ -105,26 +102,34 @@ public class OCopyDatabaseChunkTask extends OAbstractReplicatedTask {
   }
 
   @Override
-  public OFixUpdateRecordTask getFixTask(ODistributedRequest iRequest, ODistributedResponse iBadResponse, ODistributedResponse iGoodResponse) {
+  public OFixUpdateRecordTask getFixTask(ODistributedRequest iRequest, ODistributedResponse iBadResponse,
+      ODistributedResponse iGoodResponse) {
     return null;
   }
 
   @Override
   public String getName() {
-    return "deploy_db";
+    return "copy_db_chunk";
+  }
+
+  @Override
+  public String toString() {
+    return getName() + "(" + fileName + (release ? " release" : " offset:" + offset) + ")";
   }
 
   @Override
   public void writeExternal(final ObjectOutput out) throws IOException {
-    out.writeUTF(databaseName);
-    out.write(chunkContent);
-    out.writeBoolean(lastChunk);
+    out.writeUTF(fileName);
+    out.writeLong(offset);
+    out.writeInt(maxSize);
+    out.writeBoolean(release);
   }
 
   @Override
   public void readExternal(final ObjectInput in) throws IOException, ClassNotFoundException {
-    databaseName = in.readUTF();
-    in.read(chunkContent);
-    lastChunk = in.readBoolean();
+    fileName = in.readUTF();
+    offset = in.readLong();
+    maxSize = in.readInt();
+    release = in.readBoolean();
   }
 }
@@ -21,12 +21,14 @@ import java.io.ObjectOutput;
 
 import com.orientechnologies.orient.core.Orient;
 import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import com.orientechnologies.orient.core.id.OClusterPosition;
 import com.orientechnologies.orient.core.id.ORecordId;
 import com.orientechnologies.orient.core.record.ORecordInternal;
 import com.orientechnologies.orient.core.storage.OPhysicalPosition;
 import com.orientechnologies.orient.core.version.ORecordVersion;
 import com.orientechnologies.orient.core.version.OVersionFactory;
 import com.orientechnologies.orient.server.OServer;
+import com.orientechnologies.orient.server.distributed.ODistributedMessageSerializer;
 import com.orientechnologies.orient.server.distributed.ODistributedRequest;
 import com.orientechnologies.orient.server.distributed.ODistributedResponse;
 import com.orientechnologies.orient.server.distributed.ODistributedServerLog;
@@ -76,6 +78,19 @@ public class OCreateRecordTask extends OAbstractRecordReplicatedTask {
     return new OPhysicalPosition(rid.getClusterPosition(), record.getRecordVersion());
   }
 
+  /**
+   * Returns true if the position of the record has been already assigned in the cluster. The journal contains the position assigned
+   * by the node that executed the task.
+   */
+  @Override
+  public boolean isApplied(final ODatabaseDocumentTx database) {
+    if (!rid.isPersistent())
+      return false;
+
+    final OClusterPosition[] range = database.getStorage().getClusterDataRange(rid.getClusterId());
+    return range[1].isValid() && rid.getClusterPosition().compareTo(range[1]) <= 0;
+  }
+
   @Override
   public QUORUM_TYPE getQuorumType() {
     return QUORUM_TYPE.WRITE;
@@ -92,7 +107,7 @@ public class OCreateRecordTask extends OAbstractRecordReplicatedTask {
 
   @Override
   public void writeExternal(final ObjectOutput out) throws IOException {
-    out.writeUTF(rid.toString());
+    ODistributedMessageSerializer.writeRID(out, rid);
     if (content == null)
       out.writeInt(0);
     else {
@@ -107,7 +122,7 @@ public class OCreateRecordTask extends OAbstractRecordReplicatedTask {
 
   @Override
   public void readExternal(final ObjectInput in) throws IOException, ClassNotFoundException {
-    rid = new ORecordId(in.readUTF());
+    rid = ODistributedMessageSerializer.readRID(in);
     final int contentSize = in.readInt();
     if (contentSize == 0)
       content = null;
@@ -26,6 +26,7 @@ import com.orientechnologies.orient.core.type.OBuffer;
 import com.orientechnologies.orient.core.version.ORecordVersion;
 import com.orientechnologies.orient.core.version.OVersionFactory;
 import com.orientechnologies.orient.server.OServer;
+import com.orientechnologies.orient.server.distributed.ODistributedMessageSerializer;
 import com.orientechnologies.orient.server.distributed.ODistributedRequest;
 import com.orientechnologies.orient.server.distributed.ODistributedResponse;
 import com.orientechnologies.orient.server.distributed.ODistributedServerLog;
@@ -65,6 +66,11 @@ public class ODeleteRecordTask extends OAbstractRecordReplicatedTask {
     return buffer;
   }
 
+  @Override
+  public boolean isApplied(final ODatabaseDocumentTx database) {
+    return database.load(rid) == null;
+  }
+
   @Override
   public QUORUM_TYPE getQuorumType() {
     return QUORUM_TYPE.WRITE;
@@ -78,7 +84,7 @@ public class ODeleteRecordTask extends OAbstractRecordReplicatedTask {
 
   @Override
   public void writeExternal(final ObjectOutput out) throws IOException {
-    out.writeUTF(rid.toString());
+    ODistributedMessageSerializer.writeRID(out, rid);
     if (version == null)
       version = OVersionFactory.instance().createUntrackedVersion();
     version.getSerializer().writeTo(out, version);
@@ -86,7 +92,7 @@ public class ODeleteRecordTask extends OAbstractRecordReplicatedTask {
 
   @Override
   public void readExternal(final ObjectInput in) throws IOException, ClassNotFoundException {
-    rid = new ORecordId(in.readUTF());
+    rid = ODistributedMessageSerializer.readRID(in);
     if (version == null)
       version = OVersionFactory.instance().createUntrackedVersion();
     version.getSerializer().readFrom(in, version);
@@ -15,16 +15,20 @@
  */
 package com.orientechnologies.orient.server.distributed.task;
 
-import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInput;
 import java.io.ObjectOutput;
+import java.io.OutputStream;
+import java.util.TimerTask;
 import java.util.concurrent.locks.Lock;
 
 import com.orientechnologies.common.io.OFileUtils;
+import com.orientechnologies.orient.core.Orient;
 import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
-import com.orientechnologies.orient.core.type.OBuffer;
 import com.orientechnologies.orient.server.OServer;
+import com.orientechnologies.orient.server.distributed.ODistributedDatabaseChunk;
 import com.orientechnologies.orient.server.distributed.ODistributedRequest;
 import com.orientechnologies.orient.server.distributed.ODistributedResponse;
 import com.orientechnologies.orient.server.distributed.ODistributedServerLog;
@@ -32,16 +36,20 @@ import com.orientechnologies.orient.server.distributed.ODistributedServerLog.DIR
 import com.orientechnologies.orient.server.distributed.ODistributedServerManager;
 
 /**
- * Ask for deployment of database from a remote node.
+ * Ask for deployment of database from a remote node. The node that gets the lock writes the backup in a temporary file and answers
+ * with its first chunk: the requester asks for the next ones with {@link OCopyDatabaseChunkTask}, so the database is never kept
+ * in memory. The file is deleted when the requester confirms it received the whole backup or if nobody asks for chunks for 10
+ * minutes.
  * 
  * @author Luca Garulli (l.garulli--at--orientechnologies.com)
  * 
  */
 public class ODeployDatabaseTask extends OAbstractReplicatedTask {
-  private static final long  serialVersionUID = 1L;
-  // private static final String BACKUP_DIRECTORY = "tempBackups";
+  private static final long   serialVersionUID = 1L;
+  private static final String FILE_PREFIX      = "orientdb-deploy-";
+  private static final long   FILE_EXPIRATION  = 10 * 60 * 1000;
 
-  protected final static int CHUNK_MAX_SIZE   = 1048576; // 1MB
+  public final static int     CHUNK_MAX_SIZE   = 1048576; // 1MB
 
   public ODeployDatabaseTask() {
   }
@@ -56,50 +64,31 @@ public class ODeployDatabaseTask extends OAbstractReplicatedTask {
 
       final Lock lock = iManager.getLock(databaseName);
       if (lock.tryLock()) {
+        final File file;
         try {
           ODistributedServerLog.warn(this, iManager.getLocalNodeName(), getNodeSource(), DIRECTION.OUT, "deploying database %s...",
               databaseName);
 
-          final ByteArrayOutputStream out = new ByteArrayOutputStream();
-          database.backup(out, null, null);
-
-          final byte[] buffer = out.toByteArray();
-
-          ODistributedServerLog.warn(this, iManager.getLocalNodeName(), getNodeSource(), DIRECTION.OUT,
-              "sending the compressed database %s over the network, total %s", databaseName,
-              OFileUtils.getSizeAsString(buffer.length));
-
-          return new OBuffer(buffer);
-
-          // final File f = new File(BACKUP_DIRECTORY + "/" + database.getName());
-          // database.backup(new FileOutputStream(f), null);
-          //
-          // final ByteArrayOutputStream out = new ByteArrayOutputStream(CHUNK_MAX_SIZE);
-          // final FileInputStream in = new FileInputStream(f);
-          // try {
-          // final long fileSize = f.length();
-          //
-          // ODistributedServerLog.warn(this, iManager.getLocalNodeName(), getNodeSource(), DIRECTION.OUT,
-          // "copying %s to remote node...", OFileUtils.getSizeAsString(fileSize));
-          //
-          // for (int byteCopied = 0; byteCopied < fileSize;) {
-          // byteCopied += OIOUtils.copyStream(in, out, CHUNK_MAX_SIZE);
-          //
-          // if ((Boolean) iManager.sendRequest(database.getName(), null, new OCopyDatabaseChunkTask(out.toByteArray()),
-          // EXECUTION_MODE.RESPONSE)) {
-          // out.reset();
-          // }
-          // }
-          //
-          // return "deployed";
-          // } finally {
-          // OFileUtils.deleteRecursively(new File(BACKUP_DIRECTORY));
-          // }
+          file = createDeployFile(databaseName, ".zip");
+          final OutputStream out = new FileOutputStream(file);
+          try {
+            database.backup(out, null, null);
+          } finally {
+            out.close();
+          }
 
         } finally {
           lock.unlock();
         }
 
+        ODistributedServerLog.warn(this, iManager.getLocalNodeName(), getNodeSource(), DIRECTION.OUT,
+            "sending the compressed database %s over the network in chunks of %s, total %s", databaseName,
+            OFileUtils.getSizeAsString(CHUNK_MAX_SIZE), OFileUtils.getSizeAsString(file.length()));
+
+        final ODistributedDatabaseChunk chunk = new ODistributedDatabaseChunk(file, 0, CHUNK_MAX_SIZE);
+        scheduleExpiration(file);
+        return chunk;
+
       } else
         ODistributedServerLog.debug(this, iManager.getLocalNodeName(), getNodeSource(), DIRECTION.NONE,
             "skip deploying database %s because another node is doing it", databaseName);
@@ -107,7 +96,42 @@ public class ODeployDatabaseTask extends OAbstractReplicatedTask {
       ODistributedServerLog.debug(this, iManager.getLocalNodeName(), getNodeSource(), DIRECTION.NONE,
           "skip deploying database from the same node");
 
-    return new OBuffer(new byte[0]);
+    return Boolean.FALSE;
+  }
+
+  /**
+   * Returns the file of a deployment in progress on this node, or null if the name doesn't refer to a deployment file.
+   */
+  public static File getDeployFile(final String iFileName) {
+    if (iFileName == null || !iFileName.startsWith(FILE_PREFIX) || iFileName.indexOf('/') > -1 || iFileName.indexOf('\\') > -1)
+      return null;
+    return new File(getDeployDirectory(), iFileName);
+  }
+
+  /**
+   * Creates a new file that can be sent in chunks with {@link OCopyDatabaseChunkTask}.
+   */
+  static File createDeployFile(final String iName, final String iExtension) throws IOException {
+    return File.createTempFile(FILE_PREFIX + iName + "-", iExtension, getDeployDirectory());
+  }
+
+  private static File getDeployDirectory() {
+    return new File(System.getProperty("java.io.tmpdir"));
+  }
+
+  static void scheduleExpiration(final File iFile) {
+    // THE CHUNK TASK TOUCHES THE FILE ON EVERY READ
+    Orient.instance().getTimer().schedule(new TimerTask() {
+      @Override
+      public void run() {
+        if (!iFile.exists())
+          cancel();
+        else if (System.currentTimeMillis() - iFile.lastModified() > FILE_EXPIRATION) {
+          iFile.delete();
+          cancel();
+        }
+      }
+    }, FILE_EXPIRATION, FILE_EXPIRATION / 10);
   }
 
   public RESULT_STRATEGY getResultStrategy() {
@@ -26,6 +26,7 @@ import com.orientechnologies.orient.core.record.ORecordInternal;
 import com.orientechnologies.orient.core.version.ORecordVersion;
 import com.orientechnologies.orient.core.version.OVersionFactory;
 import com.orientechnologies.orient.server.OServer;
+import com.orientechnologies.orient.server.distributed.ODistributedMessageSerializer;
 import com.orientechnologies.orient.server.distributed.ODistributedServerLog;
 import com.orientechnologies.orient.server.distributed.ODistributedServerLog.DIRECTION;
 import com.orientechnologies.orient.server.distributed.ODistributedServerManager;
@@ -82,26 +83,26 @@ public class OFixCreateRecordTask extends OAbstractRemoteTask {
   @Override
   public void writeExternal(final ObjectOutput out) throws IOException {
     out.writeByte(recordType);
-    out.writeUTF(ridAssigned.toString());
+    ODistributedMessageSerializer.writeRID(out, ridAssigned);
     out.writeInt(content.length);
     out.write(content);
     if (version == null)
       version = OVersionFactory.instance().createUntrackedVersion();
     version.getSerializer().writeTo(out, version);
-    out.writeUTF(ridToAssign.toString());
+    ODistributedMessageSerializer.writeRID(out, ridToAssign);
   }
 
   @Override
   public void readExternal(final ObjectInput in) throws IOException, ClassNotFoundException {
     recordType = in.readByte();
-    ridAssigned = new ORecordId(in.readUTF());
+    ridAssigned = ODistributedMessageSerializer.readRID(in);
     final int contentSize = in.readInt();
     content = new byte[contentSize];
     in.readFully(content);
     if (version == null)
       version = OVersionFactory.instance().createUntrackedVersion();
     version.getSerializer().readFrom(in, version);
-    ridToAssign = new ORecordId(in.readUTF());
+    ridToAssign = ODistributedMessageSerializer.readRID(in);
   }
 
   @Override
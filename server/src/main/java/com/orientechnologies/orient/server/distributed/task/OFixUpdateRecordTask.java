@@ -27,6 +27,7 @@ import com.orientechnologies.orient.core.record.impl.ODocument;
 import com.orientechnologies.orient.core.version.ORecordVersion;
 import com.orientechnologies.orient.core.version.OVersionFactory;
 import com.orientechnologies.orient.server.OServer;
+import com.orientechnologies.orient.server.distributed.ODistributedMessageSerializer;
 import com.orientechnologies.orient.server.distributed.ODistributedServerLog;
 import com.orientechnologies.orient.server.distributed.ODistributedServerLog.DIRECTION;
 import com.orientechnologies.orient.server.distributed.ODistributedServerManager;
@@ -84,7 +85,7 @@ public class OFixUpdateRecordTask extends OAbstractRemoteTask {
 
   @Override
   public void writeExternal(final ObjectOutput out) throws IOException {
-    out.writeUTF(rid.toString());
+    ODistributedMessageSerializer.writeRID(out, rid);
     out.writeInt(content.length);
     out.write(content);
     if (version == null)
@@ -94,7 +95,7 @@ public class OFixUpdateRecordTask extends OAbstractRemoteTask {
 
   @Override
   public void readExternal(final ObjectInput in) throws IOException, ClassNotFoundException {
-    rid = new ORecordId(in.readUTF());
+    rid = ODistributedMessageSerializer.readRID(in);
     final int contentSize = in.readInt();
     content = new byte[contentSize];
     in.readFully(content);
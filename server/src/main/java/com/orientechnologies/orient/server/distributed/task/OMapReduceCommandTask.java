@@ -15,32 +15,119 @@
  */
 package com.orientechnologies.orient.server.distributed.task;
 
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import com.orientechnologies.orient.core.sql.OCommandExecutorSQLSelect;
+import com.orientechnologies.orient.core.sql.OCommandSQL;
+import com.orientechnologies.orient.server.OServer;
+import com.orientechnologies.orient.server.distributed.ODistributedServerLog;
+import com.orientechnologies.orient.server.distributed.ODistributedServerLog.DIRECTION;
+import com.orientechnologies.orient.server.distributed.ODistributedServerManager;
 
 /**
- * Distributed map and reduce task that collect and merge the result.
+ * Distributed map and reduce task that executes the query only against the clusters assigned to the node. The result is partial
+ * and it's merged by the node that sent the task (see {@link OCommandExecutorSQLSelect#VAR_PARTIAL_CLUSTERS}).
  * 
  * @author Luca Garulli (l.garulli--at--orientechnologies.com)
  * 
  */
 public class OMapReduceCommandTask extends OSQLCommandTask {
-  private static final long serialVersionUID = 1L;
+  private static final long         serialVersionUID = 1L;
+
+  private Map<Object, Object>       parameters;
+  private Map<String, List<String>> clusters;
+  private int                       limit            = -1;
 
   public OMapReduceCommandTask() {
   }
 
-  public OMapReduceCommandTask(final String iCommand) {
+  /**
+   * Creates the task to execute on the nodes. iLimit is the maximum number of records every node returns, -1 for all: the node
+   * that merges the results applies SKIP and LIMIT, so it's the limit of the request plus the records to skip.
+   */
+  public OMapReduceCommandTask(final String iCommand, final Map<Object, Object> iParameters,
+      final Map<String, List<String>> iClusters, final int iLimit) {
     super(iCommand);
+    parameters = iParameters != null ? new HashMap<Object, Object>(iParameters) : new HashMap<Object, Object>();
+    clusters = iClusters;
+    limit = iLimit;
+  }
+
+  @Override
+  public Object execute(final OServer iServer, ODistributedServerManager iManager, final ODatabaseDocumentTx database)
+      throws Exception {
+    final List<String> localClusters = clusters.get(iManager.getLocalNodeName());
+    if (localClusters == null || localClusters.isEmpty())
+      // NOTHING ASSIGNED TO THE CURRENT NODE
+      return new ArrayList<Object>();
+
+    ODistributedServerLog.debug(this, iManager.getLocalNodeName(), getNodeSource(), DIRECTION.IN,
+        "execute query=%s clusters=%s db=%s", text, localClusters, database.getName());
+
+    final OCommandSQL command = new OCommandSQL(text);
+    command.setLimit(limit);
+    command.getContext().setVariable(OCommandExecutorSQLSelect.VAR_PARTIAL_CLUSTERS, localClusters);
+
+    final Object result = database.command(command).execute(parameters);
+    if (result instanceof Collection<?>)
+      return new ArrayList<Object>((Collection<?>) result);
+    return result;
   }
 
   @Override
   public RESULT_STRATEGY getResultStrategy() {
-    return RESULT_STRATEGY.MERGE;
+    return RESULT_STRATEGY.UNION;
   }
 
   public QUORUM_TYPE getQuorumType() {
     return QUORUM_TYPE.NONE;
   }
 
+  @Override
+  public boolean isWriteOperation() {
+    return false;
+  }
+
+  @Override
+  public void writeExternal(final ObjectOutput out) throws IOException {
+    super.writeExternal(out);
+    out.writeObject(parameters);
+    out.writeInt(limit);
+    out.writeInt(clusters.size());
+    for (Map.Entry<String, List<String>> entry : clusters.entrySet()) {
+      out.writeUTF(entry.getKey());
+      out.writeInt(entry.getValue().size());
+      for (String clusterName : entry.getValue())
+        out.writeUTF(clusterName);
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override
+  public void readExternal(final ObjectInput in) throws IOException, ClassNotFoundException {
+    super.readExternal(in);
+    parameters = (Map<Object, Object>) in.readObject();
+    limit = in.readInt();
+    final int nodes = in.readInt();
+    clusters = new HashMap<String, List<String>>(nodes);
+    for (int i = 0; i < nodes; ++i) {
+      final String node = in.readUTF();
+      final int size = in.readInt();
+      final List<String> clusterNames = new ArrayList<String>(size);
+      for (int k = 0; k < size; ++k)
+        clusterNames.add(in.readUTF());
+      clusters.put(node, clusterNames);
+    }
+  }
+
   @Override
   public String getName() {
     return "map_reduce_command";
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2010-2012 Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientechnologies.orient.server.distributed.task;
+
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.orientechnologies.orient.core.db.ODatabaseRecordThreadLocal;
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import com.orientechnologies.orient.core.db.record.ORecordOperation;
+import com.orientechnologies.orient.core.exception.OConcurrentModificationException;
+import com.orientechnologies.orient.core.exception.OFastConcurrentModificationException;
+import com.orientechnologies.orient.core.exception.ORecordNotFoundException;
+import com.orientechnologies.orient.core.id.ORID;
+import com.orientechnologies.orient.core.storage.ORecordMetadata;
+import com.orientechnologies.orient.core.version.ORecordVersion;
+import com.orientechnologies.orient.server.OServer;
+import com.orientechnologies.orient.server.distributed.ODistributedRecordLockedException;
+import com.orientechnologies.orient.server.distributed.ODistributedServerLog;
+import com.orientechnologies.orient.server.distributed.ODistributedServerLog.DIRECTION;
+import com.orientechnologies.orient.server.distributed.ODistributedServerManager;
+import com.orientechnologies.orient.server.distributed.ODistributedTransactions;
+
+/**
+ * First phase of a distributed transaction. The node checks the versions of the records changed by the transaction and locks them
+ * until the transaction is completed by {@link OCompleteTxTask}. It returns true if the transaction can be committed, otherwise
+ * the cause.
+ *
+ * @author Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ */
+public class OPrepareTxTask extends OAbstractRemoteTask {
+  private static final long serialVersionUID = 1L;
+
+  private String            txId;
+  private OTxTask           tx;
+
+  public OPrepareTxTask() {
+  }
+
+  public OPrepareTxTask(final String iTxId, final OTxTask iTx) {
+    txId = iTxId;
+    tx = iTx;
+  }
+
+  @Override
+  public Object execute(final OServer iServer, ODistributedServerManager iManager, final ODatabaseDocumentTx database)
+      throws Exception {
+    ODistributedServerLog.debug(this, iManager.getLocalNodeName(), getNodeSource(), DIRECTION.IN,
+        "preparing transaction %s against db=%s...", txId, database.getName());
+
+    ODatabaseRecordThreadLocal.INSTANCE.set(database);
+
+    final List<ORID> rids = new ArrayList<ORID>();
+    for (OAbstractRecordReplicatedTask task : tx.getTasks()) {
+      if (task instanceof OCreateRecordTask)
+        // NEW RECORDS CAN'T CONFLICT
+        continue;
+
+      final ORID rid = task.getRid();
+      final ORecordVersion version = task.getVersion();
+      if (version != null && !version.isUntracked() && !version.isTemporary()) {
+        final ORecordMetadata metadata = database.getRecordMetadata(rid);
+        if (metadata == null)
+          return new ORecordNotFoundException("Record " + rid + " was not found on preparing the distributed transaction " + txId);
+
+        if (!metadata.getRecordVersion().equals(version)) {
+          if (OFastConcurrentModificationException.enabled())
+            return OFastConcurrentModificationException.instance();
+          return new OConcurrentModificationException(rid, metadata.getRecordVersion(), version,
+              task instanceof ODeleteRecordTask ? ORecordOperation.DELETED : ORecordOperation.UPDATED);
+        }
+      }
+      rids.add(rid);
+    }
+
+    final ODistributedTransactions transactions = iManager.getTransactions(database.getName());
+    final ORID locked = transactions.lock(txId, getNodeSource(), tx, rids);
+    if (locked != null)
+      return new ODistributedRecordLockedException(locked, transactions.getLockingTransaction(locked));
+
+    return Boolean.TRUE;
+  }
+
+  @Override
+  public int getClusterId() {
+    return tx.getClusterId();
+  }
+
+  @Override
+  public QUORUM_TYPE getQuorumType() {
+    return QUORUM_TYPE.ALL;
+  }
+
+  @Override
+  public RESULT_STRATEGY getResultStrategy() {
+    return RESULT_STRATEGY.UNION;
+  }
+
+  @Override
+  public void writeExternal(final ObjectOutput out) throws IOException {
+    out.writeUTF(txId);
+    tx.writeExternal(out);
+  }
+
+  @Override
+  public void readExternal(final ObjectInput in) throws IOException, ClassNotFoundException {
+    txId = in.readUTF();
+    tx = new OTxTask();
+    tx.readExternal(in);
+  }
+
+  @Override
+  public String getName() {
+    return "prepare_tx";
+  }
+
+  @Override
+  public String toString() {
+    return getName() + "(" + txId + ")";
+  }
+}
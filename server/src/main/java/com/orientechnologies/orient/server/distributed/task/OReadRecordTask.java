@@ -24,6 +24,7 @@ import com.orientechnologies.orient.core.id.ORecordId;
 import com.orientechnologies.orient.core.record.ORecordInternal;
 import com.orientechnologies.orient.core.storage.ORawBuffer;
 import com.orientechnologies.orient.server.OServer;
+import com.orientechnologies.orient.server.distributed.ODistributedMessageSerializer;
 import com.orientechnologies.orient.server.distributed.ODistributedServerManager;
 
 /**
@@ -54,14 +55,19 @@ public class OReadRecordTask extends OAbstractRemoteTask {
     return new ORawBuffer(record);
   }
 
+  @Override
+  public int getClusterId() {
+    return rid.getClusterId();
+  }
+
   @Override
   public void writeExternal(final ObjectOutput out) throws IOException {
-    out.writeUTF(rid.toString());
+    ODistributedMessageSerializer.writeRID(out, rid);
   }
 
   @Override
   public void readExternal(final ObjectInput in) throws IOException, ClassNotFoundException {
-    rid = new ORecordId(in.readUTF());
+    rid = ODistributedMessageSerializer.readRID(in);
   }
 
   public QUORUM_TYPE getQuorumType() {
@@ -59,6 +59,12 @@ public class OSQLCommandTask extends OAbstractReplicatedTask {
     return QUORUM_TYPE.NONE;
   }
 
+  @Override
+  public boolean isWriteOperation() {
+    // ONLY THE COMMANDS THAT CHANGE THE DATABASE ARE REPLICATED
+    return true;
+  }
+
   @Override
   public long getTimeout() {
     return OGlobalConfiguration.DISTRIBUTED_COMMAND_TASK_SYNCH_TIMEOUT.getValueAsLong();
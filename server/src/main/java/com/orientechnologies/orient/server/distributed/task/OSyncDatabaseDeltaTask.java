@@ -0,0 +1,125 @@
+/*
+ * Copyright 2010-2012 Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientechnologies.orient.server.distributed.task;
+
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import com.orientechnologies.orient.server.OServer;
+import com.orientechnologies.orient.server.distributed.ODistributedDatabaseDelta;
+import com.orientechnologies.orient.server.distributed.ODistributedJournal;
+import com.orientechnologies.orient.server.distributed.ODistributedRequest;
+import com.orientechnologies.orient.server.distributed.ODistributedResponse;
+import com.orientechnologies.orient.server.distributed.ODistributedServerLog;
+import com.orientechnologies.orient.server.distributed.ODistributedServerLog.DIRECTION;
+import com.orientechnologies.orient.server.distributed.ODistributedServerManager;
+
+/**
+ * Asks the changes after a LSN to align a node that restarted. The first request is broadcast, so every node reads its journal
+ * after having applied the changes queued before it, and answers with the first piece of changes up to its last LSN: the requester
+ * asks for the next pieces to the same node only, passing the LSN to stop to. If the journal doesn't contain the changes anymore the
+ * answer is a truncated delta and the requester falls back to {@link ODeployDatabaseTask}.
+ *
+ * @author Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ */
+public class OSyncDatabaseDeltaTask extends OAbstractReplicatedTask {
+  private static final long serialVersionUID = 1L;
+
+  public final static int   DELTA_MAX_SIZE   = 1048576; // 1MB
+
+  private long              fromLSN;
+  private long              toLSN            = -1;
+
+  public OSyncDatabaseDeltaTask() {
+  }
+
+  public OSyncDatabaseDeltaTask(final long iFromLSN, final long iToLSN) {
+    fromLSN = iFromLSN;
+    toLSN = iToLSN;
+  }
+
+  @Override
+  public Object execute(final OServer iServer, ODistributedServerManager iManager, final ODatabaseDocumentTx database)
+      throws Exception {
+
+    if (getNodeSource().equals(iManager.getLocalNodeName())) {
+      ODistributedServerLog.debug(this, iManager.getLocalNodeName(), getNodeSource(), DIRECTION.NONE,
+          "skip sending the database changes to the same node");
+      return Boolean.FALSE;
+    }
+
+    final ODistributedJournal journal = iManager.getJournal(database.getName());
+    if (journal == null)
+      return new ODistributedDatabaseDelta(fromLSN, toLSN, null);
+
+    final long to = toLSN > -1 ? toLSN : journal.getLastLSN();
+    final ODistributedDatabaseDelta delta = new ODistributedDatabaseDelta(fromLSN, to, journal.read(fromLSN, to, DELTA_MAX_SIZE));
+
+    ODistributedServerLog.info(this, iManager.getLocalNodeName(), getNodeSource(), DIRECTION.OUT, "sending database %s %s",
+        database.getName(), delta);
+
+    return delta;
+  }
+
+  public RESULT_STRATEGY getResultStrategy() {
+    return RESULT_STRATEGY.UNION;
+  }
+
+  public QUORUM_TYPE getQuorumType() {
+    return QUORUM_TYPE.NONE;
+  }
+
+  @Override
+  public long getTimeout() {
+    return 60000;
+  }
+
+  @Override
+  public String getPayload() {
+    return null;
+  }
+
+  @Override
+  public OFixUpdateRecordTask getFixTask(ODistributedRequest iRequest, ODistributedResponse iBadResponse,
+      ODistributedResponse iGoodResponse) {
+    return null;
+  }
+
+  @Override
+  public String getName() {
+    return "sync_db_delta";
+  }
+
+  @Override
+  public String toString() {
+    return getName() + "(from:" + fromLSN + " to:" + toLSN + ")";
+  }
+
+  @Override
+  public void writeExternal(final ObjectOutput out) throws IOException {
+    out.writeLong(fromLSN);
+    out.writeLong(toLSN);
+  }
+
+  @Override
+  public void readExternal(final ObjectInput in) throws IOException, ClassNotFoundException {
+    fromLSN = in.readLong();
+    toLSN = in.readLong();
+  }
+}
@@ -54,6 +54,10 @@ public class OTxTask extends OAbstractReplicatedTask {
     tasks.add(iTask);
   }
 
+  public List<OAbstractRecordReplicatedTask> getTasks() {
+    return tasks;
+  }
+
   @Override
   public Object execute(final OServer iServer, ODistributedServerManager iManager, final ODatabaseDocumentTx database)
       throws Exception {
@@ -71,22 +75,52 @@ public class OTxTask extends OAbstractReplicatedTask {
 
       database.commit();
 
-    } catch (ONeedRetryException e) {
-      return Boolean.FALSE;
-    } catch (OTransactionException e) {
-      return Boolean.FALSE;
     } catch (Exception e) {
-      OLogManager.instance().error(this, "Error on distirbuted transaction commit", e);
-      return Boolean.FALSE;
+      if (database.getTransaction().isActive())
+        database.rollback();
+
+      if (!(e instanceof ONeedRetryException) && !(e instanceof OTransactionException))
+        OLogManager.instance().error(this, "Error on distributed transaction commit", e);
+
+      // RETURN THE CAUSE TO THE NODE THAT STARTED THE TRANSACTION
+      return e;
     }
     return Boolean.TRUE;
   }
 
+  /**
+   * The transaction is committed all together, so it has been applied if any of its changes is in the database.
+   */
+  @Override
+  public boolean isApplied(final ODatabaseDocumentTx database) {
+    for (OAbstractRecordReplicatedTask task : tasks)
+      if (task.isApplied(database))
+        return true;
+    return false;
+  }
+
+  @Override
+  public int getClusterId() {
+    int clusterId = -1;
+    for (OAbstractRecordReplicatedTask task : tasks) {
+      if (task.getClusterId() < 0 || clusterId > -1 && task.getClusterId() != clusterId)
+        // MORE CLUSTERS
+        return -1;
+      clusterId = task.getClusterId();
+    }
+    return clusterId;
+  }
+
   @Override
   public QUORUM_TYPE getQuorumType() {
     return QUORUM_TYPE.WRITE;
   }
 
+  @Override
+  public boolean isWriteOperation() {
+    return true;
+  }
+
   @Override
   public OFixTxTask getFixTask(final ODistributedRequest iRequest, final ODistributedResponse iBadResponse,
       final ODistributedResponse iGoodResponse) {
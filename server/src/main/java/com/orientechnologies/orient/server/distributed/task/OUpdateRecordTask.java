@@ -28,6 +28,7 @@ import com.orientechnologies.orient.core.record.impl.ODocument;
 import com.orientechnologies.orient.core.version.ORecordVersion;
 import com.orientechnologies.orient.core.version.OVersionFactory;
 import com.orientechnologies.orient.server.OServer;
+import com.orientechnologies.orient.server.distributed.ODistributedMessageSerializer;
 import com.orientechnologies.orient.server.distributed.ODistributedRequest;
 import com.orientechnologies.orient.server.distributed.ODistributedResponse;
 import com.orientechnologies.orient.server.distributed.ODistributedServerLog;
@@ -80,6 +81,18 @@ public class OUpdateRecordTask extends OAbstractRecordReplicatedTask {
     return record.getRecordVersion();
   }
 
+  /**
+   * Returns true if the record has a version newer than the one updated by the task, or it has been deleted later.
+   */
+  @Override
+  public boolean isApplied(final ODatabaseDocumentTx database) {
+    if (version == null || version.isUntracked() || version.getCounter() < 0)
+      return false;
+
+    final ORecordInternal<?> loadedRecord = database.load(rid);
+    return loadedRecord == null || loadedRecord.getRecordVersion().getCounter() > version.getCounter();
+  }
+
   @Override
   public QUORUM_TYPE getQuorumType() {
     return QUORUM_TYPE.WRITE;
@@ -93,7 +106,7 @@ public class OUpdateRecordTask extends OAbstractRecordReplicatedTask {
 
   @Override
   public void writeExternal(final ObjectOutput out) throws IOException {
-    out.writeUTF(rid.toString());
+    ODistributedMessageSerializer.writeRID(out, rid);
     out.writeInt(content.length);
     out.write(content);
     if (version == null)
@@ -104,7 +117,7 @@ public class OUpdateRecordTask extends OAbstractRecordReplicatedTask {
 
   @Override
   public void readExternal(final ObjectInput in) throws IOException, ClassNotFoundException {
-    rid = new ORecordId(in.readUTF());
+    rid = ODistributedMessageSerializer.readRID(in);
     final int contentSize = in.readInt();
     content = new byte[contentSize];
     in.readFully(content);
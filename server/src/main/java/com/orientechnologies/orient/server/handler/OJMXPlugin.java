@@ -11,6 +11,7 @@ import com.orientechnologies.orient.core.Orient;
 import com.orientechnologies.orient.core.exception.OConfigurationException;
 import com.orientechnologies.orient.server.OServer;
 import com.orientechnologies.orient.server.config.OServerParameterConfiguration;
+import com.orientechnologies.orient.server.managed.OrientDistributed;
 import com.orientechnologies.orient.server.managed.OrientServer;
 import com.orientechnologies.orient.server.plugin.OServerPluginAbstract;
 
@@ -18,6 +19,7 @@ public class OJMXPlugin extends OServerPluginAbstract {
   private OrientServer managedServer;
   private ObjectName   onProfiler;
   private ObjectName   onServer;
+  private ObjectName   onDistributed;
   private boolean      profilerManaged;
 
   public OJMXPlugin() {
@@ -50,6 +52,10 @@ public class OJMXPlugin extends OServerPluginAbstract {
       managedServer = new OrientServer();
       mBeanServer.registerMBean(managedServer, onServer);
 
+      // REGISTER THE REPLICATION METRICS, AVAILABLE ONCE THE DISTRIBUTED PLUGIN IS STARTED
+      onDistributed = new ObjectName("OrientDB:type=Distributed");
+      mBeanServer.registerMBean(new OrientDistributed(oServer), onDistributed);
+
     } catch (Exception e) {
       throw new OConfigurationException("Cannot initialize JMX server", e);
     }
@@ -71,6 +77,10 @@ public class OJMXPlugin extends OServerPluginAbstract {
       if (onServer != null)
         if (mBeanServer.isRegistered(onServer))
           mBeanServer.unregisterMBean(onServer);
+
+      if (onDistributed != null)
+        if (mBeanServer.isRegistered(onDistributed))
+          mBeanServer.unregisterMBean(onDistributed);
     } catch (Exception e) {
       OLogManager.instance().error(this, "OrientDB Server v" + OConstants.ORIENT_VERSION + " unregisterMBean error.", e);
     }
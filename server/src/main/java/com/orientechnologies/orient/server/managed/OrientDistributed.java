@@ -0,0 +1,67 @@
+/*
+ * Copyright 2010-2012 Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientechnologies.orient.server.managed;
+
+import com.orientechnologies.orient.server.OServer;
+import com.orientechnologies.orient.server.distributed.ODistributedMetrics;
+import com.orientechnologies.orient.server.distributed.ODistributedServerManager;
+
+/**
+ * Exposes the replication metrics of the distributed server. The distributed manager is read at every call, so the values are
+ * available as soon as the distributed plugin is started.
+ */
+public class OrientDistributed implements OrientDistributedMBean {
+  protected final OServer server;
+
+  public OrientDistributed(final OServer iServer) {
+    server = iServer;
+  }
+
+  @Override
+  public String getStats() {
+    final ODistributedServerManager dManager = server.getDistributedManager();
+    return dManager != null ? dManager.getStats().toJSON() : null;
+  }
+
+  @Override
+  public long getQueueSize(final String iDatabaseName) {
+    final ODistributedMetrics metrics = getMetrics(iDatabaseName);
+    return metrics != null ? metrics.getQueueSize() : -1;
+  }
+
+  @Override
+  public long getReplicationLag(final String iDatabaseName) {
+    final ODistributedMetrics metrics = getMetrics(iDatabaseName);
+    return metrics != null ? metrics.getReplicationLag() : -1;
+  }
+
+  @Override
+  public long getApplyTimePercentile(final String iDatabaseName, final double iPercentile) {
+    final ODistributedMetrics metrics = getMetrics(iDatabaseName);
+    return metrics != null ? metrics.getApplyTime().getPercentile(iPercentile) : -1;
+  }
+
+  @Override
+  public long getQuorumTimePercentile(final String iDatabaseName, final double iPercentile) {
+    final ODistributedMetrics metrics = getMetrics(iDatabaseName);
+    return metrics != null ? metrics.getQuorumTime().getPercentile(iPercentile) : -1;
+  }
+
+  protected ODistributedMetrics getMetrics(final String iDatabaseName) {
+    final ODistributedServerManager dManager = server.getDistributedManager();
+    return dManager != null ? dManager.getMetrics(iDatabaseName) : null;
+  }
+}
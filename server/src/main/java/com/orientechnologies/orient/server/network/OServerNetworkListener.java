@@ -24,6 +24,8 @@ import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketException;
 import java.net.UnknownHostException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -38,6 +40,8 @@ import com.orientechnologies.orient.server.OServer;
 import com.orientechnologies.orient.server.config.OServerCommandConfiguration;
 import com.orientechnologies.orient.server.config.OServerParameterConfiguration;
 import com.orientechnologies.orient.server.network.protocol.ONetworkProtocol;
+import com.orientechnologies.orient.server.network.protocol.binary.OBinaryNetworkProtocolAbstract;
+import com.orientechnologies.orient.server.network.protocol.http.ONetworkProtocolHttpAbstract;
 import com.orientechnologies.orient.server.network.protocol.http.command.OServerCommand;
 
 public class OServerNetworkListener extends Thread {
@@ -52,6 +56,7 @@ public class OServerNetworkListener extends Thread {
   private OServer                           server;
   private ONetworkProtocol                  protocol;
   private int                               protocolVersion   = -1;
+  private OServerNetworkSelector            selector;
 
   public OServerNetworkListener(final OServer iServer, final String iHostName, final String iHostPortRange,
       final String iProtocolName, final Class<? extends ONetworkProtocol> iProtocol,
@@ -69,11 +74,30 @@ public class OServerNetworkListener extends Thread {
           protocolType);
     }
 
-    listen(iHostName, iHostPortRange, iProtocolName);
     protocolType = iProtocol;
 
     readParameters(iServer.getContextConfiguration(), iParameters);
 
+    try {
+      if (OBinaryNetworkProtocolAbstract.class.isAssignableFrom(iProtocol)
+          && configuration.getValueAsBoolean(OGlobalConfiguration.NETWORK_BINARY_NIO_ENABLED))
+        selector = new OServerNetworkSelector(iProtocolName,
+            configuration.getValueAsInteger(OGlobalConfiguration.NETWORK_BINARY_NIO_SELECTORS),
+            configuration.getValueAsInteger(OGlobalConfiguration.NETWORK_BINARY_NIO_WORKERS));
+      else if (ONetworkProtocolHttpAbstract.class.isAssignableFrom(iProtocol)
+          && configuration.getValueAsBoolean(OGlobalConfiguration.NETWORK_HTTP_NIO_ENABLED))
+        // THE IDLE KEEP-ALIVE CONNECTIONS ARE CLOSED AFTER THE SAME TIMEOUT OF THE THREAD PER CONNECTION
+        selector = new OServerNetworkSelector(iProtocolName,
+            configuration.getValueAsInteger(OGlobalConfiguration.NETWORK_HTTP_NIO_SELECTORS),
+            configuration.getValueAsInteger(OGlobalConfiguration.NETWORK_HTTP_NIO_WORKERS),
+            configuration.getValueAsInteger(OGlobalConfiguration.NETWORK_SOCKET_TIMEOUT));
+    } catch (IOException e) {
+      OLogManager.instance().error(this, "Cannot open the selectors for %s connections, using a thread per connection", e,
+          iProtocolName);
+    }
+
+    listen(iHostName, iHostPortRange, iProtocolName);
+
     if (iCommands != null) {
       for (int i = 0; i < iCommands.length; ++i) {
         if (iCommands[i].stateful)
@@ -121,6 +145,9 @@ public class OServerNetworkListener extends Thread {
       protocol = null;
     }
 
+    if (selector != null)
+      selector.shutdown();
+
     if (serverSocket != null)
       try {
         serverSocket.close();
@@ -140,7 +167,12 @@ public class OServerNetworkListener extends Thread {
     for (int port : ports) {
       inboundAddr = new InetSocketAddress(iHostName, port);
       try {
-        serverSocket = new java.net.ServerSocket(port, 0, InetAddress.getByName(iHostName));
+        if (selector != null) {
+          // SOCKETS WITH CHANNEL TO BE REGISTERED IN THE SELECTORS
+          serverSocket = ServerSocketChannel.open().socket();
+          serverSocket.bind(new InetSocketAddress(InetAddress.getByName(iHostName), port));
+        } else
+          serverSocket = new java.net.ServerSocket(port, 0, InetAddress.getByName(iHostName));
 
         if (serverSocket.isBound()) {
           OLogManager.instance().info(
@@ -150,6 +182,11 @@ public class OServerNetworkListener extends Thread {
           return;
         }
       } catch (BindException be) {
+        if (serverSocket != null)
+          try {
+            serverSocket.close();
+          } catch (IOException e) {
+          }
         OLogManager.instance().info(this, "Port %s:%d busy, trying the next available...", iHostName, port);
       } catch (SocketException se) {
         OLogManager.instance().error(this, "Unable to create socket", se);
@@ -198,9 +235,15 @@ public class OServerNetworkListener extends Thread {
           // CREATE A NEW PROTOCOL INSTANCE
           protocol = protocolType.newInstance();
 
+          if (selector != null)
+            protocol.setSelector(selector);
+
           // CONFIGURE THE PROTOCOL FOR THE INCOMING CONNECTION
           protocol.config(server, socket, configuration, statelessCommands, statefulCommands);
 
+        } catch (ClosedChannelException e) {
+          // SERVER SOCKET WITH CHANNEL CLOSED BY SHUTDOWN OR INTERRUPTION
+          break;
         } catch (Throwable e) {
           if (active)
             OLogManager.instance().error(this, "Error on client connection", e);
@@ -0,0 +1,343 @@
+/*
+ * Copyright 2010-2012 Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientechnologies.orient.server.network;
+
+import java.io.IOException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.orientechnologies.common.log.OLogManager;
+import com.orientechnologies.common.profiler.OAbstractProfiler.OProfilerHookValue;
+import com.orientechnologies.common.profiler.OProfilerMBean.METRIC_TYPE;
+import com.orientechnologies.orient.core.Orient;
+import com.orientechnologies.orient.server.network.protocol.ONetworkProtocol;
+
+/**
+ * Serves connections without a thread per connection. Idle connections are registered in non-blocking mode to a few selector
+ * threads. As soon as a request arrives, the connection is removed from the selector, switched to blocking mode and passed to a
+ * bounded pool of workers that execute all the requests already received. Then the connection goes back to the selector. An idle
+ * connection costs only its buffers. If an idle timeout is set, the connections waiting for requests longer than it are closed, as
+ * the HTTP keep-alive connections.
+ * <p>
+ * The connections waiting for a free worker are queued up to the number of workers. When the queue is full the selectors stop
+ * reading the connections with new requests, clearing their OP_READ interest, and dispatch them once the workers have drained the
+ * queue, so the clients are slowed down by TCP instead of filling the memory of the server.
+ *
+ * @author Luca Garulli
+ */
+public class OServerNetworkSelector {
+  private static final AtomicInteger workerSerial  = new AtomicInteger();
+  // MAXIMUM WAIT OF THE THROTTLED CONNECTIONS IF THE WAKE UP OF THE WORKERS IS LOST
+  private static final long          THROTTLE_WAIT = 100;
+
+  private final String               name;
+  private final SelectorThread[]     selectors;
+  private final ThreadPoolExecutor   workers;
+  private final AtomicInteger        nextSelector = new AtomicInteger();
+  private final AtomicInteger        idle         = new AtomicInteger();
+  private final AtomicInteger        throttled    = new AtomicInteger();
+  private final long                 idleTimeout;
+  private volatile boolean           active       = true;
+
+  private static class IdleConnection {
+    private final ONetworkProtocol protocol;
+    private final long             since;
+
+    private IdleConnection(final ONetworkProtocol iProtocol) {
+      protocol = iProtocol;
+      since = System.currentTimeMillis();
+    }
+  }
+
+  public OServerNetworkSelector(final String iName, final int iSelectors, final int iWorkers) throws IOException {
+    this(iName, iSelectors, iWorkers, 0);
+  }
+
+  /**
+   * @param iIdleTimeout
+   *          Milliseconds after which a connection without requests is closed. 0 = never
+   */
+  public OServerNetworkSelector(final String iName, final int iSelectors, final int iWorkers, final long iIdleTimeout)
+      throws IOException {
+    name = iName;
+    idleTimeout = iIdleTimeout;
+
+    final int maxWorkers = iWorkers > 0 ? iWorkers : Runtime.getRuntime().availableProcessors() * 8;
+    workers = new ThreadPoolExecutor(maxWorkers, maxWorkers, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(maxWorkers),
+        new ThreadFactory() {
+          public Thread newThread(final Runnable r) {
+            final Thread thread = new Thread(Orient.instance().getThreadGroup(), r, "OrientDB " + name + " worker-"
+                + workerSerial.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+          }
+        }) {
+      @Override
+      protected void beforeExecute(final Thread t, final Runnable r) {
+        // A CONNECTION HAS BEEN TAKEN FROM THE QUEUE: THERE IS ROOM FOR THE THROTTLED ONES
+        resumeThrottled();
+      }
+    };
+    workers.allowCoreThreadTimeOut(true);
+
+    selectors = new SelectorThread[Math.max(1, iSelectors)];
+    for (int i = 0; i < selectors.length; ++i) {
+      selectors[i] = new SelectorThread(i);
+      selectors[i].start();
+    }
+
+    Orient
+        .instance()
+        .getProfiler()
+        .registerHookValue("server.network." + name + ".idleConnections", "Number of connections waiting for requests",
+            METRIC_TYPE.COUNTER, new OProfilerHookValue() {
+              public Object getValue() {
+                return idle.get();
+              }
+            });
+  }
+
+  /**
+   * Waits for the requests of a connection. The protocol must not be started as a thread.
+   */
+  public void register(final ONetworkProtocol iProtocol) {
+    selectors[Math.abs(nextSelector.getAndIncrement() % selectors.length)].register(iProtocol);
+  }
+
+  public void shutdown() {
+    active = false;
+    for (SelectorThread s : selectors)
+      s.close();
+    workers.shutdown();
+    Orient.instance().getProfiler().unregisterHookValue("server.network." + name + ".idleConnections");
+  }
+
+  /**
+   * Returns the number of connections waiting for requests.
+   */
+  public int getIdleConnections() {
+    return idle.get();
+  }
+
+  /**
+   * Returns the number of connections with requests in execution or waiting for a free worker.
+   */
+  public int getActiveConnections() {
+    return workers.getActiveCount() + workers.getQueue().size() + throttled.get();
+  }
+
+  /**
+   * Wakes up the selectors holding connections that wait for room in the queue of the workers.
+   */
+  private void resumeThrottled() {
+    if (throttled.get() > 0)
+      for (SelectorThread s : selectors)
+        s.selector.wakeup();
+  }
+
+  private static SocketChannel getSocketChannel(final ONetworkProtocol iProtocol) {
+    return iProtocol.getChannel().socket.getChannel();
+  }
+
+  private class SelectorThread extends Thread {
+    private final Selector                selector;
+    private final Queue<ONetworkProtocol> pending       = new ConcurrentLinkedQueue<ONetworkProtocol>();
+    private final List<SelectionKey>      throttledKeys = new ArrayList<SelectionKey>();
+    private long                          nextIdleCheck;
+
+    private SelectorThread(final int iId) throws IOException {
+      super(Orient.instance().getThreadGroup(), "OrientDB " + name + " selector-" + iId);
+      setDaemon(true);
+      selector = Selector.open();
+    }
+
+    private void register(final ONetworkProtocol iProtocol) {
+      pending.add(iProtocol);
+      selector.wakeup();
+    }
+
+    private void close() {
+      try {
+        selector.close();
+      } catch (IOException e) {
+      }
+    }
+
+    @Override
+    public void run() {
+      final List<ONetworkProtocol> ready = new ArrayList<ONetworkProtocol>();
+
+      while (active)
+        try {
+          if (throttledKeys.isEmpty())
+            selector.select(idleTimeout);
+          else
+            selector.select(idleTimeout > 0 ? Math.min(idleTimeout, THROTTLE_WAIT) : THROTTLE_WAIT);
+
+          registerPending();
+
+          // THE CONNECTIONS THROTTLED FIRST, IF THE WORKERS HAVE ROOM FOR THEM
+          for (Iterator<SelectionKey> it = throttledKeys.iterator(); it.hasNext() && hasRoom(ready.size());) {
+            final SelectionKey key = it.next();
+            it.remove();
+            throttled.decrementAndGet();
+
+            key.cancel();
+            ready.add(((IdleConnection) key.attachment()).protocol);
+          }
+
+          while (!selector.selectedKeys().isEmpty() || !ready.isEmpty()) {
+            for (Iterator<SelectionKey> it = selector.selectedKeys().iterator(); it.hasNext();) {
+              final SelectionKey key = it.next();
+              it.remove();
+              idle.decrementAndGet();
+
+              if (hasRoom(ready.size())) {
+                // REMOVE THE CONNECTION FROM THE SELECTOR UNTIL THE REQUESTS HAVE BEEN EXECUTED
+                key.cancel();
+                ready.add(((IdleConnection) key.attachment()).protocol);
+              } else
+                throttle(key);
+            }
+
+            try {
+              // DEREGISTER THE CANCELLED KEYS, OTHERWISE THE CHANNELS CAN'T BE SWITCHED TO BLOCKING MODE
+              selector.selectNow();
+
+              for (ONetworkProtocol p : ready)
+                dispatch(p);
+            } finally {
+              // NEVER DISPATCH A CONNECTION TWICE, ALSO ON ERRORS
+              ready.clear();
+            }
+          }
+
+          if (idleTimeout > 0)
+            closeIdleConnections();
+
+        } catch (ClosedSelectorException e) {
+          break;
+        } catch (Throwable t) {
+          if (active)
+            OLogManager.instance().error(this, "Error on waiting for %s requests", t, name);
+        }
+    }
+
+    private void registerPending() {
+      ONetworkProtocol p;
+      while ((p = pending.poll()) != null) {
+        try {
+          final SocketChannel channel = getSocketChannel(p);
+          channel.configureBlocking(false);
+          channel.register(selector, SelectionKey.OP_READ, new IdleConnection(p));
+          idle.incrementAndGet();
+        } catch (Exception e) {
+          // CONNECTION CLOSED IN THE MEANTIME
+          closeConnection(p);
+        }
+      }
+    }
+
+    /**
+     * Returns true if the queue of the workers has room for more connections than the ones about to be dispatched.
+     */
+    private boolean hasRoom(final int iToDispatch) {
+      return workers.getQueue().remainingCapacity() > iToDispatch;
+    }
+
+    /**
+     * Keeps the connection in the selector without reading it until the workers have room for it: its requests are left in the
+     * socket buffer.
+     */
+    private void throttle(final SelectionKey iKey) {
+      iKey.interestOps(0);
+      throttledKeys.add(iKey);
+      throttled.incrementAndGet();
+    }
+
+    private void closeIdleConnections() {
+      final long now = System.currentTimeMillis();
+      if (now < nextIdleCheck)
+        return;
+      nextIdleCheck = now + Math.max(1, idleTimeout / 2);
+
+      for (SelectionKey key : selector.keys()) {
+        final IdleConnection c = (IdleConnection) key.attachment();
+        if (key.isValid() && key.interestOps() != 0 && now - c.since > idleTimeout) {
+          key.cancel();
+          idle.decrementAndGet();
+          closeConnection(c.protocol);
+        }
+      }
+    }
+
+    /**
+     * Passes the connection to a worker. Errors are handled per connection: the connection is closed and the others are dispatched
+     * anyway.
+     */
+    private void dispatch(final ONetworkProtocol iProtocol) {
+      try {
+        getSocketChannel(iProtocol).configureBlocking(true);
+
+        workers.execute(new Runnable() {
+          public void run() {
+            if (iProtocol.executeReceivedRequests() && active)
+              // WAIT FOR THE NEXT REQUESTS
+              register(iProtocol);
+          }
+        });
+      } catch (RejectedExecutionException e) {
+        if (!active)
+          closeConnection(iProtocol);
+        else
+          // QUEUE FILLED BY ANOTHER SELECTOR IN THE MEANTIME
+          try {
+            final SocketChannel channel = getSocketChannel(iProtocol);
+            channel.configureBlocking(false);
+            throttle(channel.register(selector, 0, new IdleConnection(iProtocol)));
+          } catch (Exception ex) {
+            closeConnection(iProtocol);
+          }
+      } catch (Exception e) {
+        if (active)
+          OLogManager.instance().debug(this, "Error on dispatching a %s connection, closing it", e, name);
+        closeConnection(iProtocol);
+      }
+    }
+
+    private void closeConnection(final ONetworkProtocol iProtocol) {
+      try {
+        iProtocol.sendShutdown();
+        iProtocol.shutdown();
+      } catch (Exception e) {
+        OLogManager.instance().debug(this, "Error on closing a %s connection", e, name);
+      }
+    }
+  }
+}
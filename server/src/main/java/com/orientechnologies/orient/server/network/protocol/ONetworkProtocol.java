@@ -26,10 +26,13 @@ import com.orientechnologies.orient.core.config.OContextConfiguration;
 import com.orientechnologies.orient.enterprise.channel.OChannel;
 import com.orientechnologies.orient.server.OServer;
 import com.orientechnologies.orient.server.distributed.ODistributedServerManager;
+import com.orientechnologies.orient.server.network.OServerNetworkSelector;
 
 public abstract class ONetworkProtocol extends OSoftThread {
-  private static final int MAX_RETRIES = 20;
-  protected OServer        server;
+  private static final int         MAX_RETRIES = 20;
+  protected OServer                server;
+  protected OServerNetworkSelector selector;
+  private volatile Thread          requestThread;
 
   public ONetworkProtocol(ThreadGroup group, String name) {
     super(group, name);
@@ -44,6 +47,56 @@ public abstract class ONetworkProtocol extends OSoftThread {
 
   public abstract OChannel getChannel();
 
+  /**
+   * Serves the connection through a selector instead of starting a thread. Must be called before the configuration.
+   */
+  public void setSelector(final OServerNetworkSelector iSelector) {
+    selector = iSelector;
+  }
+
+  public OServerNetworkSelector getSelector() {
+    return selector;
+  }
+
+  /**
+   * Executes on the current thread the requests already received, then returns. Called by the selector's workers when the
+   * connection has data to read.
+   *
+   * @return true if the connection is still open and can wait for the next requests, false if it has been closed
+   */
+  public boolean executeReceivedRequests() {
+    requestThread = Thread.currentThread();
+    try {
+      do {
+        execute();
+      } while (!isShutdownFlag() && getChannel().inStream.available() > 0);
+
+    } catch (Throwable t) {
+      OLogManager.instance().debug(this, "Error on executing the requests of the client %s", t, getChannel());
+      sendShutdown();
+    } finally {
+      requestThread = null;
+      // THE WORKER IS SHARED: DON'T PROPAGATE AN INTERRUPTION TO THE NEXT CONNECTION
+      Thread.interrupted();
+    }
+
+    if (isShutdownFlag()) {
+      shutdown();
+      return false;
+    }
+    return true;
+  }
+
+  @Override
+  public void interrupt() {
+    final Thread t = requestThread;
+    if (t != null)
+      // INTERRUPT THE WORKER EXECUTING THE REQUEST
+      t.interrupt();
+    else
+      super.interrupt();
+  }
+
   public String getListeningAddress() {
     final OChannel c = getChannel();
     if (c != null)
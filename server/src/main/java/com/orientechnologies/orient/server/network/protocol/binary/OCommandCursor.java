@@ -0,0 +1,248 @@
+/*
+ * Copyright 2010-2013 Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientechnologies.orient.server.network.protocol.binary;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.orientechnologies.common.collection.OMultiValue;
+import com.orientechnologies.common.log.OLogManager;
+import com.orientechnologies.orient.core.command.OCommandRequestInternal;
+import com.orientechnologies.orient.core.command.OCommandRequestText;
+import com.orientechnologies.orient.core.config.OGlobalConfiguration;
+import com.orientechnologies.orient.core.db.ODatabaseRecordThreadLocal;
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import com.orientechnologies.orient.core.db.record.OIdentifiable;
+import com.orientechnologies.orient.core.exception.OCommandExecutionException;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+
+/**
+ * Server side of a remote cursor. The command is executed by a thread of a shared pool that is parked inside the result listener
+ * once the requested page is full, so the records are produced only when the client fetches them. The pool is bounded by
+ * "query.cursor.maxThreads": when all its threads are busy new cursors are refused. The executing thread and the connection
+ * thread never use the database at the same time: the connection thread waits while a page is being produced and the producer
+ * waits while the page is sent. Closing the cursor makes the listener return false, so the command stops without browsing the
+ * remaining records.
+ *
+ * @author Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ */
+public class OCommandCursor extends OAbstractCommandResultListener implements Runnable {
+  private static final AtomicInteger threadSerial = new AtomicInteger();
+  private static ThreadPoolExecutor  executor;
+
+  private final int                 id;
+  private final ODatabaseDocumentTx database;
+  private final OCommandRequestText command;
+  private boolean                   started;
+  private List<Object>              page;
+  private int                       requested;
+  private boolean                   producing;
+  private boolean                   delivered;
+  private boolean                   finished;
+  private boolean                   cancelled;
+  private Throwable                 error;
+  private volatile long             lastFetch;
+
+  public OCommandCursor(final int iId, final ODatabaseDocumentTx iDatabase, final OCommandRequestText iCommand) {
+    id = iId;
+    database = iDatabase;
+    command = iCommand;
+    command.setResultListener(this);
+    setFetchPlan(((OCommandRequestInternal) database.command(command)).getFetchPlan());
+    lastFetch = System.currentTimeMillis();
+  }
+
+  /**
+   * Lets the command produce up to iMax records and waits for them. Returns less records only when the command is finished.
+   */
+  public synchronized List<Object> fetch(final int iMax) {
+    if (cancelled)
+      throw new OCommandExecutionException("Cursor " + id + " is closed");
+
+    lastFetch = System.currentTimeMillis();
+    page = new ArrayList<Object>(Math.min(iMax, 1000));
+    getFetchedRecordsToSend().clear();
+
+    if (finished)
+      return page;
+
+    requested = iMax;
+    producing = true;
+
+    if (!started) {
+      try {
+        getExecutor().execute(this);
+      } catch (RejectedExecutionException e) {
+        producing = false;
+        finished = true;
+        cancelled = true;
+        throw new OCommandExecutionException("Cannot open cursor " + id + ": the server has already "
+            + OGlobalConfiguration.QUERY_CURSOR_MAX_THREADS.getValueAsInteger() + " open cursors (query.cursor.maxThreads)");
+      }
+      started = true;
+    } else
+      notifyAll();
+
+    boolean interrupted = false;
+    while (producing)
+      try {
+        wait();
+      } catch (InterruptedException e) {
+        // STOP THE COMMAND BUT WAIT FOR IT TO LEAVE THE DATABASE
+        interrupted = true;
+        cancelled = true;
+        notifyAll();
+      }
+
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+      throw new OCommandExecutionException("Cursor " + id + " has been interrupted");
+    }
+
+    if (error != null) {
+      cancelled = true;
+      if (error instanceof RuntimeException)
+        throw (RuntimeException) error;
+      throw new OCommandExecutionException("Error on executing command: " + command, error);
+    }
+
+    return page;
+  }
+
+  /**
+   * Stops the command and waits for the producing thread to leave the database.
+   */
+  public synchronized void close() {
+    cancelled = true;
+    notifyAll();
+
+    boolean interrupted = false;
+    while (started && !finished)
+      try {
+        wait();
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+
+    if (interrupted)
+      Thread.currentThread().interrupt();
+  }
+
+  public void run() {
+    ODatabaseRecordThreadLocal.INSTANCE.set(database);
+    try {
+      final Object result = ((OCommandRequestInternal) database.command(command)).execute();
+
+      if (!delivered && result != null) {
+        // THE COMMAND DIDN'T CALL THE LISTENER: SEND THE RETURNED VALUE
+        if (OMultiValue.isMultiValue(result)) {
+          for (Object o : OMultiValue.getMultiValueIterable(result))
+            if (!result(o))
+              break;
+        } else
+          result(result);
+      }
+
+    } catch (Throwable t) {
+      synchronized (this) {
+        if (!cancelled)
+          error = t;
+        else
+          OLogManager.instance().debug(this, "Error on closing cursor %d", t, id);
+      }
+    } finally {
+      synchronized (this) {
+        finished = true;
+        producing = false;
+        notifyAll();
+      }
+      ODatabaseRecordThreadLocal.INSTANCE.remove();
+    }
+  }
+
+  @Override
+  public synchronized boolean result(Object iRecord) {
+    if (cancelled)
+      return false;
+
+    delivered = true;
+
+    if (!(iRecord instanceof OIdentifiable))
+      // NON-DOCUMENT AS RESULT, CREATE A DOCUMENT AT THE FLY
+      iRecord = new ODocument().field("value", iRecord);
+
+    page.add(iRecord);
+    fetchRecord(((OIdentifiable) iRecord).getRecord());
+
+    if (page.size() >= requested) {
+      // PAGE FULL: WAKE UP THE CONNECTION AND WAIT FOR THE NEXT FETCH
+      producing = false;
+      notifyAll();
+
+      while (!producing && !cancelled)
+        try {
+          wait();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return false;
+        }
+    }
+
+    return !cancelled;
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return false;
+  }
+
+  public int getId() {
+    return id;
+  }
+
+  public synchronized boolean isFinished() {
+    return finished;
+  }
+
+  /**
+   * Returns true if the client didn't fetch records for more than iTimeout milliseconds. A cursor producing a page is never expired.
+   */
+  public synchronized boolean isExpired(final long iTimeout) {
+    return iTimeout > 0 && !producing && System.currentTimeMillis() - lastFetch > iTimeout;
+  }
+
+  private static synchronized ThreadPoolExecutor getExecutor() {
+    if (executor == null) {
+      // NO QUEUE: A CURSOR WAITING FOR A FREE THREAD WOULD NEVER BE SERVED WHILE THE OTHER CURSORS ARE OPEN
+      executor = new ThreadPoolExecutor(0, OGlobalConfiguration.QUERY_CURSOR_MAX_THREADS.getValueAsInteger(), 60, TimeUnit.SECONDS,
+          new SynchronousQueue<Runnable>(), new ThreadFactory() {
+            public Thread newThread(final Runnable r) {
+              final Thread thread = new Thread(r, "OrientDB Cursor-" + threadSerial.incrementAndGet());
+              thread.setDaemon(true);
+              return thread;
+            }
+          });
+    }
+    return executor;
+  }
+}
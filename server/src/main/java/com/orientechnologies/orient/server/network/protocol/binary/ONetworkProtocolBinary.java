@@ -55,6 +55,9 @@ import com.orientechnologies.orient.core.record.ORecordInternal;
 import com.orientechnologies.orient.core.record.impl.ODocument;
 import com.orientechnologies.orient.core.record.impl.ORecordBytes;
 import com.orientechnologies.orient.core.serialization.OMemoryStream;
+import com.orientechnologies.orient.core.serialization.compression.OCompression;
+import com.orientechnologies.orient.core.serialization.compression.OCompressionFactory;
+import com.orientechnologies.orient.core.serialization.compression.impl.ONothingCompression;
 import com.orientechnologies.orient.core.serialization.serializer.record.string.ORecordSerializerStringAbstract;
 import com.orientechnologies.orient.core.serialization.serializer.stream.OStreamSerializerAnyStreamable;
 import com.orientechnologies.orient.core.storage.OCluster;
@@ -66,8 +69,10 @@ import com.orientechnologies.orient.core.version.ORecordVersion;
 import com.orientechnologies.orient.core.version.OVersionFactory;
 import com.orientechnologies.orient.enterprise.channel.binary.OChannelBinaryProtocol;
 import com.orientechnologies.orient.enterprise.channel.binary.OChannelBinaryServer;
+import com.orientechnologies.orient.enterprise.channel.binary.ONetworkProtocolException;
 import com.orientechnologies.orient.server.OClientConnection;
 import com.orientechnologies.orient.server.OClientConnectionManager;
+import com.orientechnologies.orient.server.OClientInvalidationManager;
 import com.orientechnologies.orient.server.OServer;
 import com.orientechnologies.orient.server.distributed.ODistributedServerManager;
 import com.orientechnologies.orient.server.plugin.OServerPlugin;
@@ -100,9 +105,15 @@ public class ONetworkProtocolBinary extends OBinaryNetworkProtocolAbstract {
     channel.writeShort((short) OChannelBinaryProtocol.CURRENT_PROTOCOL_VERSION);
 
     channel.flush();
-    start();
 
     setName("OrientDB <- BinaryClient (" + iSocket.getRemoteSocketAddress() + ")");
+
+    if (selector != null) {
+      // NO DEDICATED THREAD: THE REQUESTS WILL BE EXECUTED BY THE SELECTOR'S WORKERS
+      startup();
+      selector.register(this);
+    } else
+      start();
   }
 
   @Override
@@ -114,6 +125,12 @@ public class ONetworkProtocolBinary extends OBinaryNetworkProtocolAbstract {
   protected void onBeforeRequest() throws IOException {
     waitNodeIsOnline();
 
+    if (requestType == OChannelBinaryProtocol.REQUEST_CHANNEL_COMPRESSION) {
+      // NEGOTIATED ON THE CHANNEL BEFORE OPENING ANY SESSION
+      connection = null;
+      return;
+    }
+
     connection = OClientConnectionManager.instance().getConnection(clientTxId);
 
     if (clientTxId < 0) {
@@ -264,6 +281,10 @@ public class ONetworkProtocolBinary extends OBinaryNetworkProtocolAbstract {
       readRecord();
       break;
 
+    case OChannelBinaryProtocol.REQUEST_RECORD_LOAD_MULTI:
+      readRecords();
+      break;
+
     case OChannelBinaryProtocol.REQUEST_RECORD_CREATE:
       createRecord();
       break;
@@ -299,6 +320,22 @@ public class ONetworkProtocolBinary extends OBinaryNetworkProtocolAbstract {
       command();
       break;
 
+    case OChannelBinaryProtocol.REQUEST_CURSOR_FETCH:
+      fetchCursor();
+      break;
+
+    case OChannelBinaryProtocol.REQUEST_CURSOR_CLOSE:
+      closeCursor();
+      break;
+
+    case OChannelBinaryProtocol.REQUEST_RECORD_INVALIDATIONS:
+      subscribeInvalidations();
+      break;
+
+    case OChannelBinaryProtocol.REQUEST_CHANNEL_COMPRESSION:
+      negotiateCompression();
+      break;
+
     case OChannelBinaryProtocol.REQUEST_TX_COMMIT:
       commit();
       break;
@@ -1089,13 +1126,20 @@ public class ONetworkProtocolBinary extends OBinaryNetworkProtocolAbstract {
   protected void command() throws IOException {
     setDataCommandInfo("Execute remote command");
 
-    final boolean asynch = channel.readByte() == 'a';
+    final byte mode = channel.readByte();
+    final boolean asynch = mode == 'a';
+    final int cursorPageSize = mode == 'c' ? channel.readInt() : 0;
 
     final OCommandRequestText command = (OCommandRequestText) OStreamSerializerAnyStreamable.INSTANCE.fromStream(channel
         .readBytes());
 
     connection.data.commandDetail = command.getText();
 
+    if (mode == 'c') {
+      openCursor(command, cursorPageSize);
+      return;
+    }
+
     // ENABLES THE CACHE TO IMPROVE PERFORMANCE OF COMPLEX COMMANDS LIKE TRAVERSE
     // connection.database.getLevel1Cache().setEnable(true);
     beginResponse();
@@ -1176,6 +1220,153 @@ public class ONetworkProtocolBinary extends OBinaryNetworkProtocolAbstract {
     }
   }
 
+  /**
+   * Executes the command behind a cursor and sends its first page. The cursor is kept by the connection until the command is
+   * finished or the client closes it.
+   */
+  protected void openCursor(final OCommandRequestText iCommand, final int iPageSize) throws IOException {
+    if (!isConnectionAlive())
+      return;
+
+    connection.closeExpiredCursors(OGlobalConfiguration.QUERY_CURSOR_TIMEOUT.getValueAsLong());
+
+    final int maxCursors = OGlobalConfiguration.QUERY_CURSOR_MAX_PER_CONNECTION.getValueAsInteger();
+    if (connection.getCursorCount() >= maxCursors)
+      throw new OCommandExecutionException("Cannot open more than " + maxCursors
+          + " cursors on the same connection (query.cursor.maxPerConnection): close the cursors not used anymore");
+
+    final long serverTimeout = OGlobalConfiguration.COMMAND_TIMEOUT.getValueAsLong();
+    if (serverTimeout > 0 && iCommand.getTimeoutTime() > serverTimeout)
+      // FORCE THE SERVER'S TIMEOUT
+      iCommand.setTimeout(serverTimeout, iCommand.getTimeoutStrategy());
+
+    final OCommandCursor cursor = new OCommandCursor(connection.nextCursorId(), connection.database, iCommand);
+    final List<Object> page = cursor.fetch(iPageSize);
+    if (!cursor.isFinished())
+      connection.addCursor(cursor);
+
+    beginResponse();
+    try {
+      sendOk(clientTxId);
+      channel.writeInt(cursor.getId());
+      sendCursorPage(cursor, page);
+    } finally {
+      endResponse();
+    }
+  }
+
+  protected void fetchCursor() throws IOException {
+    setDataCommandInfo("Fetch cursor");
+
+    final int cursorId = channel.readInt();
+    final int pageSize = channel.readInt();
+
+    final OCommandCursor cursor = connection.getCursor(cursorId);
+    if (cursor == null)
+      throw new OCommandExecutionException("Cursor " + cursorId + " not found: it could be expired");
+
+    final List<Object> page;
+    try {
+      page = cursor.fetch(pageSize);
+    } catch (RuntimeException e) {
+      connection.closeCursor(cursorId);
+      throw e;
+    }
+
+    if (cursor.isFinished())
+      connection.closeCursor(cursorId);
+
+    beginResponse();
+    try {
+      sendOk(clientTxId);
+      sendCursorPage(cursor, page);
+    } finally {
+      endResponse();
+    }
+  }
+
+  protected void closeCursor() throws IOException {
+    setDataCommandInfo("Close cursor");
+
+    connection.closeCursor(channel.readInt());
+
+    beginResponse();
+    try {
+      sendOk(clientTxId);
+    } finally {
+      endResponse();
+    }
+  }
+
+  /**
+   * Starts or stops pushing to the client the records changed in the database.
+   */
+  protected void subscribeInvalidations() throws IOException {
+    setDataCommandInfo("Subscribe record invalidations");
+
+    final boolean enabled = channel.readByte() == 1;
+    if (connection.database == null)
+      throw new ODatabaseException("No database opened on the connection");
+
+    OClientInvalidationManager.instance().subscribe(connection, enabled);
+
+    beginResponse();
+    try {
+      sendOk(clientTxId);
+    } finally {
+      endResponse();
+    }
+  }
+
+  /**
+   * Accepts the compression asked by the client for the contents sent on this channel, if known. The client asks it right after the
+   * connection, so the channel switches to the compressed format with no other request pending. An empty name in the response means
+   * the contents are sent uncompressed.
+   */
+  protected void negotiateCompression() throws IOException {
+    final String name = channel.readString();
+
+    OCompression compression = null;
+    if (name != null && name.length() > 0 && !name.equals(ONothingCompression.NAME))
+      try {
+        compression = OCompressionFactory.INSTANCE.getCompression(name);
+      } catch (IllegalArgumentException e) {
+        OLogManager.instance().debug(this, "Client %s asked the unknown compression '%s'", channel, name);
+      }
+
+    beginResponse();
+    try {
+      sendOk(clientTxId);
+      channel.writeString(compression != null ? compression.name() : "");
+      channel.flush();
+
+      // FROM NOW ON THE CONTENTS IN BOTH DIRECTIONS ARE COMPRESSED
+      if (compression != null)
+        channel.setCompression(compression,
+            OGlobalConfiguration.NETWORK_BINARY_COMPRESSION_THRESHOLD.getValueAsInteger());
+    } finally {
+      endResponse();
+    }
+  }
+
+  /**
+   * Sends the records of the page with the records fetched by the fetch plan, then if the cursor has more records.
+   */
+  private void sendCursorPage(final OCommandCursor iCursor, final List<Object> iPage) throws IOException {
+    for (Object o : iPage) {
+      channel.writeByte((byte) 1); // ONE MORE RECORD
+      writeIdentifiable(((OIdentifiable) o).getRecord());
+    }
+
+    for (ODocument doc : iCursor.getFetchedRecordsToSend()) {
+      channel.writeByte((byte) 2); // CLIENT CACHE RECORD. IT ISN'T PART OF THE RESULT SET
+      writeIdentifiable(doc);
+    }
+
+    channel.writeByte((byte) 0); // END OF THE PAGE
+    channel.writeByte((byte) (iCursor.isFinished() ? 0 : 1));
+  }
+
   private boolean isConnectionAlive() {
     if (connection == null || connection.database == null) {
       // CONNECTION/DATABASE CLOSED, KILL IT
@@ -1362,13 +1553,8 @@ public class ONetworkProtocolBinary extends OBinaryNetworkProtocolAbstract {
             // BUILD THE SERVER SIDE RECORD TO ACCES TO THE FETCH
             // PLAN
             if (record instanceof ODocument) {
-              final Map<String, Integer> fetchPlan = OFetchHelper.buildFetchPlan(fetchPlanString);
-
               final Set<ODocument> recordsToSend = new HashSet<ODocument>();
-              final ODocument doc = (ODocument) record;
-              final OFetchListener listener = new ORemoteFetchListener(recordsToSend);
-              final OFetchContext context = new ORemoteFetchContext();
-              OFetchHelper.fetch(doc, doc, fetchPlan, listener, context, "");
+              fetchRecords((ODocument) record, fetchPlanString, recordsToSend);
 
               // SEND RECORDS TO LOAD IN CLIENT CACHE
               for (ODocument d : recordsToSend) {
@@ -1390,6 +1576,83 @@ public class ONetworkProtocolBinary extends OBinaryNetworkProtocolAbstract {
     }
   }
 
+  /**
+   * Loads multiple records with one round-trip. The records are sent in the same order of the requested RIDs, then the records of
+   * the fetch plan are sent only once for all of them.
+   */
+  protected void readRecords() throws IOException {
+    setDataCommandInfo("Load records");
+
+    if (!isConnectionAlive())
+      return;
+
+    final int total = channel.readInt();
+    final int maxRecords = OGlobalConfiguration.NETWORK_BINARY_LOAD_MULTI_MAX.getValueAsInteger();
+    if (total < 0 || total > maxRecords) {
+      // DON'T TRUST THE SIZE SENT BY THE CLIENT
+      channel.clearInput();
+      throw new ONetworkProtocolException("Cannot load " + total + " records with one request, the maximum is " + maxRecords
+          + " (network.binary.loadMulti.maxRecords)");
+    }
+
+    final ORecordId[] rids = new ORecordId[total];
+    for (int i = 0; i < total; ++i)
+      rids[i] = channel.readRID();
+
+    final String fetchPlanString = channel.readString();
+    final boolean ignoreCache = channel.readByte() == 1;
+    final boolean loadTombstones = channel.readByte() > 0;
+
+    final ORecordInternal<?>[] records = new ORecordInternal<?>[total];
+    for (int i = 0; i < total; ++i)
+      records[i] = connection.database.load(rids[i], fetchPlanString, ignoreCache, loadTombstones);
+
+    beginResponse();
+    try {
+      sendOk(clientTxId);
+
+      final Set<ODocument> recordsToSend = fetchPlanString.length() > 0 ? new HashSet<ODocument>() : null;
+
+      for (ORecordInternal<?> record : records) {
+        if (record == null) {
+          channel.writeByte((byte) 0); // NOT FOUND
+          continue;
+        }
+
+        channel.writeByte((byte) 1); // HAS RECORD
+        channel.writeBytes(record.toStream());
+        channel.writeVersion(record.getRecordVersion());
+        channel.writeByte(record.getRecordType());
+
+        if (recordsToSend != null && record instanceof ODocument)
+          fetchRecords((ODocument) record, fetchPlanString, recordsToSend);
+      }
+
+      if (recordsToSend != null) {
+        final Set<ORID> sent = new HashSet<ORID>(Arrays.<ORID> asList(rids));
+        for (ODocument d : recordsToSend)
+          if (d.getIdentity().isValid() && !sent.contains(d.getIdentity())) {
+            channel.writeByte((byte) 2); // CLIENT CACHE
+            writeIdentifiable(d);
+          }
+      }
+      channel.writeByte((byte) 0); // NO MORE RECORDS
+
+    } finally {
+      endResponse();
+    }
+  }
+
+  /**
+   * Collects the records to send to the client following the fetch plan.
+   */
+  private void fetchRecords(final ODocument iRecord, final String iFetchPlan, final Set<ODocument> iRecordsToSend) {
+    final Map<String, Integer> fetchPlan = OFetchHelper.buildFetchPlan(iFetchPlan);
+    final OFetchListener listener = new ORemoteFetchListener(iRecordsToSend);
+    final OFetchContext context = new ORemoteFetchContext();
+    OFetchHelper.fetch(iRecord, iRecord, fetchPlan, listener, context, "");
+  }
+
   protected void beginResponse() {
     channel.acquireWriteLock();
   }
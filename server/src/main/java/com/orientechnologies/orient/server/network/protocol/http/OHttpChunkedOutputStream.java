@@ -0,0 +1,108 @@
+/*
+ * Copyright 2010-2013 Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientechnologies.orient.server.network.protocol.http;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes the content of a HTTP response with the chunked transfer encoding, so the size doesn't need to be known in advance. Closing
+ * the stream writes the last chunk, the connection stays open. If the client doesn't support chunks (HTTP/1.0) the content is
+ * written as is and the end of the response is the closing of the connection.
+ *
+ * @author Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ */
+public class OHttpChunkedOutputStream extends OutputStream {
+  private static final byte[] LAST_CHUNK = { '0', '\r', '\n', '\r', '\n' };
+
+  private final OutputStream  out;
+  private final boolean       chunked;
+  private final byte[]        buffer;
+  private int                 count;
+  private boolean             closed;
+
+  public OHttpChunkedOutputStream(final OutputStream iOut, final int iChunkSize, final boolean iChunked) {
+    out = iOut;
+    chunked = iChunked;
+    buffer = new byte[iChunkSize];
+  }
+
+  @Override
+  public void write(final int iByte) throws IOException {
+    if (count >= buffer.length)
+      flushChunk();
+    buffer[count++] = (byte) iByte;
+  }
+
+  @Override
+  public void write(final byte[] iBuffer, final int iOffset, final int iLength) throws IOException {
+    if (iLength >= buffer.length) {
+      // BIG CONTENT: SEND IT AS ONE CHUNK WITHOUT COPYING IT
+      flushChunk();
+      writeChunk(iBuffer, iOffset, iLength);
+      return;
+    }
+
+    if (iLength > buffer.length - count)
+      flushChunk();
+
+    System.arraycopy(iBuffer, iOffset, buffer, count, iLength);
+    count += iLength;
+  }
+
+  @Override
+  public void flush() throws IOException {
+    flushChunk();
+    out.flush();
+  }
+
+  /**
+   * Ends the response without closing the underlying stream.
+   */
+  @Override
+  public void close() throws IOException {
+    if (closed)
+      return;
+    closed = true;
+
+    flushChunk();
+    if (chunked)
+      out.write(LAST_CHUNK);
+    out.flush();
+  }
+
+  private void flushChunk() throws IOException {
+    if (count > 0) {
+      writeChunk(buffer, 0, count);
+      count = 0;
+    }
+  }
+
+  private void writeChunk(final byte[] iBuffer, final int iOffset, final int iLength) throws IOException {
+    if (iLength == 0)
+      // AN EMPTY CHUNK WOULD END THE RESPONSE
+      return;
+
+    if (chunked) {
+      out.write(Integer.toHexString(iLength).getBytes());
+      out.write(OHttpUtils.EOL);
+    }
+    out.write(iBuffer, iOffset, iLength);
+    if (chunked)
+      out.write(OHttpUtils.EOL);
+  }
+}
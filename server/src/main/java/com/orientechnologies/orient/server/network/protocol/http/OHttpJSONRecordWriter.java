@@ -0,0 +1,204 @@
+/*
+ * Copyright 2010-2013 Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientechnologies.orient.server.network.protocol.http;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import com.orientechnologies.common.collection.OMultiValue;
+import com.orientechnologies.common.io.OIOException;
+import com.orientechnologies.common.log.OLogManager;
+import com.orientechnologies.orient.core.command.OCommandRequest;
+import com.orientechnologies.orient.core.command.OCommandResultListener;
+import com.orientechnologies.orient.core.db.record.OIdentifiable;
+import com.orientechnologies.orient.core.record.ORecord;
+import com.orientechnologies.orient.core.serialization.serializer.OJSONWriter;
+
+/**
+ * Writes the records to the HTTP response as JSON while they are produced. Can be set as result listener of a command, so the
+ * records are never collected in memory. Small results are sent as usual once complete. When the JSON content exceeds 64K
+ * characters the response is started with the chunked transfer encoding and the content is written directly to the socket, so
+ * the memory used doesn't depend on the size of the result. Call {@link #close()} after the execution to complete the response.
+ *
+ * @author Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ */
+public class OHttpJSONRecordWriter implements OCommandResultListener {
+  private static final int      BUFFER_SIZE = 65536;
+
+  private final OHttpResponse   response;
+  private final OCommandRequest command;
+  private final String          fetchPlan;
+  private final String          jsonFormat;
+  private String                recordFormat;
+  private final ContentWriter   out         = new ContentWriter();
+  private OJSONWriter           json;
+  private int                   counter;
+
+  /**
+   * Keeps the content in memory until it exceeds the buffer, then streams it.
+   */
+  private class ContentWriter extends Writer {
+    private final StringBuilder buffer = new StringBuilder();
+    private Writer              stream;
+
+    @Override
+    public void write(final char[] iBuffer, final int iOffset, final int iLength) throws IOException {
+      if (stream != null)
+        stream.write(iBuffer, iOffset, iLength);
+      else {
+        buffer.append(iBuffer, iOffset, iLength);
+        checkSize();
+      }
+    }
+
+    @Override
+    public void write(final String iText, final int iOffset, final int iLength) throws IOException {
+      if (stream != null)
+        stream.write(iText, iOffset, iLength);
+      else {
+        buffer.append(iText, iOffset, iOffset + iLength);
+        checkSize();
+      }
+    }
+
+    @Override
+    public void flush() throws IOException {
+      if (stream != null)
+        stream.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (stream == null)
+        response.send(OHttpUtils.STATUS_OK_CODE, "OK", OHttpUtils.CONTENT_JSON, buffer.toString(), null);
+      else {
+        if (response.callbackFunction != null)
+          stream.write(")");
+        stream.close();
+      }
+    }
+
+    private void checkSize() throws IOException {
+      if (buffer.length() < BUFFER_SIZE)
+        return;
+
+      // TOO BIG TO KEEP IT IN MEMORY: START THE RESPONSE
+      final String contentType = response.callbackFunction != null ? "text/javascript" : OHttpUtils.CONTENT_JSON;
+      stream = new OutputStreamWriter(response.openStream(OHttpUtils.STATUS_OK_CODE, "OK", contentType), "UTF-8");
+      if (response.callbackFunction != null)
+        stream.write(response.callbackFunction + "(");
+      stream.append(buffer);
+      buffer.setLength(0);
+    }
+  }
+
+  public OHttpJSONRecordWriter(final OHttpResponse iResponse, final String iFetchPlan, final String iFormat) {
+    this(iResponse, null, iFetchPlan, iFormat);
+  }
+
+  /**
+   * Uses the fetch plan of the command, read when the first record arrives because the command text can declare it.
+   */
+  public OHttpJSONRecordWriter(final OHttpResponse iResponse, final OCommandRequest iCommand, final String iFormat) {
+    this(iResponse, iCommand, null, iFormat);
+  }
+
+  private OHttpJSONRecordWriter(final OHttpResponse iResponse, final OCommandRequest iCommand, final String iFetchPlan,
+      final String iFormat) {
+    response = iResponse;
+    command = iCommand;
+    fetchPlan = iFetchPlan;
+    jsonFormat = iFormat == null ? OHttpResponse.JSON_FORMAT : OHttpResponse.JSON_FORMAT + "," + iFormat;
+  }
+
+  public boolean result(final Object iRecord) {
+    try {
+      write(iRecord);
+    } catch (IOException e) {
+      throw new OIOException("Error on sending the result to the client", e);
+    }
+    return true;
+  }
+
+  public void end() {
+    // RECORDS CAN ARRIVE ALSO AFTER THE END (ORDER BY, GROUP BY): THE RESPONSE IS COMPLETED BY close()
+  }
+
+  /**
+   * Writes the end of the result and completes the response.
+   */
+  public void close() throws IOException {
+    begin();
+    json.endCollection(-1, true);
+    json.endObject();
+    out.close();
+  }
+
+  /**
+   * Returns true if at least one record has been received.
+   */
+  public boolean isStarted() {
+    return json != null;
+  }
+
+  private void begin() throws IOException {
+    if (json != null)
+      return;
+
+    final String plan = command != null ? command.getFetchPlan() : fetchPlan;
+    recordFormat = plan != null ? jsonFormat + ",fetchPlan:" + plan : jsonFormat;
+
+    json = new OJSONWriter(out, jsonFormat);
+    json.beginObject();
+    json.beginCollection(-1, true, "result");
+  }
+
+  private void write(final Object iEntry) throws IOException {
+    if (iEntry == null)
+      return;
+
+    begin();
+
+    if (iEntry instanceof OIdentifiable) {
+      final ORecord<?> rec = ((OIdentifiable) iEntry).getRecord();
+      if (rec == null)
+        return;
+
+      final String recordJson;
+      try {
+        recordJson = rec.getRecord().toJSON(recordFormat);
+      } catch (Exception e) {
+        OLogManager.instance().error(this, "Error transforming record " + rec.getIdentity() + " to JSON", e);
+        return;
+      }
+
+      if (counter++ > 0)
+        out.write(", ");
+      out.write(recordJson);
+
+    } else if (OMultiValue.isMultiValue(iEntry)) {
+      for (Object o : OMultiValue.getMultiValueIterable(iEntry))
+        write(o);
+
+    } else {
+      if (counter++ > 0)
+        out.write(", ");
+      out.write(OJSONWriter.writeValue(iEntry, recordFormat));
+    }
+  }
+}
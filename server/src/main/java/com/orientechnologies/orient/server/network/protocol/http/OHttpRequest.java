@@ -43,6 +43,7 @@ public class OHttpRequest {
   public String                             httpVersion;
   public String                             contentType;
   public String                             contentEncoding;
+  public String                             acceptEncoding;
   public String                             content;
   public OHttpMultipartBaseInputStream      multipartStream;
   public String                             boundary;
@@ -50,6 +51,7 @@ public class OHttpRequest {
   public boolean                            isMultipart;
   public String                             ifMatch;
   public String                             authentication;
+  public boolean                            keepAlive = true;
   protected Map<String, String>             headers;
 
   public final ONetworkProtocolData         data;
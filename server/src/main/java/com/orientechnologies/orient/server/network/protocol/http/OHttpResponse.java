@@ -26,6 +26,7 @@ import java.util.Date;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.zip.DeflaterOutputStream;
 import java.util.zip.GZIPOutputStream;
 
 import com.orientechnologies.common.collection.OMultiValue;
@@ -45,6 +46,7 @@ import com.orientechnologies.orient.core.serialization.serializer.OJSONWriter;
 public class OHttpResponse {
   public static final String JSON_FORMAT   = "type,indent:-1,rid,version,attribSameRow,class,keepTypes,alwaysFetchEmbeddedDocuments";
   public static final char[] URL_SEPARATOR = { '/' };
+  private static final int   CHUNK_SIZE    = 8192;
 
   private final OutputStream out;
   public final String        httpVersion;
@@ -56,6 +58,8 @@ public class OHttpResponse {
   public String              sessionId;
   public String              callbackFunction;
   public String              contentEncoding;
+  public int                 compressionThreshold;
+  public boolean             keepAlive     = true;
   public boolean             sendStarted   = false;
 
   public OHttpResponse(final OutputStream iOutStream, final String iHttpVersion, final String[] iAdditionalHeaders,
@@ -71,7 +75,7 @@ public class OHttpResponse {
 
   public void send(final int iCode, final String iReason, final String iContentType, final Object iContent, final String iHeaders)
       throws IOException {
-    send(iCode, iReason, iContentType, iContent, iHeaders, true);
+    send(iCode, iReason, iContentType, iContent, iHeaders, keepAlive);
   }
 
   public void send(final int iCode, final String iReason, final String iContentType, final Object iContent, final String iHeaders,
@@ -94,23 +98,31 @@ public class OHttpResponse {
 
     final boolean empty = content == null || content.length() == 0;
 
+    byte[] binaryContent = null;
+    String encoding = null;
+    if (!empty) {
+      binaryContent = OBinaryProtocol.string2bytes(content);
+
+      if (contentEncoding != null && compressionThreshold > 0 && binaryContent.length >= compressionThreshold) {
+        // COMPRESS ONLY BIG RESPONSES: THE SMALL ONES WOULD SPEND MORE CPU THAN THE SAVED BANDWIDTH
+        final byte[] compressed = compress(binaryContent, contentEncoding);
+        if (compressed != null) {
+          binaryContent = compressed;
+          encoding = contentEncoding;
+        }
+      }
+    }
+
     writeStatus(empty && iCode == 200 ? 204 : iCode, iReason);
     writeHeaders(contentType, iKeepAlive);
 
+    if (encoding != null)
+      writeLine("Content-Encoding: " + encoding);
+
     if (iHeaders != null)
       writeLine(iHeaders);
 
-    final String sessId = sessionId != null ? sessionId : "-";
-
-    writeLine("Set-Cookie: " + OHttpUtils.OSESSIONID + "=" + sessId + "; Path=/; HttpOnly");
-
-    byte[] binaryContent = null;
-    if (!empty) {
-      if (contentEncoding != null && contentEncoding.equals(OHttpUtils.CONTENT_ACCEPT_GZIP_ENCODED))
-        binaryContent = compress(content);
-      else
-        binaryContent = OBinaryProtocol.string2bytes(content);
-    }
+    writeSessionCookie();
 
     writeLine(OHttpUtils.HEADER_CONTENT_LENGTH + (empty ? 0 : binaryContent.length));
 
@@ -121,27 +133,59 @@ public class OHttpResponse {
     out.flush();
   }
 
+  /**
+   * Sends the status and the headers of a response whose size is not known in advance. The content written to the returned stream
+   * is sent in chunks, compressed if the client accepts it. Closing the stream completes the response without closing the
+   * connection.
+   */
+  public OutputStream openStream(final int iCode, final String iReason, final String iContentType) throws IOException {
+    sendStarted = true;
+
+    final boolean chunked = !"HTTP/1.0".equalsIgnoreCase(httpVersion);
+    if (!chunked)
+      // NO CHUNKS IN HTTP/1.0: THE END OF THE CONTENT IS THE CLOSING OF THE CONNECTION
+      keepAlive = false;
+
+    final boolean compressed = compressionThreshold > 0
+        && (OHttpUtils.CONTENT_ACCEPT_GZIP_ENCODED.equals(contentEncoding) || OHttpUtils.CONTENT_ACCEPT_DEFLATE_ENCODED
+            .equals(contentEncoding));
+
+    writeStatus(iCode, iReason);
+    writeHeaders(iContentType);
+    if (compressed)
+      writeLine("Content-Encoding: " + contentEncoding);
+    writeSessionCookie();
+    if (chunked)
+      writeLine("Transfer-Encoding: chunked");
+    writeLine(null);
+
+    final OutputStream stream = new OHttpChunkedOutputStream(out, CHUNK_SIZE, chunked);
+    if (!compressed)
+      return stream;
+    if (OHttpUtils.CONTENT_ACCEPT_GZIP_ENCODED.equals(contentEncoding))
+      return new GZIPOutputStream(stream, CHUNK_SIZE);
+    return new DeflaterOutputStream(stream);
+  }
+
   public void writeStatus(final int iStatus, final String iReason) throws IOException {
     writeLine(httpVersion + " " + iStatus + " " + iReason);
   }
 
   public void writeHeaders(final String iContentType) throws IOException {
-    writeHeaders(iContentType, true);
+    writeHeaders(iContentType, keepAlive);
   }
 
   public void writeHeaders(final String iContentType, final boolean iKeepAlive) throws IOException {
+    // ONCE ANNOUNCED, THE CONNECTION IS CLOSED AFTER THE RESPONSE
+    keepAlive = keepAlive && iKeepAlive;
+
     if (headers != null)
       writeLine(headers);
 
     writeLine("Date: " + new Date());
     writeLine("Content-Type: " + iContentType + "; charset=" + characterSet);
     writeLine("Server: " + serverInfo);
-    writeLine("Connection: " + (iKeepAlive ? "Keep-Alive" : "close"));
-
-    // SET CONTENT ENCDOING
-    if (contentEncoding != null && contentEncoding.length() > 0) {
-      writeLine("Content-Encoding: " + contentEncoding);
-    }
+    writeLine("Connection: " + (keepAlive ? "Keep-Alive" : "close"));
 
     // INCLUDE COMMON CUSTOM HEADERS
     if (additionalHeaders != null)
@@ -149,6 +193,11 @@ public class OHttpResponse {
         writeLine(h);
   }
 
+  protected void writeSessionCookie() throws IOException {
+    final String sessId = sessionId != null ? sessionId : "-";
+    writeLine("Set-Cookie: " + OHttpUtils.OSESSIONID + "=" + sessId + "; Path=/; HttpOnly");
+  }
+
   public void writeLine(final String iContent) throws IOException {
     writeContent(iContent);
     out.write(OHttpUtils.EOL);
@@ -216,29 +265,16 @@ public class OHttpResponse {
     writeRecords(iRecords, null, null);
   }
 
-  public void writeRecords(final Iterator<OIdentifiable> iRecords, final String iFetchPlan, String iFormat) throws IOException {
+  public void writeRecords(final Iterator<OIdentifiable> iRecords, final String iFetchPlan, final String iFormat)
+      throws IOException {
     if (iRecords == null)
       return;
 
-    if (iFormat == null)
-      iFormat = JSON_FORMAT;
-    else
-      iFormat = JSON_FORMAT + "," + iFormat;
-
-    final StringWriter buffer = new StringWriter();
-    final OJSONWriter json = new OJSONWriter(buffer, iFormat);
-    json.beginObject();
-
-    final String format = iFetchPlan != null ? iFormat + ",fetchPlan:" + iFetchPlan : iFormat;
-
-    // WRITE RECORDS
-    json.beginCollection(-1, true, "result");
-    formatMultiValue(iRecords, buffer, format);
-    json.endCollection(-1, true);
-
-    json.endObject();
-
-    send(OHttpUtils.STATUS_OK_CODE, "OK", OHttpUtils.CONTENT_JSON, buffer.toString(), null);
+    // THE RECORDS ARE SENT WHILE BROWSED: BIG RESULTS ARE STREAMED INSTEAD OF BUILT IN MEMORY
+    final OHttpJSONRecordWriter writer = new OHttpJSONRecordWriter(this, iFetchPlan, iFormat);
+    while (iRecords.hasNext())
+      writer.result(iRecords.next());
+    writer.close();
   }
 
   public void formatMultiValue(final Iterator<?> iIterator, final StringWriter buffer, final String format) throws IOException {
@@ -352,6 +388,31 @@ public class OHttpResponse {
     return null;
   }
 
+  /**
+   * Compresses the content with the encoding accepted by the client: gzip or deflate.
+   * 
+   * @return The compressed content or null if the encoding is not supported
+   */
+  protected byte[] compress(final byte[] iContent, final String iEncoding) {
+    try {
+      final ByteArrayOutputStream buffer = new ByteArrayOutputStream(iContent.length / 4 + 64);
+      final DeflaterOutputStream stream;
+      if (iEncoding.equals(OHttpUtils.CONTENT_ACCEPT_GZIP_ENCODED))
+        stream = new GZIPOutputStream(buffer);
+      else if (iEncoding.equals(OHttpUtils.CONTENT_ACCEPT_DEFLATE_ENCODED))
+        stream = new DeflaterOutputStream(buffer);
+      else
+        return null;
+
+      stream.write(iContent);
+      stream.close();
+      return buffer.toByteArray();
+    } catch (IOException e) {
+      OLogManager.instance().error(this, "Error on compressing HTTP response with encoding %s", e, iEncoding);
+      return null;
+    }
+  }
+
   /**
    * Stores additional headers to send
    * 
@@ -384,4 +445,20 @@ public class OHttpResponse {
   public void setContentEncoding(String contentEncoding) {
     this.contentEncoding = contentEncoding;
   }
+
+  public boolean isKeepAlive() {
+    return keepAlive;
+  }
+
+  public void setKeepAlive(final boolean iKeepAlive) {
+    keepAlive = iKeepAlive;
+  }
+
+  public int getCompressionThreshold() {
+    return compressionThreshold;
+  }
+
+  public void setCompressionThreshold(final int compressionThreshold) {
+    this.compressionThreshold = compressionThreshold;
+  }
 }
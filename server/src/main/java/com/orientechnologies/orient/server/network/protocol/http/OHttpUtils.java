@@ -48,6 +48,7 @@ public class OHttpUtils {
   public static final String HEADER_X_FORWARDED_FOR              = "X-Forwarded-For: ";
   public static final String HEADER_AUTHENTICATION               = "OAuthentication: ";
   public static final String HEADER_CONTENT_ENCODING             = "Accept-Encoding: ";
+  public static final String HEADER_CONNECTION                   = "Connection: ";
 
   public static final String AUTHORIZATION_BASIC                 = "Basic";
   public static final String OSESSIONID                          = "OSESSIONID";
@@ -68,6 +69,7 @@ public class OHttpUtils {
   public static final String CONTENT_JAVASCRIPT                  = "text/javascript";
   public static final String CONTENT_GZIP                        = "application/x-gzip";
   public static final String CONTENT_ACCEPT_GZIP_ENCODED         = "gzip";
+  public static final String CONTENT_ACCEPT_DEFLATE_ENCODED      = "deflate";
 
   public static final String CALLBACK_PARAMETER_NAME             = "callback";
 
@@ -114,6 +116,43 @@ public class OHttpUtils {
     return Collections.emptyMap();
   }
 
+  /**
+   * Chooses the encoding of the response among the ones listed in the Accept-Encoding header, preferring gzip to deflate. Encodings
+   * with quality 0 are refused by the client.
+   * 
+   * @return The encoding to use or null to send the response as is
+   */
+  public static String getResponseEncoding(final String iAcceptEncoding) {
+    if (iAcceptEncoding == null)
+      return null;
+
+    boolean deflate = false;
+    for (String part : iAcceptEncoding.split(",")) {
+      final String[] params = part.split(";");
+      final String encoding = params[0].trim().toLowerCase();
+
+      boolean refused = false;
+      for (int i = 1; i < params.length; ++i) {
+        final String param = params[i].trim();
+        if (param.startsWith("q="))
+          try {
+            refused = Float.parseFloat(param.substring(2)) <= 0;
+          } catch (NumberFormatException e) {
+            // IGNORE IT
+          }
+      }
+
+      if (refused)
+        continue;
+
+      if (encoding.equals(CONTENT_ACCEPT_GZIP_ENCODED) || encoding.equals("*"))
+        return CONTENT_ACCEPT_GZIP_ENCODED;
+      if (encoding.equals(CONTENT_ACCEPT_DEFLATE_ENCODED))
+        deflate = true;
+    }
+    return deflate ? CONTENT_ACCEPT_DEFLATE_ENCODED : null;
+  }
+
   public static String nextChainUrl(final String iCurrentUrl) {
     if (!iCurrentUrl.contains("/"))
       return iCurrentUrl;
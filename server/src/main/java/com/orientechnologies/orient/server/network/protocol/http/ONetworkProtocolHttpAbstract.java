@@ -66,6 +66,7 @@ public abstract class ONetworkProtocolHttpAbstract extends ONetworkProtocol {
   protected OHttpResponse                     response;
 
   private final StringBuilder                 requestContent    = new StringBuilder();
+  private final StringBuilder                 requestHeader     = new StringBuilder();
   private String                              responseCharSet;
   private String[]                            additionalResponseHeaders;
   private String                              listeningAddress  = "?";
@@ -92,7 +93,8 @@ public abstract class ONetworkProtocolHttpAbstract extends ONetworkProtocol {
     socketTimeout = iConfiguration.getValueAsInteger(OGlobalConfiguration.NETWORK_SOCKET_TIMEOUT);
     responseCharSet = iConfiguration.getValueAsString(OGlobalConfiguration.NETWORK_HTTP_CONTENT_CHARSET);
 
-    channel = new OChannelTextServer(iSocket, iConfiguration);
+    // WITH THE SELECTOR THE IDLE CONNECTIONS DON'T KEEP THEIR BUFFERS
+    channel = new OChannelTextServer(iSocket, iConfiguration, selector != null);
     channel.connected();
 
     request = new OHttpRequest(this, channel.inStream, connection.data, iConfiguration);
@@ -101,7 +103,21 @@ public abstract class ONetworkProtocolHttpAbstract extends ONetworkProtocol {
 
     listeningAddress = getListeningAddress();
 
-    start();
+    if (selector != null) {
+      // NO DEDICATED THREAD: THE REQUESTS WILL BE EXECUTED BY THE SELECTOR'S WORKERS
+      startup();
+      selector.register(this);
+    } else
+      start();
+  }
+
+  @Override
+  public boolean executeReceivedRequests() {
+    try {
+      return super.executeReceivedRequests();
+    } finally {
+      channel.releaseBuffers();
+    }
   }
 
   public void service() throws ONetworkProtocolException, IOException {
@@ -117,9 +133,10 @@ public abstract class ONetworkProtocolHttpAbstract extends ONetworkProtocol {
 
     response = new OHttpResponse(channel.outStream, request.httpVersion, additionalResponseHeaders, responseCharSet,
         connection.data.serverInfo, request.sessionId, callbackF);
-    if (request.contentEncoding != null && request.contentEncoding.equals(OHttpUtils.CONTENT_ACCEPT_GZIP_ENCODED)) {
-      response.setContentEncoding(OHttpUtils.CONTENT_ACCEPT_GZIP_ENCODED);
-    }
+    response.setContentEncoding(OHttpUtils.getResponseEncoding(request.acceptEncoding));
+    response.setKeepAlive(request.keepAlive);
+    response.setCompressionThreshold(request.configuration
+        .getValueAsInteger(OGlobalConfiguration.NETWORK_HTTP_COMPRESSION_THRESHOLD));
 
     waitNodeIsOnline();
 
@@ -187,6 +204,14 @@ public abstract class ONetworkProtocolHttpAbstract extends ONetworkProtocol {
     if (OLogManager.instance().isDebugEnabled())
       OLogManager.instance().debug(this, "Caught exception", e);
 
+    if (response != null && response.sendStarted) {
+      // PART OF THE RESPONSE HAS ALREADY BEEN SENT (STREAMED RESULT): CLOSE THE CONNECTION SO THE CLIENT SEES IT'S INCOMPLETE
+      OLogManager.instance().error(this, "Error on sending the response to the client %s, closing the connection", e,
+          connection.data.caller);
+      connectionError();
+      return;
+    }
+
     int errorCode = 500;
     String errorReason = null;
     String errorMessage = null;
@@ -299,7 +324,7 @@ public abstract class ONetworkProtocolHttpAbstract extends ONetworkProtocol {
     writeLine("Date: " + new Date());
     writeLine("Content-Type: " + iContentType + "; charset=" + responseCharSet);
     writeLine("Server: " + connection.data.serverInfo);
-    writeLine("Connection: Keep-Alive");
+    writeLine("Connection: " + (request.keepAlive ? "Keep-Alive" : "close"));
     if (getAdditionalResponseHeaders() != null)
       for (String h : getAdditionalResponseHeaders())
         writeLine(h);
@@ -313,7 +338,8 @@ public abstract class ONetworkProtocolHttpAbstract extends ONetworkProtocol {
     int contentLength = -1;
     boolean endOfHeaders = false;
 
-    final StringBuilder request = new StringBuilder();
+    final StringBuilder request = requestHeader;
+    request.setLength(0);
 
     while (!channel.socket.isInputShutdown()) {
       in = channel.read();
@@ -370,11 +396,21 @@ public abstract class ONetworkProtocolHttpAbstract extends ONetworkProtocol {
 
           else if (OStringSerializerHelper.startsWithIgnoreCase(line, OHttpUtils.HEADER_AUTHENTICATION))
             iRequest.authentication = line.substring(OHttpUtils.HEADER_AUTHENTICATION.length());
-          else if (OStringSerializerHelper.startsWithIgnoreCase(line, "Expect: 100-continue"))
+
+          else if (OStringSerializerHelper.startsWithIgnoreCase(line, OHttpUtils.HEADER_CONNECTION)) {
+            final String value = line.substring(OHttpUtils.HEADER_CONNECTION.length()).trim();
+            if (value.equalsIgnoreCase("close"))
+              iRequest.keepAlive = false;
+            else if (value.equalsIgnoreCase("keep-alive"))
+              iRequest.keepAlive = true;
+
+          } else if (OStringSerializerHelper.startsWithIgnoreCase(line, "Expect: 100-continue"))
             // SUPPORT THE CONTINUE TO AUTHORIZE THE CLIENT TO SEND THE CONTENT WITHOUT WAITING THE DELAY
             sendTextContent(100, null, null, null, null);
-          else if (OStringSerializerHelper.startsWithIgnoreCase(line, OHttpUtils.HEADER_CONTENT_ENCODING))
+          else if (OStringSerializerHelper.startsWithIgnoreCase(line, OHttpUtils.HEADER_CONTENT_ENCODING)) {
             iRequest.contentEncoding = line.substring(OHttpUtils.HEADER_CONTENT_ENCODING.length());
+            iRequest.acceptEncoding = iRequest.contentEncoding;
+          }
 
           // SAVE THE HEADER
           iRequest.addHeader(line);
@@ -442,7 +478,8 @@ public abstract class ONetworkProtocolHttpAbstract extends ONetworkProtocol {
 
       char c = (char) channel.read();
 
-      if (channel.inStream.available() == 0) {
+      if (c == (char) -1) {
+        // END OF STREAM: THE CLIENT CLOSED THE CONNECTION
         connectionClosed();
         return;
       }
@@ -484,6 +521,9 @@ public abstract class ONetworkProtocolHttpAbstract extends ONetworkProtocol {
           }
 
           request.httpVersion = words[2];
+
+          // HTTP/1.1 KEEPS THE CONNECTION OPEN UNLESS ASKED, HTTP/1.0 ONLY IF ASKED
+          request.keepAlive = !request.httpVersion.equalsIgnoreCase("HTTP/1.0");
           readAllContent(request);
 
           if (request.content != null && request.contentType.equals(OHttpUtils.CONTENT_TYPE_URLENCODED))
@@ -494,6 +534,10 @@ public abstract class ONetworkProtocolHttpAbstract extends ONetworkProtocol {
                 request.url);
 
           service();
+
+          if (!response.isKeepAlive())
+            // THE CLIENT OR THE COMMAND ASKED TO CLOSE THE CONNECTION
+            connectionClosed();
           return;
         }
         requestContent.append(c);
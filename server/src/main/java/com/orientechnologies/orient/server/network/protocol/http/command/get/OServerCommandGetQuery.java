@@ -15,13 +15,10 @@
  */
 package com.orientechnologies.orient.server.network.protocol.http.command.get;
 
-import java.util.List;
-
 import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
-import com.orientechnologies.orient.core.db.record.OIdentifiable;
-import com.orientechnologies.orient.core.query.OQueryAbstract;
 import com.orientechnologies.orient.core.record.ORecordSchemaAware;
-import com.orientechnologies.orient.core.sql.query.OSQLSynchQuery;
+import com.orientechnologies.orient.core.sql.query.OSQLAsynchQuery;
+import com.orientechnologies.orient.server.network.protocol.http.OHttpJSONRecordWriter;
 import com.orientechnologies.orient.server.network.protocol.http.OHttpRequest;
 import com.orientechnologies.orient.server.network.protocol.http.OHttpResponse;
 import com.orientechnologies.orient.server.network.protocol.http.command.OServerCommandAuthenticatedDbAbstract;
@@ -30,7 +27,6 @@ public class OServerCommandGetQuery extends OServerCommandAuthenticatedDbAbstrac
   private static final String[] NAMES = { "GET|query/*" };
 
   @Override
-  @SuppressWarnings("unchecked")
   public boolean execute(final OHttpRequest iRequest, OHttpResponse iResponse) throws Exception {
     String[] urlParts = checkSyntax(
         iRequest.url,
@@ -39,7 +35,7 @@ public class OServerCommandGetQuery extends OServerCommandAuthenticatedDbAbstrac
 
     final int limit = urlParts.length > 4 ? Integer.parseInt(urlParts[4]) : 20;
 
-    String fetchPlan = urlParts.length > 5 ? urlParts[5] : null;
+    final String fetchPlan = urlParts.length > 5 ? urlParts[5] : null;
 
     final String text = urlParts[3];
 
@@ -48,16 +44,17 @@ public class OServerCommandGetQuery extends OServerCommandAuthenticatedDbAbstrac
 
     ODatabaseDocumentTx db = null;
 
-    final List<OIdentifiable> response;
-
     try {
       db = getProfiledDatabaseInstance(iRequest);
 
-      final OQueryAbstract command = new OSQLSynchQuery<ORecordSchemaAware<?>>(text, limit).setFetchPlan(fetchPlan);
-      response = (List<OIdentifiable>) db.query(command);
-      fetchPlan = command.getFetchPlan();
+      // THE RECORDS ARE WRITTEN TO THE RESPONSE WHILE THE QUERY PRODUCES THEM
+      final OSQLAsynchQuery<ORecordSchemaAware<?>> command = new OSQLAsynchQuery<ORecordSchemaAware<?>>(text, limit, null);
+      command.setFetchPlan(fetchPlan);
 
-      iResponse.writeRecords(response, fetchPlan);
+      final OHttpJSONRecordWriter writer = new OHttpJSONRecordWriter(iResponse, command, null);
+      command.setResultListener(writer);
+      db.query(command);
+      writer.close();
 
     } finally {
       if (db != null)
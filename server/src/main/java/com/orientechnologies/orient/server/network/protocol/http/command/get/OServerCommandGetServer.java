@@ -28,6 +28,7 @@ import com.orientechnologies.orient.core.serialization.serializer.OJSONWriter;
 import com.orientechnologies.orient.core.storage.OStorage;
 import com.orientechnologies.orient.core.storage.impl.local.OStorageLocalAbstract;
 import com.orientechnologies.orient.server.config.OServerEntryConfiguration;
+import com.orientechnologies.orient.server.distributed.ODistributedServerManager;
 import com.orientechnologies.orient.server.network.protocol.http.OHttpRequest;
 import com.orientechnologies.orient.server.network.protocol.http.OHttpResponse;
 import com.orientechnologies.orient.server.network.protocol.http.OHttpUtils;
@@ -54,6 +55,7 @@ public class OServerCommandGetServer extends OServerCommandGetConnections {
       writeDatabases(json);
       writeStorages(json);
       writeProperties(json);
+      writeDistributed(json);
 
       json.endObject();
 
@@ -75,6 +77,13 @@ public class OServerCommandGetServer extends OServerCommandGetConnections {
     json.endCollection(2, true);
   }
 
+  protected void writeDistributed(final OJSONWriter json) throws IOException {
+    final ODistributedServerManager dManager = server.getDistributedManager();
+    if (dManager != null)
+      // CLUSTER QUEUES AND REPLICATION METRICS OF THE DATABASES ON THE CURRENT NODE
+      json.writeRecord(1, true, "distributed", dManager.getStats());
+  }
+
   protected void writeStorages(final OJSONWriter json) throws IOException {
     json.beginCollection(1, true, "storages");
     Collection<OStorage> storages = Orient.instance().getStorages();
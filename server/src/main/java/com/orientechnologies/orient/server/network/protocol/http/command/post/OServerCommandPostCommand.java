@@ -20,6 +20,7 @@ import com.orientechnologies.orient.core.command.OCommandManager;
 import com.orientechnologies.orient.core.command.OCommandRequestText;
 import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
 import com.orientechnologies.orient.core.exception.OCommandExecutionException;
+import com.orientechnologies.orient.server.network.protocol.http.OHttpJSONRecordWriter;
 import com.orientechnologies.orient.server.network.protocol.http.OHttpRequest;
 import com.orientechnologies.orient.server.network.protocol.http.OHttpResponse;
 import com.orientechnologies.orient.server.network.protocol.http.command.OServerCommandAuthenticatedDbAbstract;
@@ -69,8 +70,6 @@ public class OServerCommandPostCommand extends OServerCommandAuthenticatedDbAbst
       if (!executor.isIdempotent() && iRequest.httpMethod.equals("GET"))
         throw new OCommandExecutionException("Cannot execute non idempotent command using HTTP GET");
 
-      response = db.command(cmd).execute();
-
       fetchPlan = executor.getFetchPlan();
 
       String format = null;
@@ -83,7 +82,16 @@ public class OServerCommandPostCommand extends OServerCommandAuthenticatedDbAbst
         else
           format = "fetchPlan:" + fetchPlan;
 
-      iResponse.writeResult(response, format);
+      // THE QUERIES WRITE THEIR RECORDS TO THE RESPONSE WHILE THEY PRODUCE THEM, THE OTHER COMMANDS RETURN THE RESULT
+      final OHttpJSONRecordWriter writer = new OHttpJSONRecordWriter(iResponse, (String) null, format);
+      cmd.setResultListener(writer);
+
+      response = db.command(cmd).execute();
+
+      if (writer.isStarted() || (response == null && executor.isIdempotent()))
+        writer.close();
+      else
+        iResponse.writeResult(response, format);
 
     } finally {
       if (db != null)
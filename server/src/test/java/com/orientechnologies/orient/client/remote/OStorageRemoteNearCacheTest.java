@@ -0,0 +1,147 @@
+/*
+ * Copyright 2010-2012 Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientechnologies.orient.client.remote;
+
+import java.util.ArrayList;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.orientechnologies.orient.core.config.OGlobalConfiguration;
+import com.orientechnologies.orient.core.db.ODatabaseRecordThreadLocal;
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import com.orientechnologies.orient.core.id.OClusterPositionFactory;
+import com.orientechnologies.orient.core.id.ORecordId;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.core.storage.ORawBuffer;
+import com.orientechnologies.orient.core.version.ORecordVersion;
+import com.orientechnologies.orient.core.version.OVersionFactory;
+import com.orientechnologies.orient.server.AbstractServerTest;
+import com.orientechnologies.orient.server.OClientConnection;
+import com.orientechnologies.orient.server.OClientConnectionManager;
+
+/**
+ * Checks that the near cache drops the records changed by other clients, as pushed by the server, and all the records of a
+ * storage when its connection is lost.
+ *
+ * @author Luca Garulli (l.garulli--at--orientechnologies.com)
+ */
+@Test
+public class OStorageRemoteNearCacheTest extends AbstractServerTest {
+  private static final String STORAGE = "localhost:0/test";
+  private Object              previousEnabled;
+
+  @Override
+  protected void beforeServerStartup() {
+    previousEnabled = OGlobalConfiguration.CLIENT_NEAR_CACHE_ENABLED.getValue();
+    OGlobalConfiguration.CLIENT_NEAR_CACHE_ENABLED.setValue(true);
+  }
+
+  @Override
+  protected void afterServerShutdown() {
+    OGlobalConfiguration.CLIENT_NEAR_CACHE_ENABLED.setValue(previousEnabled);
+  }
+
+  public void testInvalidateRefusesOlderCopies() {
+    final OStorageRemoteNearCache cache = OStorageRemoteNearCache.instance();
+    final ORecordId rid = new ORecordId(9, OClusterPositionFactory.INSTANCE.valueOf(1));
+
+    cache.put(STORAGE, rid, new ORawBuffer(new byte[] { 1 }, version(1), ODocument.RECORD_TYPE));
+    Assert.assertEquals(cache.get(STORAGE, rid).buffer, new byte[] { 1 });
+
+    // THE SERVER PUSHED VERSION 2: THE COPY OF VERSION 1 IS DROPPED AND CAN'T COME BACK FROM A RESPONSE IN FLIGHT
+    cache.invalidate(STORAGE, rid, version(2));
+    Assert.assertNull(cache.get(STORAGE, rid));
+    cache.put(STORAGE, rid, new ORawBuffer(new byte[] { 1 }, version(1), ODocument.RECORD_TYPE));
+    Assert.assertNull(cache.get(STORAGE, rid));
+
+    cache.put(STORAGE, rid, new ORawBuffer(new byte[] { 2 }, version(2), ODocument.RECORD_TYPE));
+    Assert.assertEquals(cache.get(STORAGE, rid).buffer, new byte[] { 2 });
+
+    // AN OLDER INVALIDATION DOESN'T REMOVE THE NEWER COPY
+    cache.invalidate(STORAGE, rid, version(1));
+    Assert.assertEquals(cache.get(STORAGE, rid).buffer, new byte[] { 2 });
+
+    cache.clear(STORAGE);
+    Assert.assertNull(cache.get(STORAGE, rid));
+  }
+
+  public void testPushedInvalidation() throws Exception {
+    final ODatabaseDocumentTx db = openDatabase();
+    try {
+      final ORecordId rid = (ORecordId) new ODocument("Cached").field("name", "before").save().getIdentity();
+      final String storage = getCacheKey(db);
+
+      readRecord(db, rid);
+      Assert.assertNotNull(OStorageRemoteNearCache.instance().get(storage, rid));
+
+      // ANOTHER CLIENT, HERE THE SERVER ITSELF, UPDATES THE RECORD
+      final ODatabaseDocumentTx local = new ODatabaseDocumentTx("memory:" + getDatabaseName()).open("admin", "admin");
+      try {
+        local.<ODocument> load(rid).field("name", "after").save();
+      } finally {
+        local.close();
+      }
+
+      for (int i = 0; i < 50 && OStorageRemoteNearCache.instance().get(storage, rid) != null; ++i)
+        Thread.sleep(100);
+      Assert.assertNull(OStorageRemoteNearCache.instance().get(storage, rid), "invalidation not received");
+
+      Assert.assertEquals(new ODocument().fromStream(readRecord(db, rid).buffer).field("name"), "after");
+    } finally {
+      db.close();
+    }
+  }
+
+  public void testClearedOnReconnect() throws Exception {
+    final ODatabaseDocumentTx db = openDatabase();
+    try {
+      final ORecordId first = (ORecordId) new ODocument("Cached").field("name", "first").save().getIdentity();
+      final ORecordId second = (ORecordId) new ODocument("Cached").field("name", "second").save().getIdentity();
+      final ORecordId notCached = (ORecordId) new ODocument("Cached").field("name", "notCached").save().getIdentity();
+      final String storage = getCacheKey(db);
+
+      readRecord(db, first);
+      readRecord(db, second);
+      Assert.assertNotNull(OStorageRemoteNearCache.instance().get(storage, second));
+
+      // THE CONNECTION IS LOST: THE INVALIDATIONS PUSHED MEANWHILE WOULD BE LOST TOO
+      for (OClientConnection connection : new ArrayList<OClientConnection>(OClientConnectionManager.instance().getConnections()))
+        OClientConnectionManager.instance().kill(connection);
+
+      Assert.assertEquals(new ODocument().fromStream(readRecord(db, notCached).buffer).field("name"), "notCached");
+      Assert.assertNull(OStorageRemoteNearCache.instance().get(storage, first));
+      Assert.assertNull(OStorageRemoteNearCache.instance().get(storage, second));
+    } finally {
+      db.close();
+    }
+  }
+
+  private static ORawBuffer readRecord(final ODatabaseDocumentTx iDatabase, final ORecordId iRid) {
+    ODatabaseRecordThreadLocal.INSTANCE.set(iDatabase);
+    return iDatabase.getStorage().readRecord(iRid, null, false, null, false).getResult();
+  }
+
+  private static String getCacheKey(final ODatabaseDocumentTx iDatabase) {
+    return iDatabase.getStorage().getURL().substring(OEngineRemote.NAME.length() + 1);
+  }
+
+  private static ORecordVersion version(final int iVersion) {
+    final ORecordVersion version = OVersionFactory.instance().createVersion();
+    version.setCounter(iVersion);
+    return version;
+  }
+}
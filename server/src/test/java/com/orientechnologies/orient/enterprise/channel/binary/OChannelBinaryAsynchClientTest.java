@@ -0,0 +1,195 @@
+/*
+ * Copyright 2010-2012 Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientechnologies.orient.enterprise.channel.binary;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.orientechnologies.orient.core.config.OContextConfiguration;
+
+/**
+ * Checks that the responses of the requests pipelined on the same channel are matched to their requesters, also when the
+ * requesters of the same session wait in a different order.
+ *
+ * @author Luca Garulli (l.garulli--at--orientechnologies.com)
+ */
+@Test
+public class OChannelBinaryAsynchClientTest {
+  private ServerSocket     serverSocket;
+  private Socket           serverSide;
+  private DataOutputStream serverOut;
+
+  @BeforeMethod
+  public void openServer() throws IOException {
+    serverSocket = new ServerSocket(0);
+  }
+
+  @AfterMethod
+  public void closeServer() throws IOException {
+    if (serverSide != null)
+      serverSide.close();
+    serverSocket.close();
+  }
+
+  public void testInterleavedResponses() throws Exception {
+    final OChannelBinaryAsynchClient channel = connect();
+    try {
+      // TWO REQUESTS OF SESSION 1 AND ONE OF SESSION 2 IN THE MIDDLE, ANSWERED IN THE SAME ORDER
+      final int first = channel.registerRequest(1);
+      final int other = channel.registerRequest(2);
+      final int second = channel.registerRequest(1);
+      Assert.assertEquals(channel.getInFlightRequests(), 3);
+
+      final ExecutorService executor = Executors.newFixedThreadPool(3);
+      try {
+        // THE REQUESTERS WAIT IN THE REVERSE ORDER
+        final Future<Integer> secondResult = executor.submit(readResponse(channel, 1, second));
+        final Future<Integer> otherResult = executor.submit(readResponse(channel, 2, other));
+        final Future<Integer> firstResult = executor.submit(readResponse(channel, 1, first));
+
+        writeResponse(1, 100);
+        writeResponse(2, 200);
+        writeResponse(1, 300);
+        serverOut.flush();
+
+        Assert.assertEquals(firstResult.get(10, TimeUnit.SECONDS).intValue(), 100);
+        Assert.assertEquals(otherResult.get(10, TimeUnit.SECONDS).intValue(), 200);
+        Assert.assertEquals(secondResult.get(10, TimeUnit.SECONDS).intValue(), 300);
+      } finally {
+        executor.shutdown();
+      }
+
+      Assert.assertEquals(channel.getInFlightRequests(), 0);
+      Assert.assertFalse(channel.isPending(1, first));
+      Assert.assertFalse(channel.isPending(1, second));
+    } finally {
+      channel.close();
+    }
+  }
+
+  public void testManyRequestsOfManyThreads() throws Exception {
+    final OChannelBinaryAsynchClient channel = connect();
+    try {
+      final int sessions = 4;
+      final int requests = 50;
+
+      final List<int[]> sent = new ArrayList<int[]>();
+      for (int i = 0; i < requests; ++i) {
+        final int session = i % sessions;
+        sent.add(new int[] { session, channel.registerRequest(session), i });
+      }
+
+      // EVERY REQUESTER WAITS IN ITS OWN THREAD
+      final ExecutorService executor = Executors.newFixedThreadPool(requests);
+      try {
+        final List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+        for (int i = requests - 1; i > -1; --i)
+          results.add(0, executor.submit(readResponse(channel, sent.get(i)[0], sent.get(i)[1])));
+
+        for (int[] request : sent)
+          writeResponse(request[0], request[2]);
+        serverOut.flush();
+
+        for (int i = 0; i < requests; ++i)
+          Assert.assertEquals(results.get(i).get(10, TimeUnit.SECONDS).intValue(), i);
+      } finally {
+        executor.shutdown();
+      }
+      Assert.assertEquals(channel.getInFlightRequests(), 0);
+    } finally {
+      channel.close();
+    }
+  }
+
+  public void testAbandonedRequestClosesTheChannel() throws Exception {
+    final OChannelBinaryAsynchClient channel = connect();
+    final int first = channel.registerRequest(1);
+    channel.registerRequest(1);
+
+    // THE CONNECTION IS LOST BEFORE THE RESPONSE: THE NEXT RESPONSES COULD NOT BE MATCHED ANYMORE
+    serverSide.close();
+    serverSide = null;
+    try {
+      channel.beginResponse(1, first);
+      Assert.fail("response read from a closed connection");
+    } catch (IOException e) {
+    }
+
+    Assert.assertFalse(channel.isPending(1, first));
+    Assert.assertEquals(channel.getInFlightRequests(), 0);
+  }
+
+  private OChannelBinaryAsynchClient connect() throws IOException {
+    final Thread acceptor = new Thread() {
+      @Override
+      public void run() {
+        try {
+          serverSide = serverSocket.accept();
+          serverOut = new DataOutputStream(new BufferedOutputStream(serverSide.getOutputStream()));
+          serverOut.writeShort(OChannelBinaryProtocol.CURRENT_PROTOCOL_VERSION);
+          serverOut.flush();
+        } catch (IOException e) {
+          throw new IllegalStateException(e);
+        }
+      }
+    };
+    acceptor.start();
+
+    final OChannelBinaryAsynchClient channel = new OChannelBinaryAsynchClient("localhost", serverSocket.getLocalPort(),
+        new OContextConfiguration(), OChannelBinaryProtocol.CURRENT_PROTOCOL_VERSION);
+    try {
+      acceptor.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    return channel;
+  }
+
+  private void writeResponse(final int iSessionId, final int iContent) throws IOException {
+    serverOut.writeByte(OChannelBinaryProtocol.RESPONSE_STATUS_OK);
+    serverOut.writeInt(iSessionId);
+    serverOut.writeInt(iContent);
+  }
+
+  private static Callable<Integer> readResponse(final OChannelBinaryAsynchClient iChannel, final int iSessionId,
+      final int iRequestId) {
+    return new Callable<Integer>() {
+      public Integer call() throws Exception {
+        iChannel.beginResponse(iSessionId, iRequestId);
+        try {
+          return iChannel.readInt();
+        } finally {
+          iChannel.endResponse();
+        }
+      }
+    };
+  }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2010-2012 Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientechnologies.orient.enterprise.channel.binary;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Random;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.orientechnologies.orient.core.config.OContextConfiguration;
+import com.orientechnologies.orient.core.serialization.compression.OCompression;
+import com.orientechnologies.orient.core.serialization.compression.OCompressionFactory;
+
+/**
+ * Checks the contents sent on a channel with a negotiated compression: only the contents of at least the threshold size are
+ * compressed, and only if they get smaller.
+ *
+ * @author Luca Garulli (l.garulli--at--orientechnologies.com)
+ */
+@Test
+public class OChannelBinaryCompressionTest {
+  private static final int THRESHOLD = 1024;
+
+  private Socket           writerSocket;
+  private Socket           readerSocket;
+  private OChannelBinary   writer;
+
+  @BeforeMethod
+  public void connect() throws IOException {
+    final ServerSocket serverSocket = new ServerSocket(0);
+    try {
+      writerSocket = new Socket("localhost", serverSocket.getLocalPort());
+      readerSocket = serverSocket.accept();
+    } finally {
+      serverSocket.close();
+    }
+
+    writer = new OChannelBinaryServer(writerSocket, new OContextConfiguration());
+  }
+
+  @AfterMethod
+  public void close() throws IOException {
+    writer.close();
+    readerSocket.close();
+  }
+
+  public void testRoundTrip() throws IOException {
+    final OCompression compression = OCompressionFactory.INSTANCE.getCompression("snappy");
+    final OChannelBinary reader = new OChannelBinaryServer(readerSocket, new OContextConfiguration());
+    writer.setCompression(compression, THRESHOLD);
+    reader.setCompression(compression, THRESHOLD);
+
+    final byte[][] contents = { new byte[0], text(THRESHOLD - 1), text(THRESHOLD), text(100000), random(100000), null };
+    for (byte[] content : contents)
+      writer.writeBytes(content);
+    // A PARTIAL BUFFER IS COMPRESSED ONLY FOR ITS LENGTH
+    writer.writeBytes(text(100000), THRESHOLD * 10);
+    writer.flush();
+
+    for (byte[] content : contents)
+      Assert.assertEquals(reader.readBytes(), content);
+    Assert.assertEquals(reader.readBytes(), subArray(text(100000), THRESHOLD * 10));
+  }
+
+  public void testCompressedOnlyAboveThreshold() throws IOException {
+    writer.setCompression(OCompressionFactory.INSTANCE.getCompression("gzip"), THRESHOLD);
+
+    writer.writeBytes(text(THRESHOLD - 1));
+    writer.writeBytes(text(THRESHOLD * 10));
+    writer.writeBytes(random(THRESHOLD * 10));
+    writer.flush();
+
+    final DataInputStream in = new DataInputStream(readerSocket.getInputStream());
+
+    // BELOW THE THRESHOLD: SENT AS IS
+    Assert.assertEquals(in.readInt(), THRESHOLD - 1);
+    Assert.assertEquals(in.readByte(), 0);
+    in.skipBytes(THRESHOLD - 1);
+
+    // COMPRESSED
+    final int compressedLength = in.readInt();
+    Assert.assertTrue(compressedLength < THRESHOLD * 10, "not compressed: " + compressedLength);
+    Assert.assertEquals(in.readByte(), 1);
+    in.skipBytes(compressedLength);
+
+    // NOT COMPRESSIBLE: SENT AS IS
+    Assert.assertEquals(in.readInt(), THRESHOLD * 10);
+    Assert.assertEquals(in.readByte(), 0);
+  }
+
+  public void testNoCompression() throws IOException {
+    writer.writeBytes(text(THRESHOLD * 10));
+    writer.flush();
+
+    // WITHOUT A NEGOTIATED COMPRESSION THERE IS NO FLAG
+    final DataInputStream in = new DataInputStream(readerSocket.getInputStream());
+    Assert.assertEquals(in.readInt(), THRESHOLD * 10);
+    final byte[] content = new byte[THRESHOLD * 10];
+    in.readFully(content);
+    Assert.assertEquals(content, text(THRESHOLD * 10));
+  }
+
+  private static byte[] text(final int iSize) {
+    final byte[] content = new byte[iSize];
+    final byte[] pattern = "customer ordered item, ".getBytes();
+    for (int i = 0; i < iSize; ++i)
+      content[i] = pattern[i % pattern.length];
+    return content;
+  }
+
+  private static byte[] random(final int iSize) {
+    final byte[] content = new byte[iSize];
+    new Random(iSize).nextBytes(content);
+    return content;
+  }
+
+  private static byte[] subArray(final byte[] iContent, final int iLength) {
+    final byte[] result = new byte[iLength];
+    System.arraycopy(iContent, 0, result, 0, iLength);
+    return result;
+  }
+}
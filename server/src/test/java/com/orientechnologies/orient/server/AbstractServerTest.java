@@ -0,0 +1,82 @@
+/*
+ * Copyright 2010-2012 Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientechnologies.orient.server;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+
+import com.orientechnologies.orient.client.remote.OServerAdmin;
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import com.orientechnologies.orient.server.network.protocol.binary.ONetworkProtocolBinary;
+import com.orientechnologies.orient.server.network.protocol.http.ONetworkProtocolHttpDb;
+
+/**
+ * Runs an embedded server with a memory database for the tests of the remote protocols.
+ *
+ * @author Luca Garulli (l.garulli--at--orientechnologies.com)
+ */
+public abstract class AbstractServerTest {
+  protected OServer server;
+
+  @BeforeClass
+  public void startServer() throws Exception {
+    beforeServerStartup();
+
+    server = OServerMain.create();
+    server.startup(AbstractServerTest.class.getResourceAsStream("/com/orientechnologies/orient/server/server-test-config.xml"));
+    server.activate();
+
+    new OServerAdmin(getRemoteURL()).connect("root", "root").createDatabase(getDatabaseName(), "document", "memory").close();
+  }
+
+  @AfterClass
+  public void stopServer() throws Exception {
+    try {
+      new OServerAdmin(getRemoteURL()).connect("root", "root").dropDatabase("memory").close();
+    } finally {
+      server.shutdown();
+      afterServerShutdown();
+    }
+  }
+
+  /**
+   * Called before the server starts, to change the settings the server reads at startup.
+   */
+  protected void beforeServerStartup() {
+  }
+
+  /**
+   * Called after the server stopped, to restore the settings changed by {@link #beforeServerStartup()}.
+   */
+  protected void afterServerShutdown() {
+  }
+
+  protected ODatabaseDocumentTx openDatabase() {
+    return new ODatabaseDocumentTx(getRemoteURL()).open("admin", "admin");
+  }
+
+  protected String getDatabaseName() {
+    return getClass().getSimpleName();
+  }
+
+  protected String getRemoteURL() {
+    return "remote:" + server.getListenerByProtocol(ONetworkProtocolBinary.class).getListeningAddress() + "/" + getDatabaseName();
+  }
+
+  protected String getHttpAddress() {
+    return server.getListenerByProtocol(ONetworkProtocolHttpDb.class).getListeningAddress();
+  }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2010-2012 Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientechnologies.orient.server.distributed;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.orientechnologies.orient.server.distributed.task.OSQLCommandTask;
+
+/**
+ * @author Luca Garulli (l.garulli--at--orientechnologies.com)
+ */
+@Test
+public class ODistributedJournalTest {
+  private File directory;
+
+  @BeforeMethod
+  public void createDirectory() throws IOException {
+    directory = File.createTempFile("journal", "");
+    directory.delete();
+    directory.mkdirs();
+  }
+
+  @AfterMethod
+  public void deleteDirectory() {
+    for (File f : directory.listFiles())
+      f.delete();
+    directory.delete();
+  }
+
+  public void testEmpty() throws IOException {
+    final ODistributedJournal journal = new ODistributedJournal(directory, 1024, 10);
+    try {
+      Assert.assertTrue(journal.isEmpty());
+      Assert.assertEquals(journal.getFirstLSN(), 10);
+      Assert.assertEquals(journal.getLastLSN(), 9);
+      Assert.assertEquals(journal.read(9, 100, 1024).lsns.length, 0);
+      Assert.assertNull(journal.read(5, 100, 1024));
+    } finally {
+      journal.close();
+    }
+  }
+
+  public void testAppendAndRead() throws Exception {
+    final ODistributedJournal journal = new ODistributedJournal(directory, 1024 * 1024, 1);
+    try {
+      for (int i = 1; i <= 10; ++i)
+        journal.append(i, new OSQLCommandTask("update V set value = " + i));
+
+      // ALREADY APPLIED: IGNORED
+      journal.append(5, new byte[] { 1 });
+
+      Assert.assertFalse(journal.isEmpty());
+      Assert.assertEquals(journal.getLastLSN(), 10);
+
+      ODistributedJournal.OEntries entries = journal.read(0, 10, 1024 * 1024);
+      Assert.assertEquals(entries.lsns, new long[] { 1, 2, 3, 4, 5, 6, 7, 8, 9, 10 });
+      Assert.assertEquals(((OSQLCommandTask) ODistributedJournal.deserialize(entries.tasks[4])).getPayload(),
+          "update V set value = 5");
+
+      entries = journal.read(3, 6, 1024 * 1024);
+      Assert.assertEquals(entries.lsns, new long[] { 4, 5, 6 });
+
+      // STOPS AFTER THE FIRST ENTRY BIGGER THAN THE MAX SIZE
+      entries = journal.read(3, 10, 1);
+      Assert.assertEquals(entries.lsns, new long[] { 4 });
+    } finally {
+      journal.close();
+    }
+  }
+
+  public void testSegments() throws Exception {
+    // SEGMENTS OF 100 BYTES: 4 ENTRIES OF 12 + 10 BYTES EACH
+    final ODistributedJournal journal = new ODistributedJournal(directory, 200, 1);
+    try {
+      for (int i = 1; i <= 20; ++i)
+        journal.append(i, new byte[10]);
+
+      Assert.assertEquals(directory.listFiles().length, 2);
+      Assert.assertEquals(journal.getFirstLSN(), 13);
+      Assert.assertEquals(journal.getLastLSN(), 20);
+
+      // THE OLDEST CHANGES ARE NOT AVAILABLE ANYMORE
+      Assert.assertNull(journal.read(5, 20, 1024));
+      Assert.assertEquals(journal.read(12, 20, 1024).lsns, new long[] { 13, 14, 15, 16, 17, 18, 19, 20 });
+    } finally {
+      journal.close();
+    }
+  }
+
+  public void testReopen() throws Exception {
+    ODistributedJournal journal = new ODistributedJournal(directory, 1024 * 1024, 1);
+    for (int i = 1; i <= 5; ++i)
+      journal.append(i, new byte[] { (byte) i });
+    journal.close();
+
+    journal = new ODistributedJournal(directory, 1024 * 1024, 100);
+    try {
+      // THE NEXT LSN IS IGNORED WHEN THE JOURNAL EXISTS
+      Assert.assertEquals(journal.getFirstLSN(), 1);
+      Assert.assertEquals(journal.getLastLSN(), 5);
+
+      journal.append(6, new byte[] { 6 });
+      final ODistributedJournal.OEntries entries = journal.read(0, 6, 1024);
+      Assert.assertEquals(entries.lsns, new long[] { 1, 2, 3, 4, 5, 6 });
+      Assert.assertEquals(entries.tasks[5], new byte[] { 6 });
+    } finally {
+      journal.close();
+    }
+  }
+
+  public void testReopenTruncatesPartialEntry() throws Exception {
+    ODistributedJournal journal = new ODistributedJournal(directory, 1024 * 1024, 1);
+    for (int i = 1; i <= 3; ++i)
+      journal.append(i, new byte[] { (byte) i });
+    journal.close();
+
+    // SIMULATE A CRASH IN THE MIDDLE OF THE LAST WRITE
+    final File segment = directory.listFiles()[0];
+    final RandomAccessFile file = new RandomAccessFile(segment, "rw");
+    file.setLength(file.length() - 1);
+    file.close();
+
+    journal = new ODistributedJournal(directory, 1024 * 1024, 1);
+    try {
+      Assert.assertEquals(journal.getLastLSN(), 2);
+
+      journal.append(3, new byte[] { 3 });
+      Assert.assertEquals(journal.read(0, 3, 1024).lsns, new long[] { 1, 2, 3 });
+    } finally {
+      journal.close();
+    }
+  }
+}
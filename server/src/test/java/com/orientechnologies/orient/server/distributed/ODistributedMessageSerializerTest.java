@@ -0,0 +1,250 @@
+/*
+ * Copyright 2010-2012 Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientechnologies.orient.server.distributed;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.Externalizable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.orientechnologies.orient.core.id.OClusterPositionFactory;
+import com.orientechnologies.orient.core.id.ORecordId;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.core.storage.OPhysicalPosition;
+import com.orientechnologies.orient.core.storage.ORawBuffer;
+import com.orientechnologies.orient.core.version.ORecordVersion;
+import com.orientechnologies.orient.core.version.OVersionFactory;
+import com.orientechnologies.orient.server.distributed.task.OCompleteTxTask;
+import com.orientechnologies.orient.server.distributed.task.OCopyClusterTask;
+import com.orientechnologies.orient.server.distributed.task.OCopyDatabaseChunkTask;
+import com.orientechnologies.orient.server.distributed.task.OCreateRecordTask;
+import com.orientechnologies.orient.server.distributed.task.ODeleteRecordTask;
+import com.orientechnologies.orient.server.distributed.task.ODeployDatabaseTask;
+import com.orientechnologies.orient.server.distributed.task.OFixCreateRecordTask;
+import com.orientechnologies.orient.server.distributed.task.OFixDeleteRecordTask;
+import com.orientechnologies.orient.server.distributed.task.OFixTxTask;
+import com.orientechnologies.orient.server.distributed.task.OFixUpdateRecordTask;
+import com.orientechnologies.orient.server.distributed.task.OMapReduceCommandTask;
+import com.orientechnologies.orient.server.distributed.task.OPrepareTxTask;
+import com.orientechnologies.orient.server.distributed.task.OReadRecordTask;
+import com.orientechnologies.orient.server.distributed.task.OResynchTask;
+import com.orientechnologies.orient.server.distributed.task.OSQLCommandTask;
+import com.orientechnologies.orient.server.distributed.task.OSyncDatabaseDeltaTask;
+import com.orientechnologies.orient.server.distributed.task.OTxTask;
+import com.orientechnologies.orient.server.distributed.task.OUpdateRecordTask;
+
+/**
+ * @author Luca Garulli (l.garulli--at--orientechnologies.com)
+ */
+@Test
+public class ODistributedMessageSerializerTest {
+  private static final byte[] CONTENT = new byte[] { 0, 1, -1, 127, -128 };
+
+  public void testValues() throws Exception {
+    final ORecordId rid = new ORecordId(9, OClusterPositionFactory.INSTANCE.valueOf(12345));
+    Assert.assertEquals(roundTrip(rid), rid);
+
+    final ORecordVersion version = version(7);
+    Assert.assertEquals(roundTrip(version), version);
+
+    Assert.assertNull(roundTrip(null));
+    Assert.assertEquals(roundTrip(Boolean.TRUE), Boolean.TRUE);
+    Assert.assertEquals(roundTrip(-3), -3);
+    Assert.assertEquals(roundTrip(Long.MIN_VALUE), Long.MIN_VALUE);
+    Assert.assertEquals(roundTrip("\u00e0\u00e8\u00ec"), "\u00e0\u00e8\u00ec");
+    Assert.assertEquals(roundTrip(""), "");
+    Assert.assertEquals((byte[]) roundTrip(CONTENT), CONTENT);
+
+    final List<Object> list = new ArrayList<Object>(Arrays.asList("a", 1, null, rid));
+    Assert.assertEquals(roundTrip(list), list);
+    Assert.assertEquals(roundTrip(list).getClass(), ArrayList.class);
+
+    final Set<Object> set = new HashSet<Object>(Arrays.asList("a", "b", 3L));
+    Assert.assertEquals(roundTrip(set), set);
+    Assert.assertEquals(roundTrip(set).getClass(), HashSet.class);
+
+    final Map<Object, Object> map = new HashMap<Object, Object>();
+    map.put("list", list);
+    map.put(1, null);
+    map.put(rid, version);
+    Assert.assertEquals(roundTrip(map), map);
+
+    // THE OTHER TYPES KEEP THEIR CLASS WITH THE JAVA SERIALIZATION
+    final List<Object> linked = new LinkedList<Object>(list);
+    Assert.assertEquals(roundTrip(linked), linked);
+    Assert.assertEquals(roundTrip(linked).getClass(), LinkedList.class);
+
+    final Date date = new Date();
+    Assert.assertEquals(roundTrip(date), date);
+
+    final Exception exception = (Exception) roundTrip(new ODistributedException("test"));
+    Assert.assertEquals(exception.getClass(), ODistributedException.class);
+    Assert.assertEquals(exception.getMessage(), "test");
+  }
+
+  public void testRegisteredClasses() throws Exception {
+    final ORecordId rid = new ORecordId(9, OClusterPositionFactory.INSTANCE.valueOf(12345));
+
+    final OTxTask tx = new OTxTask();
+    tx.add(new OCreateRecordTask(rid, CONTENT, version(1), ODocument.RECORD_TYPE));
+    tx.add(new OUpdateRecordTask(rid, CONTENT, version(2), ODocument.RECORD_TYPE));
+    tx.add(new ODeleteRecordTask(rid, version(3)));
+
+    final OFixTxTask fixTx = new OFixTxTask();
+    fixTx.add(new OUpdateRecordTask(rid, CONTENT, version(4), ODocument.RECORD_TYPE));
+    fixTx.add(new ODeleteRecordTask(rid, version(5)));
+
+    final Map<Object, Object> parameters = new HashMap<Object, Object>();
+    parameters.put("name", "test");
+    final Map<String, List<String>> clusters = new HashMap<String, List<String>>();
+    clusters.put("node0", Arrays.asList("a", "b"));
+
+    final ODistributedJournal.OEntries entries = new ODistributedJournal.OEntries();
+    entries.lsns = new long[] { 3, 4 };
+    entries.tasks = new byte[][] { CONTENT, new byte[0] };
+
+    final File file = File.createTempFile("chunk", ".tmp");
+    file.deleteOnExit();
+    final FileOutputStream out = new FileOutputStream(file);
+    out.write(CONTENT);
+    out.close();
+
+    final ODocument document = new ODocument().field("name", "test").field("value", 10);
+
+    final List<Object> values = new ArrayList<Object>();
+    values.add(new OCreateRecordTask(rid, CONTENT, version(1), ODocument.RECORD_TYPE));
+    values.add(new OUpdateRecordTask(rid, CONTENT, version(2), ODocument.RECORD_TYPE));
+    values.add(new ODeleteRecordTask(rid, version(3)));
+    values.add(new OReadRecordTask(rid));
+    values.add(tx);
+    values.add(new OSQLCommandTask("select from V"));
+    values.add(new OMapReduceCommandTask("select from V", parameters, clusters, 10));
+    values.add(new OFixCreateRecordTask(rid, CONTENT, version(1), ODocument.RECORD_TYPE, rid));
+    values.add(new OFixUpdateRecordTask(rid, CONTENT, version(4)));
+    values.add(new OFixDeleteRecordTask(rid, version(5)));
+    values.add(fixTx);
+    values.add(new OResynchTask());
+    values.add(new ODeployDatabaseTask());
+    values.add(new OCopyDatabaseChunkTask("file", 100, 1000));
+    values.add(new OSyncDatabaseDeltaTask(3, 10));
+    values.add(new ODistributedDatabaseChunk(file, 1, 3));
+    values.add(new ODistributedDatabaseDelta(2, 4, entries));
+    values.add(new OPhysicalPosition(OClusterPositionFactory.INSTANCE.valueOf(5), version(6)));
+    values.add(new ORawBuffer(CONTENT, version(7), ODocument.RECORD_TYPE));
+    values.add(document);
+    values.add(new OCopyClusterTask("cluster"));
+    values.add(new OPrepareTxTask("tx1", tx));
+    values.add(new OCompleteTxTask("tx1", true, 9));
+
+    final Set<Class<?>> tested = new HashSet<Class<?>>();
+    for (Object value : values) {
+      final byte[] stream = ODistributedMessageSerializer.toStream(value);
+      final Object result = ODistributedMessageSerializer.fromStream(stream);
+
+      Assert.assertEquals(result.getClass(), value.getClass());
+      // THE COPY MUST CARRY THE SAME CONTENT
+      Assert.assertEquals(ODistributedMessageSerializer.toStream(result), stream, value.getClass().getName());
+      tested.add(value.getClass());
+    }
+
+    for (Class<? extends Externalizable> c : ODistributedMessageSerializer.getRegisteredClasses())
+      Assert.assertTrue(tested.contains(c), "Registered class not tested: " + c.getName());
+
+    final ODistributedDatabaseDelta delta = (ODistributedDatabaseDelta) ODistributedMessageSerializer
+        .fromStream(ODistributedMessageSerializer.toStream(new ODistributedDatabaseDelta(2, 4, entries)));
+    Assert.assertEquals(delta.lsns, entries.lsns);
+    Assert.assertEquals(delta.tasks[0], CONTENT);
+    Assert.assertEquals(delta.getLastLSN(), 4);
+
+    final ODocument doc = (ODocument) ODistributedMessageSerializer.fromStream(ODistributedMessageSerializer.toStream(document));
+    Assert.assertEquals(doc.field("name"), "test");
+    Assert.assertEquals(doc.field("value"), 10);
+  }
+
+  public void testBigMessage() throws Exception {
+    final byte[] content = new byte[2 * 1024 * 1024];
+    content[content.length - 1] = -1;
+    Assert.assertEquals((byte[]) roundTrip(content), content);
+
+    // THE BUFFER IS REPLACED AFTER A BIG MESSAGE
+    Assert.assertEquals(roundTrip("small"), "small");
+  }
+
+  @Test(expectedExceptions = ODistributedException.class)
+  public void testVersionMismatch() throws Exception {
+    final byte[] stream = ODistributedMessageSerializer.toStream(new OSQLCommandTask("select from V"));
+    stream[0] = ODistributedMessageSerializer.VERSION + 1;
+    ODistributedMessageSerializer.fromStream(stream);
+  }
+
+  @Test(expectedExceptions = ODistributedException.class)
+  public void testUnknownClass() throws Exception {
+    final byte[] stream = ODistributedMessageSerializer.toStream(new OSQLCommandTask("select from V"));
+    // CLASS ID AFTER THE VERSION AND THE TYPE
+    stream[2] = 127;
+    ODistributedMessageSerializer.fromStream(stream);
+  }
+
+  public void testObjectInputUnsigned() throws Exception {
+    // INPUT THAT RETURNS THE SIGNED BYTE ON readUnsignedByte(), AS SOME IMPLEMENTATIONS DO
+    final DataInputStream in = new DataInputStream(new ByteArrayInputStream(new byte[] { -1, 1 }));
+    final DataInput signed = (DataInput) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { DataInput.class },
+        new InvocationHandler() {
+          public Object invoke(final Object iProxy, final Method iMethod, final Object[] iArgs) throws Throwable {
+            if (iMethod.getName().equals("readUnsignedByte"))
+              return (int) in.readByte();
+            try {
+              return iMethod.invoke(in, iArgs);
+            } catch (InvocationTargetException e) {
+              throw e.getCause();
+            }
+          }
+        });
+
+    final InputStream stream = ODistributedMessageSerializer.toObjectInput(signed);
+    Assert.assertEquals(stream.read(), 255);
+    Assert.assertEquals(stream.read(), 1);
+  }
+
+  private static Object roundTrip(final Object iValue) throws Exception {
+    return ODistributedMessageSerializer.fromStream(ODistributedMessageSerializer.toStream(iValue));
+  }
+
+  private static ORecordVersion version(final int iCounter) {
+    final ORecordVersion version = OVersionFactory.instance().createVersion();
+    version.setCounter(iCounter);
+    return version;
+  }
+}
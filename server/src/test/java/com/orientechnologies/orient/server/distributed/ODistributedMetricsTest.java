@@ -0,0 +1,137 @@
+/*
+ * Copyright 2010-2012 Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientechnologies.orient.server.distributed;
+
+import java.util.Map;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.orientechnologies.common.profiler.OAbstractProfiler.OProfilerHookValue;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.server.distributed.ODistributedMetrics.OHistogram;
+
+/**
+ * @author Luca Garulli (l.garulli--at--orientechnologies.com)
+ */
+@Test
+public class ODistributedMetricsTest {
+
+  public void testHistogram() {
+    final OHistogram histogram = new OHistogram();
+    Assert.assertEquals(histogram.getCount(), 0);
+    Assert.assertEquals(histogram.getAverage(), 0);
+    Assert.assertEquals(histogram.getPercentile(99), 0);
+
+    for (int i = 1; i <= 100; ++i)
+      histogram.record(i);
+
+    Assert.assertEquals(histogram.getCount(), 100);
+    Assert.assertEquals(histogram.getAverage(), 50);
+    Assert.assertEquals(histogram.getMax(), 100);
+    // THE UPPER BOUND OF THE BUCKET
+    Assert.assertEquals(histogram.getPercentile(50), 50);
+    Assert.assertEquals(histogram.getPercentile(51), 100);
+    Assert.assertEquals(histogram.getPercentile(10), 10);
+    Assert.assertEquals(histogram.getPercentile(100), 100);
+
+    // BEYOND THE LAST BOUND THE MAXIMUM IS RETURNED
+    histogram.record(30000);
+    Assert.assertEquals(histogram.getMax(), 30000);
+    Assert.assertEquals(histogram.getPercentile(100), 30000);
+  }
+
+  public void testCounters() {
+    final ODistributedMetrics metrics = new ODistributedMetrics("test");
+    final long now = System.currentTimeMillis();
+
+    for (int i = 0; i < 3; ++i)
+      metrics.recordSent();
+    metrics.recordApplied(now);
+    metrics.recordApplied(now);
+    metrics.setLastAppliedLSN(42);
+    metrics.recordQuorumWait(now, true);
+    metrics.recordQuorumWait(now, false);
+    metrics.recordAsynchTimeout();
+    metrics.recordQuorumNotReached();
+    metrics.recordRead(true);
+    metrics.recordRead(true);
+    metrics.recordRead(false);
+    metrics.recordResponse("node1", now);
+    metrics.recordResponse("node1", now);
+    metrics.recordResponse("node2", now);
+
+    final ODocument doc = metrics.toDocument();
+    Assert.assertEquals(doc.field("sentRequests"), 3L);
+    Assert.assertEquals(doc.field("appliedRequests"), 2L);
+    Assert.assertEquals(doc.field("lastAppliedLSN"), 42L);
+    Assert.assertEquals(doc.field("synchTimeouts"), 1L);
+    Assert.assertEquals(doc.field("asynchTimeouts"), 1L);
+    Assert.assertEquals(doc.field("quorumNotReached"), 1L);
+    Assert.assertEquals(doc.field("localReads"), 2L);
+    Assert.assertEquals(doc.field("forwardedReads"), 1L);
+    Assert.assertEquals(metrics.getApplyTime().getCount(), 2);
+    Assert.assertEquals(metrics.getQuorumTime().getCount(), 2);
+
+    final Map<String, ODocument> responseTimes = doc.field("responseTimes");
+    Assert.assertEquals(responseTimes.get("node1").field("count"), 2L);
+    Assert.assertEquals(responseTimes.get("node2").field("count"), 1L);
+  }
+
+  public void testGauges() {
+    final ODistributedMetrics metrics = new ODistributedMetrics(getClass().getSimpleName());
+    Assert.assertEquals(metrics.getQueueSize(), -1);
+    Assert.assertEquals(metrics.getReplicationLag(), -1);
+
+    final int[] queue = { 7 };
+    metrics.registerGauges(new OProfilerHookValue() {
+      public Object getValue() {
+        return queue[0];
+      }
+    }, new OProfilerHookValue() {
+      public Object getValue() {
+        return null;
+      }
+    });
+    try {
+      // READ ON DEMAND
+      Assert.assertEquals(metrics.getQueueSize(), 7);
+      queue[0] = 3;
+      Assert.assertEquals(metrics.getQueueSize(), 3);
+      Assert.assertEquals(metrics.toDocument().field("queueSize"), 3L);
+      Assert.assertEquals(metrics.getReplicationLag(), -1);
+    } finally {
+      metrics.unregisterGauges();
+    }
+    Assert.assertEquals(metrics.getQueueSize(), -1);
+  }
+
+  public void testStaleness() throws InterruptedException {
+    final ODistributedMetrics metrics = new ODistributedMetrics("test");
+    Assert.assertEquals(metrics.getStaleness(10, 10), 0);
+
+    // THE CHANGES AFTER LSN 10 ARE NOT APPLIED YET: THE DATA IS AS OLD AS THE FIRST SAMPLE
+    Thread.sleep(50);
+    metrics.getStaleness(20, 10);
+    Thread.sleep(50);
+    Assert.assertTrue(metrics.getStaleness(20, 10) >= 90);
+
+    Assert.assertEquals(metrics.getStaleness(20, 20), 0);
+
+    // NO SAMPLE APPLIED: UNKNOWN
+    Assert.assertEquals(metrics.getStaleness(30, 5), Long.MAX_VALUE);
+  }
+}
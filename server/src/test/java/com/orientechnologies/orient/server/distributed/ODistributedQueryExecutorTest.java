@@ -0,0 +1,131 @@
+/*
+ * Copyright 2010-2012 Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientechnologies.orient.server.distributed;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.mockito.Mockito;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.orientechnologies.orient.core.command.OCommandExecutor;
+import com.orientechnologies.orient.core.command.OCommandManager;
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import com.orientechnologies.orient.core.db.record.OIdentifiable;
+import com.orientechnologies.orient.core.metadata.schema.OClass;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.core.record.impl.ODocumentHelper;
+import com.orientechnologies.orient.core.sql.OCommandExecutorSQLDelegate;
+import com.orientechnologies.orient.core.sql.OCommandExecutorSQLSelect;
+import com.orientechnologies.orient.core.sql.OCommandSQL;
+import com.orientechnologies.orient.core.sql.query.OSQLSynchQuery;
+import com.orientechnologies.orient.core.storage.OStorage;
+import com.orientechnologies.orient.server.distributed.task.OMapReduceCommandTask;
+
+/**
+ * Checks that the partial results of the clusters, executed as on the nodes, are merged in the same result of the query executed
+ * on all the clusters.
+ *
+ * @author Luca Garulli (l.garulli--at--orientechnologies.com)
+ */
+@Test
+public class ODistributedQueryExecutorTest {
+  private static final String[]     CITIES   = { "Rome", "London", "Paris" };
+  private static final String[]     CLUSTERS = { "person", "person2", "person3" };
+
+  private ODatabaseDocumentTx       database;
+  private ODistributedServerManager manager;
+
+  @BeforeClass
+  public void createDatabase() {
+    database = new ODatabaseDocumentTx("memory:" + getClass().getSimpleName()).create();
+
+    final OClass person = database.getMetadata().getSchema().createClass("Person");
+    person.addClusterId(database.addCluster("person2", OStorage.CLUSTER_TYPE.PHYSICAL));
+    person.addClusterId(database.addCluster("person3", OStorage.CLUSTER_TYPE.PHYSICAL));
+
+    // THE LAST CLUSTER HAS NO RECORDS OF LONDON
+    for (int i = 0; i < 60; ++i) {
+      final String cluster = CLUSTERS[i % CLUSTERS.length];
+      final String city = cluster.equals("person3") ? CITIES[i % 2 * 2] : CITIES[i % CITIES.length];
+      new ODocument("Person").field("city", city).field("age", i).save(cluster);
+    }
+
+    manager = Mockito.mock(ODistributedServerManager.class);
+    Mockito.when(manager.getLocalNodeName()).thenReturn("node0");
+  }
+
+  @AfterClass
+  public void dropDatabase() {
+    database.drop();
+  }
+
+  public void testGroupBy() throws Exception {
+    assertMerged("select city, count(*) as total, sum(age) as sum, min(age) as min, max(age) as max, avg(age) as avg"
+        + " from Person group by city order by city");
+  }
+
+  public void testAggregatesWithoutGroups() throws Exception {
+    assertMerged("select count(*) as total, sum(age) as sum, min(age) as min, max(age) as max from Person");
+  }
+
+  public void testAggregatesWithFilter() throws Exception {
+    assertMerged("select city, count(*) as total, max(age) as max from Person where age > 40 group by city order by city");
+  }
+
+  private void assertMerged(final String iQuery) throws Exception {
+    final List<ODocument> expected = database.query(new OSQLSynchQuery<ODocument>(iQuery));
+
+    // EVERY CLUSTER EXECUTED AS BY A DIFFERENT NODE
+    final List<OIdentifiable> partials = new ArrayList<OIdentifiable>();
+    for (String cluster : CLUSTERS) {
+      final Map<String, List<String>> clusters = new HashMap<String, List<String>>();
+      clusters.put("node0", Arrays.asList(cluster));
+
+      final Object result = new OMapReduceCommandTask(iQuery, new HashMap<Object, Object>(), clusters, -1).execute(null, manager,
+          database);
+      for (Object o : (Collection<?>) result)
+        partials.add((OIdentifiable) o);
+    }
+
+    final OCommandSQL command = new OCommandSQL(iQuery);
+    final OCommandExecutor executor = OCommandManager.instance().getExecutor(command);
+    executor.parse(command);
+    final OCommandExecutorSQLSelect select = (OCommandExecutorSQLSelect) ((OCommandExecutorSQLDelegate) executor).getDelegate();
+
+    final List<OIdentifiable> merged = new ODistributedQueryExecutor(manager, database.getStorage(), command, select)
+        .mergeGroups(partials);
+    if (select.getOrderedFields() != null)
+      ODocumentHelper.sort(merged, select.getOrderedFields());
+
+    Assert.assertTrue(partials.size() > merged.size(), "nothing merged");
+    Assert.assertEquals(merged.size(), expected.size());
+    for (int i = 0; i < expected.size(); ++i) {
+      final ODocument exp = expected.get(i);
+      final ODocument doc = (ODocument) merged.get(i).getRecord();
+      for (String field : exp.fieldNames())
+        Assert.assertEquals(((Object) doc.field(field)).toString(), ((Object) exp.field(field)).toString(), iQuery + " field "
+            + field);
+    }
+  }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright 2010-2012 Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientechnologies.orient.server.distributed;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.mockito.Mockito;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.orientechnologies.orient.core.config.OGlobalConfiguration;
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import com.orientechnologies.orient.core.exception.OConcurrentModificationException;
+import com.orientechnologies.orient.core.id.OClusterPositionFactory;
+import com.orientechnologies.orient.core.id.ORID;
+import com.orientechnologies.orient.core.id.ORecordId;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.server.distributed.task.OCompleteTxTask;
+import com.orientechnologies.orient.server.distributed.task.OPrepareTxTask;
+import com.orientechnologies.orient.server.distributed.task.OTxTask;
+import com.orientechnologies.orient.server.distributed.task.OUpdateRecordTask;
+
+/**
+ * @author Luca Garulli (l.garulli--at--orientechnologies.com)
+ */
+@Test
+public class ODistributedTransactionsTest {
+  private ODatabaseDocumentTx       database;
+  private ODistributedTransactions  transactions;
+  private ODistributedServerManager manager;
+
+  @BeforeClass
+  public void createDatabase() {
+    database = new ODatabaseDocumentTx("memory:" + getClass().getSimpleName()).create();
+  }
+
+  @AfterClass
+  public void dropDatabase() {
+    database.drop();
+  }
+
+  @BeforeMethod
+  public void createTransactions() {
+    transactions = new ODistributedTransactions(database.getName());
+    manager = Mockito.mock(ODistributedServerManager.class);
+    Mockito.when(manager.getLocalNodeName()).thenReturn("node0");
+    Mockito.when(manager.getTransactions(database.getName())).thenReturn(transactions);
+  }
+
+  public void testLock() {
+    final ORID rid1 = rid(1);
+    final ORID rid2 = rid(2);
+    final OTxTask tx1 = new OTxTask();
+
+    Assert.assertNull(transactions.getPreparedTransaction());
+    Assert.assertNull(transactions.lock("tx1", "node1", tx1, Arrays.asList(rid1, rid2)));
+    Assert.assertEquals(transactions.getLockingTransaction(rid1), "tx1");
+    Assert.assertEquals(transactions.getLockingTransaction(rid2), "tx1");
+    Assert.assertEquals(transactions.getPreparedTransaction(), "tx1");
+
+    // CONFLICT: NOTHING IS LOCKED
+    Assert.assertEquals(transactions.lock("tx2", "node1", new OTxTask(), Arrays.asList(rid(3), rid2)), rid2);
+    Assert.assertNull(transactions.getLockingTransaction(rid(3)));
+    Assert.assertEquals(transactions.getPreparedCount(), 1);
+
+    Assert.assertSame(transactions.complete("tx1"), tx1);
+    Assert.assertNull(transactions.getLockingTransaction(rid1));
+    Assert.assertNull(transactions.getPreparedTransaction());
+    Assert.assertNull(transactions.complete("tx1"));
+
+    Assert.assertNull(transactions.lock("tx2", "node1", new OTxTask(), Arrays.asList(rid(3), rid2)));
+  }
+
+  public void testInDoubt() throws InterruptedException {
+    final Object timeout = OGlobalConfiguration.DISTRIBUTED_TX_LOCK_TIMEOUT.getValue();
+    OGlobalConfiguration.DISTRIBUTED_TX_LOCK_TIMEOUT.setValue(10);
+    try {
+      transactions.lock("tx1", "node1", new OTxTask(), Collections.<ORID> singletonList(rid(1)));
+      Assert.assertTrue(transactions.getInDoubtTransactions().isEmpty());
+
+      Thread.sleep(50);
+
+      List<ODistributedTransactions.OPreparedTransaction> inDoubt = transactions.getInDoubtTransactions();
+      Assert.assertEquals(inDoubt.size(), 1);
+      Assert.assertEquals(inDoubt.get(0).id, "tx1");
+      Assert.assertEquals(inDoubt.get(0).coordinator, "node1");
+
+      // BEING RESOLVED: THE RECORDS STAY LOCKED
+      transactions.setResolving("tx1");
+      Assert.assertTrue(transactions.getInDoubtTransactions().isEmpty());
+      Assert.assertEquals(transactions.getLockingTransaction(rid(1)), "tx1");
+    } finally {
+      OGlobalConfiguration.DISTRIBUTED_TX_LOCK_TIMEOUT.setValue(timeout);
+    }
+  }
+
+  public void testPrepareAndCommit() throws Exception {
+    final ODocument doc = new ODocument().field("name", "before");
+    doc.save();
+
+    final OTxTask tx = updateTx(doc, "after");
+
+    Assert.assertEquals(prepare("tx1", tx), Boolean.TRUE);
+    Assert.assertEquals(transactions.getLockingTransaction(doc.getIdentity()), "tx1");
+
+    // ANOTHER TRANSACTION ON THE SAME RECORD CAN'T BE PREPARED
+    final Object locked = prepare("tx2", updateTx(doc, "other"));
+    Assert.assertTrue(locked instanceof ODistributedRecordLockedException, String.valueOf(locked));
+
+    Assert.assertEquals(complete("tx1", true), Boolean.TRUE);
+    Assert.assertNull(transactions.getLockingTransaction(doc.getIdentity()));
+    doc.reload();
+    Assert.assertEquals(doc.field("name"), "after");
+
+    // ALREADY COMPLETED
+    Assert.assertTrue(complete("tx1", true) instanceof ODistributedException);
+  }
+
+  public void testPrepareAndRollback() throws Exception {
+    final ODocument doc = new ODocument().field("name", "before");
+    doc.save();
+
+    Assert.assertEquals(prepare("tx1", updateTx(doc, "after")), Boolean.TRUE);
+    Assert.assertEquals(complete("tx1", false), Boolean.TRUE);
+
+    Assert.assertNull(transactions.getLockingTransaction(doc.getIdentity()));
+    doc.reload();
+    Assert.assertEquals(doc.field("name"), "before");
+
+    // THE ROLLBACK OF A TRANSACTION NOT PREPARED IS NOT AN ERROR
+    Assert.assertEquals(complete("tx3", false), Boolean.TRUE);
+  }
+
+  public void testPrepareOldVersion() throws Exception {
+    final ODocument doc = new ODocument().field("name", "before");
+    doc.save();
+    final OTxTask tx = updateTx(doc, "after");
+
+    doc.field("name", "changed").save();
+
+    final Object result = prepare("tx1", tx);
+    Assert.assertTrue(result instanceof OConcurrentModificationException, String.valueOf(result));
+    Assert.assertEquals(transactions.getPreparedCount(), 0);
+  }
+
+  private Object prepare(final String iTxId, final OTxTask iTx) throws Exception {
+    final OPrepareTxTask task = new OPrepareTxTask(iTxId, iTx);
+    task.setNodeSource("node1");
+    return task.execute(null, manager, database);
+  }
+
+  private Object complete(final String iTxId, final boolean iCommit) throws Exception {
+    final OCompleteTxTask task = new OCompleteTxTask(iTxId, iCommit, -1);
+    task.setNodeSource("node1");
+    return task.execute(null, manager, database);
+  }
+
+  private static OTxTask updateTx(final ODocument iDocument, final String iName) {
+    final ODocument changed = new ODocument().field("name", iName);
+    final OTxTask tx = new OTxTask();
+    tx.add(new OUpdateRecordTask((ORecordId) iDocument.getIdentity(), changed.toStream(), iDocument.getRecordVersion().copy(),
+        ODocument.RECORD_TYPE));
+    return tx;
+  }
+
+  private static ORID rid(final long iPosition) {
+    return new ORecordId(9, OClusterPositionFactory.INSTANCE.valueOf(iPosition));
+  }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2010-2012 Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientechnologies.orient.server.distributed.task;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import com.orientechnologies.orient.core.id.ORecordId;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.core.version.ORecordVersion;
+
+/**
+ * Checks that the record tasks replayed from the journal after a crash recognize the changes already in the database.
+ *
+ * @author Luca Garulli (l.garulli--at--orientechnologies.com)
+ */
+@Test
+public class OAbstractRecordReplicatedTaskTest {
+  private ODatabaseDocumentTx database;
+
+  @BeforeClass
+  public void createDatabase() {
+    database = new ODatabaseDocumentTx("memory:" + getClass().getSimpleName()).create();
+  }
+
+  @AfterClass
+  public void dropDatabase() {
+    database.drop();
+  }
+
+  public void testIsApplied() {
+    final ODocument doc = new ODocument().field("name", "before");
+    doc.save();
+
+    final ORecordVersion version = doc.getRecordVersion().copy();
+    final OUpdateRecordTask update = new OUpdateRecordTask((ORecordId) doc.getIdentity(), doc.toStream(), version,
+        ODocument.RECORD_TYPE);
+    Assert.assertFalse(update.isApplied(database));
+
+    final OCreateRecordTask create = new OCreateRecordTask((ORecordId) doc.getIdentity(), doc.toStream(), version,
+        ODocument.RECORD_TYPE);
+    Assert.assertTrue(create.isApplied(database));
+    final ORecordId next = new ORecordId(doc.getIdentity().getClusterId(), doc.getIdentity().getClusterPosition().inc());
+    Assert.assertFalse(new OCreateRecordTask(next, doc.toStream(), version, ODocument.RECORD_TYPE).isApplied(database));
+
+    final OTxTask tx = new OTxTask();
+    tx.add(update);
+    Assert.assertFalse(tx.isApplied(database));
+
+    // A LATER CHANGE
+    doc.field("name", "after").save();
+    Assert.assertTrue(update.isApplied(database));
+    Assert.assertTrue(tx.isApplied(database));
+
+    final ODeleteRecordTask delete = new ODeleteRecordTask((ORecordId) doc.getIdentity(), doc.getRecordVersion());
+    Assert.assertFalse(delete.isApplied(database));
+    doc.delete();
+    Assert.assertTrue(delete.isApplied(database));
+  }
+
+  public void testUntrackedVersion() {
+    final ODocument doc = new ODocument().field("name", "before");
+    doc.save();
+    doc.field("name", "after").save();
+
+    // WITHOUT A VERSION THE TASK CAN'T TELL IT AND IT'S EXECUTED AGAIN
+    final OUpdateRecordTask update = new OUpdateRecordTask((ORecordId) doc.getIdentity(), doc.toStream(), null,
+        ODocument.RECORD_TYPE);
+    Assert.assertFalse(update.isApplied(database));
+  }
+}
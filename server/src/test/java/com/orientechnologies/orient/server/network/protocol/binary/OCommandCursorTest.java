@@ -0,0 +1,143 @@
+/*
+ * Copyright 2010-2012 Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientechnologies.orient.server.network.protocol.binary;
+
+import java.util.Iterator;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import com.orientechnologies.orient.core.db.record.OIdentifiable;
+import com.orientechnologies.orient.core.exception.OCommandExecutionException;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.core.sql.query.OResultCursor;
+import com.orientechnologies.orient.core.sql.query.OSQLCursorQuery;
+import com.orientechnologies.orient.core.sql.query.OSQLSynchQuery;
+import com.orientechnologies.orient.server.AbstractServerTest;
+import com.orientechnologies.orient.server.OClientConnection;
+import com.orientechnologies.orient.server.OClientConnectionManager;
+
+/**
+ * Checks that the remote cursors return all the records one page at a time and release the server side when closed.
+ *
+ * @author Luca Garulli (l.garulli--at--orientechnologies.com)
+ */
+@Test
+public class OCommandCursorTest extends AbstractServerTest {
+  private static final int TOTAL = 100;
+
+  @BeforeClass
+  public void createRecords() {
+    final ODatabaseDocumentTx db = openDatabase();
+    try {
+      db.getMetadata().getSchema().createClass("Cursored");
+      for (int i = 0; i < TOTAL; i++)
+        new ODocument("Cursored").field("n", i).save();
+    } finally {
+      db.close();
+    }
+  }
+
+  public void testFetchPages() {
+    final ODatabaseDocumentTx db = new ODatabaseDocumentTx("memory:" + getDatabaseName()).open("admin", "admin");
+    try {
+      final OCommandCursor cursor = new OCommandCursor(1, db, new OSQLSynchQuery<ODocument>("select from Cursored"));
+      try {
+        int n = 0;
+        for (int expected : new int[] { 30, 30, 30, 10, 0 }) {
+          final List<Object> page = cursor.fetch(30);
+          Assert.assertEquals(page.size(), expected);
+          for (Object o : page)
+            Assert.assertEquals(((OIdentifiable) o).<ODocument> getRecord().field("n"), n++);
+        }
+        Assert.assertTrue(cursor.isFinished());
+      } finally {
+        cursor.close();
+      }
+    } finally {
+      db.close();
+    }
+  }
+
+  public void testCloseStopsTheCommand() {
+    final ODatabaseDocumentTx db = new ODatabaseDocumentTx("memory:" + getDatabaseName()).open("admin", "admin");
+    try {
+      final OCommandCursor cursor = new OCommandCursor(1, db, new OSQLSynchQuery<ODocument>("select from Cursored"));
+      Assert.assertEquals(cursor.fetch(10).size(), 10);
+      Assert.assertFalse(cursor.isFinished());
+
+      cursor.close();
+      Assert.assertTrue(cursor.isFinished());
+
+      try {
+        cursor.fetch(10);
+        Assert.fail("records fetched from a closed cursor");
+      } catch (OCommandExecutionException e) {
+      }
+    } finally {
+      db.close();
+    }
+  }
+
+  public void testRemoteBrowseAll() {
+    final ODatabaseDocumentTx db = openDatabase();
+    try {
+      final OResultCursor<ODocument> cursor = new OSQLCursorQuery<ODocument>("select from Cursored", 7).open();
+      try {
+        int n = 0;
+        for (ODocument doc : cursor)
+          Assert.assertEquals(doc.field("n"), n++);
+        Assert.assertEquals(n, TOTAL);
+      } finally {
+        cursor.close();
+      }
+      Assert.assertTrue(cursor.isClosed());
+      Assert.assertEquals(getServerCursors(), 0);
+    } finally {
+      db.close();
+    }
+  }
+
+  public void testRemoteCloseBeforeTheEnd() {
+    final ODatabaseDocumentTx db = openDatabase();
+    try {
+      final OResultCursor<ODocument> cursor = new OSQLCursorQuery<ODocument>("select from Cursored where n >= ?", 10).open(50);
+      final Iterator<ODocument> it = cursor.iterator();
+      for (int i = 0; i < 15; ++i)
+        Assert.assertEquals(it.next().field("n"), 50 + i);
+      Assert.assertEquals(getServerCursors(), 1);
+
+      cursor.close();
+      Assert.assertTrue(cursor.isClosed());
+      Assert.assertEquals(getServerCursors(), 0);
+
+      // THE CONNECTION IS STILL USABLE
+      Assert.assertEquals(db.query(new OSQLSynchQuery<ODocument>("select from Cursored")).size(), TOTAL);
+    } finally {
+      db.close();
+    }
+  }
+
+  private static int getServerCursors() {
+    int total = 0;
+    for (OClientConnection connection : OClientConnectionManager.instance().getConnections())
+      total += connection.getCursorCount();
+    return total;
+  }
+}
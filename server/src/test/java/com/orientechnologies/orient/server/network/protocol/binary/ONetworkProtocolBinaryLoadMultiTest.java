@@ -0,0 +1,130 @@
+/*
+ * Copyright 2010-2012 Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientechnologies.orient.server.network.protocol.binary;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.orientechnologies.orient.core.config.OGlobalConfiguration;
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import com.orientechnologies.orient.core.db.record.OIdentifiable;
+import com.orientechnologies.orient.core.id.ORecordId;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.core.storage.ORawBuffer;
+import com.orientechnologies.orient.core.storage.OStorageProxy;
+import com.orientechnologies.orient.server.AbstractServerTest;
+
+/**
+ * Checks that REQUEST_RECORD_LOAD_MULTI returns the records in the order they are requested, also when some of them don't exist.
+ *
+ * @author Luca Garulli (l.garulli--at--orientechnologies.com)
+ */
+@Test
+public class ONetworkProtocolBinaryLoadMultiTest extends AbstractServerTest {
+
+  public void testMissingRecords() {
+    final ODatabaseDocumentTx db = openDatabase();
+    try {
+      final List<ODocument> docs = new ArrayList<ODocument>();
+      for (int i = 0; i < 4; ++i)
+        docs.add(new ODocument("Item").field("value", i).save());
+
+      final ORecordId deleted = (ORecordId) docs.get(1).getIdentity().copy();
+      docs.get(1).delete();
+      final ORecordId neverCreated = new ORecordId(deleted.getClusterId(), deleted.getClusterPosition().inc().inc().inc()
+          .inc());
+
+      final List<ORecordId> rids = Arrays.asList((ORecordId) docs.get(0).getIdentity(), deleted,
+          (ORecordId) docs.get(2).getIdentity(), neverCreated, (ORecordId) docs.get(3).getIdentity());
+
+      final ORawBuffer[] buffers = ((OStorageProxy) db.getStorage()).readRecords(rids, "", true, false);
+      Assert.assertEquals(buffers.length, rids.size());
+      Assert.assertNull(buffers[1]);
+      Assert.assertNull(buffers[3]);
+
+      final int[] found = { 0, 2, 4 };
+      final int[] expected = { 0, 2, 3 };
+      for (int i = 0; i < found.length; ++i) {
+        final ODocument loaded = new ODocument().fromStream(buffers[found[i]].buffer);
+        Assert.assertEquals(loaded.field("value"), docs.get(expected[i]).field("value"));
+        Assert.assertEquals(buffers[found[i]].version, docs.get(expected[i]).getRecordVersion());
+      }
+    } finally {
+      db.close();
+    }
+  }
+
+  public void testTooManyRecords() {
+    final ODatabaseDocumentTx db = openDatabase();
+    final Object previous = OGlobalConfiguration.NETWORK_BINARY_LOAD_MULTI_MAX.getValue();
+    try {
+      final List<ORecordId> rids = new ArrayList<ORecordId>();
+      for (int i = 0; i < 3; ++i)
+        rids.add((ORecordId) new ODocument("Item").field("value", i).save().getIdentity());
+
+      OGlobalConfiguration.NETWORK_BINARY_LOAD_MULTI_MAX.setValue(2);
+      try {
+        ((OStorageProxy) db.getStorage()).readRecords(rids, "", true, false);
+        Assert.fail("request bigger than " + OGlobalConfiguration.NETWORK_BINARY_LOAD_MULTI_MAX.getKey() + " accepted");
+      } catch (RuntimeException e) {
+      }
+
+      // THE CONNECTION CAN STILL BE USED
+      Assert.assertEquals(((OStorageProxy) db.getStorage()).readRecords(rids.subList(0, 2), "", true, false).length, 2);
+    } finally {
+      OGlobalConfiguration.NETWORK_BINARY_LOAD_MULTI_MAX.setValue(previous);
+      db.close();
+    }
+  }
+
+  public void testLinksToMissingRecords() {
+    ODatabaseDocumentTx db = openDatabase();
+    final ORecordId owner;
+    try {
+      final ODocument[] linked = new ODocument[10];
+      final List<OIdentifiable> links = new ArrayList<OIdentifiable>();
+      for (int i = 0; i < linked.length; ++i) {
+        linked[i] = new ODocument("Linked").field("value", i).save();
+        links.add(linked[i]);
+      }
+
+      owner = (ORecordId) new ODocument("Owner").field("links", links).save().getIdentity();
+
+      // SOME LINKS POINT TO DELETED RECORDS
+      linked[3].delete();
+      linked[7].delete();
+    } finally {
+      db.close();
+    }
+
+    db = openDatabase();
+    try {
+      final ODocument loaded = db.load(owner);
+      final List<Integer> values = new ArrayList<Integer>();
+      for (OIdentifiable link : loaded.<Iterable<OIdentifiable>> field("links"))
+        if (link != null && link.getRecord() != null)
+          values.add(link.<ODocument> getRecord().<Integer> field("value"));
+
+      Assert.assertEquals(values, Arrays.asList(0, 1, 2, 4, 5, 6, 8, 9));
+    } finally {
+      db.close();
+    }
+  }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2010-2012 Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientechnologies.orient.server.network.protocol.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.orientechnologies.orient.server.network.protocol.http.OHttpResponseTest.OParsedResponse;
+
+/**
+ * Checks the framing of the streamed HTTP responses: chunks never empty nor bigger than the buffer, unless written at once, and
+ * the last chunk only on close.
+ *
+ * @author Luca Garulli (l.garulli--at--orientechnologies.com)
+ */
+@Test
+public class OHttpChunkedOutputStreamTest {
+  private static final int CHUNK_SIZE = 16;
+
+  public void testChunks() throws IOException {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    final OutputStream stream = new OHttpChunkedOutputStream(out, CHUNK_SIZE, true);
+
+    final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    final byte[] small = "0123456789".getBytes();
+    for (int i = 0; i < 5; ++i) {
+      stream.write(small);
+      expected.write(small);
+    }
+    stream.write('x');
+    expected.write('x');
+    // NOTHING TO SEND: NO EMPTY CHUNK THAT WOULD END THE RESPONSE
+    stream.flush();
+    stream.write(new byte[0]);
+    stream.flush();
+
+    final byte[] big = OHttpResponseTest.text(CHUNK_SIZE * 3).getBytes();
+    stream.write(big);
+    expected.write(big);
+
+    Assert.assertFalse(new String(out.toByteArray()).endsWith("0\r\n\r\n"), "response ended before close");
+    stream.close();
+    stream.close();
+
+    final List<Integer> sizes = new ArrayList<Integer>();
+    Assert.assertEquals(dechunk(out.toByteArray(), sizes), expected.toByteArray());
+    for (int i = 0; i < sizes.size() - 1; ++i)
+      Assert.assertTrue(sizes.get(i) > 0 && sizes.get(i) <= CHUNK_SIZE, "chunk " + i + " of " + sizes.get(i) + " bytes");
+    // THE BIG CONTENT IS SENT AT ONCE
+    Assert.assertEquals((int) sizes.get(sizes.size() - 1), big.length);
+  }
+
+  public void testNotChunked() throws IOException {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    final OutputStream stream = new OHttpChunkedOutputStream(out, CHUNK_SIZE, false);
+    final String content = OHttpResponseTest.text(CHUNK_SIZE * 5 + 3);
+    stream.write(content.getBytes());
+    stream.close();
+
+    Assert.assertEquals(new String(out.toByteArray()), content);
+  }
+
+  public void testOpenStream() throws IOException {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    final OHttpResponse response = OHttpResponseTest.createResponse(out);
+    response.setKeepAlive(true);
+
+    final String content = OHttpResponseTest.text(200000);
+    final OutputStream stream = response.openStream(OHttpUtils.STATUS_OK_CODE, "OK", OHttpUtils.CONTENT_JSON);
+    stream.write(content.getBytes("UTF-8"));
+    stream.close();
+
+    final OParsedResponse parsed = new OParsedResponse(out.toByteArray());
+    Assert.assertTrue(parsed.headers.contains("Transfer-Encoding: chunked"));
+    Assert.assertFalse(parsed.headers.contains(OHttpUtils.HEADER_CONTENT_LENGTH));
+    Assert.assertFalse(parsed.headers.contains("Content-Encoding"));
+    Assert.assertTrue(response.isKeepAlive());
+    Assert.assertEquals(new String(dechunk(parsed.body, null), "UTF-8"), content);
+  }
+
+  public void testOpenStreamCompressed() throws IOException {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    final OHttpResponse response = OHttpResponseTest.createResponse(out);
+    response.setContentEncoding("gzip");
+    response.setCompressionThreshold(1024);
+
+    final String content = OHttpResponseTest.text(200000);
+    final OutputStream stream = response.openStream(OHttpUtils.STATUS_OK_CODE, "OK", OHttpUtils.CONTENT_JSON);
+    stream.write(content.getBytes("UTF-8"));
+    stream.close();
+
+    final OParsedResponse parsed = new OParsedResponse(out.toByteArray());
+    Assert.assertTrue(parsed.headers.contains("Transfer-Encoding: chunked"));
+    Assert.assertTrue(parsed.headers.contains("Content-Encoding: gzip"));
+    final byte[] compressed = dechunk(parsed.body, null);
+    Assert.assertTrue(compressed.length < content.length());
+    Assert.assertEquals(new String(OHttpResponseTest.readAll(new GZIPInputStream(new ByteArrayInputStream(compressed))), "UTF-8"),
+        content);
+  }
+
+  public void testOpenStreamHttp10() throws IOException {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    final OHttpResponse response = new OHttpResponse(out, "HTTP/1.0", null, "utf-8", "OrientDB Server", null, null);
+    response.setKeepAlive(true);
+
+    final String content = OHttpResponseTest.text(200000);
+    final OutputStream stream = response.openStream(OHttpUtils.STATUS_OK_CODE, "OK", OHttpUtils.CONTENT_JSON);
+    stream.write(content.getBytes("UTF-8"));
+    stream.close();
+
+    // NO CHUNKS: THE END OF THE CONTENT IS THE CLOSING OF THE CONNECTION
+    final OParsedResponse parsed = new OParsedResponse(out.toByteArray());
+    Assert.assertFalse(parsed.headers.contains("Transfer-Encoding"));
+    Assert.assertFalse(response.isKeepAlive());
+    Assert.assertEquals(new String(parsed.body, "UTF-8"), content);
+  }
+
+  /**
+   * Decodes a chunked content checking its framing, collecting the sizes of the chunks if a list is passed.
+   */
+  private static byte[] dechunk(final byte[] iContent, final List<Integer> iSizes) {
+    final ByteArrayOutputStream content = new ByteArrayOutputStream();
+    int pos = 0;
+    while (true) {
+      int end = pos;
+      while (iContent[end] != '\r')
+        ++end;
+      final int size = Integer.parseInt(new String(iContent, pos, end - pos), 16);
+      Assert.assertEquals(iContent[end + 1], '\n');
+      pos = end + 2;
+
+      if (size == 0)
+        break;
+
+      if (iSizes != null)
+        iSizes.add(size);
+      content.write(iContent, pos, size);
+      pos += size;
+      Assert.assertEquals(iContent[pos], '\r');
+      Assert.assertEquals(iContent[pos + 1], '\n');
+      pos += 2;
+    }
+
+    // NOTHING AFTER THE LAST CHUNK
+    Assert.assertEquals(iContent.length, pos + 2);
+    Assert.assertEquals(iContent[pos], '\r');
+    Assert.assertEquals(iContent[pos + 1], '\n');
+    return content.toByteArray();
+  }
+}
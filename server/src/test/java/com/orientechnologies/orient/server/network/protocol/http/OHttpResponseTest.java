@@ -0,0 +1,124 @@
+/*
+ * Copyright 2010-2012 Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientechnologies.orient.server.network.protocol.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Checks the HTTP responses: compressed only when the client accepts it and the content is big enough.
+ *
+ * @author Luca Garulli (l.garulli--at--orientechnologies.com)
+ */
+@Test
+public class OHttpResponseTest {
+  private static final int THRESHOLD = 1024;
+
+  public void testResponseEncoding() {
+    Assert.assertNull(OHttpUtils.getResponseEncoding(null));
+    Assert.assertNull(OHttpUtils.getResponseEncoding("identity"));
+    Assert.assertEquals(OHttpUtils.getResponseEncoding("gzip"), "gzip");
+    Assert.assertEquals(OHttpUtils.getResponseEncoding("deflate, gzip;q=1.0"), "gzip");
+    Assert.assertEquals(OHttpUtils.getResponseEncoding("GZIP ; q=0.5, deflate"), "gzip");
+    Assert.assertEquals(OHttpUtils.getResponseEncoding("gzip;q=0, deflate"), "deflate");
+    Assert.assertNull(OHttpUtils.getResponseEncoding("gzip;q=0, deflate;q=0.0"));
+  }
+
+  public void testBelowThreshold() throws IOException {
+    final String content = text(THRESHOLD - 1);
+    final OParsedResponse response = send("gzip", content);
+    Assert.assertFalse(response.headers.contains("Content-Encoding"));
+    Assert.assertTrue(response.headers.contains(OHttpUtils.HEADER_CONTENT_LENGTH + content.length()));
+    Assert.assertEquals(new String(response.body, "UTF-8"), content);
+  }
+
+  public void testGzipAboveThreshold() throws IOException {
+    final String content = text(THRESHOLD * 10);
+    final OParsedResponse response = send("gzip", content);
+    Assert.assertTrue(response.headers.contains("Content-Encoding: gzip"));
+    Assert.assertTrue(response.headers.contains(OHttpUtils.HEADER_CONTENT_LENGTH + response.body.length));
+    Assert.assertTrue(response.body.length < content.length());
+    Assert.assertEquals(new String(readAll(new GZIPInputStream(new ByteArrayInputStream(response.body))), "UTF-8"), content);
+  }
+
+  public void testDeflateAboveThreshold() throws IOException {
+    final String content = text(THRESHOLD * 10);
+    final OParsedResponse response = send("deflate", content);
+    Assert.assertTrue(response.headers.contains("Content-Encoding: deflate"));
+    Assert.assertEquals(new String(readAll(new InflaterInputStream(new ByteArrayInputStream(response.body))), "UTF-8"), content);
+  }
+
+  public void testNotAccepted() throws IOException {
+    final String content = text(THRESHOLD * 10);
+    final OParsedResponse response = send(null, content);
+    Assert.assertFalse(response.headers.contains("Content-Encoding"));
+    Assert.assertEquals(new String(response.body, "UTF-8"), content);
+  }
+
+  private static OParsedResponse send(final String iEncoding, final String iContent) throws IOException {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    final OHttpResponse response = createResponse(out);
+    response.setContentEncoding(iEncoding);
+    response.setCompressionThreshold(THRESHOLD);
+    response.send(OHttpUtils.STATUS_OK_CODE, "OK", OHttpUtils.CONTENT_TEXT_PLAIN, iContent, null);
+    return new OParsedResponse(out.toByteArray());
+  }
+
+  static OHttpResponse createResponse(final ByteArrayOutputStream iOut) {
+    return new OHttpResponse(iOut, "HTTP/1.1", null, "utf-8", "OrientDB Server", null, null);
+  }
+
+  static String text(final int iSize) {
+    final StringBuilder buffer = new StringBuilder(iSize);
+    for (int i = 0; buffer.length() < iSize; ++i)
+      buffer.append("customer ").append(i % 97).append(" ordered item ").append(i % 13).append(", ");
+    buffer.setLength(iSize);
+    return buffer.toString();
+  }
+
+  static byte[] readAll(final InputStream iStream) throws IOException {
+    final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    final byte[] chunk = new byte[4096];
+    for (int read; (read = iStream.read(chunk)) > -1;)
+      buffer.write(chunk, 0, read);
+    return buffer.toByteArray();
+  }
+
+  /**
+   * Response split in the headers and the body.
+   */
+  static class OParsedResponse {
+    final String headers;
+    final byte[] body;
+
+    OParsedResponse(final byte[] iResponse) throws IOException {
+      int end = 0;
+      while (!(iResponse[end] == '\r' && iResponse[end + 1] == '\n' && iResponse[end + 2] == '\r' && iResponse[end + 3] == '\n'))
+        ++end;
+
+      headers = new String(iResponse, 0, end, "UTF-8");
+      body = new byte[iResponse.length - end - 4];
+      System.arraycopy(iResponse, end + 4, body, 0, body.length);
+    }
+  }
+}
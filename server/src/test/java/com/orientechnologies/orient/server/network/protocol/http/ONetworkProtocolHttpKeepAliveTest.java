@@ -0,0 +1,249 @@
+/*
+ * Copyright 2010-2012 Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientechnologies.orient.server.network.protocol.http;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.Collection;
+
+import org.testng.Assert;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.core.serialization.OBase64Utils;
+import com.orientechnologies.orient.server.AbstractServerTest;
+
+/**
+ * Checks that the HTTP connections are kept open between the requests as the HTTP version and the client ask, that pipelined
+ * requests are answered in order and that the big query results are sent with the chunked transfer encoding.
+ *
+ * @author Luca Garulli (l.garulli--at--orientechnologies.com)
+ */
+@Test
+public class ONetworkProtocolHttpKeepAliveTest extends AbstractServerTest {
+  private static final int TOTAL = 2000;
+
+  private Socket           socket;
+  private InputStream      in;
+
+  @BeforeClass
+  public void createRecords() {
+    final ODatabaseDocumentTx db = openDatabase();
+    try {
+      db.getMetadata().getSchema().createClass("Streamed");
+      for (int i = 0; i < TOTAL; i++)
+        new ODocument("Streamed").field("n", i).field("text", OHttpResponseTest.text(100)).save();
+    } finally {
+      db.close();
+    }
+  }
+
+  public void testKeepAlive() throws IOException {
+    connect();
+    try {
+      for (int i = 0; i < 3; ++i) {
+        send(query("select count(*) from Streamed", 1), "HTTP/1.1", null);
+        final OReadResponse response = readResponse();
+        Assert.assertEquals(response.code, 200);
+        Assert.assertTrue(response.headers.contains("Connection: Keep-Alive"), response.headers);
+        Assert.assertTrue(response.body.contains("\"count\":" + TOTAL), response.body);
+      }
+    } finally {
+      socket.close();
+    }
+  }
+
+  public void testPipelinedRequests() throws IOException {
+    connect();
+    try {
+      // ALL THE REQUESTS ARE SENT BEFORE READING THE FIRST RESPONSE
+      final StringBuilder requests = new StringBuilder();
+      for (int i = 0; i < 5; ++i)
+        requests.append(request(query("select from Streamed where n = " + i, 1), "HTTP/1.1", null));
+      socket.getOutputStream().write(requests.toString().getBytes("UTF-8"));
+      socket.getOutputStream().flush();
+
+      for (int i = 0; i < 5; ++i) {
+        final OReadResponse response = readResponse();
+        Assert.assertEquals(response.code, 200);
+        Assert.assertTrue(response.body.contains("\"n\":" + i + ","), response.body);
+      }
+    } finally {
+      socket.close();
+    }
+  }
+
+  public void testConnectionClose() throws IOException {
+    connect();
+    try {
+      send(query("select count(*) from Streamed", 1), "HTTP/1.1", "close");
+      final OReadResponse response = readResponse();
+      Assert.assertEquals(response.code, 200);
+      Assert.assertTrue(response.headers.contains("Connection: close"), response.headers);
+      assertClosed();
+    } finally {
+      socket.close();
+    }
+  }
+
+  public void testHttp10() throws IOException {
+    // HTTP/1.0 KEEPS THE CONNECTION ONLY IF ASKED
+    connect();
+    try {
+      send(query("select count(*) from Streamed", 1), "HTTP/1.0", "Keep-Alive");
+      Assert.assertTrue(readResponse().headers.contains("Connection: Keep-Alive"));
+
+      send(query("select count(*) from Streamed", 1), "HTTP/1.0", null);
+      Assert.assertTrue(readResponse().headers.contains("Connection: close"));
+      assertClosed();
+    } finally {
+      socket.close();
+    }
+  }
+
+  public void testChunkedQuery() throws IOException {
+    connect();
+    try {
+      // THE RESULT EXCEEDS THE BUFFER OF THE JSON WRITER: IT'S STREAMED IN CHUNKS
+      send(query("select from Streamed", TOTAL), "HTTP/1.1", null);
+      final OReadResponse response = readResponse();
+      Assert.assertEquals(response.code, 200);
+      Assert.assertTrue(response.headers.contains("Transfer-Encoding: chunked"), response.headers);
+      Assert.assertTrue(response.chunks > 1);
+
+      final ODatabaseDocumentTx db = new ODatabaseDocumentTx("memory:" + getDatabaseName()).open("admin", "admin");
+      try {
+        final ODocument json = new ODocument();
+        json.fromJSON(response.body);
+        final Collection<ODocument> result = json.field("result");
+        Assert.assertEquals(result.size(), TOTAL);
+        int n = 0;
+        for (ODocument doc : result)
+          Assert.assertEquals(doc.field("n"), n++);
+      } finally {
+        db.close();
+      }
+
+      // THE LAST CHUNK ENDS THE RESPONSE: THE CONNECTION CAN BE REUSED
+      send(query("select count(*) from Streamed", 1), "HTTP/1.1", null);
+      Assert.assertTrue(readResponse().body.contains("\"count\":" + TOTAL));
+    } finally {
+      socket.close();
+    }
+  }
+
+  private void connect() throws IOException {
+    final String[] address = getHttpAddress().split(":");
+    socket = new Socket(address[0], Integer.parseInt(address[1]));
+    socket.setSoTimeout(30000);
+    in = new BufferedInputStream(socket.getInputStream());
+  }
+
+  private void assertClosed() throws IOException {
+    Assert.assertEquals(in.read(), -1, "connection not closed");
+  }
+
+  private String query(final String iText, final int iLimit) {
+    return "/query/" + getDatabaseName() + "/sql/" + iText.replace(" ", "%20") + "/" + iLimit;
+  }
+
+  private void send(final String iUrl, final String iVersion, final String iConnection) throws IOException {
+    final OutputStream out = socket.getOutputStream();
+    out.write(request(iUrl, iVersion, iConnection).getBytes("UTF-8"));
+    out.flush();
+  }
+
+  private static String request(final String iUrl, final String iVersion, final String iConnection) {
+    final StringBuilder request = new StringBuilder();
+    request.append("GET ").append(iUrl).append(' ').append(iVersion).append("\r\n");
+    request.append("Host: localhost\r\n");
+    request.append("Authorization: Basic ").append(OBase64Utils.encodeBytes("admin:admin".getBytes())).append("\r\n");
+    if (iConnection != null)
+      request.append("Connection: ").append(iConnection).append("\r\n");
+    request.append("\r\n");
+    return request.toString();
+  }
+
+  private OReadResponse readResponse() throws IOException {
+    final OReadResponse response = new OReadResponse();
+
+    final String status = readLine();
+    response.code = Integer.parseInt(status.split(" ")[1]);
+
+    final StringBuilder headers = new StringBuilder();
+    int length = -1;
+    boolean chunked = false;
+    for (String line; (line = readLine()).length() > 0;) {
+      headers.append(line).append("\r\n");
+      if (line.toLowerCase().startsWith("content-length:"))
+        length = Integer.parseInt(line.substring("content-length:".length()).trim());
+      else if (line.equalsIgnoreCase("Transfer-Encoding: chunked"))
+        chunked = true;
+    }
+    response.headers = headers.toString();
+
+    final ByteArrayOutputStream body = new ByteArrayOutputStream();
+    if (chunked) {
+      for (int size; (size = Integer.parseInt(readLine().trim(), 16)) > 0;) {
+        body.write(readFully(size));
+        Assert.assertEquals(readLine(), "", "chunk not terminated by CRLF");
+        ++response.chunks;
+      }
+      Assert.assertEquals(readLine(), "", "last chunk not terminated by CRLF");
+    } else if (length > -1)
+      body.write(readFully(length));
+    else
+      Assert.fail("response without length: " + response.headers);
+
+    response.body = new String(body.toByteArray(), "UTF-8");
+    return response;
+  }
+
+  private byte[] readFully(final int iLength) throws IOException {
+    final byte[] buffer = new byte[iLength];
+    for (int read = 0; read < iLength;) {
+      final int r = in.read(buffer, read, iLength - read);
+      if (r < 0)
+        throw new IOException("Connection closed after " + read + " of " + iLength + " bytes");
+      read += r;
+    }
+    return buffer;
+  }
+
+  private String readLine() throws IOException {
+    final StringBuilder line = new StringBuilder();
+    for (int c; (c = in.read()) != '\n';) {
+      if (c < 0)
+        throw new IOException("Connection closed while reading a line: " + line);
+      if (c != '\r')
+        line.append((char) c);
+    }
+    return line.toString();
+  }
+
+  private static class OReadResponse {
+    int    code;
+    String headers;
+    String body;
+    int    chunks;
+  }
+}
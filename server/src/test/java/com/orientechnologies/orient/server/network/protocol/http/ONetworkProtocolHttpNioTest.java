@@ -0,0 +1,41 @@
+/*
+ * Copyright 2010-2012 Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientechnologies.orient.server.network.protocol.http;
+
+import org.testng.annotations.Test;
+
+import com.orientechnologies.orient.core.config.OGlobalConfiguration;
+
+/**
+ * Runs the keep-alive tests with the HTTP connections served by the selectors instead of a thread per connection.
+ *
+ * @author Luca Garulli (l.garulli--at--orientechnologies.com)
+ */
+@Test
+public class ONetworkProtocolHttpNioTest extends ONetworkProtocolHttpKeepAliveTest {
+  private Object previousEnabled;
+
+  @Override
+  protected void beforeServerStartup() {
+    previousEnabled = OGlobalConfiguration.NETWORK_HTTP_NIO_ENABLED.getValue();
+    OGlobalConfiguration.NETWORK_HTTP_NIO_ENABLED.setValue(true);
+  }
+
+  @Override
+  protected void afterServerShutdown() {
+    OGlobalConfiguration.NETWORK_HTTP_NIO_ENABLED.setValue(previousEnabled);
+  }
+}
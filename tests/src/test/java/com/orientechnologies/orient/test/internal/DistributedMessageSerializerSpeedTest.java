@@ -0,0 +1,115 @@
+package com.orientechnologies.orient.test.internal;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.testng.annotations.Test;
+
+import com.orientechnologies.orient.core.id.OClusterPositionFactory;
+import com.orientechnologies.orient.core.id.ORecordId;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.core.storage.OPhysicalPosition;
+import com.orientechnologies.orient.core.version.ORecordVersion;
+import com.orientechnologies.orient.core.version.OVersionFactory;
+import com.orientechnologies.orient.server.distributed.ODistributedMessageSerializer;
+import com.orientechnologies.orient.server.distributed.task.OCreateRecordTask;
+import com.orientechnologies.orient.server.distributed.task.ODeleteRecordTask;
+import com.orientechnologies.orient.server.distributed.task.OReadRecordTask;
+import com.orientechnologies.orient.server.distributed.task.OSQLCommandTask;
+import com.orientechnologies.orient.server.distributed.task.OTxTask;
+import com.orientechnologies.orient.server.distributed.task.OUpdateRecordTask;
+
+/**
+ * Cost of encoding and decoding the distributed tasks and results with the binary format of the distributed messages compared to
+ * the Java serialization used before. For every type prints the size and the time per message of both formats.
+ * <p>
+ * Arguments: [iterations] [record size in bytes]
+ */
+@Test
+public class DistributedMessageSerializerSpeedTest {
+
+  public static void main(String[] args) throws Exception {
+    final int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+    final int recordSize = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+
+    final byte[] content = new ODocument().field("name", "Jay").field("surname", "Miner")
+        .field("notes", new String(new char[recordSize]).replace('\0', 'x')).toStream();
+    final ORecordId rid = new ORecordId(10, OClusterPositionFactory.INSTANCE.valueOf(123456));
+    final ORecordVersion version = OVersionFactory.instance().createVersion();
+    version.setCounter(3);
+
+    final OTxTask tx = new OTxTask();
+    for (int i = 0; i < 5; ++i)
+      tx.add(new OCreateRecordTask(new ORecordId(10, OClusterPositionFactory.INSTANCE.valueOf(i)), content, version,
+          ODocument.RECORD_TYPE));
+
+    final Map<String, Object> messages = new LinkedHashMap<String, Object>();
+    messages.put("record_create", new OCreateRecordTask(rid, content, version, ODocument.RECORD_TYPE));
+    messages.put("record_update", new OUpdateRecordTask(rid, content, version, ODocument.RECORD_TYPE));
+    messages.put("record_delete", new ODeleteRecordTask(rid, version));
+    messages.put("record_read", new OReadRecordTask(rid));
+    messages.put("tx (5 creates)", tx);
+    messages.put("sql_command", new OSQLCommandTask("update Account set salary = salary * 1.1 where name = 'Jay'"));
+    messages.put("result physical position", new OPhysicalPosition(rid.getClusterPosition(), version));
+    messages.put("result version", version);
+    messages.put("result boolean", Boolean.TRUE);
+
+    for (Entry<String, Object> entry : messages.entrySet()) {
+      final Object message = entry.getValue();
+
+      // WARM UP
+      for (int i = 0; i < iterations / 10; ++i) {
+        ODistributedMessageSerializer.fromStream(ODistributedMessageSerializer.toStream(message));
+        javaDeserialize(javaSerialize(message));
+      }
+
+      long start = System.nanoTime();
+      byte[] binary = null;
+      for (int i = 0; i < iterations; ++i)
+        binary = ODistributedMessageSerializer.toStream(message);
+      final long binaryEncode = System.nanoTime() - start;
+
+      start = System.nanoTime();
+      for (int i = 0; i < iterations; ++i)
+        ODistributedMessageSerializer.fromStream(binary);
+      final long binaryDecode = System.nanoTime() - start;
+
+      start = System.nanoTime();
+      byte[] java = null;
+      for (int i = 0; i < iterations; ++i)
+        java = javaSerialize(message);
+      final long javaEncode = System.nanoTime() - start;
+
+      start = System.nanoTime();
+      for (int i = 0; i < iterations; ++i)
+        javaDeserialize(java);
+      final long javaDecode = System.nanoTime() - start;
+
+      System.out.printf("%-26s binary: %5d bytes, encode %6dns, decode %6dns | java: %5d bytes, encode %6dns, decode %6dns\n",
+          entry.getKey(), binary.length, binaryEncode / iterations, binaryDecode / iterations, java.length, javaEncode / iterations,
+          javaDecode / iterations);
+    }
+  }
+
+  private static byte[] javaSerialize(final Object iValue) throws Exception {
+    final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    final ObjectOutputStream out = new ObjectOutputStream(buffer);
+    out.writeObject(iValue);
+    out.close();
+    return buffer.toByteArray();
+  }
+
+  private static Object javaDeserialize(final byte[] iValue) throws Exception {
+    final ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(iValue));
+    try {
+      return in.readObject();
+    } finally {
+      in.close();
+    }
+  }
+}
@@ -0,0 +1,129 @@
+package com.orientechnologies.orient.test.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+import com.orientechnologies.orient.core.config.OGlobalConfiguration;
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.core.sql.OCommandSQL;
+import com.orientechnologies.orient.core.sql.query.OSQLSynchQuery;
+
+/**
+ * Throughput of the binary protocol over a bandwidth limited link. The client connects to the server through a local proxy that
+ * forwards at most the configured bytes per second in each direction. Run it with "snappy", "gzip" and "" (no compression) as
+ * first argument against a server listening on localhost:2424 to compare the negotiated compressions.
+ * <p>
+ * Arguments: [compression] [KB per second] [records] [record size in bytes]
+ */
+@Test
+public class CompressedChannelSpeedTest {
+  private static final int PROXY_PORT = 2524;
+
+  public static void main(String[] args) throws Exception {
+    final String compression = args.length > 0 ? args[0] : "snappy";
+    final int kbPerSecond = args.length > 1 ? Integer.parseInt(args[1]) : 1024;
+    final int records = args.length > 2 ? Integer.parseInt(args[2]) : 2000;
+    final int recordSize = args.length > 3 ? Integer.parseInt(args[3]) : 4096;
+
+    OGlobalConfiguration.NETWORK_BINARY_COMPRESSION.setValue(compression);
+    OGlobalConfiguration.CACHE_LEVEL1_ENABLED.setValue(false);
+    OGlobalConfiguration.CACHE_LEVEL2_ENABLED.setValue(false);
+
+    startProxy(PROXY_PORT, "localhost", 2424, kbPerSecond * 1024);
+
+    final ODatabaseDocumentTx db = new ODatabaseDocumentTx("remote:localhost:" + PROXY_PORT + "/demo");
+    db.open("admin", "admin");
+    try {
+      if (db.getMetadata().getSchema().existsClass("CompressionBench"))
+        db.command(new OCommandSQL("delete from CompressionBench")).execute();
+      else
+        db.getMetadata().getSchema().createClass("CompressionBench");
+
+      // TEXT CONTENT: AS COMPRESSIBLE AS MOST OF THE REAL DOCUMENTS
+      final StringBuilder text = new StringBuilder();
+      for (int i = 0; text.length() < recordSize; ++i)
+        text.append("customer ").append(i % 97).append(" ordered item ").append(i % 13).append(", ");
+
+      long start = System.currentTimeMillis();
+      for (int i = 0; i < records; ++i)
+        new ODocument("CompressionBench").field("id", i).field("text", text.toString()).save();
+      long elapsed = System.currentTimeMillis() - start;
+      System.out.println("Compression '" + compression + "': created " + records + " records in " + elapsed + "ms ("
+          + (records * 1000l / Math.max(1, elapsed)) + " records/sec)");
+
+      start = System.currentTimeMillis();
+      final List<ODocument> result = db.query(new OSQLSynchQuery<ODocument>("select from CompressionBench"));
+      elapsed = System.currentTimeMillis() - start;
+      System.out.println("Compression '" + compression + "': loaded " + result.size() + " records in " + elapsed + "ms ("
+          + ((long) result.size() * recordSize / 1024 * 1000l / Math.max(1, elapsed)) + " KB/sec of content over a "
+          + kbPerSecond + " KB/sec link)");
+    } finally {
+      db.close();
+    }
+  }
+
+  /**
+   * Starts a proxy that forwards the connections to the target with a limited bandwidth.
+   */
+  private static void startProxy(final int iPort, final String iTargetHost, final int iTargetPort, final int iBytesPerSecond)
+      throws IOException {
+    final ServerSocket server = new ServerSocket(iPort);
+    final Thread acceptor = new Thread("Bandwidth limited proxy") {
+      @Override
+      public void run() {
+        try {
+          while (true) {
+            final Socket client = server.accept();
+            final Socket target = new Socket(iTargetHost, iTargetPort);
+            client.setTcpNoDelay(true);
+            target.setTcpNoDelay(true);
+            forward(client.getInputStream(), target.getOutputStream(), iBytesPerSecond);
+            forward(target.getInputStream(), client.getOutputStream(), iBytesPerSecond);
+          }
+        } catch (IOException e) {
+          // PROXY CLOSED
+        }
+      }
+    };
+    acceptor.setDaemon(true);
+    acceptor.start();
+  }
+
+  private static void forward(final InputStream iIn, final OutputStream iOut, final int iBytesPerSecond) {
+    final Thread t = new Thread() {
+      @Override
+      public void run() {
+        final byte[] buffer = new byte[8192];
+        long due = System.nanoTime();
+        try {
+          int read;
+          while ((read = iIn.read(buffer)) > -1) {
+            // WAIT THE TIME THE BYTES WOULD TAKE ON THE LINK: THE IDLE TIME IS NOT ACCUMULATED
+            due = Math.max(due, System.nanoTime()) + read * 1000000000l / iBytesPerSecond;
+            final long wait = (due - System.nanoTime()) / 1000000;
+            if (wait > 0)
+              Thread.sleep(wait);
+            iOut.write(buffer, 0, read);
+            iOut.flush();
+          }
+        } catch (Exception e) {
+          // CONNECTION CLOSED
+        } finally {
+          try {
+            iOut.close();
+          } catch (IOException e) {
+          }
+        }
+      }
+    };
+    t.setDaemon(true);
+    t.start();
+  }
+}
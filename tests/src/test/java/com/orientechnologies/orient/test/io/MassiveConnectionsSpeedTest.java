@@ -0,0 +1,79 @@
+package com.orientechnologies.orient.test.io;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.testng.annotations.Test;
+
+import com.orientechnologies.orient.client.remote.OServerAdmin;
+import com.orientechnologies.orient.core.config.OGlobalConfiguration;
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import com.orientechnologies.orient.core.sql.query.OSQLSynchQuery;
+
+/**
+ * Connection scalability benchmark: keeps thousands of idle binary connections open while a few threads execute requests. Run it
+ * against a server started with -Dnetwork.binary.nio.enabled=true and then with false to compare the selector based connection
+ * handling with the thread per connection one. The server's network.maxConcurrentSessions must be greater than the connections.
+ * <p>
+ * Arguments: [idle connections] [client threads] [requests per thread] [server root password]
+ */
+@Test
+public class MassiveConnectionsSpeedTest {
+
+  public static void main(String[] args) throws Exception {
+    final int connections = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+    final int threads = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+    final int requests = args.length > 2 ? Integer.parseInt(args[2]) : 5000;
+    final String rootPassword = args.length > 3 ? args[3] : "root";
+
+    OGlobalConfiguration.STORAGE_KEEP_OPEN.setValue(false);
+    OGlobalConfiguration.CLIENT_CHANNEL_MAX_POOL.setValue(threads);
+
+    // EVERY SERVER ADMIN HAS ITS OWN CONNECTION
+    final List<OServerAdmin> idle = new ArrayList<OServerAdmin>(connections);
+    long start = System.currentTimeMillis();
+    for (int i = 0; i < connections; ++i) {
+      idle.add(new OServerAdmin("remote:localhost").connect("root", rootPassword));
+      if (i > 0 && i % 500 == 0)
+        System.out.println("Opened " + i + " connections...");
+    }
+    System.out.println("Opened " + connections + " idle connections in " + (System.currentTimeMillis() - start) + "ms");
+
+    final AtomicLong maxLatency = new AtomicLong();
+    final Thread[] clients = new Thread[threads];
+    for (int t = 0; t < threads; ++t) {
+      clients[t] = new Thread() {
+        @Override
+        public void run() {
+          final ODatabaseDocumentTx db = new ODatabaseDocumentTx("remote:localhost/demo");
+          db.open("admin", "admin");
+          try {
+            for (int i = 0; i < requests; ++i) {
+              final long begin = System.nanoTime();
+              db.query(new OSQLSynchQuery<Object>("select 1"));
+              final long elapsed = System.nanoTime() - begin;
+              if (elapsed > maxLatency.get())
+                maxLatency.set(elapsed);
+            }
+          } finally {
+            db.close();
+          }
+        }
+      };
+    }
+
+    start = System.currentTimeMillis();
+    for (Thread t : clients)
+      t.start();
+    for (Thread t : clients)
+      t.join();
+    final long elapsed = System.currentTimeMillis() - start;
+
+    System.out.println("Executed " + (threads * requests) + " requests in " + elapsed + "ms ("
+        + (threads * requests * 1000l / Math.max(1, elapsed)) + " req/sec, max latency " + (maxLatency.get() / 1000000) + "ms)");
+
+    for (OServerAdmin admin : idle)
+      admin.close(true);
+  }
+}